@@ -0,0 +1,431 @@
+/* AppCandidateIndex.java */
+package com.app.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.assign.spell.TfIdfDistance;
+import com.assign.util.BoundedPriorityQueue;
+import com.assign.util.BoundedProximity;
+import com.assign.util.Proximity;
+import com.assign.util.ScoredObject;
+
+/**
+ * Inverted index from tokens to the GAppIDs of the apps containing
+ * them, used to block the cross-store comparison so that an app is
+ * only scored against apps that share at least one high-IDF token.
+ *
+ * <p>The index is built on top of the document-frequency table of a
+ * trained {@link TfIdfDistance}.  Tokens whose inverse document
+ * frequency is below the minimum IDF are common words that say
+ * nothing about whether two apps match, so they are not indexed.
+ * Tokens that pass the IDF floor but are shared by more than the
+ * maximum posting fraction of the indexed apps are skipped when
+ * generating candidates, so that no single token makes a query touch
+ * a large part of the catalog.  Candidates are returned in decreasing
+ * order of the summed IDF of the tokens they share with the query
+ * app, so that the most likely matches are scored first, and a caller
+ * may ask for only the best of them.
+ *
+ * <p>Apps may also be indexed by name.  Token blocking alone would
+ * miss two apps with the same name whose descriptions share no rare
+ * token, so apps whose normalized names are equal are always returned
+ * as candidates, ahead of the token matches.  Names are normalized by
+ * dropping every character that is not a letter or digit and
+ * lowercasing the rest, so that <code>"Free Cell"</code> and
+ * <code>"FreeCell"</code> block together.
+ *
+ * <p>Apps from the same source never match each other, so they are
+ * never returned as candidates.
+ *
+ * <p>Apps are numbered by row in the order they are added.  Posting
+ * lists hold rows, and the IDF mass of each candidate is accumulated
+ * in an open-addressed table from rows to primitive doubles.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class AppCandidateIndex {
+
+    private final TfIdfDistance mTfIdf;
+    private final double mMinIdf;
+    private final double mMaxPostingFraction;
+    private final Map<String, PostingList> mPostings = new HashMap<String, PostingList>();
+    private final Map<String, PostingList> mNames = new HashMap<String, PostingList>();
+    private final Map<Integer, Integer> mRows = new HashMap<Integer, Integer>();
+    private final List<AppEntry> mApps = new ArrayList<AppEntry>();
+
+    /**
+     * Construct an empty index over the document frequencies of the
+     * specified trained TF/IDF distance that uses every indexed token
+     * to generate candidates.
+     *
+     * @param tfIdf Trained TF/IDF distance supplying tokenization and IDF.
+     * @param minIdf Minimum IDF for a token to be indexed.
+     */
+    public AppCandidateIndex(TfIdfDistance tfIdf, double minIdf) {
+        this(tfIdf, minIdf, 1.0);
+    }
+
+    /**
+     * Construct an empty index over the document frequencies of the
+     * specified trained TF/IDF distance that skips tokens shared by
+     * more than the specified fraction of the indexed apps.
+     *
+     * @param tfIdf Trained TF/IDF distance supplying tokenization and IDF.
+     * @param minIdf Minimum IDF for a token to be indexed.
+     * @param maxPostingFraction Maximum fraction of the indexed apps
+     * a token may occur in and still generate candidates.
+     * @throws IllegalArgumentException If the minimum IDF is negative
+     * or the fraction is not in <code>(0,1]</code>.
+     */
+    public AppCandidateIndex(TfIdfDistance tfIdf, double minIdf, double maxPostingFraction) {
+        if (minIdf < 0.0 || Double.isNaN(minIdf)) {
+            throw new IllegalArgumentException("minIdf must be non-negative. Found minIdf=" + minIdf);
+        }
+        if (!(maxPostingFraction > 0.0 && maxPostingFraction <= 1.0)) {
+            throw new IllegalArgumentException("maxPostingFraction must be in (0,1]."
+                    + " Found maxPostingFraction=" + maxPostingFraction);
+        }
+        mTfIdf = tfIdf;
+        mMinIdf = minIdf;
+        mMaxPostingFraction = maxPostingFraction;
+    }
+
+    /**
+     * Adds the specified app to the index without a name.
+     *
+     * @param gAppID Global identifier of the app.
+     * @param source Store the app comes from.
+     * @param text Text of the app to index, typically its description.
+     */
+    public void add(int gAppID, int source, CharSequence text) {
+        add(gAppID, source, null, text);
+    }
+
+    /**
+     * Adds the specified app to the index.  Apps with the same
+     * normalized name are always candidates for each other.  A
+     * <code>null</code> name is not indexed.
+     *
+     * @param gAppID Global identifier of the app.
+     * @param source Store the app comes from.
+     * @param name Name of the app.
+     * @param text Text of the app to index, typically its description.
+     * @throws IllegalArgumentException If the app is already indexed.
+     */
+    public void add(int gAppID, int source, CharSequence name, CharSequence text) {
+        if (mRows.containsKey(gAppID)) {
+            throw new IllegalArgumentException("App already indexed. Found gAppID=" + gAppID);
+        }
+        String[] tokens = highIdfTokens(text);
+        String nameKey = normalizeName(name);
+        int row = mApps.size();
+        mRows.put(gAppID, row);
+        mApps.add(new AppEntry(gAppID, source, nameKey, text, tokens));
+        for (String token : tokens) {
+            posting(mPostings, token).add(row);
+        }
+        if (nameKey != null) {
+            posting(mNames, nameKey).add(row);
+        }
+    }
+
+    /**
+     * Returns the number of apps in the index.
+     *
+     * @return Number of indexed apps.
+     */
+    public int size() {
+        return mApps.size();
+    }
+
+    /**
+     * Returns the number of distinct tokens indexed.
+     *
+     * @return Number of indexed tokens.
+     */
+    public int numTokens() {
+        return mPostings.size();
+    }
+
+    /**
+     * Returns the GAppIDs of the apps from other sources with the same
+     * normalized name as the specified indexed app or sharing at least
+     * one high-IDF token with it.  Name matches come first, followed by
+     * the token matches in decreasing order of the IDF mass of the
+     * shared tokens.
+     *
+     * @param gAppID Global identifier of an indexed app.
+     * @return Candidate matches for the app.
+     * @throws IllegalArgumentException If the app is not indexed.
+     */
+    public List<Integer> candidates(int gAppID) {
+        return candidates(gAppID, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the GAppIDs of the apps from other sources with the same
+     * normalized name as the specified indexed app, followed by at most
+     * the specified number of apps sharing high-IDF tokens with it, in
+     * decreasing order of the IDF mass of the shared tokens.  Name
+     * matches are always returned.  Ties in IDF mass are broken in
+     * favor of the app indexed first.
+     *
+     * @param gAppID Global identifier of an indexed app.
+     * @param maxTokenCandidates Maximum number of token matches to return.
+     * @return Candidate matches for the app.
+     * @throws IllegalArgumentException If the app is not indexed or the
+     * maximum number of token matches is negative.
+     */
+    public List<Integer> candidates(int gAppID, int maxTokenCandidates) {
+        if (maxTokenCandidates < 0) {
+            throw new IllegalArgumentException("maxTokenCandidates must be non-negative."
+                    + " Found maxTokenCandidates=" + maxTokenCandidates);
+        }
+        int row = row(gAppID);
+        AppEntry app = mApps.get(row);
+        int maxPostingSize = (int) Math.min(Integer.MAX_VALUE, (long) (mMaxPostingFraction * mApps.size()));
+        RowScores overlap = new RowScores();
+        for (String token : app.mTokens) {
+            PostingList postings = mPostings.get(token);
+            if (postings.mSize > maxPostingSize) {
+                continue;
+            }
+            double idf = mTfIdf.idf(token);
+            for (int i = 0; i < postings.mSize; ++i) {
+                int candidateRow = postings.mRows[i];
+                if (candidateRow != row && mApps.get(candidateRow).mSource != app.mSource) {
+                    overlap.increment(candidateRow, idf);
+                }
+            }
+        }
+        List<Integer> candidates = new ArrayList<Integer>();
+        PostingList sameName = app.mNameKey == null ? null : mNames.get(app.mNameKey);
+        for (int i = 0; sameName != null && i < sameName.mSize; ++i) {
+            int candidateRow = sameName.mRows[i];
+            if (candidateRow != row && mApps.get(candidateRow).mSource != app.mSource) {
+                candidates.add(mApps.get(candidateRow).mGAppID);
+                overlap.remove(candidateRow);
+            }
+        }
+        int[] rows = overlap.rowsOrderedByScore();
+        for (int i = 0; i < rows.length && i < maxTokenCandidates; ++i) {
+            candidates.add(mApps.get(rows[i]).mGAppID);
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the highest scoring candidate matches for the specified
+     * indexed app whose proximity is at least the specified threshold,
+     * up to the specified maximum number, in decreasing order of
+     * proximity.  Every candidate is scored.  If the proximity is a
+     * {@link BoundedProximity}, candidates are scored with {@link
+     * BoundedProximity#proximityAtLeast(Object,Object,double)} against
+     * the larger of the threshold and the worst match kept so far, so
+     * that candidates that cannot make the cut are rejected early.
+     *
+     * @param gAppID Global identifier of an indexed app.
+     * @param proximity Proximity used to score the indexed texts.
+     * @param threshold Minimum proximity for a match.
+     * @param maxResults Maximum number of matches to return.
+     * @return The scored matches.
+     * @throws IllegalArgumentException If the app is not indexed or
+     * the maximum number of results is less than 1.
+     */
+    public List<ScoredObject<Integer>> topMatches(int gAppID, Proximity<CharSequence> proximity,
+            double threshold, int maxResults) {
+        CharSequence text = mApps.get(row(gAppID)).mText;
+        BoundedProximity<CharSequence> bounded = proximity instanceof BoundedProximity
+            ? (BoundedProximity<CharSequence>) proximity
+            : null;
+        BoundedPriorityQueue<ScoredObject<Integer>> best
+            = new BoundedPriorityQueue<ScoredObject<Integer>>(ScoredObject.<ScoredObject<Integer>>comparator(),
+                                                              maxResults);
+        for (Integer candidateID : candidates(gAppID)) {
+            CharSequence candidateText = mApps.get(row(candidateID)).mText;
+            double cutoff = best.size() < maxResults
+                ? threshold
+                : Math.max(threshold, best.peekLast().score());
+            double score = bounded != null
+                ? bounded.proximityAtLeast(text, candidateText, cutoff)
+                : proximity.proximity(text, candidateText);
+            if (score >= threshold) {
+                best.offer(new ScoredObject<Integer>(candidateID, score));
+            }
+        }
+        return new ArrayList<ScoredObject<Integer>>(best);
+    }
+
+    private int row(int gAppID) {
+        Integer row = mRows.get(gAppID);
+        if (row == null) {
+            throw new IllegalArgumentException("App not indexed. Found gAppID=" + gAppID);
+        }
+        return row;
+    }
+
+    private static PostingList posting(Map<String, PostingList> postings, String key) {
+        PostingList posting = postings.get(key);
+        if (posting == null) {
+            posting = new PostingList();
+            postings.put(key, posting);
+        }
+        return posting;
+    }
+
+    static String normalizeName(CharSequence name) {
+        if (name == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(Character.toUpperCase(c)));
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    private String[] highIdfTokens(CharSequence text) {
+        Set<String> tokenSet = mTfIdf.tokenSet(text);
+        List<String> tokens = new ArrayList<String>(tokenSet.size());
+        for (String token : tokenSet) {
+            if (mTfIdf.docFrequency(token) > 0 && mTfIdf.idf(token) >= mMinIdf) {
+                tokens.add(token);
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    static class AppEntry {
+        final int mGAppID;
+        final int mSource;
+        final String mNameKey;
+        final CharSequence mText;
+        final String[] mTokens;
+
+        AppEntry(int gAppID, int source, String nameKey, CharSequence text, String[] tokens) {
+            mGAppID = gAppID;
+            mSource = source;
+            mNameKey = nameKey;
+            mText = text;
+            mTokens = tokens;
+        }
+    }
+
+    static class PostingList {
+        int[] mRows = new int[2];
+        int mSize = 0;
+
+        void add(int row) {
+            if (mSize == mRows.length) {
+                mRows = com.assign.util.Arrays.reallocate(mRows);
+            }
+            mRows[mSize++] = row;
+        }
+    }
+
+    /**
+     * Open-addressed map from rows to scores, with linear probing.
+     * Removed entries are marked rather than shifted, as a query
+     * removes at most its few name matches.
+     */
+    static class RowScores {
+        static final int EMPTY = -1;
+        static final int REMOVED = -2;
+
+        int[] mRows = newRows(16);
+        double[] mScores = new double[16];
+        int mSize = 0;
+        int mUsed = 0; // entries plus removed markers
+
+        void increment(int row, double increment) {
+            int slot = slot(row);
+            if (mRows[slot] == row) {
+                mScores[slot] += increment;
+                return;
+            }
+            mRows[slot] = row;
+            mScores[slot] = increment;
+            ++mSize;
+            if (2 * ++mUsed > mRows.length) {
+                rehash();
+            }
+        }
+
+        void remove(int row) {
+            int slot = slot(row);
+            if (mRows[slot] == row) {
+                mRows[slot] = REMOVED;
+                --mSize;
+            }
+        }
+
+        // slot of the row, or the empty slot ending its probe
+        private int slot(int row) {
+            int mask = mRows.length - 1;
+            int slot = (row * 0x9E3779B9) >>> 16 & mask;
+            while (mRows[slot] != EMPTY && mRows[slot] != row) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash() {
+            int[] rows = mRows;
+            double[] scores = mScores;
+            int capacity = mRows.length;
+            while (capacity < 4 * mSize) {
+                capacity *= 2;
+            }
+            mRows = newRows(capacity);
+            mScores = new double[capacity];
+            mUsed = mSize;
+            for (int i = 0; i < rows.length; ++i) {
+                if (rows[i] >= 0) {
+                    int slot = slot(rows[i]);
+                    mRows[slot] = rows[i];
+                    mScores[slot] = scores[i];
+                }
+            }
+        }
+
+        int[] rowsOrderedByScore() {
+            final int[] rows = new int[mSize];
+            final double[] scores = new double[mSize];
+            Integer[] order = new Integer[mSize];
+            for (int i = 0, n = 0; i < mRows.length; ++i) {
+                if (mRows[i] >= 0) {
+                    rows[n] = mRows[i];
+                    scores[n] = mScores[i];
+                    order[n] = n;
+                    ++n;
+                }
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer i, Integer j) {
+                    int byScore = Double.compare(scores[j], scores[i]);
+                    return byScore != 0 ? byScore : rows[i] - rows[j];
+                }
+            });
+            int[] ordered = new int[mSize];
+            for (int i = 0; i < mSize; ++i) {
+                ordered[i] = rows[order[i]];
+            }
+            return ordered;
+        }
+
+        static int[] newRows(int capacity) {
+            int[] rows = new int[capacity];
+            Arrays.fill(rows, EMPTY);
+            return rows;
+        }
+    }
+}
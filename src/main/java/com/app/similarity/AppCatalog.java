@@ -0,0 +1,421 @@
+/* AppCatalog.java */
+package com.app.similarity;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.util.Objects;
+
+/**
+ * Column store of the apps loaded for matching.
+ *
+ * <p>The GAppID, AppID and source of each app are kept in parallel
+ * <code>int[]</code> columns, and the names and descriptions are
+ * appended to a single shared character arena with start offsets per
+ * app.  Apps are addressed by their row index, from <code>0</code> to
+ * <code>size()-1</code>, so the similarity loops can walk the catalog
+ * without boxing keys or holding one object per app.
+ *
+ * <p>Texts are read through {@link Text} views onto the arena.  The
+ * one-argument {@link #name(int)} and {@link #description(int)}
+ * allocate a new view per call, for callers that hold on to the text;
+ * loops should instead repoint a view they own with {@link
+ * #name(int,Text)} and {@link #description(int,Text)}, which allocate
+ * nothing.
+ *
+ * <p>As with <code>Map.put</code>, adding an app whose GAppID is
+ * already in the catalog replaces the earlier row in place.
+ *
+ * <p>Rows are filled by {@link #load(Connection,String)}, which streams
+ * the result set row by row instead of buffering it in the driver.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class AppCatalog {
+
+    private int mSize = 0;
+    private int[] mGAppIDs;
+    private int[] mAppIDs;
+    private int[] mSources;
+
+    // text of row i is name at [mTextStarts[3i],mTextStarts[3i+1])
+    // and description at [mTextStarts[3i+1],mTextStarts[3i+2])
+    private int[] mTextStarts;
+    private char[] mArena;
+    private int mArenaSize = 0;
+    private int mNumReplaced = 0;
+
+    // open-addressed GAppID -> row index + 1, zero marks an empty slot
+    private int[] mIndexKeys;
+    private int[] mIndexRows;
+
+    // arena grows by half as text is added, so it need not be presized
+    static final int INITIAL_ARENA_CHARS = 1 << 16;
+
+    /**
+     * Construct an empty catalog with room for the specified number
+     * of apps before its columns are reallocated.  The text arena
+     * starts small and grows with the text added.
+     *
+     * @param initialCapacity Initial number of rows.
+     */
+    public AppCatalog(int initialCapacity) {
+        this(initialCapacity, INITIAL_ARENA_CHARS);
+    }
+
+    /**
+     * Construct an empty catalog with room for the specified number
+     * of apps and the specified number of characters of names and
+     * descriptions before it is reallocated.
+     *
+     * @param initialCapacity Initial number of rows.
+     * @param initialArenaChars Initial number of characters of text.
+     * @throws IllegalArgumentException If the number of characters is
+     * negative.
+     */
+    public AppCatalog(int initialCapacity, int initialArenaChars) {
+        if (initialArenaChars < 0) {
+            throw new IllegalArgumentException("initialArenaChars must be non-negative."
+                    + " Found initialArenaChars=" + initialArenaChars);
+        }
+        int capacity = Math.max(initialCapacity, 16);
+        mGAppIDs = new int[capacity];
+        mAppIDs = new int[capacity];
+        mSources = new int[capacity];
+        mTextStarts = new int[3 * capacity];
+        mArena = new char[Math.max(initialArenaChars, 16)];
+        mIndexKeys = new int[tableSize(capacity)];
+        mIndexRows = new int[mIndexKeys.length];
+    }
+
+    /**
+     * Streams the rows of the specified query into this catalog.  The
+     * query must return the columns <code>GAppID, AppID, Source, Name,
+     * Description</code> in that order.  The statement is created
+     * forward-only and read-only with a fetch size of
+     * <code>Integer.MIN_VALUE</code>, which makes the MySQL driver
+     * stream rows instead of reading the whole result into memory.
+     *
+     * @param conn Connection to query.
+     * @param sql Query returning the app columns.
+     * @return The number of rows loaded.
+     * @throws SQLException If the query fails.
+     */
+    public int load(Connection conn, String sql) throws SQLException {
+        Statement st = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ResultSet rs = null;
+        int count = 0;
+        try {
+            st.setFetchSize(Integer.MIN_VALUE);
+            rs = st.executeQuery(sql);
+            while (rs.next()) {
+                add(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), rs.getString(5));
+                ++count;
+            }
+        } finally {
+            Objects.dispose(rs);
+            Objects.dispose(st);
+        }
+        return count;
+    }
+
+    /**
+     * Appends an app to this catalog.  A <code>null</code> name or
+     * description is stored as the empty string.  If the GAppID is
+     * already in the catalog, its row is overwritten with the new
+     * values instead; the text of the replaced row is left unused in
+     * the arena.
+     *
+     * @param gAppID Global identifier of the app.
+     * @param appID Store-specific identifier of the app.
+     * @param source Store the app comes from.
+     * @param name Name of the app.
+     * @param description Description of the app.
+     * @return The row index of the app.
+     */
+    public int add(int gAppID, int appID, int source, CharSequence name, CharSequence description) {
+        int row = indexOf(gAppID);
+        if (row >= 0) {
+            ++mNumReplaced;
+        } else {
+            if (mSize == mGAppIDs.length) {
+                grow();
+            }
+            row = mSize++;
+            mGAppIDs[row] = gAppID;
+            putIndex(gAppID, row);
+        }
+        mAppIDs[row] = appID;
+        mSources[row] = source;
+        mTextStarts[3 * row] = mArenaSize;
+        appendText(name);
+        mTextStarts[3 * row + 1] = mArenaSize;
+        appendText(description);
+        mTextStarts[3 * row + 2] = mArenaSize;
+        return row;
+    }
+
+    /**
+     * Returns the number of apps in this catalog.
+     *
+     * @return Number of apps.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of added apps that replaced an earlier app
+     * with the same GAppID.
+     *
+     * @return Number of replaced apps.
+     */
+    public int numReplaced() {
+        return mNumReplaced;
+    }
+
+    public int gAppID(int row) {
+        checkRow(row);
+        return mGAppIDs[row];
+    }
+
+    public int appID(int row) {
+        checkRow(row);
+        return mAppIDs[row];
+    }
+
+    public int source(int row) {
+        checkRow(row);
+        return mSources[row];
+    }
+
+    /**
+     * Returns the name of the app in the specified row as a new view
+     * of the shared arena; no characters are copied.
+     *
+     * @param row Row index of the app.
+     * @return Name of the app.
+     */
+    public Text name(int row) {
+        return name(row, new Text());
+    }
+
+    /**
+     * Points the specified view at the name of the app in the
+     * specified row and returns it.
+     *
+     * @param row Row index of the app.
+     * @param view View to repoint.
+     * @return The view, holding the name of the app.
+     */
+    public Text name(int row, Text view) {
+        checkRow(row);
+        return view.set(mTextStarts[3 * row], mTextStarts[3 * row + 1]);
+    }
+
+    /**
+     * Returns the description of the app in the specified row as a
+     * new view of the shared arena; no characters are copied.
+     *
+     * @param row Row index of the app.
+     * @return Description of the app.
+     */
+    public Text description(int row) {
+        return description(row, new Text());
+    }
+
+    /**
+     * Points the specified view at the description of the app in the
+     * specified row and returns it.
+     *
+     * @param row Row index of the app.
+     * @param view View to repoint.
+     * @return The view, holding the description of the app.
+     */
+    public Text description(int row, Text view) {
+        checkRow(row);
+        return view.set(mTextStarts[3 * row + 1], mTextStarts[3 * row + 2]);
+    }
+
+    /**
+     * Returns a new empty view onto the text of this catalog, to be
+     * pointed at a name or description by {@link #name(int,Text)} or
+     * {@link #description(int,Text)}.
+     *
+     * @return A new view.
+     */
+    public Text newText() {
+        return new Text();
+    }
+
+    /**
+     * Returns {@code true} if the names of the apps in the specified
+     * rows are equal ignoring case, without materializing them.
+     *
+     * @param row1 First row index.
+     * @param row2 Second row index.
+     * @return {@code true} if the names are equal ignoring case.
+     */
+    public boolean namesEqualIgnoreCase(int row1, int row2) {
+        checkRow(row1);
+        checkRow(row2);
+        int start1 = mTextStarts[3 * row1];
+        int start2 = mTextStarts[3 * row2];
+        int length = mTextStarts[3 * row1 + 1] - start1;
+        if (length != mTextStarts[3 * row2 + 1] - start2) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            char c1 = mArena[start1 + i];
+            char c2 = mArena[start2 + i];
+            if (c1 == c2) {
+                continue;
+            }
+            // same two-way comparison as String.equalsIgnoreCase
+            char u1 = Character.toUpperCase(c1);
+            char u2 = Character.toUpperCase(c2);
+            if (u1 != u2 && Character.toLowerCase(u1) != Character.toLowerCase(u2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the row index of the app with the specified GAppID, or
+     * <code>-1</code> if it is not in this catalog.
+     *
+     * @param gAppID Global identifier of the app.
+     * @return Row index of the app.
+     */
+    public int indexOf(int gAppID) {
+        int mask = mIndexKeys.length - 1;
+        for (int slot = hash(gAppID) & mask; mIndexRows[slot] != 0; slot = (slot + 1) & mask) {
+            if (mIndexKeys[slot] == gAppID) {
+                return mIndexRows[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void appendText(CharSequence cs) {
+        if (cs == null) {
+            return;
+        }
+        int length = cs.length();
+        if (mArenaSize + length > mArena.length) {
+            long newLength = Math.max((long) mArena.length * 3 / 2, (long) mArenaSize + length);
+            if (newLength > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Catalog text exceeds the maximum arena size.");
+            }
+            mArena = java.util.Arrays.copyOf(mArena, (int) newLength);
+        }
+        if (cs instanceof String) {
+            ((String) cs).getChars(0, length, mArena, mArenaSize);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                mArena[mArenaSize + i] = cs.charAt(i);
+            }
+        }
+        mArenaSize += length;
+    }
+
+    private void grow() {
+        int capacity = mGAppIDs.length * 3 / 2;
+        mGAppIDs = java.util.Arrays.copyOf(mGAppIDs, capacity);
+        mAppIDs = java.util.Arrays.copyOf(mAppIDs, capacity);
+        mSources = java.util.Arrays.copyOf(mSources, capacity);
+        mTextStarts = java.util.Arrays.copyOf(mTextStarts, 3 * capacity);
+        if (tableSize(capacity) > mIndexKeys.length) {
+            mIndexKeys = new int[tableSize(capacity)];
+            mIndexRows = new int[mIndexKeys.length];
+            for (int row = 0; row < mSize; ++row) {
+                putIndex(mGAppIDs[row], row);
+            }
+        }
+    }
+
+    private void putIndex(int gAppID, int row) {
+        int mask = mIndexKeys.length - 1;
+        int slot = hash(gAppID) & mask;
+        while (mIndexRows[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        mIndexKeys[slot] = gAppID;
+        mIndexRows[slot] = row + 1;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("Row out of range. Found row=" + row + " size=" + mSize);
+        }
+    }
+
+    // smallest power of two keeping the table at most half full
+    static int tableSize(int capacity) {
+        int size = 1;
+        while (size < 2 * capacity) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * A read-only window onto the text arena of the catalog.  A view
+     * may be repointed by {@link AppCatalog#name(int,Text)} and {@link
+     * AppCatalog#description(int,Text)}, so callers that keep the text
+     * must not pass their view back in.  Views stay valid as the
+     * catalog grows.
+     */
+    public final class Text implements CharSequence {
+
+        private int mStart;
+        private int mEnd;
+
+        Text() {
+        }
+
+        Text(int start, int end) {
+            mStart = start;
+            mEnd = end;
+        }
+
+        Text set(int start, int end) {
+            mStart = start;
+            mEnd = end;
+            return this;
+        }
+
+        public int length() {
+            return mEnd - mStart;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= mEnd - mStart) {
+                throw new IndexOutOfBoundsException("Index out of range. Found index=" + index
+                    + " length=" + length());
+            }
+            return mArena[mStart + index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > mEnd - mStart || start > end) {
+                throw new IndexOutOfBoundsException("Bad subsequence. Found start=" + start + " end=" + end
+                    + " length=" + length());
+            }
+            return new Text(mStart + start, mStart + end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mArena, mStart, mEnd - mStart);
+        }
+    }
+}
@@ -10,21 +10,26 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 import com.sql.Configuration;
+import com.sql.SqlBatchInsertWriter;
 import java.sql.PreparedStatement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
-import com.assign.spell.EditDistance;
+import com.assign.matrix.SparseFloatVector;
+import com.assign.spell.BitParallelEditDistance;
+import com.assign.spell.BitParallelJaroWinklerDistance;
 import com.assign.spell.JaccardDistance;
-import com.assign.spell.JaroWinklerDistance;
 import com.assign.spell.TfIdfDistance;
 import com.assign.tokenizer.IndoEuropeanTokenizerFactory;
+import com.assign.util.BoundedPriorityQueue;
 import com.assign.util.Proximity;
+import com.assign.util.ScoredObject;
 
 import com.assign.tokenizer.Tokenizer;
 import com.assign.tokenizer.TokenizerFactory;
@@ -37,8 +42,10 @@ import com.assign.tokenizer.RegExTokenizerFactory;
 public class AppSimilarity {
 
     private java.sql.Connection conn;
-    private Map<Integer, ArrayList<String>> App_DescMap = new HashMap<Integer, ArrayList<String>>(370000);
-    private Map<Integer, AppData> App_DescMapClass = new HashMap<Integer, AppData>(370000);
+    // BB apps, matched by findSimilarityScoreDev()
+    private AppCatalog bbCatalog = new AppCatalog(370000);
+    // Apple, Android and Windows apps, matched by findSimilarityScoreDevAppData()
+    private AppCatalog appCatalog = new AppCatalog(370000);
 
     public void loadAppData() {
         try {
@@ -46,6 +53,8 @@ public class AppSimilarity {
             Configuration cf = new Configuration("etc/sql.corpus_mobapps.properties");
             String connectionString = cf.getConnectionString();
             conn = DriverManager.getConnection(connectionString);
+            similarityWriter = new SqlBatchInsertWriter(connectionString, SIMILARITY_TABLE, SIMILARITY_COLUMNS,
+                    INSERT_BATCH_SIZE, INSERT_FLUSH_INTERVAL_MILLIS, INSERT_QUEUE_CAPACITY);
             System.out.println("Start loading Apple Data...");
             fillApple_DescMap();
             System.out.println("Finished loading Apple Data...");
@@ -68,57 +77,108 @@ public class AppSimilarity {
         try {
 
             TfIdfDistance tfIdf = new TfIdfDistance(tokenizerFactory);
+            AppCatalog catalog = bbCatalog;
+            AppCatalog.Text text = catalog.newText();
 
             double score = 0.0;
-            for (Iterator it = App_DescMap.keySet().iterator(); it.hasNext();) {
-                int GAppID1 = Integer.parseInt(it.next().toString());
-                ArrayList<String> list = App_DescMap.get(GAppID1);
-                String desctfidf = list.get(3);
-                tfIdf.handle(desctfidf);
+            for (int row = 0; row < catalog.size(); row++) {
+                tfIdf.handle(catalog.description(row, text));
             }
+            tfIdf.freeze();
             System.out.println("Finished TF-IDF Computation");
 
-            for (Iterator it = App_DescMap.keySet().iterator(); it.hasNext();) {
-                int GAppID1 = Integer.parseInt(it.next().toString());
-                ArrayList<String> list = App_DescMap.get(GAppID1);
-                int AppID1 = Integer.parseInt(list.get(0));
-                int source1 = Integer.parseInt(list.get(1));
-                String name1 = list.get(2);
-                String desc1 = list.get(3);
-                System.out.println(App_DescMap.size());
-                System.out.println("Upper Loop");
-                for (Iterator ite = App_DescMap.keySet().iterator(); ite.hasNext();) {
-                    int GAppID2 = Integer.parseInt(ite.next().toString());
-                    ArrayList<String> list2 = App_DescMap.get(GAppID2);
-                    int AppID2 = Integer.parseInt(list2.get(0));
-                    int source2 = Integer.parseInt(list2.get(1));
-                    String name2 = list2.get(2);
-                    String desc2 = list2.get(3);
-                    if (source1 == source2) {
-                        break;
+            AppCandidateIndex index = new AppCandidateIndex(tfIdf, MIN_CANDIDATE_IDF, MAX_CANDIDATE_POSTING_FRACTION);
+            SparseFloatVector[] descVectors = new SparseFloatVector[catalog.size()];
+            for (int row = 0; row < catalog.size(); row++) {
+                index.add(catalog.gAppID(row), catalog.source(row), catalog.name(row, text), catalog.description(row));
+                descVectors[row] = tfIdf.vector(catalog.description(row, text));
+            }
+            System.out.println("Finished indexing " + index.size() + " apps on " + index.numTokens() + " tokens");
+
+            for (int row1 = 0; row1 < catalog.size(); row1++) {
+                int GAppID1 = catalog.gAppID(row1);
+                BoundedPriorityQueue<ScoredObject<Integer>> matches = newMatchQueue();
+                for (Integer GAppID2 : index.candidates(GAppID1, MAX_CANDIDATES_PER_APP)) {
+                    if (cutoff(matches) >= MAX_PROXIMITY) {
+                        break; // no later candidate can displace a match
                     }
-                    if (GAppID1 != GAppID2 && source1 != source2 && name1.equalsIgnoreCase(name2)) {
-                        insert_dev_similarity(GAppID1, AppID1, source1, name1, GAppID2, AppID2, source2, name2, 1);
-                        System.out.println("Inserted exactly similar Name App");
-                    } else if (GAppID1 != GAppID2 && source1 != source2) {
-                        score = tfIdf.proximity(desc1, desc2);
-                        if (score > 0.8) {
-                            insert_dev_similarity(GAppID1, AppID1, source1, name1, GAppID2, AppID2, source2, name2, score);
-                            System.out.println("Inserted almost similar Name App");
-                        } else {
-                            continue;
+                    int row2 = catalog.indexOf(GAppID2);
+                    if (catalog.namesEqualIgnoreCase(row1, row2)) {
+                        matches.offer(new ScoredObject<Integer>(row2, 1.0));
+                    } else {
+                        score = tfIdf.proximity(descVectors[row1], descVectors[row2]);
+                        if (score > SIMILARITY_THRESHOLD) {
+                            matches.offer(new ScoredObject<Integer>(row2, score));
                         }
                     }
-
                 }
+                insertMatches(catalog, row1, matches);
             }
             System.out.println("Finished Insertion!");
         } catch (Exception e) {
             System.out.println(e.getMessage());
         }
     }
-    static final Proximity<CharSequence> P1 = new EditDistance(false);
-    static final Proximity<CharSequence> P2 = new EditDistance(true);
+
+    /**
+     * Minimum IDF for a description token to generate candidates.
+     */
+    static final double MIN_CANDIDATE_IDF = 2.0;
+
+    /**
+     * Maximum fraction of the catalog a description token may occur
+     * in and still generate candidates.  The IDF floor alone lets a
+     * token shared by a seventh of the catalog through.
+     */
+    static final double MAX_CANDIDATE_POSTING_FRACTION = 0.01;
+
+    /**
+     * Maximum number of token candidates scored per app, taken in
+     * decreasing order of shared IDF mass.  Same-name candidates are
+     * always scored.
+     */
+    static final int MAX_CANDIDATES_PER_APP = 1000;
+
+    /**
+     * Largest proximity of two apps; a full match queue whose worst
+     * score reaches it cannot change.
+     */
+    static final double MAX_PROXIMITY = 1.0;
+
+    /**
+     * Minimum proximity for two apps to be recorded as similar.
+     */
+    static final double SIMILARITY_THRESHOLD = 0.8;
+
+    /**
+     * Maximum number of matches recorded per app; every candidate is
+     * scored and the highest scoring ones are kept.
+     */
+    static final int MAX_MATCHES_PER_APP = 50;
+
+    static BoundedPriorityQueue<ScoredObject<Integer>> newMatchQueue() {
+        return new BoundedPriorityQueue<ScoredObject<Integer>>(ScoredObject.<ScoredObject<Integer>>comparator(),
+                MAX_MATCHES_PER_APP);
+    }
+
+    // scores below this cannot displace a match from the queue
+    static double cutoff(BoundedPriorityQueue<ScoredObject<Integer>> matches) {
+        return matches.size() < MAX_MATCHES_PER_APP
+                ? SIMILARITY_THRESHOLD
+                : Math.max(SIMILARITY_THRESHOLD, matches.peekLast().score());
+    }
+
+    private void insertMatches(AppCatalog catalog, int row1, BoundedPriorityQueue<ScoredObject<Integer>> matches) {
+        for (ScoredObject<Integer> match : matches) {
+            insert_dev_similarity(catalog, row1, match.getObject(), match.score());
+            System.out.println(match.score() == 1.0
+                    ? "Inserted exactly similar Name App"
+                    : "Inserted almost similar Name App");
+        }
+    }
+
+    static final Proximity<CharSequence> P1 = BitParallelEditDistance.NON_TRANSPOSING;
+    static final Proximity<CharSequence> P2 = BitParallelEditDistance.TRANSPOSING;
 
     public void EditDistanceSimilarity(String appName1, String appName2) {
         double p1Score = P1.proximity(appName1, appName2);
@@ -147,7 +207,7 @@ public class AppSimilarity {
     }
 
     public double computeSimilarity(String appName1, String appName2) {
-        JaroWinklerDistance jaroWinkler = JaroWinklerDistance.JARO_WINKLER_DISTANCE;
+        BitParallelJaroWinklerDistance jaroWinkler = BitParallelJaroWinklerDistance.JARO_WINKLER_DISTANCE;
         double jaro = jaroWinkler.distance(appName1, appName2);
 //        System.out.println("JaroWinkler " + jaro);
 //         String line = "Free Cell.+";
@@ -170,50 +230,44 @@ public class AppSimilarity {
 
             JaccardDistance jaccard = new JaccardDistance(tokenizerFactory);
 
-            JaroWinklerDistance jaroWinkler = JaroWinklerDistance.JARO_WINKLER_DISTANCE;
+            BitParallelJaroWinklerDistance jaroWinkler = BitParallelJaroWinklerDistance.JARO_WINKLER_DISTANCE;
+
+            AppCatalog catalog = appCatalog;
+            AppCatalog.Text desc1 = catalog.newText();
+            AppCatalog.Text desc2 = catalog.newText();
 
             double score = 0.0;
-            for (Iterator it = App_DescMapClass.keySet().iterator(); it.hasNext();) {
-                int GAppID1 = Integer.parseInt(it.next().toString());
-                AppData list = App_DescMapClass.get(GAppID1);
-                String desctfidf = list.getAppDesc();
-                tfIdf.handle(desctfidf);
+            for (int row = 0; row < catalog.size(); row++) {
+                tfIdf.handle(catalog.description(row, desc1));
             }
             System.out.println("Finished TF-IDF Computation");
 
-            for (Iterator it = App_DescMapClass.keySet().iterator(); it.hasNext();) {
-                int GAppID1 = Integer.parseInt(it.next().toString());
-                AppData list = App_DescMapClass.get(GAppID1);
-                int AppID1 = list.getAppID();
-                int source1 = list.getSource();
-                String name1 = list.getAppName();
-                String desc1 = list.getAppDesc();
-                System.out.println(App_DescMapClass.size());
-                System.out.println("Upper Loop");
-                for (Iterator ite = App_DescMapClass.keySet().iterator(); ite.hasNext();) {
-                    int GAppID2 = Integer.parseInt(ite.next().toString());
-                    AppData list2 = App_DescMapClass.get(GAppID2);
-                    int AppID2 = list2.getAppID();
-                    int source2 = list2.getSource();
-                    String name2 = list2.getAppName();
-                    String desc2 = list2.getAppDesc();
-                    if (source1 == source2) {
-                        break;
+            AppCandidateIndex index = new AppCandidateIndex(tfIdf, MIN_CANDIDATE_IDF, MAX_CANDIDATE_POSTING_FRACTION);
+            for (int row = 0; row < catalog.size(); row++) {
+                index.add(catalog.gAppID(row), catalog.source(row), catalog.name(row, desc1), catalog.description(row));
+            }
+            System.out.println("Finished indexing " + index.size() + " apps on " + index.numTokens() + " tokens");
+
+            for (int row1 = 0; row1 < catalog.size(); row1++) {
+                int GAppID1 = catalog.gAppID(row1);
+                catalog.description(row1, desc1);
+                BoundedPriorityQueue<ScoredObject<Integer>> matches = newMatchQueue();
+                for (Integer GAppID2 : index.candidates(GAppID1, MAX_CANDIDATES_PER_APP)) {
+                    if (cutoff(matches) >= MAX_PROXIMITY) {
+                        break; // no later candidate can displace a match
                     }
-                    if (GAppID1 != GAppID2 && source1 != source2 && name1.equalsIgnoreCase(name2)) {
-                        insert_dev_similarity(GAppID1, AppID1, source1, name1, GAppID2, AppID2, source2, name2, 1);
-                        System.out.println("Inserted exactly similar Name App");
-                    } else if (GAppID1 != GAppID2 && source1 != source2) {
-                        score = jaroWinkler.proximity(desc1, desc2);
-                        if (score > 0.8) {
-                            insert_dev_similarity(GAppID1, AppID1, source1, name1, GAppID2, AppID2, source2, name2, score);
-                            System.out.println("Inserted almost similar Name App");
-                        } else {
-                            continue;
+                    int row2 = catalog.indexOf(GAppID2);
+                    if (catalog.namesEqualIgnoreCase(row1, row2)) {
+                        matches.offer(new ScoredObject<Integer>(row2, 1.0));
+                    } else {
+                        score = jaroWinkler.proximityAtLeast(desc1, catalog.description(row2, desc2),
+                                cutoff(matches));
+                        if (score > SIMILARITY_THRESHOLD) {
+                            matches.offer(new ScoredObject<Integer>(row2, score));
                         }
                     }
-
                 }
+                insertMatches(catalog, row1, matches);
             }
             System.gc();
             System.out.println("Finished Insertion!");
@@ -221,30 +275,26 @@ public class AppSimilarity {
             System.out.println(e.getMessage());
         }
     }
-    PreparedStatement pst_insert = null;
 
-    private void insert_dev_similarity(int GAppID1, int appID1, int source1, String appName1, int GAppID2, int appID2, int source2, String appName2, double score) {
+    static final String SIMILARITY_TABLE = "Kajanan.Global_App_Similarity";
+    static final String[] SIMILARITY_COLUMNS = {
+        "`GAppID1`", "`AppID1`", "`Source1`", "`Name1`", "`GAppID2`", "`AppID2`", "`Source2`", "`Name2`", "`Similarity`"
+    };
+    static final int INSERT_BATCH_SIZE = 1000;
+    static final long INSERT_FLUSH_INTERVAL_MILLIS = 2000;
+    static final int INSERT_QUEUE_CAPACITY = 20000;
+    private SqlBatchInsertWriter similarityWriter;
+
+    private void insert_dev_similarity(AppCatalog catalog, int row1, int row2, double score) {
         try {
-            if (pst_insert == null) {
-                String insert_sql
-                        = "INSERT INTO Kajanan.Global_App_Similarity(`GAppID1`, `AppID1`, `Source1`, `Name1`, `GAppID2`, `AppID2`, `Source2`, `Name2`, `Similarity` ) "
-                        + "   VALUES (?, ?, ?,?,?,?,?,?,?) ";
-                pst_insert = conn.prepareStatement(insert_sql);
-                pst_insert.setInt(1, GAppID1);
-                pst_insert.setInt(2, appID1);
-                pst_insert.setInt(3, source1);
-                pst_insert.setString(4, appName1);
-                pst_insert.setInt(5, GAppID2);
-                pst_insert.setInt(6, appID2);
-                pst_insert.setInt(7, source2);
-                pst_insert.setString(8, appName2);
-                pst_insert.setDouble(9, score);
-                pst_insert.executeUpdate();
-            }
-            pst_insert.close();
-            pst_insert = null;
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
+            similarityWriter.write(catalog.gAppID(row1), catalog.appID(row1), catalog.source(row1), catalog.name(row1).toString(),
+                    catalog.gAppID(row2), catalog.appID(row2), catalog.source(row2), catalog.name(row2).toString(), score);
+        } catch (SQLException e) {
+            // the writer has failed; stop matching instead of failing row by row
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted queueing a similarity row.", e);
         }
 
     }
@@ -254,29 +304,7 @@ public class AppSimilarity {
         String sql = "SELECT C.`GAppID`,C.`AppID`, C.`Source`,C.`Name`,A.`Description` "
                 + " FROM mobapps.C_Global_Apps C, mobapps.Apple_App A Where A.AppID = C.AppID and C.Source= 1 "
                 + " limit 10000; ";
-        java.sql.Statement st = conn.createStatement();
-        ResultSet rs = st.executeQuery(sql);
-        while (rs.next()) {
-            int GAppID = rs.getInt(1);
-            int AppID = rs.getInt(2);
-            int Source = rs.getInt(3);
-            String appName = rs.getString(4);
-            String desc = rs.getString(5);
-//            ArrayList<String> list = new ArrayList<String>();
-//            list.add(0, AppID);
-//            list.add(1, Source);
-//            list.add(2, appName);
-//            list.add(3, desc);
-//            App_DescMap.put(GAppID, list);
-            AppData obj = new AppData();
-            obj.setAppID(AppID);
-            obj.setSource(Source);
-            obj.setAppName(appName);
-            obj.setAppDesc(desc);
-            App_DescMapClass.put(GAppID, obj);
-        }
-        rs.close();
-        st.close();
+        appCatalog.load(conn, sql);
 
     }
 
@@ -285,23 +313,7 @@ public class AppSimilarity {
         String sql = "SELECT C.`GAppID`,C.`AppID`, C.`Source`,C.`Name`,A.`Description` "
                 + " FROM mobapps.C_Global_Apps C,mobapps.MAndroid_App A Where A.AppID = C.AppID and C.Source= 5"
                 + "  limit 10000; ";
-        java.sql.Statement st = conn.createStatement();
-        ResultSet rs = st.executeQuery(sql);
-        while (rs.next()) {
-            int GAppID = rs.getInt(1);
-            int AppID = rs.getInt(2);
-            int Source = rs.getInt(3);
-            String appName = rs.getString(4);
-            String desc = rs.getString(5);
-            AppData obj = new AppData();
-            obj.setAppID(AppID);
-            obj.setSource(Source);
-            obj.setAppName(appName);
-            obj.setAppDesc(desc);
-            App_DescMapClass.put(GAppID, obj);
-        }
-        rs.close();
-        st.close();
+        appCatalog.load(conn, sql);
 
     }
 
@@ -310,23 +322,7 @@ public class AppSimilarity {
         String sql = "SELECT C.`GAppID`,C.`AppID`, C.`Source`,C.`Name`,A.`Description` "
                 + " FROM mobapps.C_Global_Apps C,mobapps.Win7_App A Where A.AppID = C.AppID and C.Source= 4"
                 + " ;";
-        java.sql.Statement st = conn.createStatement();
-        ResultSet rs = st.executeQuery(sql);
-        while (rs.next()) {
-            int GAppID = rs.getInt(1);
-            int AppID = rs.getInt(2);
-            int Source = rs.getInt(3);
-            String appName = rs.getString(4);
-            String desc = rs.getString(5);
-            AppData obj = new AppData();
-            obj.setAppID(AppID);
-            obj.setSource(Source);
-            obj.setAppName(appName);
-            obj.setAppDesc(desc);
-            App_DescMapClass.put(GAppID, obj);
-        }
-        rs.close();
-        st.close();
+        appCatalog.load(conn, sql);
 
     }
 
@@ -335,30 +331,30 @@ public class AppSimilarity {
         String sql = "SELECT C.`GAppID`,C.`AppID`, C.`Source`,C.`Name`,A.`Description` "
                 + " FROM mobapps.C_Global_Apps C, mobapps.BB_App A Where A.AppID = C.AppID and C.Source= 2"
                 + " ;";
-        java.sql.Statement st = conn.createStatement();
-        ResultSet rs = st.executeQuery(sql);
-        while (rs.next()) {
-            int GAppID = rs.getInt(1);
-            String AppID = Integer.toString(rs.getInt(2));
-            String Source = Integer.toString(rs.getInt(3));
-            String appName = rs.getString(4);
-            String desc = rs.getString(5);
-            ArrayList<String> list = new ArrayList<String>();
-            list.add(0, AppID);
-            list.add(1, Source);
-            list.add(2, appName);
-            list.add(3, desc);
-            App_DescMap.put(GAppID, list);
-        }
-        rs.close();
-        st.close();
+        bbCatalog.load(conn, sql);
 
     }
 
-    public void close() {
+    /**
+     * Flushes the queued similarity rows and closes the connections.
+     *
+     * @throws SQLException If a batch of similarity rows could not be
+     * written.
+     */
+    public void close() throws SQLException {
         try {
-            conn.close();
-        } catch (Exception ex) {
+            if (similarityWriter != null) {
+                try {
+                    similarityWriter.closeAndCheck();
+                } finally {
+                    System.out.println("Similarity writer: " + similarityWriter);
+                }
+            }
+        } finally {
+            try {
+                conn.close();
+            } catch (Exception ex) {
+            }
         }
     }
     PreparedStatement pst_null_update = null;
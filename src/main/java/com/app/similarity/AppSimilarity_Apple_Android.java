@@ -11,7 +11,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.TreeMap;
-import com.assign.spell.EditDistance;
+import com.assign.spell.BitParallelEditDistance;
 import com.assign.spell.JaccardDistance;
 import com.assign.spell.TfIdfDistance;
 import com.assign.tokenizer.IndoEuropeanTokenizerFactory;
@@ -32,8 +32,8 @@ public class AppSimilarity_Apple_Android {
     private java.sql.Connection conn;
     private Map<Integer, ArrayList<String>> App_DescMap = new HashMap<Integer, ArrayList<String>>(370000);
     private Map<Integer, AppData> App_DescMapClass = new HashMap<Integer, AppData>(370000);
-    static final Proximity<CharSequence> P1 = new EditDistance(false);
-    static final Proximity<CharSequence> P2 = new EditDistance(true);
+    static final Proximity<CharSequence> P1 = BitParallelEditDistance.NON_TRANSPOSING;
+    static final Proximity<CharSequence> P2 = BitParallelEditDistance.TRANSPOSING;
 
     public void EditDistanceSimilarity(String appName1, String appName2) {
         double p1Score = P1.proximity(appName1, appName2);
@@ -142,7 +142,8 @@ public class AppSimilarity_Apple_Android {
                 appid = (String) it.next();
                 appname = appIDName.get(appid).toString();
               
-                score = TFIDFSimilarity(appname, tokens[0]);
+                // only the best match above 0.6 is kept, so weaker scores need not be exact
+                score = tfIdf.proximityAtLeast(appname, tokens[0], Math.max(0.6, lastscore));
                 if (score >= 0.6 && score > lastscore) {
                     similarApp = appname;
                     similarAppID = appid;
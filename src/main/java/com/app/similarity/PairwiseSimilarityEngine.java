@@ -0,0 +1,190 @@
+/* PairwiseSimilarityEngine.java */
+package com.app.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.assign.spell.TfIdfDistance;
+import com.assign.util.BoundedProximity;
+import com.assign.util.Proximity;
+
+/**
+ * Scores every unordered pair of a list of records on all cores and
+ * streams the pairs whose proximity reaches a threshold to a handler.
+ *
+ * <p>The upper-triangular comparison space is split by rows into
+ * fork/join tasks of roughly equal numbers of comparisons, so that the
+ * short rows at the bottom of the triangle are grouped together and
+ * the long rows at the top are split finely.
+ *
+ * <p>The proximity is shared by all worker threads, so it must be safe
+ * for concurrent reads.  A {@link TfIdfDistance} is frozen when the
+ * engine is constructed, so its document frequencies can no longer be
+ * updated while scoring is running.  If the proximity is a {@link
+ * BoundedProximity}, pairs are scored with its threshold-aware method
+ * so that clearly dissimilar pairs are rejected early.  Qualifying pairs are delivered to
+ * the handler one at a time under the handler's lock, so the handler
+ * itself need not be thread safe.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class PairwiseSimilarityEngine {
+
+    /**
+     * Receives the pairs of records whose proximity reached the
+     * threshold.
+     */
+    public interface PairHandler {
+
+        /**
+         * Handle a qualifying pair of records.  The first index is
+         * always smaller than the second.
+         *
+         * @param index1 Index of the first record.
+         * @param index2 Index of the second record.
+         * @param score Proximity between the records.
+         */
+        public void handle(int index1, int index2, double score);
+    }
+
+    /**
+     * Default number of comparisons below which a task is not split.
+     */
+    public static final int DEFAULT_GRAIN_SIZE = 1 << 16;
+
+    private final Proximity<CharSequence> mProximity;
+    private final BoundedProximity<CharSequence> mBoundedProximity;
+    private final double mThreshold;
+    private final int mParallelism;
+    private final int mGrainSize;
+
+    /**
+     * Construct an engine using every available processor.
+     *
+     * @param proximity Proximity used to score pairs.
+     * @param threshold Minimum proximity for a pair to be handled.
+     */
+    public PairwiseSimilarityEngine(Proximity<CharSequence> proximity, double threshold) {
+        this(proximity, threshold, Runtime.getRuntime().availableProcessors(), DEFAULT_GRAIN_SIZE);
+    }
+
+    /**
+     * Construct an engine with the specified parallelism and grain size.
+     *
+     * @param proximity Proximity used to score pairs.
+     * @param threshold Minimum proximity for a pair to be handled.
+     * @param parallelism Number of worker threads.
+     * @param grainSize Number of comparisons below which a task is not split.
+     * @throws IllegalArgumentException If the parallelism or grain size
+     * is not positive.
+     */
+    public PairwiseSimilarityEngine(Proximity<CharSequence> proximity, double threshold,
+            int parallelism, int grainSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive. Found parallelism=" + parallelism);
+        }
+        if (grainSize < 1) {
+            throw new IllegalArgumentException("grainSize must be positive. Found grainSize=" + grainSize);
+        }
+        if (proximity instanceof TfIdfDistance) {
+            ((TfIdfDistance) proximity).freeze();
+        }
+        mProximity = proximity;
+        mBoundedProximity = proximity instanceof BoundedProximity
+            ? (BoundedProximity<CharSequence>) proximity
+            : null;
+        mThreshold = threshold;
+        mParallelism = parallelism;
+        mGrainSize = grainSize;
+    }
+
+    /**
+     * Scores every unordered pair of the specified records, sending
+     * the pairs with proximity at least the threshold to the handler.
+     * The method returns after all pairs have been scored.
+     *
+     * @param records Records to compare.
+     * @param handler Handler for the qualifying pairs.
+     * @return The number of qualifying pairs.
+     */
+    public long run(List<? extends CharSequence> records, PairHandler handler) {
+        // copy so random access is cheap and the list cannot change underneath
+        List<CharSequence> recordList = new ArrayList<CharSequence>(records);
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            return pool.invoke(new RowTask(recordList, handler, 0, recordList.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // number of comparisons in rows [start,end) of an n-by-n upper triangle
+    static long work(int n, int start, int end) {
+        long rows = end - start;
+        return rows * (n - 1) - (((long) start + end - 1) * rows) / 2;
+    }
+
+    class RowTask extends RecursiveTask<Long> {
+
+        static final long serialVersionUID = 4218237725512957010L;
+        final List<CharSequence> mRecords;
+        final PairHandler mHandler;
+        final int mStart;
+        final int mEnd;
+
+        RowTask(List<CharSequence> records, PairHandler handler, int start, int end) {
+            mRecords = records;
+            mHandler = handler;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected Long compute() {
+            int n = mRecords.size();
+            long work = work(n, mStart, mEnd);
+            if (work <= mGrainSize || mEnd - mStart < 2) {
+                return Long.valueOf(scoreRows());
+            }
+            // split where half the comparisons fall on either side
+            int lo = mStart + 1;
+            int hi = mEnd - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (work(n, mStart, mid) * 2 < work) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int split = lo;
+            RowTask upper = new RowTask(mRecords, mHandler, mStart, split);
+            RowTask lower = new RowTask(mRecords, mHandler, split, mEnd);
+            lower.fork();
+            long count = upper.compute().longValue();
+            return Long.valueOf(count + lower.join().longValue());
+        }
+
+        long scoreRows() {
+            int n = mRecords.size();
+            long count = 0;
+            for (int i = mStart; i < mEnd; ++i) {
+                CharSequence record1 = mRecords.get(i);
+                for (int j = i + 1; j < n; ++j) {
+                    double score = mBoundedProximity != null
+                        ? mBoundedProximity.proximityAtLeast(record1, mRecords.get(j), mThreshold)
+                        : mProximity.proximity(record1, mRecords.get(j));
+                    if (score >= mThreshold) {
+                        synchronized (mHandler) {
+                            mHandler.handle(i, j, score);
+                        }
+                        ++count;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -4,13 +4,21 @@
  */
 package com.app.similarity;
 
+import com.assign.spell.TfIdfDistance;
+import com.assign.tokenizer.IndoEuropeanTokenizerFactory;
 import com.mysql.jdbc.Connection;
 import com.mysql.jdbc.PreparedStatement;
+import com.sql.SqlBatchInsertWriter;
+import com.util.Objects;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  *
@@ -26,8 +34,6 @@ public class SisterApps {
     private Connection conn = null;
     private PreparedStatement pstmt;
     private PreparedStatement pstmt1;
-    private PreparedStatement pstmt2;
-    public ArrayList<String> GAppAllList = new ArrayList<String>();
     
     public SisterApps() throws ClassNotFoundException, SQLException {
         ConnectToDatabase();
@@ -39,98 +45,131 @@ public class SisterApps {
         conn = (Connection) DriverManager.getConnection(DBURL, DBUSER, DBPASS);
     }
 
-    public void FindSisterApps() throws SQLException {
+    /**
+     * Scores the sister apps of every developer and writes the scores
+     * to the similarity table.  Developers are handled one at a time per
+     * worker on a fixed pool, with at most twice as many developers
+     * queued as there are workers, so only the apps of the developers in
+     * flight are held in memory.  The score of every pair of a
+     * developer's apps is streamed straight into a batched writer.
+     */
+    public void FindSisterApps() throws SQLException, InterruptedException {
 
         ArrayList<Integer> devIdList = DevList();
         System.out.println(devIdList.size());
-        int devId = 0;
-        String Name;
-        int gAppID = 0;
-        HashMap<Integer, ArrayList<AppPair>> list = new HashMap<Integer, ArrayList<AppPair>>();
-        for (int i = 0; i < devIdList.size(); i++) {
-            
-            ArrayList<Integer> GAppIDList = new ArrayList<Integer>();
-            ArrayList<String> GAppList = new ArrayList<String>();
-            devId = devIdList.get(i);
-            String sql = "Select C.Name,C.GAppID from KajananTO.Dev_Apple A, mobapp_2012_01.C_Global_Apps C where A.DevID = ? "
-                    + " and A.GAppID = C.GAppID Order By A.GAppID DESC ";
-            if (pstmt == null) {
-                pstmt = (PreparedStatement) conn.prepareStatement(sql);
-            }
-            pstmt.setInt(1, devId);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                Name = rs.getString(1);
-                gAppID = rs.getInt(2);
-                GAppList.add(Name);
-                GAppAllList.add(Name);
-                GAppIDList.add(gAppID);
-            }
-            ArrayList<AppPair> pair = GetAppPair(GAppList, GAppIDList);
+        final TfIdfDistance tfIdf = new TfIdfDistance(IndoEuropeanTokenizerFactory.INSTANCE);
+        int numNames = trainTfIdf(tfIdf);
+        tfIdf.freeze();
+        System.out.println("Finished TF-IDF Computation on " + numNames + " names");
 
-            list.put(devId, pair);
-        }
-        AppSimilarity obj = new AppSimilarity();
-        obj.tfIDFCompute(GAppAllList);
-        for (int i = 0; i < devIdList.size(); i++) {
-            devId = devIdList.get(i);
-            ArrayList<AppPair> pair = list.get(devId);
-            for (int j = 0; j < pair.size(); j++) {
-                AppPair apps = pair.get(j);
-                String app1 = apps.getApp1();
-                int appID1 = apps.getAppID1();
-                String app2 = apps.getApp2();
-                int appID2 = apps.getAppID2();
-                //find the proximity here
-                //double score = obj.computeSimilarity(app1, app2);
-                //insertData(appID1, app1,appID2,app2, score);
-                double score = obj.TFIDFSimilarity(app1, app2);
-                //obj.EditDistanceSimilarity(app1, app2);
-                insertData(appID1, app1,appID2,app2, score);
+        final SqlBatchInsertWriter writer = new SqlBatchInsertWriter(
+                DriverManager.getConnection(DBURL, DBUSER, DBPASS), SIMILARITY_TABLE, SIMILARITY_COLUMN_COUNT,
+                INSERT_BATCH_SIZE, INSERT_FLUSH_INTERVAL_MILLIS, INSERT_QUEUE_CAPACITY);
+        ExecutorService executor = Executors.newFixedThreadPool(DEV_THREADS);
+        final Semaphore inFlight = new Semaphore(2 * DEV_THREADS);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        try {
+            for (int i = 0; i < devIdList.size() && failure.get() == null; i++) {
+                final int devId = devIdList.get(i);
+                inFlight.acquire();
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            scoreDeveloper(devId, tfIdf, writer);
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
             }
-            pstmt2.executeBatch();
-            pstmt2.clearBatch();
-           
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            writer.close();
+        }
+        Exception e = failure.get();
+        if (e instanceof SQLException) {
+            throw (SQLException) e;
+        }
+        if (e != null) {
+            throw new SQLException("Scoring sister apps failed.", e);
         }
-         System.out.println("Finished Insertion ");
+        writer.closeAndCheck();
+        System.out.println("Finished Insertion " + writer);
     }
 
-    public void insertData(int AppID1, String appName1,int AppID2,String appName2,double Score) {
-        try {
-            String sql = "Insert into KajananTO.Apple_App_Similarity Values(?,?,?,?,?,null,null) ;";
-            if (pstmt2 == null) {
-                pstmt2 = (PreparedStatement) conn.prepareStatement(sql);
+    /**
+     * Streams the names of all developers' apps into the TF-IDF
+     * document frequencies, returning the number of names read.
+     */
+    int trainTfIdf(TfIdfDistance tfIdf) throws SQLException {
+        String sql = "Select C.Name from KajananTO.Dev_Apple A, mobapp_2012_01.C_Global_Apps C "
+                + " where A.GAppID = C.GAppID ";
+        int count = 0;
+        java.sql.Statement st = null;
+        ResultSet rs = null;
+        synchronized (conn) {
+            try {
+                st = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                st.setFetchSize(Integer.MIN_VALUE);
+                rs = st.executeQuery(sql);
+                while (rs.next()) {
+                    String name = rs.getString(1);
+                    tfIdf.handle(name == null ? "" : name);
+                    ++count;
+                }
+            } finally {
+                Objects.dispose(rs);
+                Objects.dispose(st);
             }
-            pstmt2.setInt(1, AppID1);
-            pstmt2.setString(2,appName1);
-            pstmt2.setInt(3, AppID2);
-            pstmt2.setString(4,appName2);
-            pstmt2.setDouble(5, Score);
-            pstmt2.addBatch();
-        } catch (Exception ex) {
-            ex.printStackTrace();
         }
+        return count;
     }
 
-    public ArrayList<AppPair> GetAppPair(ArrayList<String> GAppList, ArrayList<Integer> GAppIDList) {
-        ArrayList<AppPair> Pair = new ArrayList<AppPair>();
-        String app1;
-        int appID1;
-        String app2;
-        int appID2;
+    /**
+     * Loads the apps of one developer and writes the TF-IDF score of
+     * every pair of them.
+     */
+    void scoreDeveloper(int devId, TfIdfDistance tfIdf, SqlBatchInsertWriter writer)
+            throws SQLException, InterruptedException {
+        ArrayList<String> GAppList = new ArrayList<String>();
+        ArrayList<Integer> GAppIDList = new ArrayList<Integer>();
+        String sql = "Select C.Name,C.GAppID from KajananTO.Dev_Apple A, mobapp_2012_01.C_Global_Apps C where A.DevID = ? "
+                + " and A.GAppID = C.GAppID Order By A.GAppID DESC ";
+        synchronized (conn) {
+            if (pstmt == null) {
+                pstmt = (PreparedStatement) conn.prepareStatement(sql);
+            }
+            pstmt.setInt(1, devId);
+            ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    GAppList.add(rs.getString(1));
+                    GAppIDList.add(rs.getInt(2));
+                }
+            } finally {
+                Objects.dispose(rs);
+            }
+        }
         for (int i = 0; i < GAppList.size() - 1; i++) {
+            String app1 = GAppList.get(i);
             for (int j = i + 1; j < GAppList.size(); j++) {
-                app1 = GAppList.get(i);
-                appID1 = GAppIDList.get(i);
-                app2 = GAppList.get(j);
-                appID2 = GAppIDList.get(j);
-                Pair.add(new AppPair(app1, appID1, app2, appID2));
+                String app2 = GAppList.get(j);
+                double score = tfIdf.proximity(app1, app2);
+                writer.write(GAppIDList.get(i), app1, GAppIDList.get(j), app2, score, null, null);
             }
         }
-        return Pair;
-
     }
 
+    static final String SIMILARITY_TABLE = "KajananTO.Apple_App_Similarity";
+    static final int SIMILARITY_COLUMN_COUNT = 7;
+    static final int INSERT_BATCH_SIZE = 1000;
+    static final long INSERT_FLUSH_INTERVAL_MILLIS = 2000;
+    static final int INSERT_QUEUE_CAPACITY = 20000;
+    static final int DEV_THREADS = Runtime.getRuntime().availableProcessors();
+
     ArrayList<Integer> DevList() throws SQLException {
         ArrayList<Integer> devIdList = new ArrayList<Integer>();
         int devId = 0;
@@ -148,7 +187,7 @@ public class SisterApps {
     }
 
     public static void main(String[] args) throws
-            ClassNotFoundException, SQLException {
+            ClassNotFoundException, SQLException, InterruptedException {
         // TODO code application logic here
         SisterApps s = new SisterApps();
         s.FindSisterApps();
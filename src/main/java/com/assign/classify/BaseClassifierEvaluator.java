@@ -3,6 +3,7 @@ package com.assign.classify;
 import com.assign.corpus.ObjectHandler;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -86,6 +87,55 @@ public class BaseClassifierEvaluator<E>
         return mNumCases;
     }
 
+    /**
+     * Adds the cases evaluated by the specified evaluator to this
+     * evaluator.  The result is the same as if this evaluator had
+     * handled every case handled by the specified evaluator, after
+     * the cases it has already handled.  The specified evaluator
+     * is not modified.
+     *
+     * <p>Merging allows a test set to be evaluated in shards, for
+     * instance by separate threads or processes, each with its own
+     * evaluator, with the results reduced into a single evaluator.
+     * See {@link ThreadLocalClassifierEvaluator} for a handler that
+     * evaluates concurrently this way.
+     *
+     * @param that Evaluator whose cases are added to this one.
+     * @throws IllegalArgumentException If the specified evaluator
+     * is not of the same class as this evaluator, does not have the
+     * same categories in the same order, or does not store inputs
+     * when this evaluator does.
+     */
+    public void merge(BaseClassifierEvaluator<E> that) {
+        if (!getClass().equals(that.getClass())) {
+            String msg = "Require evaluators of same class to merge."
+                + " Found class=" + getClass()
+                + " and class=" + that.getClass();
+            throw new IllegalArgumentException(msg);
+        }
+        if (!Arrays.equals(mCategories,that.mCategories)) {
+            String msg = "Require same categories to merge."
+                + " Found categories=" + Arrays.asList(mCategories)
+                + " and " + Arrays.asList(that.mCategories);
+            throw new IllegalArgumentException(msg);
+        }
+        if (mStoreInputs && !that.mStoreInputs) {
+            String msg = "Evaluator storing inputs cannot merge"
+                + " an evaluator that does not store inputs.";
+            throw new IllegalArgumentException(msg);
+        }
+        mergeCases(that);
+    }
+
+    void mergeCases(BaseClassifierEvaluator<E> that) {
+        mConfusionMatrix.merge(that.mConfusionMatrix);
+        mNumCases += that.mNumCases;
+        mReferenceCategories.addAll(that.mReferenceCategories);
+        mClassifications.addAll(that.mClassifications);
+        if (mStoreInputs)
+            mCases.addAll(that.mCases);
+    }
+
     public ConfusionMatrix confusionMatrix() {
         return mConfusionMatrix;
     }
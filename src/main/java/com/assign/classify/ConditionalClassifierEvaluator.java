@@ -1,25 +1,16 @@
 
 package com.assign.classify;
 
-import com.assign.util.Scored;
-
-import java.util.ArrayList;
-import java.util.List;
-
 public class ConditionalClassifierEvaluator<E> extends ScoredClassifierEvaluator<E> {
 
-    private final List<ScoreOutcome>[] mConditionalOutcomeLists;
+    private final ScoredPrecisionRecallEvaluation[] mConditionalOneVersusAlls;
     boolean mDefectiveConditioning = false;
 
     public ConditionalClassifierEvaluator(ConditionalClassifier<E> classifier,
                                           String[] categories,
                                           boolean storeInputs) {
         super(classifier,categories,storeInputs);
-        @SuppressWarnings({"unchecked","rawtypes"})
-        List<ScoreOutcome>[] conditionalOutcomeLists = new ArrayList[numCategories()];
-        mConditionalOutcomeLists = conditionalOutcomeLists;
-        for (int i = 0; i < mConditionalOutcomeLists.length; ++i)
-            mConditionalOutcomeLists[i] = new ArrayList<ScoreOutcome>();
+        mConditionalOneVersusAlls = newScoredOneVersusAlls(numCategories());
     }
 
     public void setClassifier(ConditionalClassifier<E> classifier) {
@@ -117,10 +108,20 @@ public class ConditionalClassifierEvaluator<E> extends ScoredClassifierEvaluator
         conditionalOneVersusAll(String refCategory) {
 
         validateCategory(refCategory);
-        return scoredOneVersusAll(mConditionalOutcomeLists,
+        return scoredOneVersusAll(mConditionalOneVersusAlls,
                                   categoryToIndex(refCategory));
     }
 
+    @Override
+    void mergeCases(BaseClassifierEvaluator<E> that) {
+        super.mergeCases(that);
+        ConditionalClassifierEvaluator<E> thatConditional
+            = (ConditionalClassifierEvaluator<E>) that;
+        mergeScoredOneVersusAlls(mConditionalOneVersusAlls,
+                                 thatConditional.mConditionalOneVersusAlls);
+        mDefectiveConditioning |= thatConditional.mDefectiveConditioning;
+    }
+
     void addConditioning(String refCategory,
                                  ConditionalClassification scoring) {
         if (scoring.size() < numCategories())
@@ -130,8 +131,7 @@ public class ConditionalClassifierEvaluator<E> extends ScoredClassifierEvaluator
             String category = scoring.category(rank);
             int categoryIndex = categoryToIndex(category);
             boolean match = category.equals(refCategory);
-            ScoreOutcome outcome = new ScoreOutcome(score,match,rank==0);
-            mConditionalOutcomeLists[categoryIndex].add(outcome);
+            mConditionalOneVersusAlls[categoryIndex].addCase(match,score);
         }
     }
 
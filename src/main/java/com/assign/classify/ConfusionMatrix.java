@@ -373,6 +373,8 @@ public class ConfusionMatrix {
                 }
             }
         }
+        for (int i = 0; i < len; ++i)
+            mCategoryToIndex.put(categories[i],Integer.valueOf(i));
     }
 
     /**
@@ -486,6 +488,33 @@ public class ConfusionMatrix {
         increment(getIndex(referenceCategory),getIndex(responseCategory));
     }
 
+    /**
+     * Adds the counts in the specified confusion matrix to the counts
+     * in this matrix.  The result is the same as if every case
+     * counted by the specified matrix had been counted by this
+     * matrix.  The specified matrix is not modified.
+     *
+     * <p>Merging allows a test set to be split into shards that are
+     * counted independently, for instance in separate threads or
+     * processes, and then reduced into a single matrix.
+     *
+     * @param that Confusion matrix whose counts are added to this one.
+     * @throws IllegalArgumentException If the specified matrix does
+     * not have the same categories in the same order as this matrix.
+     */
+    public void merge(ConfusionMatrix that) {
+        if (!Arrays.equals(mCategories,that.mCategories)) {
+            String msg = "Require same categories to merge."
+                + " Found categories=" + Arrays.asList(mCategories)
+                + " and " + Arrays.asList(that.mCategories);
+            throw new IllegalArgumentException(msg);
+        }
+        int len = mMatrix.length;
+        for (int i = 0; i < len; ++i)
+            for (int j = 0; j < len; ++j)
+                mMatrix[i][j] += that.mMatrix[i][j];
+    }
+
     /**
      * Returns the value of the cell in the matrix for the specified
      * reference and response category indices.
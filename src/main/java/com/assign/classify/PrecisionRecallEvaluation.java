@@ -495,6 +495,21 @@ public class PrecisionRecallEvaluation {
         else ++mTN;
     }
 
+    /**
+     * Adds the counts of the specified evaluation to the counts of
+     * this evaluation.  The result is the same as if every case added
+     * to the specified evaluation had been added to this one.  The
+     * specified evaluation is not modified.
+     *
+     * @param that Evaluation whose counts are added to this one.
+     */
+    public void merge(PrecisionRecallEvaluation that) {
+        mTP += that.mTP;
+        mFN += that.mFN;
+        mFP += that.mFP;
+        mTN += that.mTN;
+    }
+
     void addCase(boolean reference, boolean response, int count) {
         if (reference && response) mTP += count;
         else if (reference && (!response)) mFN += count;
@@ -151,6 +151,16 @@ public class RankedClassifierEvaluator<E> extends BaseClassifierEvaluator<E> {
         int i = categoryToIndex(referenceCategory);
         return mRankCounts[i][rank];
     }
+
+    @Override
+    void mergeCases(BaseClassifierEvaluator<E> that) {
+        super.mergeCases(that);
+        RankedClassifierEvaluator<E> thatRanked = (RankedClassifierEvaluator<E>) that;
+        for (int i = 0; i < mRankCounts.length; ++i)
+            for (int rank = 0; rank < mRankCounts[i].length; ++rank)
+                mRankCounts[i][rank] += thatRanked.mRankCounts[i][rank];
+        mDefectiveRanking |= thatRanked.mDefectiveRanking;
+    }
     
     /**
      * Returns the average over all test samples of the rank of
@@ -15,11 +15,6 @@
  */
 package com.assign.classify;
 
-import com.assign.util.Scored;
-
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * A {@code ScoredClassifierEvaluator} provides an evaluation harness for
  * score-based classifiers.  It extends the ranked classifier evaluator with
@@ -37,7 +32,7 @@ import java.util.List;
  */
 public class ScoredClassifierEvaluator<E> extends RankedClassifierEvaluator<E> {
 
-    private final List<ScoreOutcome>[] mScoreOutcomeLists;
+    private final ScoredPrecisionRecallEvaluation[] mScoredOneVersusAlls;
     boolean mDefectiveScoring = false;
 
 
@@ -54,11 +49,7 @@ public class ScoredClassifierEvaluator<E> extends RankedClassifierEvaluator<E> {
                                      String[] categories,
                                      boolean storeInputs) {
         super(classifier,categories,storeInputs);
-        @SuppressWarnings({"unchecked","rawtypes"})
-        List<ScoreOutcome>[] scoreOutcomeLists = new ArrayList[numCategories()];
-        mScoreOutcomeLists = scoreOutcomeLists;
-        for (int i = 0; i < mScoreOutcomeLists.length; ++i)
-            mScoreOutcomeLists[i] = new ArrayList<ScoreOutcome>();
+        mScoredOneVersusAlls = newScoredOneVersusAlls(numCategories());
     }
 
     /**
@@ -116,7 +107,7 @@ public class ScoredClassifierEvaluator<E> extends RankedClassifierEvaluator<E> {
         scoredOneVersusAll(String refCategory) {
 
         validateCategory(refCategory);
-        return scoredOneVersusAll(mScoreOutcomeLists,
+        return scoredOneVersusAll(mScoredOneVersusAlls,
                                   categoryToIndex(refCategory));
     }
 
@@ -187,14 +178,37 @@ public class ScoredClassifierEvaluator<E> extends RankedClassifierEvaluator<E> {
         return sum / (double) mReferenceCategories.size();
     }
 
-    ScoredPrecisionRecallEvaluation scoredOneVersusAll(List<ScoreOutcome>[] outcomeLists, int categoryIndex) {
+    @Override
+    void mergeCases(BaseClassifierEvaluator<E> that) {
+        super.mergeCases(that);
+        ScoredClassifierEvaluator<E> thatScored = (ScoredClassifierEvaluator<E>) that;
+        mergeScoredOneVersusAlls(mScoredOneVersusAlls,thatScored.mScoredOneVersusAlls);
+        mDefectiveScoring |= thatScored.mDefectiveScoring;
+    }
+
+    // returns a copy so callers cannot add cases to the evaluation
+    ScoredPrecisionRecallEvaluation scoredOneVersusAll(ScoredPrecisionRecallEvaluation[] evals,
+                                                       int categoryIndex) {
         ScoredPrecisionRecallEvaluation eval
             = new ScoredPrecisionRecallEvaluation();
-        for (ScoreOutcome outcome : outcomeLists[categoryIndex])
-            eval.addCase(outcome.mOutcome,outcome.mScore);
+        eval.merge(evals[categoryIndex]);
         return eval;
     }
 
+    static ScoredPrecisionRecallEvaluation[] newScoredOneVersusAlls(int numCategories) {
+        ScoredPrecisionRecallEvaluation[] evals
+            = new ScoredPrecisionRecallEvaluation[numCategories];
+        for (int i = 0; i < evals.length; ++i)
+            evals[i] = new ScoredPrecisionRecallEvaluation();
+        return evals;
+    }
+
+    static void mergeScoredOneVersusAlls(ScoredPrecisionRecallEvaluation[] evals,
+                                         ScoredPrecisionRecallEvaluation[] thatEvals) {
+        for (int i = 0; i < evals.length; ++i)
+            evals[i].merge(thatEvals[i]);
+    }
+
     void addScoring(String refCategory, ScoredClassification scoring) {
         // will this rank < scoring.size() mess up eval?
         if (scoring.size() < numCategories())
@@ -204,8 +218,7 @@ public class ScoredClassifierEvaluator<E> extends RankedClassifierEvaluator<E> {
             String category = scoring.category(rank);
             int categoryIndex = categoryToIndex(category);
             boolean match = category.equals(refCategory);
-            ScoreOutcome outcome = new ScoreOutcome(score,match,rank==0);
-            mScoreOutcomeLists[categoryIndex].add(outcome);
+            mScoredOneVersusAlls[categoryIndex].addCase(match,score);
         }
     }
 
@@ -229,24 +242,5 @@ public class ScoredClassifierEvaluator<E> extends RankedClassifierEvaluator<E> {
         }
         sb.append("\n");
     }
-    
-    static class ScoreOutcome implements Scored {
-        private final double mScore;
-        private final boolean mOutcome;
-        private final boolean mFirstBest;
-        public ScoreOutcome(double score, boolean outcome, boolean firstBest) {
-            mOutcome = outcome;
-            mScore = score;
-            mFirstBest = firstBest;
-        }
-        public double score() {
-            return mScore;
-        }
-        @Override
-        public String toString() {
-            return "(" + mScore + ": " + mOutcome + "firstBest=" + mFirstBest + ")";
-        }
-    }
-
 
-}
\ No newline at end of file
+}
@@ -19,13 +19,9 @@ package com.assign.classify;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-import com.assign.util.Scored;
-import com.assign.util.ScoredObject;
-
 /**
  * A <code>ScoredPrecisionRecallEvaluation</code> provides an evaluation
  * of possible precision-recall operating points and other summary statistics
@@ -245,6 +241,29 @@ import com.assign.util.ScoredObject;
  * <p>Missing cases will not arise from LingPipe's own classifiers,
  * which always return scores for all results.
  *
+ * <h3>Merging Evaluations</h3>
+ *
+ * <p>The method {@link #merge(ScoredPrecisionRecallEvaluation)} adds
+ * the cases and misses of another evaluation to this one.  This
+ * allows cases to be collected in shards, for instance one per
+ * thread, and then combined into a single evaluation.
+ *
+ * <h3>Memory</h3>
+ *
+ * <p>Cases are stored in parallel arrays of scores and correctness
+ * flags rather than as objects, requiring roughly nine bytes per
+ * case, so curves may be computed over many millions of cases.
+ * Cases are sorted in place the first time a curve or statistic is
+ * requested after cases are added.  The sort is stable, so cases
+ * with equal scores are ordered as they were added.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * <p>An evaluation is not thread safe.  Adding cases and merging must
+ * be synchronized with all other operations.  Because the reporting
+ * methods sort the cases, they must also be synchronized with each
+ * other.
+ *
  * @author  Bob Carpenter
  * @author Mike Ross
  * @version 3.9.2
@@ -252,7 +271,10 @@ import com.assign.util.ScoredObject;
  */
 public class ScoredPrecisionRecallEvaluation {
 
-    private final List<Case> mCases = new ArrayList<Case>();
+    private double[] mScores = EMPTY_DOUBLE_ARRAY;
+    private boolean[] mCorrects = EMPTY_BOOLEAN_ARRAY;
+    private int mNumCases = 0;
+    private boolean mSorted = true;
     private int mNegativeRef = 0;
     private int mPositiveRef = 0;
 
@@ -276,11 +298,35 @@ public class ScoredPrecisionRecallEvaluation {
      * @param score Score of response.
      */
     public void addCase(boolean correct, double score) {
-        mCases.add(new Case(correct,score));
+        ensureCapacity(mNumCases + 1);
+        mScores[mNumCases] = score;
+        mCorrects[mNumCases] = correct;
+        ++mNumCases;
+        mSorted = false;
         if (correct) ++mPositiveRef;
         else ++mNegativeRef;
     }
 
+    /**
+     * Adds the cases and misses of the specified evaluation to this
+     * evaluation.  The result is the same as if every case and miss
+     * added to the specified evaluation had been added to this one
+     * after the cases already in this evaluation.  The specified
+     * evaluation is not modified.
+     *
+     * @param that Evaluation whose cases are added to this one.
+     */
+    public void merge(ScoredPrecisionRecallEvaluation that) {
+        int numCases = that.mNumCases;
+        ensureCapacity(mNumCases + numCases);
+        System.arraycopy(that.mScores,0,mScores,mNumCases,numCases);
+        System.arraycopy(that.mCorrects,0,mCorrects,mNumCases,numCases);
+        mNumCases += numCases;
+        mSorted = mSorted && numCases == 0;
+        mPositiveRef += that.mPositiveRef;
+        mNegativeRef += that.mNegativeRef;
+    }
+
     /**
      * Incrments the positive reference count without adding a return
      * case from the classifier. This method is used for
@@ -302,7 +348,7 @@ public class ScoredPrecisionRecallEvaluation {
      * @return The number of cases for this evaluation.
      */
     public int numCases() {
-        return mCases.size();
+        return mNumCases;
     }
 
     /**
@@ -353,8 +399,9 @@ public class ScoredPrecisionRecallEvaluation {
             = new PrecisionRecallEvaluation();
         List<double[]> prList = new ArrayList<double[]>();
 
-        for (Case cse : sortedCases()) {
-            boolean correct = cse.mCorrect;
+        sortCases();
+        for (int i = 0; i < mNumCases; ++i) {
+            boolean correct = mCorrects[i];
             eval.addCase(correct,true);
             if (correct) {
                 double r = div(eval.truePositive(),mPositiveRef);
@@ -383,13 +430,14 @@ public class ScoredPrecisionRecallEvaluation {
             = new PrecisionRecallEvaluation();
         List<double[]> prList = new ArrayList<double[]>();
 
-        for (Case cse : sortedCases()) {
-            boolean correct = cse.mCorrect;
+        sortCases();
+        for (int i = 0; i < mNumCases; ++i) {
+            boolean correct = mCorrects[i];
             eval.addCase(correct,true);
             if (correct) {
                 double r = div(eval.truePositive(),mPositiveRef);
                 double p = eval.precision();
-                double s = cse.score();
+                double s = mScores[i];
                 prList.add(new double[] { r, p, s });
             }
         }
@@ -442,8 +490,9 @@ public class ScoredPrecisionRecallEvaluation {
     public double[][] rocCurve(boolean interpolate) {
         PrecisionRecallEvaluation eval = new PrecisionRecallEvaluation();
         List<double[]> prList = new ArrayList<double[]>();
-        for (Case cse : sortedCases()) {
-            boolean correct = cse.mCorrect;
+        sortCases();
+        for (int i = 0; i < mNumCases; ++i) {
+            boolean correct = mCorrects[i];
             eval.addCase(correct,true);
             if (correct) {
                 double r = div(eval.truePositive(), mPositiveRef);
@@ -582,11 +631,11 @@ public class ScoredPrecisionRecallEvaluation {
      * @return The precision at the specified rank.
      */
     public double precisionAt(int rank) {
-        if (mCases.size() < rank) return Double.NaN;
+        if (mNumCases < rank) return Double.NaN;
         int correctCount = 0;
-        Iterator<Case> it = sortedCases().iterator();
+        sortCases();
         for (int i = 0; i < rank; ++i)
-            if (it.next().mCorrect)
+            if (mCorrects[i])
                 ++correctCount;
         return ((double) correctCount) / (double) rank;
     }
@@ -605,13 +654,10 @@ public class ScoredPrecisionRecallEvaluation {
      * @return The reciprocal rank.
      */
     public double reciprocalRank() {
-        Iterator<Case> it = sortedCases().iterator();
-        for (int i = 0; it.hasNext(); ++i) {
-            Case cse = it.next();
-            boolean correct = cse.mCorrect;
-            if (correct)
+        sortCases();
+        for (int i = 0; i < mNumCases; ++i)
+            if (mCorrects[i])
                 return 1.0 / (double) (i + 1);
-        }
         return 0.0;
     }
 
@@ -677,7 +723,7 @@ public class ScoredPrecisionRecallEvaluation {
                   + prBreakevenPoint());
         sb.append("\n  Reciprocal Rank=" + reciprocalRank());
         int[] ranks = new int[] { 5, 10, 25, 100, 500 };
-        for (int i = 0; i < ranks.length && mCases.size() < ranks[i]; ++i)
+        for (int i = 0; i < ranks.length && mNumCases < ranks[i]; ++i)
             sb.append("\n  Precision at " + ranks[i]
                       + "=" + precisionAt(ranks[i]));
         return sb.toString();
@@ -703,9 +749,82 @@ public class ScoredPrecisionRecallEvaluation {
         pw.flush();
     }
 
-    private List<Case> sortedCases() {
-        Collections.sort(mCases,ScoredObject.reverseComparator());
-        return mCases;
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mScores.length) return;
+        if (capacity < 0) {
+            String msg = "Too many cases for evaluation."
+                + " Found numCases=" + mNumCases;
+            throw new IllegalStateException(msg);
+        }
+        int newCapacity = (int) Math.min(Integer.MAX_VALUE - 8,
+                                         Math.max(16L,2L * mScores.length));
+        if (newCapacity < capacity) newCapacity = capacity;
+        double[] scores = new double[newCapacity];
+        System.arraycopy(mScores,0,scores,0,mNumCases);
+        mScores = scores;
+        boolean[] corrects = new boolean[newCapacity];
+        System.arraycopy(mCorrects,0,corrects,0,mNumCases);
+        mCorrects = corrects;
+    }
+
+    // stable sort of cases into descending score order
+    private void sortCases() {
+        if (mSorted) return;
+        int n = mNumCases;
+        for (int start = 0; start < n; start += INSERTION_SORT_RUN)
+            insertionSort(start,Math.min(n,start + INSERTION_SORT_RUN));
+        if (n > INSERTION_SORT_RUN) {
+            double[] fromScores = mScores;
+            boolean[] fromCorrects = mCorrects;
+            double[] toScores = new double[fromScores.length];
+            boolean[] toCorrects = new boolean[fromCorrects.length];
+            for (int width = INSERTION_SORT_RUN; width < n; width *= 2) {
+                for (int lo = 0; lo < n; lo += 2 * width) {
+                    int mid = Math.min(n,lo + width);
+                    int hi = Math.min(n,lo + 2 * width);
+                    merge(fromScores,fromCorrects,toScores,toCorrects,lo,mid,hi);
+                }
+                double[] tmpScores = fromScores;
+                fromScores = toScores;
+                toScores = tmpScores;
+                boolean[] tmpCorrects = fromCorrects;
+                fromCorrects = toCorrects;
+                toCorrects = tmpCorrects;
+            }
+            mScores = fromScores;
+            mCorrects = fromCorrects;
+        }
+        mSorted = true;
+    }
+
+    private void insertionSort(int start, int end) {
+        for (int i = start + 1; i < end; ++i) {
+            double score = mScores[i];
+            boolean correct = mCorrects[i];
+            int j = i;
+            for ( ; j > start && mScores[j-1] < score; --j) {
+                mScores[j] = mScores[j-1];
+                mCorrects[j] = mCorrects[j-1];
+            }
+            mScores[j] = score;
+            mCorrects[j] = correct;
+        }
+    }
+
+    private static void merge(double[] fromScores, boolean[] fromCorrects,
+                              double[] toScores, boolean[] toCorrects,
+                              int lo, int mid, int hi) {
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; ++k) {
+            if (j >= hi || (i < mid && !(fromScores[j] > fromScores[i]))) {
+                toScores[k] = fromScores[i];
+                toCorrects[k] = fromCorrects[i++];
+            } else {
+                toScores[k] = fromScores[j];
+                toCorrects[k] = fromCorrects[j++];
+            }
+        }
     }
 
     static double div(double x, double y) {
@@ -747,20 +866,10 @@ public class ScoredPrecisionRecallEvaluation {
         return area;
     }
 
-    static class Case implements Scored {
-        private final boolean mCorrect;
-        private final double mScore;
-        Case(boolean correct, double score) {
-            mCorrect = correct;
-            mScore = score;
-        }
-        public double score() {
-            return mScore;
-        }
-        @Override
-        public String toString() {
-            return mCorrect + " : " + mScore;
-        }
-    }
+    static final int INSERTION_SORT_RUN = 32;
+
+    static final double[] EMPTY_DOUBLE_ARRAY = new double[0];
+
+    static final boolean[] EMPTY_BOOLEAN_ARRAY = new boolean[0];
 
 }
@@ -0,0 +1,112 @@
+/* ThreadLocalClassifierEvaluator.java */
+
+
+package com.assign.classify;
+
+import com.assign.corpus.ObjectHandler;
+
+import com.assign.util.Factory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@code ThreadLocalClassifierEvaluator} is a handler for
+ * classified objects that may be called from many threads at once,
+ * accumulating an evaluation in a separate classifier evaluator for
+ * each thread.
+ *
+ * <p>Each thread that calls {@link #handle(Classified)} is assigned
+ * its own evaluator from the factory supplied at construction time,
+ * so the handle method does not synchronize on the evaluators.  The
+ * method {@link #evaluator()} returns a single evaluator created by
+ * the factory into which the per-thread evaluators have been merged
+ * using {@link BaseClassifierEvaluator#merge(BaseClassifierEvaluator)}.
+ *
+ * <p>For example, a test set may be evaluated by several worker
+ * threads, each calling {@code handle()} on the same instance, with
+ * {@code evaluator()} called once the workers have finished.  The
+ * factory typically creates a new evaluator over a shared compiled
+ * classifier, which must itself be thread safe.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * The method {@code handle()} may be called concurrently from any
+ * number of threads.  The methods {@code evaluator()} and {@code
+ * reset()} must not be called concurrently with {@code handle()}.
+ * The evaluator factory may be called concurrently.
+ *
+ * @author Kajanan Sangaralingam
+ * @param <E> the type of objects being classified.
+ * @param <V> the type of evaluator.
+ */
+public class ThreadLocalClassifierEvaluator<E,V extends BaseClassifierEvaluator<E>>
+    implements ObjectHandler<Classified<E>> {
+
+    private final Factory<? extends V> mEvaluatorFactory;
+    private final List<V> mEvaluators = new ArrayList<V>();
+    private volatile ThreadLocal<V> mThreadEvaluator;
+
+    /**
+     * Construct a thread-local evaluator with the specified factory
+     * for evaluators.  Each call to the factory must return a new
+     * evaluator of the same class with the same categories.
+     *
+     * @param evaluatorFactory Factory for evaluators.
+     */
+    public ThreadLocalClassifierEvaluator(Factory<? extends V> evaluatorFactory) {
+        mEvaluatorFactory = evaluatorFactory;
+        mThreadEvaluator = newThreadEvaluator();
+    }
+
+    /**
+     * Evaluate the specified classified object with the evaluator
+     * for the current thread.
+     *
+     * @param classified Classified object to evaluate.
+     */
+    public void handle(Classified<E> classified) {
+        mThreadEvaluator.get().handle(classified);
+    }
+
+    /**
+     * Returns a new evaluator containing all of the cases handled
+     * since construction or the last reset.  Cases handled by the
+     * same thread appear in the order in which they were handled.
+     *
+     * @return Evaluator merging the evaluators for every thread.
+     */
+    public V evaluator() {
+        V result = mEvaluatorFactory.create();
+        synchronized (mEvaluators) {
+            for (V evaluator : mEvaluators)
+                result.merge(evaluator);
+        }
+        return result;
+    }
+
+    /**
+     * Discards the cases handled so far.  Threads calling {@code
+     * handle()} after a reset are given new evaluators.
+     */
+    public void reset() {
+        synchronized (mEvaluators) {
+            mEvaluators.clear();
+        }
+        mThreadEvaluator = newThreadEvaluator();
+    }
+
+    private ThreadLocal<V> newThreadEvaluator() {
+        return new ThreadLocal<V>() {
+            @Override
+            protected V initialValue() {
+                V evaluator = mEvaluatorFactory.create();
+                synchronized (mEvaluators) {
+                    mEvaluators.add(evaluator);
+                }
+                return evaluator;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,318 @@
+/* XValidationRunner.java */
+
+
+package com.assign.classify;
+
+import com.assign.corpus.ObjectHandler;
+import com.assign.corpus.XValidatingObjectCorpus;
+
+import com.assign.util.Factory;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An {@code XValidationRunner} carries out every fold of a
+ * cross-validation experiment concurrently and merges the per-fold
+ * evaluations.
+ *
+ * <p>A runner is constructed from a factory for trainers and a
+ * factory for evaluators.  For each fold, a fresh trainer is created
+ * and passed the training portion of the fold.  The trained trainer
+ * is then handed to the evaluator factory, which returns an
+ * evaluator for the resulting classifier, compiling it first if
+ * necessary.  The evaluator is passed the test portion of the fold.
+ * For example, a {@link DynamicLMClassifier} is itself a trainer,
+ * and a {@link ConditionalClassifierEvaluator} may be built directly
+ * from it or from its compiled form.
+ *
+ * <p>Folds are visited through an immutable {@link
+ * XValidatingObjectCorpus#itemView()} of the corpus using the
+ * fold-specific methods {@link XValidatingObjectCorpus#visitTrain(ObjectHandler,int)}
+ * and {@link XValidatingObjectCorpus#visitTest(ObjectHandler,int)},
+ * so the current fold of the corpus is neither consulted nor
+ * changed.  The corpus must not be modified during a run.
+ *
+ * <p>The result of a run is an {@link Evaluation}, which provides
+ * the evaluator for each fold along with a confusion matrix and
+ * one-versus-all precision-recall evaluations summed over the folds.
+ * Because the test portions of the folds partition the corpus, the
+ * merged results are the same as those from a single evaluator
+ * that was reset to the classifier for each fold in turn.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * A runner is thread safe as long as its factories are.  Each
+ * factory may be called concurrently from different folds, but
+ * each trainer and evaluator is only accessed from a single thread.
+ *
+ * @author Kajanan Sangaralingam
+ * @param <E> the type of objects being classified.
+ * @param <T> the type of trainer.
+ * @param <V> the type of evaluator.
+ */
+public class XValidationRunner<E,
+                               T extends ObjectHandler<Classified<E>>,
+                               V extends BaseClassifierEvaluator<E>> {
+
+    private final Factory<? extends T> mTrainerFactory;
+    private final EvaluatorFactory<? super T,? extends V> mEvaluatorFactory;
+
+    /**
+     * Construct a cross-validation runner with the specified
+     * trainer and evaluator factories.
+     *
+     * @param trainerFactory Factory for untrained trainers.
+     * @param evaluatorFactory Factory for evaluators of trained trainers.
+     */
+    public XValidationRunner(Factory<? extends T> trainerFactory,
+                             EvaluatorFactory<? super T,? extends V> evaluatorFactory) {
+        mTrainerFactory = trainerFactory;
+        mEvaluatorFactory = evaluatorFactory;
+    }
+
+    /**
+     * Run every fold of the specified corpus concurrently using a
+     * pool of the specified number of threads, returning the merged
+     * evaluation.  The thread pool is shut down before this method
+     * returns.
+     *
+     * @param corpus Corpus to cross-validate.
+     * @param numThreads Number of threads to use.
+     * @return Evaluation merged over the folds.
+     * @throws IOException If an evaluator factory throws an I/O exception.
+     * @throws ClassNotFoundException If an evaluator factory throws a
+     * class not found exception.
+     * @throws InterruptedException If the calling thread is
+     * interrupted while waiting for the folds.
+     * @throws IllegalArgumentException If the number of threads is
+     * less than one, the corpus has no folds, or the evaluators for
+     * the folds do not share the same categories.
+     */
+    public Evaluation<V> run(XValidatingObjectCorpus<Classified<E>> corpus,
+                             int numThreads)
+        throws IOException, ClassNotFoundException, InterruptedException {
+
+        if (numThreads < 1) {
+            String msg = "Require at least one thread."
+                + " Found numThreads=" + numThreads;
+            throw new IllegalArgumentException(msg);
+        }
+        ExecutorService executor
+            = Executors.newFixedThreadPool(Math.min(numThreads,
+                                                    Math.max(1,corpus.numFolds())));
+        try {
+            return run(corpus,executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run every fold of the specified corpus concurrently on the
+     * specified executor, returning the merged evaluation.  The
+     * executor is not shut down by this method.
+     *
+     * <p>If any fold fails, the remaining folds are cancelled and the
+     * failure is rethrown.
+     *
+     * @param corpus Corpus to cross-validate.
+     * @param executor Executor on which to run the folds.
+     * @return Evaluation merged over the folds.
+     * @throws IOException If an evaluator factory throws an I/O exception.
+     * @throws ClassNotFoundException If an evaluator factory throws a
+     * class not found exception.
+     * @throws InterruptedException If the calling thread is
+     * interrupted while waiting for the folds.
+     * @throws IllegalArgumentException If the corpus has no folds or
+     * the evaluators for the folds do not share the same categories.
+     */
+    public Evaluation<V> run(XValidatingObjectCorpus<Classified<E>> corpus,
+                             ExecutorService executor)
+        throws IOException, ClassNotFoundException, InterruptedException {
+
+        int numFolds = corpus.numFolds();
+        if (numFolds < 1) {
+            String msg = "Require at least one fold."
+                + " Found numFolds=" + numFolds;
+            throw new IllegalArgumentException(msg);
+        }
+        final XValidatingObjectCorpus<Classified<E>> view = corpus.itemView();
+        List<Future<V>> futures = new ArrayList<Future<V>>(numFolds);
+        try {
+            for (int fold = 0; fold < numFolds; ++fold)
+                futures.add(executor.submit(foldTask(view,fold)));
+            List<V> evaluators = new ArrayList<V>(numFolds);
+            for (Future<V> future : futures)
+                evaluators.add(getResult(future));
+            return new Evaluation<V>(evaluators);
+        } finally {
+            for (Future<V> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    Callable<V> foldTask(final XValidatingObjectCorpus<Classified<E>> view,
+                         final int fold) {
+        return new Callable<V>() {
+            public V call() throws IOException, ClassNotFoundException {
+                T trainer = mTrainerFactory.create();
+                view.visitTrain(trainer,fold);
+                V evaluator = mEvaluatorFactory.create(trainer);
+                view.visitTest(evaluator,fold);
+                return evaluator;
+            }
+        };
+    }
+
+    static <F> F getResult(Future<F> future)
+        throws IOException, ClassNotFoundException, InterruptedException {
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof ClassNotFoundException)
+                throw (ClassNotFoundException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException("Fold failed.",cause);
+        }
+    }
+
+    /**
+     * An {@code XValidationRunner.EvaluatorFactory} creates an
+     * evaluator for the classifier produced by a trained trainer.
+     *
+     * @param <T> the type of trainer.
+     * @param <V> the type of evaluator.
+     */
+    public interface EvaluatorFactory<T,V> {
+
+        /**
+         * Return a new evaluator for the classifier trained by the
+         * specified trainer.  The returned evaluator must not share
+         * state with evaluators returned for other trainers.
+         *
+         * @param trainer Trainer that has seen a fold's training data.
+         * @return Evaluator for the trained classifier.
+         * @throws IOException If there is an I/O error compiling the
+         * classifier.
+         * @throws ClassNotFoundException If a class required to
+         * compile the classifier is not found.
+         */
+        public V create(T trainer)
+            throws IOException, ClassNotFoundException;
+
+    }
+
+    /**
+     * An {@code XValidationRunner.Evaluation} holds the evaluators
+     * for the folds of a cross-validation run along with their
+     * results merged across folds.
+     *
+     * @param <V> the type of evaluator.
+     */
+    public static class Evaluation<V extends BaseClassifierEvaluator<?>> {
+
+        private final List<V> mEvaluators;
+        private final ConfusionMatrix mConfusionMatrix;
+
+        Evaluation(List<V> evaluators) {
+            mEvaluators = Collections.unmodifiableList(evaluators);
+            mConfusionMatrix = new ConfusionMatrix(evaluators.get(0).categories());
+            for (V evaluator : evaluators)
+                mConfusionMatrix.merge(evaluator.confusionMatrix());
+        }
+
+        /**
+         * Returns the number of folds evaluated.
+         *
+         * @return Number of folds.
+         */
+        public int numFolds() {
+            return mEvaluators.size();
+        }
+
+        /**
+         * Returns the evaluator for the specified fold.
+         *
+         * @param fold Fold whose evaluator is returned.
+         * @return Evaluator for the fold.
+         * @throws IndexOutOfBoundsException If the fold is negative or
+         * not less than the number of folds.
+         */
+        public V foldEvaluator(int fold) {
+            return mEvaluators.get(fold);
+        }
+
+        /**
+         * Returns an unmodifiable view of the evaluators for the folds,
+         * in fold order.
+         *
+         * @return Evaluators for the folds.
+         */
+        public List<V> foldEvaluators() {
+            return mEvaluators;
+        }
+
+        /**
+         * Returns the total number of test cases over all folds.
+         *
+         * @return Number of test cases.
+         */
+        public int numCases() {
+            int numCases = 0;
+            for (V evaluator : mEvaluators)
+                numCases += evaluator.numCases();
+            return numCases;
+        }
+
+        /**
+         * Returns the sum of the confusion matrices of the folds.
+         *
+         * @return Confusion matrix merged over folds.
+         */
+        public ConfusionMatrix confusionMatrix() {
+            return mConfusionMatrix;
+        }
+
+        /**
+         * Returns the one-versus-all precision-recall evaluation for
+         * the specified category, with counts summed over the folds.
+         *
+         * @param refCategory Category to evaluate.
+         * @return Precision-recall evaluation merged over folds.
+         * @throws IllegalArgumentException If the category is unknown.
+         */
+        public PrecisionRecallEvaluation oneVersusAll(String refCategory) {
+            PrecisionRecallEvaluation eval = new PrecisionRecallEvaluation();
+            for (V evaluator : mEvaluators)
+                eval.merge(evaluator.oneVersusAll(refCategory));
+            return eval;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("FOLDS=" + numFolds() + "\n");
+            sb.append("CASES=" + numCases() + "\n");
+            sb.append(mConfusionMatrix.toString());
+            return sb.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,554 @@
+/* EmissionCache.java */
+
+package com.assign.hmm;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An {@code EmissionCache} is a bounded, thread-safe map from
+ * emission strings to arrays of per-state emission estimates,
+ * designed for use as an emission cache in an {@link HmmDecoder}.
+ *
+ * <h3>Size Bound</h3>
+ *
+ * The size of the cache is bounded by an estimate of the number of
+ * bytes used by its entries rather than by the number of entries.
+ * Each entry is charged {@link #entryBytes(String,double[])} bytes,
+ * which accounts for the characters of the key, the values, and a
+ * fixed allowance for object headers and table references.  An entry
+ * larger than the capacity of a stripe (see below) is not cached.
+ *
+ * <h3>Eviction</h3>
+ *
+ * Entries are evicted using the CLOCK approximation of
+ * least-recently-used eviction.  Each entry carries a reference
+ * bit that is set when it is retrieved.  When room is needed, a
+ * clock hand sweeps over the entries, clearing set bits and evicting
+ * the first entry whose bit is already clear.  Frequently retrieved
+ * entries thus survive, while entries not retrieved since the hand
+ * last passed them are evicted.
+ *
+ * <h3>Concurrency</h3>
+ *
+ * The cache is divided into a power-of-two number of stripes by key
+ * hash, each with an equal share of the byte capacity.  Retrievals
+ * do not lock; they read the current hash table of a stripe and set
+ * the entry's reference bit.  Insertions, removals and evictions
+ * lock only the stripe of the key involved.  A retrieval concurrent
+ * with an update may miss an entry that is being added or see one
+ * that is being removed, but never returns a value for a different
+ * key.  A single cache may thus be shared by any number of decoders
+ * and threads.
+ *
+ * <h3>Statistics</h3>
+ *
+ * The numbers of hits and misses of {@link #get(Object)} and the
+ * number of evictions are counted per stripe and reported summed by
+ * {@link #hits()}, {@link #misses()} and {@link #evictions()}.  These
+ * may be used to choose a capacity; {@link #resetStatistics()} sets
+ * them back to zero.  Evictions are counted under the stripe's lock.
+ * Hits and misses are plain counters incremented by the retrieving
+ * thread without locking, so that retrievals do not contend on them;
+ * they are exact for a single thread, but concurrent retrievals from
+ * the same stripe may occasionally lose a count.
+ *
+ * <h3>Map Operations</h3>
+ *
+ * Neither keys nor values may be {@code null}.  Values are stored
+ * as given, not copied, and must not be modified after insertion.
+ * The entry set is a snapshot copy of the cache's entries, so
+ * modifying it does not affect the cache.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class EmissionCache extends AbstractMap<String,double[]> {
+
+    private final long mMaxBytes;
+    private final Segment[] mSegments;
+    private final int mSegmentShift;
+
+    /**
+     * Construct an emission cache with the specified maximum number
+     * of bytes and a default number of stripes determined by the
+     * number of available processors.
+     *
+     * @param maxBytes Maximum number of bytes used by entries.
+     * @throws IllegalArgumentException If the maximum number of bytes
+     * is not positive.
+     */
+    public EmissionCache(long maxBytes) {
+        this(maxBytes,defaultNumStripes());
+    }
+
+    /**
+     * Construct an emission cache with the specified maximum number
+     * of bytes and at least the specified number of stripes.  The
+     * number of stripes is rounded up to a power of two.
+     *
+     * @param maxBytes Maximum number of bytes used by entries.
+     * @param numStripes Minimum number of independently locked stripes.
+     * @throws IllegalArgumentException If the maximum number of bytes
+     * is not positive or if the number of stripes is not between 1
+     * and 2<sup>16</sup> inclusive.
+     */
+    public EmissionCache(long maxBytes, int numStripes) {
+        if (maxBytes < 1L) {
+            String msg = "Maximum bytes must be positive."
+                + " Found maxBytes=" + maxBytes;
+            throw new IllegalArgumentException(msg);
+        }
+        if (numStripes < 1 || numStripes > MAX_STRIPES) {
+            String msg = "Number of stripes must be between 1 and " + MAX_STRIPES + "."
+                + " Found numStripes=" + numStripes;
+            throw new IllegalArgumentException(msg);
+        }
+        int numSegments = 1;
+        int shift = 32;
+        while (numSegments < numStripes) {
+            numSegments <<= 1;
+            --shift;
+        }
+        mMaxBytes = maxBytes;
+        mSegmentShift = shift;
+        mSegments = new Segment[numSegments];
+        long segmentBytes = Math.max(1L,maxBytes / numSegments);
+        for (int i = 0; i < numSegments; ++i)
+            mSegments[i] = new Segment(segmentBytes);
+    }
+
+    /**
+     * Returns the maximum number of bytes used by entries in this
+     * cache, as specified at construction.
+     *
+     * @return Maximum number of bytes.
+     */
+    public long maxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the entries
+     * currently in this cache.
+     *
+     * @return Estimated number of bytes used.
+     */
+    public long numBytes() {
+        long bytes = 0L;
+        for (Segment segment : mSegments)
+            bytes += segment.mBytes;
+        return bytes;
+    }
+
+    /**
+     * Returns the number of stripes in this cache.
+     *
+     * @return Number of stripes.
+     */
+    public int numStripes() {
+        return mSegments.length;
+    }
+
+    /**
+     * Returns the number of calls to {@link #get(Object)} that found
+     * a value since construction or the last reset of statistics.
+     *
+     * @return Number of hits.
+     */
+    public long hits() {
+        long hits = 0L;
+        for (Segment segment : mSegments)
+            hits += segment.mHits;
+        return hits;
+    }
+
+    /**
+     * Returns the number of calls to {@link #get(Object)} that did
+     * not find a value since construction or the last reset of
+     * statistics.
+     *
+     * @return Number of misses.
+     */
+    public long misses() {
+        long misses = 0L;
+        for (Segment segment : mSegments)
+            misses += segment.mMisses;
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries evicted to make room for new
+     * entries since construction or the last reset of statistics.
+     * Entries removed explicitly or by clearing are not counted.
+     *
+     * @return Number of evictions.
+     */
+    public long evictions() {
+        long evictions = 0L;
+        for (Segment segment : mSegments)
+            evictions += segment.evictions();
+        return evictions;
+    }
+
+    /**
+     * Returns the proportion of calls to {@link #get(Object)} that
+     * found a value, or {@code Double.NaN} if there have been no
+     * calls since construction or the last reset of statistics.
+     *
+     * @return Hit rate.
+     */
+    public double hitRate() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0L ? Double.NaN : hits / (double) total;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counts to zero.
+     */
+    public void resetStatistics() {
+        for (Segment segment : mSegments)
+            segment.resetStatistics();
+    }
+
+    /**
+     * Returns the value for the specified key, or {@code null} if
+     * it is not in the cache.  A found value is counted as a hit
+     * and marked as recently used; otherwise a miss is counted.
+     *
+     * @param key Key to look up.
+     * @return Value for the key, or {@code null} if there is none.
+     */
+    @Override
+    public double[] get(Object key) {
+        if (!(key instanceof String)) return null;
+        int hash = hash((String) key);
+        Segment segment = segmentFor(hash);
+        Entry entry = segment.find((String) key,hash);
+        if (entry == null) {
+            ++segment.mMisses;
+            return null;
+        }
+        if (!entry.mReferenced)
+            entry.mReferenced = true;
+        ++segment.mHits;
+        return entry.mValue;
+    }
+
+    /**
+     * Returns {@code true} if the specified key is in the cache.
+     * This method does not affect statistics or eviction.
+     *
+     * @param key Key to look up.
+     * @return {@code true} if the key is in the cache.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof String)) return false;
+        int hash = hash((String) key);
+        return segmentFor(hash).find((String) key,hash) != null;
+    }
+
+    /**
+     * Adds the specified value for the specified key, evicting
+     * entries from the key's stripe as necessary to stay within its
+     * share of the byte capacity.  If the entry alone exceeds the
+     * stripe's share, it is not added and any existing value for
+     * the key is removed.
+     *
+     * @param key Key to add.
+     * @param value Value for key.
+     * @return The previous value for the key, or {@code null} if
+     * there was none.
+     * @throws NullPointerException If the key or value is {@code null}.
+     */
+    @Override
+    public double[] put(String key, double[] value) {
+        if (value == null) {
+            String msg = "Cache values may not be null.";
+            throw new NullPointerException(msg);
+        }
+        int hash = hash(key);
+        return segmentFor(hash).put(key,hash,value);
+    }
+
+    /**
+     * Removes the entry for the specified key, returning its value.
+     *
+     * @param key Key to remove.
+     * @return The removed value, or {@code null} if there was none.
+     */
+    @Override
+    public double[] remove(Object key) {
+        if (!(key instanceof String)) return null;
+        int hash = hash((String) key);
+        return segmentFor(hash).remove((String) key,hash);
+    }
+
+    /**
+     * Removes all entries from the cache.  Statistics are not reset.
+     */
+    @Override
+    public void clear() {
+        for (Segment segment : mSegments)
+            segment.clear();
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return Number of entries.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : mSegments)
+            size += segment.mSize;
+        return size;
+    }
+
+    /**
+     * Returns a snapshot of the entries in this cache.  Changes to
+     * the returned set do not affect this cache.
+     *
+     * @return Snapshot of entries.
+     */
+    @Override
+    public Set<Map.Entry<String,double[]>> entrySet() {
+        Map<String,double[]> snapshot = new HashMap<String,double[]>();
+        for (Segment segment : mSegments)
+            segment.addTo(snapshot);
+        return snapshot.entrySet();
+    }
+
+    /**
+     * Returns the number of bytes charged against the capacity for
+     * an entry with the specified key and value.
+     *
+     * @param key Key of entry.
+     * @param value Value of entry.
+     * @return Bytes charged for the entry.
+     */
+    public static long entryBytes(String key, double[] value) {
+        return ENTRY_OVERHEAD_BYTES + 2L * key.length() + 8L * value.length;
+    }
+
+    Segment segmentFor(int hash) {
+        return mSegments[mSegmentShift == 32 ? 0 : hash >>> mSegmentShift];
+    }
+
+    static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int defaultNumStripes() {
+        return Math.min(64,4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    static final class Entry {
+        final String mKey;
+        final int mHash;
+        final double[] mValue;
+        final long mBytes;
+        volatile Entry mNext;
+        volatile boolean mReferenced;
+        int mSlot; // guarded by segment
+        Entry(String key, int hash, double[] value, long bytes) {
+            mKey = key;
+            mHash = hash;
+            mValue = value;
+            mBytes = bytes;
+        }
+    }
+
+    // Readers traverse the table without locking.  Writers hold the
+    // segment lock, only ever unlink entries or add them at the head
+    // of a chain, and rehash by copying entries into a new table, so
+    // a reader always sees well-formed chains of complete entries.
+    static final class Segment {
+        final long mMaxBytes;
+        long mHits = 0L; // unsynchronized; may lose concurrent counts
+        long mMisses = 0L; // unsynchronized; may lose concurrent counts
+        long mEvictions = 0L; // guarded by this
+        volatile AtomicReferenceArray<Entry> mTable
+            = new AtomicReferenceArray<Entry>(INITIAL_TABLE_SIZE);
+        volatile int mSize = 0;
+        volatile long mBytes = 0L;
+
+        // clock of entries, with holes left by removals; guarded by this
+        Entry[] mClock = new Entry[INITIAL_TABLE_SIZE];
+        int mClockEnd = 0;
+        int mHand = 0;
+        int[] mFreeSlots = new int[INITIAL_TABLE_SIZE];
+        int mNumFreeSlots = 0;
+
+        Segment(long maxBytes) {
+            mMaxBytes = maxBytes;
+        }
+
+        Entry find(String key, int hash) {
+            AtomicReferenceArray<Entry> table = mTable;
+            for (Entry entry = table.get(hash & (table.length() - 1));
+                 entry != null;
+                 entry = entry.mNext)
+                if (entry.mHash == hash && entry.mKey.equals(key))
+                    return entry;
+            return null;
+        }
+
+        synchronized double[] put(String key, int hash, double[] value) {
+            Entry existing = find(key,hash);
+            double[] previous = null;
+            if (existing != null) {
+                previous = existing.mValue;
+                removeEntry(existing);
+            }
+            long bytes = entryBytes(key,value);
+            if (bytes > mMaxBytes)
+                return previous;
+            evict(bytes);
+            Entry entry = new Entry(key,hash,value,bytes);
+            if (mSize + 1 > (mTable.length() >> 1) + (mTable.length() >> 2))
+                rehash();
+            AtomicReferenceArray<Entry> table = mTable;
+            int index = hash & (table.length() - 1);
+            entry.mNext = table.get(index);
+            table.set(index,entry);
+            addToClock(entry);
+            mBytes += bytes;
+            ++mSize;
+            return previous;
+        }
+
+        synchronized double[] remove(String key, int hash) {
+            Entry entry = find(key,hash);
+            if (entry == null) return null;
+            removeEntry(entry);
+            return entry.mValue;
+        }
+
+        synchronized void clear() {
+            mTable = new AtomicReferenceArray<Entry>(INITIAL_TABLE_SIZE);
+            mClock = new Entry[INITIAL_TABLE_SIZE];
+            mClockEnd = 0;
+            mHand = 0;
+            mFreeSlots = new int[INITIAL_TABLE_SIZE];
+            mNumFreeSlots = 0;
+            mBytes = 0L;
+            mSize = 0;
+        }
+
+        synchronized long evictions() {
+            return mEvictions;
+        }
+
+        synchronized void resetStatistics() {
+            mHits = 0L;
+            mMisses = 0L;
+            mEvictions = 0L;
+        }
+
+        synchronized void addTo(Map<String,double[]> map) {
+            for (int i = 0; i < mClockEnd; ++i)
+                if (mClock[i] != null)
+                    map.put(mClock[i].mKey,mClock[i].mValue);
+        }
+
+        // requires lock
+        void evict(long bytes) {
+            int sweeps = 0;
+            while (mSize > 0 && mBytes + bytes > mMaxBytes) {
+                if (mHand >= mClockEnd) {
+                    mHand = 0;
+                    ++sweeps;
+                }
+                Entry entry = mClock[mHand];
+                if (entry == null) {
+                    ++mHand;
+                    continue;
+                }
+                // after two full sweeps, readers are re-marking
+                // entries as fast as they're cleared; evict anyway
+                if (entry.mReferenced && sweeps < 2) {
+                    entry.mReferenced = false;
+                    ++mHand;
+                    continue;
+                }
+                removeEntry(entry);
+                ++mEvictions;
+                ++mHand;
+            }
+        }
+
+        // requires lock
+        void removeEntry(Entry entry) {
+            AtomicReferenceArray<Entry> table = mTable;
+            int index = entry.mHash & (table.length() - 1);
+            Entry head = table.get(index);
+            if (head == entry) {
+                table.set(index,entry.mNext);
+            } else {
+                for (Entry prev = head; prev != null; prev = prev.mNext) {
+                    if (prev.mNext == entry) {
+                        prev.mNext = entry.mNext;
+                        break;
+                    }
+                }
+            }
+            mClock[entry.mSlot] = null;
+            mFreeSlots[mNumFreeSlots++] = entry.mSlot;
+            mBytes -= entry.mBytes;
+            --mSize;
+        }
+
+        // requires lock
+        void addToClock(Entry entry) {
+            int slot;
+            if (mNumFreeSlots > 0) {
+                slot = mFreeSlots[--mNumFreeSlots];
+            } else {
+                if (mClockEnd == mClock.length) {
+                    Entry[] clock = new Entry[2 * mClock.length];
+                    System.arraycopy(mClock,0,clock,0,mClockEnd);
+                    mClock = clock;
+                    int[] freeSlots = new int[clock.length];
+                    System.arraycopy(mFreeSlots,0,freeSlots,0,mNumFreeSlots);
+                    mFreeSlots = freeSlots;
+                }
+                slot = mClockEnd++;
+            }
+            entry.mSlot = slot;
+            mClock[slot] = entry;
+        }
+
+        // requires lock; copies entries so chains seen by concurrent
+        // readers of the old table are left intact
+        void rehash() {
+            int length = 2 * mTable.length();
+            Entry[] table = new Entry[length];
+            for (int i = 0; i < mClockEnd; ++i) {
+                Entry entry = mClock[i];
+                if (entry == null) continue;
+                Entry copy = new Entry(entry.mKey,entry.mHash,entry.mValue,entry.mBytes);
+                copy.mReferenced = entry.mReferenced;
+                copy.mSlot = i;
+                int index = entry.mHash & (length - 1);
+                copy.mNext = table[index];
+                table[index] = copy;
+                mClock[i] = copy;
+            }
+            mTable = new AtomicReferenceArray<Entry>(table);
+        }
+    }
+
+    static final int INITIAL_TABLE_SIZE = 16;
+
+    static final int MAX_STRIPES = 1 << 16;
+
+    static final long ENTRY_OVERHEAD_BYTES = 128L;
+
+}
@@ -100,6 +100,20 @@ import java.util.List;
  * designed specifically to be used as a cache in settings such as
  * these.
  *
+ * <p>For caches shared by many decoding threads, {@link EmissionCache}
+ * bounds memory by an estimate of the bytes used by its entries,
+ * retrieves entries without locking, evicts with the CLOCK
+ * approximation of least-recently-used eviction, and counts hits,
+ * misses and evictions.  The counts may be used to choose a cache
+ * size for a given corpus and decoding load:
+ *
+ * <blockquote><pre>
+ * EmissionCache cache = new EmissionCache(64L * 1024L * 1024L);
+ * decoder.setEmissionLog2Cache(cache);
+ * ...
+ * System.out.println(&quot;hit rate=&quot; + cache.hitRate()
+ *                    + &quot; evictions=&quot; + cache.evictions());</pre></blockquote>
+ *
  * <P>It is often (e.g. on English newsire) easy to get high token
  * coverage (e.g. 97%) with a rather modestly sized cache (e.g. 100K
  * tokens).  Other corpora and languages may vary and we encourage
@@ -112,7 +126,8 @@ import java.util.List;
  * <p>This class does not perform any underlying sychronization.  If
  * the hidden Markov model is not thread safe, then it must be
  * synchronized.  Similarly for the caches.  Note that {@link
- * com.aliasi.util.FastCache}, while not synchronized, is thread safe.
+ * com.aliasi.util.FastCache}, while not synchronized, is thread safe,
+ * as is {@link EmissionCache}, which may be shared across decoders.
  * Similarly, the compilation of an HMM trained with {@link
  * HmmCharLmEstimator} is thread safe, in fact allowing safe
  * concurrent access because it is immutable.
@@ -128,6 +143,28 @@ import java.util.List;
  * than the beam less than the bes5t emission estimate is eliminated
  * from further consideration.
  *
+ * <h3>Compiled Decoding</h3>
+ *
+ * <p>Calling {@link #setCompiled(boolean)} with argument {@code true}
+ * takes a snapshot of the start, end and transition probabilities of
+ * the HMM in flat arrays, which are then used for decoding instead of
+ * calls through the {@link HiddenMarkovModel} interface.  The
+ * Viterbi and forward-backward inner loops run over contiguous rows
+ * of these arrays, and forward-backward lattices store per-token
+ * emission probabilities rather than a full transition matrix for
+ * every token.  The results of first-best, n-best and marginal
+ * decoding are identical to those of the uncompiled decoder.
+ *
+ * <p>Because the probabilities are copied, a compiled decoder does
+ * not see changes to the HMM made after compilation.  Dynamic models
+ * that are still being trained should either not be compiled or be
+ * recompiled by calling {@code setCompiled(true)} again.  Emission
+ * probabilities are always computed from the HMM or the caches.
+ *
+ * <p>First-best decoding reuses a per-thread Viterbi lattice, grown
+ * as necessary to the longest input seen by the thread, whether or
+ * not the decoder is compiled.
+ *
  * @author Bob Carpenter
  * @version 4.0.0
  * @since   LingPipe2.1
@@ -145,6 +182,16 @@ public class HmmDecoder
     private double mLog2EmissionBeam;
     private double mLog2Beam;
 
+    private Compiled mCompiled;
+
+    private final ThreadLocal<Scratch> mScratch
+        = new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return new Scratch();
+            }
+        };
+
     /**
      * Construct an HMM decoder from the specified HMM.  No caching is
      * applied to estimates, and the beams are set to positive infinity,
@@ -305,6 +352,37 @@ public class HmmDecoder
         mEmissionLog2Cache = cache;
     }
 
+    /**
+     * Sets whether this decoder uses a compiled snapshot of the
+     * start, end and transition probabilities of its HMM.  Setting
+     * the value to {@code true} takes a new snapshot, even if the
+     * decoder was already compiled; setting it to {@code false}
+     * discards the snapshot.  See the class documentation for more
+     * information.
+     *
+     * <p><i>Warning:</i> This method should not be executed
+     * concurrently with any calls to decoding.
+     *
+     * @param compiled {@code true} to decode with a snapshot of the
+     * HMM's transition probabilities.
+     * @throws IllegalArgumentException If compiling and any of the
+     * start, end or transition probabilities of the HMM is not
+     * between 0.0 and 1.0 inclusive.
+     */
+    public void setCompiled(boolean compiled) {
+        mCompiled = compiled ? new Compiled(mHmm) : null;
+    }
+
+    /**
+     * Returns {@code true} if this decoder is using a compiled
+     * snapshot of its HMM's transition probabilities.
+     *
+     * @return {@code true} if this decoder is compiled.
+     */
+    public boolean isCompiled() {
+        return mCompiled != null;
+    }
+
     double[] cachedEmitProbs(String emission) {
         double[] emitProbs = mEmissionCache.get(emission);
         if (emitProbs != null) {
@@ -365,6 +443,16 @@ public class HmmDecoder
             : cachedEmitLog2Probs(emission);
     }
 
+    // fills buffer, which must be of length numTags, if not caching
+    double[] emitLog2Probs(String emission, double[] buffer) {
+        if (mEmissionLog2Cache != null)
+            return cachedEmitLog2Probs(emission);
+        for (int i = 0; i < buffer.length; ++i)
+            buffer[i] = mHmm.emitLog2Prob(i,emission);
+        additiveBeamPrune(buffer,mLog2EmissionBeam);
+        return buffer;
+    }
+
 
     /**
      * Return a complete tag-word lattice for the specified array of
@@ -482,6 +570,9 @@ public class HmmDecoder
                                       new double[numTags],
                                       new double[numTags],
                                       new double[0][numTags][numTags]);
+        Compiled compiled = mCompiled;
+        if (compiled != null)
+            return compiledLattice(emissions,compiled);
 
         double[] starts = new double[numTags];
         double[] emitProbs = emitProbs(emissions[0]);
@@ -512,6 +603,21 @@ public class HmmDecoder
         return new TagWordLattice(emissions,mHmm.stateSymbolTable(),
                                   starts,ends,transitions);
     }
+
+    TagWordLattice compiledLattice(String[] emissions, Compiled compiled) {
+        int numTokens = emissions.length;
+        int numTags = compiled.mNumTags;
+        double[][] emits = new double[numTokens][];
+        for (int i = 0; i < numTokens; ++i)
+            emits[i] = emitProbs(emissions[i]);
+        double[] starts = new double[numTags];
+        for (int tagId = 0; tagId < numTags; ++tagId)
+            starts[tagId] = compiled.mStarts[tagId] * emits[0][tagId];
+        return new TagWordLattice(emissions,mHmm.stateSymbolTable(),
+                                  starts,compiled.mEnds.clone(),
+                                  compiled.mTransits,compiled.mTransitsT,
+                                  emits);
+    }
             
     /**
      * Returns an array consisting of the states with the highest
@@ -586,7 +692,7 @@ public class HmmDecoder
     String[] firstBest(String[] emissions) {
         if (emissions.length == 0) 
             return Strings.EMPTY_STRING_ARRAY;
-        return new Viterbi(emissions).bestStates();
+        return new Viterbi(emissions,mScratch.get()).bestStates();
     }
 
     /**
@@ -613,7 +719,7 @@ public class HmmDecoder
                 = new ScoredObject<String[]>(Strings.EMPTY_STRING_ARRAY,0.0);
             return Iterators.<ScoredObject<String[]>>singleton(result);
         }
-        Viterbi viterbiLattice = new Viterbi(emissions);
+        Viterbi viterbiLattice = new Viterbi(emissions,null);
         return new NBestIterator(viterbiLattice,Integer.MAX_VALUE);
     }
 
@@ -641,7 +747,7 @@ public class HmmDecoder
                 = new ScoredObject<String[]>(Strings.EMPTY_STRING_ARRAY,0.0);
             return Iterators.<ScoredObject<String[]>>singleton(result);
         }
-        Viterbi viterbiLattice = new Viterbi(emissions);
+        Viterbi viterbiLattice = new Viterbi(emissions,null);
         return new NBestIterator(viterbiLattice,maxN);
     }
 
@@ -733,46 +839,67 @@ public class HmmDecoder
         }
     }
 
-    void unprunedSources(double[] sources, int[] survivors, double beam) {
-        double best = sources[0];
-        for (int i = 0; i < sources.length; ++i)
-            if (sources[i] > best) 
-                best = sources[i];
+    void unprunedSources(double[] lattice, int offset, int numStates,
+                         int[] survivors, double beam) {
+        double best = lattice[offset];
+        for (int i = 0; i < numStates; ++i)
+            if (lattice[offset + i] > best) 
+                best = lattice[offset + i];
         int next = 0;
-        for (int i = 0; i < sources.length; ++i)
-            if (sources[i] + beam >= best)
+        for (int i = 0; i < numStates; ++i)
+            if (lattice[offset + i] + beam >= best)
                 survivors[next++] = i;
         survivors[next] = -1;
     }
 
+    // lattice and back pointers are flat, indexed by
+    // emissionIndex * numStates + stateId
     private class Viterbi {
         private final String[] mEmissions;
-        private final double[][] mLattice;
-        private final int[][] mBackPts;
-        Viterbi(String[] emissions) {
+        private final int mNumStates;
+        private final Compiled mViterbiCompiled;
+        private final double[] mLattice;
+        private final int[] mBackPts;
+        Viterbi(String[] emissions, Scratch scratch) {
             mEmissions = emissions;
-            HiddenMarkovModel hmm = mHmm;
-            int numStates = hmm.stateSymbolTable().numSymbols();
+            mViterbiCompiled = mCompiled;
+            int numStates = mViterbiCompiled != null
+                ? mViterbiCompiled.mNumTags
+                : mHmm.stateSymbolTable().numSymbols();
+            mNumStates = numStates;
             int numEmits = emissions.length;
-            double[][] lattice = new double[numEmits][numStates];
-            mLattice = lattice;
-            int[][] backPts = new int[numEmits][numStates];
-            mBackPts = backPts;
+            if (scratch == null)
+                scratch = new Scratch();
+            scratch.ensureCapacity(numEmits,numStates);
+            mLattice = scratch.mLattice;
+            mBackPts = scratch.mBackPts;
             if (emissions.length == 0) {
                 return;
             }
+            if (mViterbiCompiled != null)
+                decodeCompiled(scratch);
+            else
+                decode(scratch);
+        }
+
+        void decode(Scratch scratch) {
+            String[] emissions = mEmissions;
+            HiddenMarkovModel hmm = mHmm;
+            int numStates = mNumStates;
+            int numEmits = emissions.length;
+            double[] lattice = mLattice;
+            int[] backPts = mBackPts;
             double[] emitLog2Probs = emitLog2Probs(emissions[0]);
-            
             for (int stateId = 0; stateId < numStates; ++stateId) {
-                lattice[0][stateId] 
+                lattice[stateId] 
                     = emitLog2Probs[stateId]
                     + hmm.startLog2Prob(stateId);
             }
-        
-            int[] unprunedSources = new int[numStates+1];
+            int[] unprunedSources = scratch.mSources;
             for (int i = 1; i < numEmits; ++i) {
-                double[] lastSlice = lattice[i-1];
-                unprunedSources(lastSlice,unprunedSources,mLog2Beam);
+                int lastOffset = (i-1) * numStates;
+                int offset = i * numStates;
+                unprunedSources(lattice,lastOffset,numStates,unprunedSources,mLog2Beam);
                 double[] emitLog2Probs2 = emitLog2Probs(emissions[i]);
                 for (int targetId = 0; targetId < numStates; ++targetId) {
                     if (Double.NEGATIVE_INFINITY != emitLog2Probs2[targetId]) {
@@ -780,45 +907,113 @@ public class HmmDecoder
                         int bk = 0; // default tag
                         for (int next = 0; unprunedSources[next] != -1; ++next) {
                             int sourceId = unprunedSources[next];
-                            double est = lastSlice[sourceId]
+                            double est = lattice[lastOffset + sourceId]
                                 + hmm.transitLog2Prob(sourceId,targetId);
                             if (est > best) {
                                 best = est;
                                 bk = sourceId;
                             }
                         }
-                        lattice[i][targetId] 
+                        lattice[offset + targetId] 
                             = best + emitLog2Probs2[targetId];
-                        backPts[i][targetId] = bk;
+                        backPts[offset + targetId] = bk;
                     } else {
-                        lattice[i][targetId] = Double.NEGATIVE_INFINITY;
-                        backPts[i][targetId] = 0; // default tag
+                        lattice[offset + targetId] = Double.NEGATIVE_INFINITY;
+                        backPts[offset + targetId] = 0; // default tag
                     }
                 }
             }
             // handles finals even if only one emission
-            double[] lastColumn = lattice[numEmits-1];
+            int lastOffset = (numEmits-1) * numStates;
             for (int i = 0; i < numStates; ++i)
-                lastColumn[i] += hmm.endLog2Prob(i);
+                lattice[lastOffset + i] += hmm.endLog2Prob(i);
+        }
+
+        // Same maximizations in the same source order as decode(),
+        // with the source in the outer loop so the inner loop runs
+        // over a contiguous row of transitions.
+        void decodeCompiled(Scratch scratch) {
+            String[] emissions = mEmissions;
+            Compiled compiled = mViterbiCompiled;
+            double[] log2Transits = compiled.mLog2Transits;
+            int numStates = mNumStates;
+            int numEmits = emissions.length;
+            double[] lattice = mLattice;
+            int[] backPts = mBackPts;
+            double[] emitLog2Probs = emitLog2Probs(emissions[0],scratch.mEmits);
+            for (int stateId = 0; stateId < numStates; ++stateId) {
+                lattice[stateId] 
+                    = emitLog2Probs[stateId]
+                    + compiled.mLog2Starts[stateId];
+            }
+            int[] unprunedSources = scratch.mSources;
+            for (int i = 1; i < numEmits; ++i) {
+                int lastOffset = (i-1) * numStates;
+                int offset = i * numStates;
+                int end = offset + numStates;
+                unprunedSources(lattice,lastOffset,numStates,unprunedSources,mLog2Beam);
+                Arrays.fill(lattice,offset,end,Double.NEGATIVE_INFINITY);
+                Arrays.fill(backPts,offset,end,0);
+                for (int next = 0; unprunedSources[next] != -1; ++next) {
+                    int sourceId = unprunedSources[next];
+                    double source = lattice[lastOffset + sourceId];
+                    int row = sourceId * numStates - offset;
+                    for (int k = offset; k < end; ++k) {
+                        double est = source + log2Transits[row + k];
+                        if (est > lattice[k]) {
+                            lattice[k] = est;
+                            backPts[k] = sourceId;
+                        }
+                    }
+                }
+                double[] emitLog2Probs2 = emitLog2Probs(emissions[i],scratch.mEmits);
+                for (int targetId = 0; targetId < numStates; ++targetId) {
+                    if (Double.NEGATIVE_INFINITY != emitLog2Probs2[targetId]) {
+                        lattice[offset + targetId] += emitLog2Probs2[targetId];
+                    } else {
+                        lattice[offset + targetId] = Double.NEGATIVE_INFINITY;
+                        backPts[offset + targetId] = 0; // default tag
+                    }
+                }
+            }
+            int lastOffset = (numEmits-1) * numStates;
+            for (int i = 0; i < numStates; ++i)
+                lattice[lastOffset + i] += compiled.mLog2Ends[i];
+        }
+
+        double score(int emissionIndex, int stateId) {
+            return mLattice[emissionIndex * mNumStates + stateId];
+        }
+
+        double transitLog2Prob(int sourceId, int targetId) {
+            return mViterbiCompiled != null
+                ? mViterbiCompiled.mLog2Transits[sourceId * mNumStates + targetId]
+                : mHmm.transitLog2Prob(sourceId,targetId);
+        }
+
+        double endLog2Prob(int stateId) {
+            return mViterbiCompiled != null
+                ? mViterbiCompiled.mLog2Ends[stateId]
+                : mHmm.endLog2Prob(stateId);
         }
             
         String[] bestStates() {
             HiddenMarkovModel hmm = mHmm;
-            int numStates = hmm.stateSymbolTable().numSymbols();
+            int numStates = mNumStates;
             int numEmits = mEmissions.length;
             if (numEmits == 0) return Strings.EMPTY_STRING_ARRAY;
-            int[][] backPts = mBackPts;
-            double[][] lattice = mLattice;
+            int[] backPts = mBackPts;
+            double[] lattice = mLattice;
         
             int[] bestStateIds = new int[numEmits];
             int bestStateId = 0;
-            double[] lastCol = lattice[numEmits-1];
+            int lastOffset = (numEmits-1) * numStates;
             for (int i = 1; i < numStates; ++i)
-                if (lastCol[i] > lastCol[bestStateId])
+                if (lattice[lastOffset + i] > lattice[lastOffset + bestStateId])
                     bestStateId = i;
             bestStateIds[numEmits-1] = bestStateId;
             for (int i = numEmits; --i > 0; )
-                bestStateIds[i-1] = backPts[i][bestStateIds[i]];
+                bestStateIds[i-1] = backPts[i * numStates + bestStateIds[i]];
             String[] bestStates = new String[numEmits];
             SymbolTable st = hmm.stateSymbolTable();
             for (int i = 0; i < bestStates.length; ++i)
@@ -835,11 +1030,11 @@ public class HmmDecoder
             mPQ = new BoundedPriorityQueue<State>(ScoredObject.comparator(),
                                                   maxSize);
             String[] emissions = vit.mEmissions;
-            int numStates = mHmm.stateSymbolTable().numSymbols();
+            int numStates = vit.mNumStates;
             int numEmits = emissions.length;
             int lastEmitIndex = numEmits-1;
             for (int tagId = 0; tagId < numStates; ++tagId) {
-                double contScore = vit.mLattice[lastEmitIndex][tagId];
+                double contScore = vit.score(lastEmitIndex,tagId);
                 if (contScore > Double.NEGATIVE_INFINITY) {
                     double score = 0.0;
                     mPQ.offer(new State(lastEmitIndex,score,contScore,
@@ -849,7 +1044,7 @@ public class HmmDecoder
         }
         @Override
         public ScoredObject<String[]> bufferNext() {
-            int numTags = mHmm.stateSymbolTable().numSymbols();
+            int numTags = mViterbi.mNumStates;
             int numEmissions = mViterbi.mEmissions.length;
             int lastEmitIndex = numEmissions-1;
             while (!mPQ.isEmpty()) {
@@ -863,16 +1058,16 @@ public class HmmDecoder
                 int emitTagId = st.mTagId;
                 double score = st.mScore;
                 if (emitIndex == lastEmitIndex)
-                    score += mHmm.endLog2Prob(emitTagId);
+                    score += mViterbi.endLog2Prob(emitTagId);
                 int emitIndexMinus1 = emitIndex-1;
                 // don't compile because only need one tagId
                 double emitLog2Prob = mHmm.emitLog2Prob(emitTagId,emission);
                 for (int tagId = 0; tagId < numTags; ++tagId) {
                     double nextScore = score
-                        + mHmm.transitLog2Prob(tagId,emitTagId)
+                        + mViterbi.transitLog2Prob(tagId,emitTagId)
                         + emitLog2Prob;
                     double contScore 
-                        = mViterbi.mLattice[emitIndexMinus1][tagId];
+                        = mViterbi.score(emitIndexMinus1,tagId);
                     if (nextScore > Double.NEGATIVE_INFINITY
                         && contScore > Double.NEGATIVE_INFINITY)
                         mPQ.offer(new State(emitIndexMinus1,
@@ -920,6 +1115,74 @@ public class HmmDecoder
         }
     }
 
+    // snapshot of start, end and transition estimates; transitions
+    // are indexed by sourceId * numTags + targetId, and the transposed
+    // transitions by targetId * numTags + sourceId
+    static final class Compiled {
+        final int mNumTags;
+        final double[] mStarts;
+        final double[] mLog2Starts;
+        final double[] mEnds;
+        final double[] mLog2Ends;
+        final double[] mTransits;
+        final double[] mTransitsT;
+        final double[] mLog2Transits;
+        Compiled(HiddenMarkovModel hmm) {
+            int numTags = hmm.stateSymbolTable().numSymbols();
+            mNumTags = numTags;
+            mStarts = new double[numTags];
+            mLog2Starts = new double[numTags];
+            mEnds = new double[numTags];
+            mLog2Ends = new double[numTags];
+            for (int tagId = 0; tagId < numTags; ++tagId) {
+                mStarts[tagId] = validate("start",tagId,hmm.startProb(tagId));
+                mLog2Starts[tagId] = hmm.startLog2Prob(tagId);
+                mEnds[tagId] = validate("end",tagId,hmm.endProb(tagId));
+                mLog2Ends[tagId] = hmm.endLog2Prob(tagId);
+            }
+            mTransits = new double[numTags * numTags];
+            mTransitsT = new double[numTags * numTags];
+            mLog2Transits = new double[numTags * numTags];
+            for (int sourceId = 0; sourceId < numTags; ++sourceId) {
+                for (int targetId = 0; targetId < numTags; ++targetId) {
+                    double transit = validate("transit",sourceId * numTags + targetId,
+                                              hmm.transitProb(sourceId,targetId));
+                    mTransits[sourceId * numTags + targetId] = transit;
+                    mTransitsT[targetId * numTags + sourceId] = transit;
+                    mLog2Transits[sourceId * numTags + targetId]
+                        = hmm.transitLog2Prob(sourceId,targetId);
+                }
+            }
+        }
+        static double validate(String name, int index, double prob) {
+            if (prob < 0.0 || prob > 1.0) {
+                String msg = "Probabilities must be between 0.0 and 1.0."
+                    + " Found " + name + "[" + index + "]=" + prob;
+                throw new IllegalArgumentException(msg);
+            }
+            return prob;
+        }
+    }
+
+    // per-thread Viterbi buffers, grown to the longest input seen
+    static final class Scratch {
+        double[] mLattice = new double[0];
+        int[] mBackPts = new int[0];
+        int[] mSources = new int[1];
+        double[] mEmits = new double[0];
+        void ensureCapacity(int numEmits, int numStates) {
+            if (mEmits.length != numStates) {
+                mEmits = new double[numStates];
+                mSources = new int[numStates + 1];
+            }
+            int size = numEmits * numStates;
+            if (size > mLattice.length) {
+                mLattice = new double[size];
+                mBackPts = new int[size];
+            }
+        }
+    }
+
     private static final class JointIterator extends Iterators.Modifier<ScoredObject<String[]>> {
         final double mLog2TotalProb;
         JointIterator(Iterator<ScoredObject<String[]>> nBestIterator, double log2TotalProb) {
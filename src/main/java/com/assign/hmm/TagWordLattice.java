@@ -48,6 +48,9 @@ import java.util.List;
 class TagWordLattice extends TagLattice<String> {
 
     final double[][][] mTransitions;
+    final double[] mFlatTransits;
+    final double[] mFlatTransitsT;
+    final double[][] mEmits;
     final double[][] mForwards;
     final double[] mForwardExps;
     final double[][] mBacks;
@@ -101,18 +104,7 @@ class TagWordLattice extends TagLattice<String> {
                           double[] startProbs,
                           double[] endProbs,
                           double[][][] transitProbs) {
-        for (int i = 0; i < startProbs.length; ++i) {
-            if (startProbs[i] < 0.0 || startProbs[i] > 1.0) {
-                String msg = "startProbs[" + i + "]=" + startProbs[i];
-                throw new IllegalArgumentException(msg);
-            }
-        }
-        for (int i = 0; i < endProbs.length; ++i) {
-            if (endProbs[i] < 0.0 || endProbs[i] > 1.0) {
-                String msg = "endProbs[" + i + "]=" + endProbs[i];
-                throw new IllegalArgumentException(msg);
-            }
-        }
+        validateStartsEnds(startProbs,endProbs);
         for (int i = 1; i < transitProbs.length; ++i) {
             for (int j = 0; j < transitProbs[i].length; ++j) {
                 for (int k = 0; k < transitProbs[i][j].length; ++k) {
@@ -130,6 +122,9 @@ class TagWordLattice extends TagLattice<String> {
         mStarts = startProbs;
         mEnds = endProbs;
         mTransitions = transitProbs;
+        mFlatTransits = null;
+        mFlatTransitsT = null;
+        mEmits = null;
         mTokens = tokens;
         mTagSymbolTable = tagSymbolTable;
         mForwards = new double[numTokens][numTags];
@@ -141,6 +136,87 @@ class TagWordLattice extends TagLattice<String> {
         computeAll();
     }
 
+    /**
+     * Construct a tag-word lattice from a flattened transition
+     * matrix and per-token emission probabilities rather than a full
+     * array of per-token transitions.  The transition score arriving
+     * at token {@code n} in {@code targetTag} from {@code sourceTag}
+     * is:
+     *
+     * <blockquote><code>
+     * transits[sourceTag*numTags + targetTag] * emits[n][targetTag]
+     * </code></blockquote>
+     *
+     * which is the value that would be stored in the per-token
+     * transition array passed to the other constructor, so the
+     * resulting lattice has exactly the same forward, backward and
+     * total values.  The transposed transitions, with source and
+     * target swapped, are used for the backward pass so that both
+     * passes have unit-stride inner loops.
+     *
+     * <p>The transition and emission arrays are not copied or
+     * modified and may be shared among lattices.  The transitions
+     * are assumed to have been validated; emissions must be between
+     * 0.0 and 1.0 inclusive.
+     *
+     * @param tokens Array of input tokens.
+     * @param tagSymbolTable Symbol table for tags.
+     * @param startProbs Array of start probabilities.
+     * @param endProbs Array of end probabilities.
+     * @param transits Flattened transition probabilities.
+     * @param transitsT Flattened transposed transition probabilities.
+     * @param emits Emission probabilities per token and tag.
+     * @throws IllegalArgumentException If any of the start, end or
+     * emission probabilities are not between 0.0 and 1.0 inclusive.
+     */
+    TagWordLattice(String[] tokens,
+                   SymbolTable tagSymbolTable,
+                   double[] startProbs,
+                   double[] endProbs,
+                   double[] transits,
+                   double[] transitsT,
+                   double[][] emits) {
+        validateStartsEnds(startProbs,endProbs);
+        for (int i = 1; i < emits.length; ++i) {
+            for (int k = 0; k < emits[i].length; ++k) {
+                if (emits[i][k] < 0.0 || emits[i][k] > 1.0) {
+                    String msg = "emits[" + i + "][" + k + "]=" + emits[i][k];
+                    throw new IllegalArgumentException(msg);
+                }
+            }
+        }
+        int numTags = tagSymbolTable.numSymbols();
+        int numTokens = tokens.length;
+        mStarts = startProbs;
+        mEnds = endProbs;
+        mTransitions = null;
+        mFlatTransits = transits;
+        mFlatTransitsT = transitsT;
+        mEmits = emits;
+        mTokens = tokens;
+        mTagSymbolTable = tagSymbolTable;
+        mForwards = new double[numTokens][numTags];
+        mForwardExps = new double[numTokens];
+        mBacks = new double[numTokens][numTags];
+        mBackExps = new double[numTokens];
+        computeAll();
+    }
+
+    private static void validateStartsEnds(double[] startProbs, double[] endProbs) {
+        for (int i = 0; i < startProbs.length; ++i) {
+            if (startProbs[i] < 0.0 || startProbs[i] > 1.0) {
+                String msg = "startProbs[" + i + "]=" + startProbs[i];
+                throw new IllegalArgumentException(msg);
+            }
+        }
+        for (int i = 0; i < endProbs.length; ++i) {
+            if (endProbs[i] < 0.0 || endProbs[i] > 1.0) {
+                String msg = "endProbs[" + i + "]=" + endProbs[i];
+                throw new IllegalArgumentException(msg);
+            }
+        }
+    }
+
     /**
      * Returns the array of tokens underlying this tag-word lattice.
      *
@@ -324,6 +400,13 @@ class TagWordLattice extends TagLattice<String> {
             String msg = "Token index must be > 0.";
             throw new IndexOutOfBoundsException(msg);
         }
+        if (mTransitions == null) {
+            int numTags = mTagSymbolTable.numSymbols();
+            if (sourceTagId < 0 || sourceTagId >= numTags)
+                throw new IndexOutOfBoundsException("sourceTagId=" + sourceTagId);
+            return mFlatTransits[sourceTagId * numTags + targetTagId]
+                * mEmits[tokenIndex][targetTagId];
+        }
         return mTransitions[tokenIndex][sourceTagId][targetTagId];
     }
 
@@ -589,6 +672,10 @@ class TagWordLattice extends TagLattice<String> {
             forwards[tagId] = mStarts[tagId];  // could assign array
         }
         mForwardExps[0] = log2ScaleExp(forwards);
+        if (mTransitions == null) {
+            computeFlatForward();
+            return;
+        }
         int numToks = mTokens.length;
         for (int tokenId = 1; tokenId < numToks; ++tokenId) {
             forwards = mForwards[tokenId-1];
@@ -614,6 +701,10 @@ class TagWordLattice extends TagLattice<String> {
         for (int tagId = 0; tagId < numSymbols; ++tagId)
             backs[tagId] = mEnds[tagId]; // could assign array
         mBackExps[lastTok] = log2ScaleExp(backs);
+        if (mTransitions == null) {
+            computeFlatBackward();
+            return;
+        }
         for (int tokenId = lastTok; --tokenId >= 0; ) {
             backs = mBacks[tokenId+1];
             double[][] transits = mTransitions[tokenId+1];
@@ -630,7 +721,51 @@ class TagWordLattice extends TagLattice<String> {
         }
     }
 
-    
+    // Same sums in the same order as computeForward(), but with the
+    // source tag in the outer loop so the inner loop is a unit-stride
+    // multiply-add over target tags.  Zero sources add nothing.
+    private void computeFlatForward() {
+        int numSymbols = tagSymbolTable().numSymbols();
+        double[] transits = mFlatTransits;
+        int numToks = mTokens.length;
+        for (int tokenId = 1; tokenId < numToks; ++tokenId) {
+            double[] forwards = mForwards[tokenId-1];
+            double[] nextForwards = mForwards[tokenId];
+            double[] emits = mEmits[tokenId];
+            for (int prevTagId = 0; prevTagId < numSymbols; ++prevTagId) {
+                double f = forwards[prevTagId];
+                if (f == 0.0) continue;
+                int offset = prevTagId * numSymbols;
+                for (int tagId = 0; tagId < numSymbols; ++tagId)
+                    nextForwards[tagId] += f * (transits[offset + tagId] * emits[tagId]);
+            }
+            mForwardExps[tokenId]
+                = log2ScaleExp(nextForwards) + mForwardExps[tokenId-1];
+        }
+    }
+
+    // Same sums in the same order as computeBackward(), using the
+    // transposed transitions to keep the inner loop unit-stride.
+    private void computeFlatBackward() {
+        int numSymbols = tagSymbolTable().numSymbols();
+        double[] transitsT = mFlatTransitsT;
+        int lastTok = mTokens.length - 1;
+        for (int tokenId = lastTok; --tokenId >= 0; ) {
+            double[] backs = mBacks[tokenId+1];
+            double[] prevBacks = mBacks[tokenId];
+            double[] emits = mEmits[tokenId+1];
+            for (int nextTagId = 0; nextTagId < numSymbols; ++nextTagId) {
+                double b = backs[nextTagId];
+                if (b == 0.0) continue;
+                double emit = emits[nextTagId];
+                int offset = nextTagId * numSymbols;
+                for (int tagId = 0; tagId < numSymbols; ++tagId)
+                    prevBacks[tagId] += b * (transitsT[offset + tagId] * emit);
+            }
+            mBackExps[tokenId] = log2ScaleExp(prevBacks)
+                + mBackExps[tokenId+1];
+        }
+    }
 
     // xs are linear probabilities here
     static double log2ScaleExp(double[] xs) {
@@ -20,8 +20,21 @@ import com.assign.stats.Model;
 
 import com.assign.util.Strings;
 
+import com.assign.util.Streams;
+
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.ObjectInput;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import java.nio.channels.FileChannel;
 
 import java.util.Arrays;
 
@@ -208,11 +221,53 @@ import java.util.Arrays;
  *
  * <P><i>Implementation Note:</i> The suffix indices are not included
  * in the binary serialization format. Instead, they are initialized
- * right after the binary data is read in.  This requires walking the
- * trie-structure and computing each node's suffix by doing a walk
- * from the root.  For instance, a million node 8-gram model will
- * require at most 8 million binary character searches during
- * initialization.
+ * right after the binary data is read in.  Because nodes are laid
+ * out breadth first, the suffix of a node is the daughter of its
+ * parent's suffix on the node's character, so all of the suffixes
+ * are computed in a single pass over the nodes with one binary
+ * character search per node.
+ *
+ * <P>Backoff ends at the shortest contexts, which have the most
+ * daughters.  The daughters of the root and of single character
+ * contexts with many daughters are therefore also indexed in dense
+ * tables by character, replacing their binary searches with a
+ * single array lookup.
+ *
+ * <h3>Memory-Mapped Models</h3>
+ *
+ * A compiled model may also be written to a file in a flat binary
+ * layout with {@link #writeMappedTo(File)} and opened again with
+ * {@link #mapFrom(File)}.  The mapped layout stores the parallel
+ * arrays above, including the suffix indices, as little-endian
+ * sections of the file, each padded to a multiple of eight bytes:
+ *
+ * <blockquote>
+ * <pre>
+ * magic:int  version:int
+ * maxNGram:int  logUniformEstimate:float
+ * numTotalNodes:int  numInternalNodes:int
+ * (firstChild:int)^(numInternalNodes+1)
+ * (suffix:int)^numTotalNodes
+ * (logProb:float)^numTotalNodes
+ * (logOneMinusLambda:float)^numInternalNodes
+ * (c:char)^numTotalNodes
+ * </pre>
+ * </blockquote>
+ *
+ * A mapped model reads its estimates straight from the memory-mapped
+ * file rather than copying them onto the heap, so opening one takes
+ * time independent of the size of the model, pages are loaded on
+ * demand, and processes on the same host mapping the same file
+ * share a single copy of it in the operating system's page cache.
+ * Each section must fit in a single buffer, which limits mapped
+ * models to <code>2<sup>29</sup>-2</code> nodes.
+ *
+ * <P>Models read from a serialized model keep the parallel arrays on
+ * the heap as plain arrays; only mapped models read them through
+ * buffers, so heap models pay nothing for the mapped format.
+ *
+ * <P>Compiled models are immutable, and both heap and mapped models
+ * may be used concurrently from multiple threads.
  *
  * @author  Bob Carpenter
  * @version 3.6
@@ -225,12 +280,24 @@ public class CompiledNGramProcessLM
 
     private final int mMaxNGram;
     private final float mLogUniformEstimate;
+    private final int mNumNodes;
+    private final int mNumInternalNodes;
+    // heap models hold the parallel arrays; null for mapped models
     private final char[] mChars;
     private final float[] mLogProbs;
     private final float[] mLogOneMinusLambdas;
     private final int[] mFirstChild;
     private final int[] mSuffix;
+    // mapped models hold buffers over the file; null for heap models
+    private final CharBuffer mMappedChars;
+    private final FloatBuffer mMappedLogProbs;
+    private final FloatBuffer mMappedLogOneMinusLambdas;
+    private final IntBuffer mMappedFirstChild;
+    private final IntBuffer mMappedSuffix;
     private final int mLastContextIndex;
+    // dense child tables for the root and unigram contexts; table[0]
+    // holds the lowest child char, table[1+c-low] the child index or -1
+    private final int[][] mDenseChildren;
 
     // Data Format
     // -------------------------------------------------
@@ -262,24 +329,191 @@ public class CompiledNGramProcessLM
         int numTotalNodes = dataIn.readInt();
         int lastInternalNodeIndex = dataIn.readInt();
         mLastContextIndex = lastInternalNodeIndex;
-        mChars = new char[numTotalNodes];
-        mLogProbs = new float[numTotalNodes];
-        mSuffix = new int[numTotalNodes];
-        Arrays.fill(mSuffix,CACHE_NOT_COMPUTED_VALUE);
-        mLogOneMinusLambdas = new float[lastInternalNodeIndex+1];
-        mFirstChild = new int[lastInternalNodeIndex+2];
-        mFirstChild[lastInternalNodeIndex+1] = numTotalNodes;
+        mNumNodes = numTotalNodes;
+        mNumInternalNodes = lastInternalNodeIndex+1;
+        char[] chars = new char[numTotalNodes];
+        float[] logProbs = new float[numTotalNodes];
+        float[] logOneMinusLambdas = new float[lastInternalNodeIndex+1];
+        int[] firstChild = new int[lastInternalNodeIndex+2];
+        firstChild[lastInternalNodeIndex+1] = numTotalNodes;
         for (int i = 0; i <= lastInternalNodeIndex; ++i) {
-            mChars[i] = dataIn.readChar();
-            mLogProbs[i] = dataIn.readFloat();
-            mLogOneMinusLambdas[i] = dataIn.readFloat();
-            mFirstChild[i] = dataIn.readInt();
+            chars[i] = dataIn.readChar();
+            logProbs[i] = dataIn.readFloat();
+            logOneMinusLambdas[i] = dataIn.readFloat();
+            firstChild[i] = dataIn.readInt();
         }
         for (int i = lastInternalNodeIndex+1; i < numTotalNodes; ++i) {
-            mChars[i] = dataIn.readChar();
-            mLogProbs[i] = dataIn.readFloat();
+            chars[i] = dataIn.readChar();
+            logProbs[i] = dataIn.readFloat();
+        }
+        mChars = chars;
+        mLogProbs = logProbs;
+        mLogOneMinusLambdas = logOneMinusLambdas;
+        mFirstChild = firstChild;
+        mSuffix = new int[numTotalNodes];
+        mMappedChars = null;
+        mMappedLogProbs = null;
+        mMappedLogOneMinusLambdas = null;
+        mMappedFirstChild = null;
+        mMappedSuffix = null;
+        mDenseChildren = compileDenseChildren();
+        compileSuffixes();
+    }
+
+    private CompiledNGramProcessLM(int maxNGram,
+                                   float logUniformEstimate,
+                                   int numTotalNodes,
+                                   int numInternalNodes,
+                                   CharBuffer chars,
+                                   FloatBuffer logProbs,
+                                   FloatBuffer logOneMinusLambdas,
+                                   IntBuffer firstChild,
+                                   IntBuffer suffix) {
+        mMaxNGram = maxNGram;
+        mLogUniformEstimate = logUniformEstimate;
+        mNumNodes = numTotalNodes;
+        mNumInternalNodes = numInternalNodes;
+        mLastContextIndex = numInternalNodes-1;
+        mChars = null;
+        mLogProbs = null;
+        mLogOneMinusLambdas = null;
+        mFirstChild = null;
+        mSuffix = null;
+        mMappedChars = chars;
+        mMappedLogProbs = logProbs;
+        mMappedLogOneMinusLambdas = logOneMinusLambdas;
+        mMappedFirstChild = firstChild;
+        mMappedSuffix = suffix;
+        mDenseChildren = compileDenseChildren();
+    }
+
+    /**
+     * Writes this model to the specified file in the memory-mappable
+     * format described in the class documentation.  The model may be
+     * read back with {@link #mapFrom(File)}.
+     *
+     * @param file File to which the model is written.
+     * @throws IOException If there is an I/O exception writing the
+     * file, or if the model is too large to be mapped.
+     */
+    public void writeMappedTo(File file) throws IOException {
+        checkMappable(mNumNodes);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buf
+                = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(MAPPED_BYTE_ORDER);
+            buf.putInt(MAPPED_MAGIC);
+            buf.putInt(MAPPED_VERSION);
+            buf.putInt(mMaxNGram);
+            buf.putFloat(mLogUniformEstimate);
+            buf.putInt(mNumNodes);
+            buf.putInt(mNumInternalNodes);
+            pad(buf);
+            for (int i = 0; i <= mNumInternalNodes; ++i)
+                buf = putInt(channel,buf,firstChild(i));
+            pad(buf);
+            for (int i = 0; i < mNumNodes; ++i)
+                buf = putInt(channel,buf,suffix(i));
+            pad(buf);
+            for (int i = 0; i < mNumNodes; ++i)
+                buf = putInt(channel,buf,Float.floatToRawIntBits(logProb(i)));
+            pad(buf);
+            for (int i = 0; i < mNumInternalNodes; ++i)
+                buf = putInt(channel,buf,
+                             Float.floatToRawIntBits(logOneMinusLambda(i)));
+            pad(buf);
+            for (int i = 0; i < mNumNodes; ++i) {
+                if (buf.remaining() < 2)
+                    drain(channel,buf);
+                buf.putChar(nodeChar(i));
+            }
+            pad(buf);
+            drain(channel,buf);
+        } finally {
+            Streams.closeOutputStream(out);
+        }
+    }
+
+    /**
+     * Returns a compiled model whose estimates are read directly from
+     * the specified file, which should have been written by {@link
+     * #writeMappedTo(File)}.  The file is mapped read-only and is not
+     * read into the heap; it must not be modified while the returned
+     * model is in use.
+     *
+     * @param file File to map.
+     * @return The language model in the file.
+     * @throws IOException If there is an I/O exception mapping the
+     * file, or if it is not in the mapped format.
+     */
+    public static CompiledNGramProcessLM mapFrom(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < MAPPED_HEADER_SIZE) {
+                String msg = "File too short for a mapped language model."
+                    + " Found size=" + fileSize
+                    + " file=" + file;
+                throw new IOException(msg);
+            }
+            ByteBuffer header
+                = channel.map(FileChannel.MapMode.READ_ONLY,0,MAPPED_HEADER_SIZE)
+                .order(MAPPED_BYTE_ORDER);
+            int magic = header.getInt();
+            int version = header.getInt();
+            if (magic != MAPPED_MAGIC || version != MAPPED_VERSION) {
+                String msg = "Not a mapped language model."
+                    + " Found magic=" + Integer.toHexString(magic)
+                    + " version=" + version
+                    + " file=" + file;
+                throw new IOException(msg);
+            }
+            int maxNGram = header.getInt();
+            float logUniformEstimate = header.getFloat();
+            int numTotalNodes = header.getInt();
+            int numInternalNodes = header.getInt();
+            if (numInternalNodes < 1
+                || numTotalNodes < numInternalNodes
+                || numTotalNodes > MAX_MAPPED_NODES) {
+                String msg = "Illegal node counts in mapped language model."
+                    + " Found numTotalNodes=" + numTotalNodes
+                    + " numInternalNodes=" + numInternalNodes
+                    + " file=" + file;
+                throw new IOException(msg);
+            }
+            long expectedSize = mappedSize(numTotalNodes,numInternalNodes);
+            if (fileSize != expectedSize) {
+                String msg = "Mapped language model has wrong size."
+                    + " Expected size=" + expectedSize
+                    + " Found size=" + fileSize
+                    + " file=" + file;
+                throw new IOException(msg);
+            }
+            long offset = MAPPED_HEADER_SIZE;
+            long firstChildBytes = 4L * (numInternalNodes+1);
+            IntBuffer firstChild
+                = map(channel,offset,firstChildBytes).asIntBuffer();
+            offset += padded(firstChildBytes);
+            IntBuffer suffix
+                = map(channel,offset,4L * numTotalNodes).asIntBuffer();
+            offset += padded(4L * numTotalNodes);
+            FloatBuffer logProbs
+                = map(channel,offset,4L * numTotalNodes).asFloatBuffer();
+            offset += padded(4L * numTotalNodes);
+            FloatBuffer logOneMinusLambdas
+                = map(channel,offset,4L * numInternalNodes).asFloatBuffer();
+            offset += padded(4L * numInternalNodes);
+            CharBuffer chars
+                = map(channel,offset,2L * numTotalNodes).asCharBuffer();
+            return new CompiledNGramProcessLM(maxNGram,logUniformEstimate,
+                                              numTotalNodes,numInternalNodes,
+                                              chars,logProbs,logOneMinusLambdas,
+                                              firstChild,suffix);
+        } finally {
+            raf.close(); // mappings remain valid after the channel closes
         }
-        compileSuffixes("",ROOT_NODE_INDEX);
     }
 
     /**
@@ -293,10 +527,10 @@ public class CompiledNGramProcessLM
      * for this language model.
      */
     public char[] observedCharacters() {
-        if (mFirstChild.length < 2) return new char[0];
-        char[] result = new char[mFirstChild[1]-1];
+        if (mNumInternalNodes < 1) return new char[0];
+        char[] result = new char[firstChild(1)-1];
         for (int i = 0; i < result.length; ++i)
-            result[i] = mChars[i+1];
+            result[i] = nodeChar(i+1);
         return result;
     }
 
@@ -321,7 +555,7 @@ public class CompiledNGramProcessLM
      * structure.
      */
     public int numNodes() {
-        return mChars.length;
+        return mNumNodes;
     }
 
     /**
@@ -339,8 +573,8 @@ public class CompiledNGramProcessLM
         for (int i = 0; i < length; ++i) {
             int k = getIndex(cs,i,length);
             if (k >= 0) {
-                while (k >= mLogOneMinusLambdas.length)
-                    k = mSuffix[k];
+                while (k >= mNumInternalNodes)
+                    k = suffix(k);
                 return k;
             }
         }
@@ -348,28 +582,79 @@ public class CompiledNGramProcessLM
     }
 
     int numInternalNodes() {
-        return mFirstChild.length;
+        return mNumInternalNodes+1;
+    }
+
+    // breadth-first order puts each node's parent and the parent's
+    // suffix before the node, so suffix(p.c) = dtr(suffix(p),c);
+    // only heap models compute suffixes, mapped models store them
+    private void compileSuffixes() {
+        mSuffix[ROOT_NODE_INDEX] = -1;
+        for (int parent = 0; parent < mNumInternalNodes; ++parent) {
+            int parentSuffix = mSuffix[parent];
+            int lastChild = mFirstChild[parent+1];
+            for (int i = mFirstChild[parent]; i < lastChild; ++i) {
+                mSuffix[i]
+                    = parent == ROOT_NODE_INDEX
+                    ? ROOT_NODE_INDEX
+                    : (parentSuffix < 0
+                       ? -1
+                       : getIndex(parentSuffix,mChars[i]));
+            }
+        }
+    }
+
+    // element accessors for code off the estimation paths, which read
+    // whichever of the arrays or mapped buffers this model holds
+
+    private char nodeChar(int i) {
+        return mChars != null ? mChars[i] : mMappedChars.get(i);
+    }
+
+    private float logProb(int i) {
+        return mLogProbs != null ? mLogProbs[i] : mMappedLogProbs.get(i);
+    }
+
+    private float logOneMinusLambda(int i) {
+        return mLogOneMinusLambdas != null
+            ? mLogOneMinusLambdas[i]
+            : mMappedLogOneMinusLambdas.get(i);
     }
 
-    private void compileSuffixes(String context, int index) {
-        mSuffix[index] = suffixIndex(context);
-        if (index >= mFirstChild.length) return;
-        int firstChildIndex = mFirstChild[index];
-        int lastChildIndex =
-            index+1 < mFirstChild.length
-            ? mFirstChild[index+1]
-            : mChars.length;
-        for (int i = firstChildIndex; i < lastChildIndex; ++i)
-            compileSuffixes(context + mChars[i], i);
+    private int firstChild(int i) {
+        return mFirstChild != null ? mFirstChild[i] : mMappedFirstChild.get(i);
     }
 
-    private int suffixIndex(String context) {
-        int suffixLength = context.length()-1;
-        if (suffixLength < 0) return -1;
-        char[] cs = new char[suffixLength];
-        for (int i = 0; i < suffixLength; ++i)
-            cs[i] = context.charAt(i+1);
-        return getIndex(cs,0,suffixLength);
+    private int suffix(int i) {
+        return mSuffix != null ? mSuffix[i] : mMappedSuffix.get(i);
+    }
+
+    // only nodes near the root are visited, so mapped models still
+    // open without reading the bulk of the file
+    private int[][] compileDenseChildren() {
+        int limit
+            = mNumInternalNodes > 1
+            ? Math.min(firstChild(1),mNumInternalNodes)
+            : mNumInternalNodes;
+        int[][] dense = new int[limit][];
+        for (int node = 0; node < limit; ++node) {
+            int firstChild = firstChild(node);
+            int lastChild = firstChild(node+1);
+            int fanout = lastChild - firstChild;
+            if (fanout == 0) continue;
+            if (node != ROOT_NODE_INDEX && fanout < DENSE_MIN_FANOUT) continue;
+            int low = nodeChar(firstChild);
+            int range = nodeChar(lastChild-1) - low + 1;
+            if (node != ROOT_NODE_INDEX && range > DENSE_MAX_RANGE_FACTOR * fanout)
+                continue;
+            int[] table = new int[range+1];
+            Arrays.fill(table,-1);
+            table[0] = low;
+            for (int i = firstChild; i < lastChild; ++i)
+                table[1 + nodeChar(i) - low] = i;
+            dense[node] = table;
+        }
+        return dense;
     }
 
     /**
@@ -420,12 +705,14 @@ public class CompiledNGramProcessLM
      */
     public final double log2Estimate(int contextIndex, 
                                      char nextChar) {
+        if (mChars == null)
+            return mappedLog2Estimate(contextIndex,nextChar);
         double sum = 0.0;
         int outcomeIndex;
         for (int currentContextIndex = contextIndex;
              (outcomeIndex = getIndex(currentContextIndex,nextChar)) < 0;
              currentContextIndex = mSuffix[currentContextIndex]) {
-            if (currentContextIndex < mLogOneMinusLambdas.length)
+            if (currentContextIndex < mNumInternalNodes)
                 sum += mLogOneMinusLambdas[currentContextIndex];
             if (currentContextIndex == ROOT_NODE_INDEX) {
                 return sum + mLogUniformEstimate;
@@ -434,6 +721,21 @@ public class CompiledNGramProcessLM
         return sum + mLogProbs[outcomeIndex];    
     }
 
+    private double mappedLog2Estimate(int contextIndex, char nextChar) {
+        double sum = 0.0;
+        int outcomeIndex;
+        for (int currentContextIndex = contextIndex;
+             (outcomeIndex = mappedGetIndex(currentContextIndex,nextChar)) < 0;
+             currentContextIndex = mMappedSuffix.get(currentContextIndex)) {
+            if (currentContextIndex < mNumInternalNodes)
+                sum += mMappedLogOneMinusLambdas.get(currentContextIndex);
+            if (currentContextIndex == ROOT_NODE_INDEX) {
+                return sum + mLogUniformEstimate;
+            }
+        }
+        return sum + mMappedLogProbs.get(outcomeIndex);
+    }
+
     /**
      * Returns the index of the context formed by appending the
      * specified character to the context of the specified index.  The
@@ -460,9 +762,9 @@ public class CompiledNGramProcessLM
         }
         for (int currentContextIndex = contextIndex;
              true;
-             currentContextIndex = mSuffix[currentContextIndex]) {         
+             currentContextIndex = suffix(currentContextIndex)) {         
             int outcomeIndex = getIndex(currentContextIndex,nextChar);
-            if (outcomeIndex < mLogOneMinusLambdas.length
+            if (outcomeIndex < mNumInternalNodes
                 && outcomeIndex >= 0) return outcomeIndex;
             if (currentContextIndex == ROOT_NODE_INDEX) 
                 return ROOT_NODE_INDEX; // can't go back further
@@ -470,8 +772,53 @@ public class CompiledNGramProcessLM
     }
 
     public final double log2Estimate(char[] cs, int start, int end) {
-        int len = mLogOneMinusLambdas.length;
         Strings.checkArgsStartEnd(cs,start,end);
+        return estimate(cs,start,end);
+    }
+
+    /**
+     * Writes the log (base 2) estimate of each of the specified
+     * character sequences into the corresponding position of the
+     * specified array.  The results are the same as calling {@link
+     * #log2Estimate(CharSequence)} on each sequence, but without
+     * allocating a character array per sequence, which makes this
+     * method the better choice for scoring many short sequences.
+     *
+     * <P>Like all of the estimation methods of this class, this method
+     * may be called concurrently from multiple threads.
+     *
+     * @param cSeqs Character sequences to estimate.
+     * @param log2Estimates Array into which to write the estimates.
+     * @throws IllegalArgumentException If the array of estimates is
+     * shorter than the array of sequences.
+     */
+    public void log2Estimates(CharSequence[] cSeqs, double[] log2Estimates) {
+        if (log2Estimates.length < cSeqs.length) {
+            String msg = "Estimate array must be as long as sequence array."
+                + " Found log2Estimates.length=" + log2Estimates.length
+                + " cSeqs.length=" + cSeqs.length;
+            throw new IllegalArgumentException(msg);
+        }
+        char[] cs = new char[BATCH_BUFFER_SIZE];
+        for (int i = 0; i < cSeqs.length; ++i) {
+            CharSequence cSeq = cSeqs[i];
+            int length = cSeq.length();
+            if (length > cs.length)
+                cs = new char[Math.max(length,2*cs.length)];
+            if (cSeq instanceof String) {
+                ((String) cSeq).getChars(0,length,cs,0);
+            } else {
+                for (int j = 0; j < length; ++j)
+                    cs[j] = cSeq.charAt(j);
+            }
+            log2Estimates[i] = estimate(cs,0,length);
+        }
+    }
+
+    private double estimate(char[] cs, int start, int end) {
+        if (mChars == null)
+            return mappedEstimate(cs,start,end);
+        int len = mNumInternalNodes;
         double sum = 0.0;
         int contextIndex = ROOT_NODE_INDEX;
         NEXT_CHAR:
@@ -498,6 +845,34 @@ public class CompiledNGramProcessLM
 
     }
 
+    // same as estimate(), reading the mapped buffers
+    private double mappedEstimate(char[] cs, int start, int end) {
+        int len = mNumInternalNodes;
+        double sum = 0.0;
+        int contextIndex = ROOT_NODE_INDEX;
+        NEXT_CHAR:
+        for (int i = start; i < end; ++i) {
+            char nextChar = cs[i];
+            int outcomeIndex;
+            while ((outcomeIndex = mappedGetIndex(contextIndex,nextChar)) < 0) {
+                if (contextIndex < len)
+                    sum += mMappedLogOneMinusLambdas.get(contextIndex);
+                if (contextIndex == ROOT_NODE_INDEX) {
+                    sum += mLogUniformEstimate;
+                    contextIndex = ROOT_NODE_INDEX;
+                    continue NEXT_CHAR;
+                }
+                contextIndex = mMappedSuffix.get(contextIndex);
+            }
+            sum += mMappedLogProbs.get(outcomeIndex);
+            contextIndex
+                = outcomeIndex < len
+                ? outcomeIndex
+                : mMappedSuffix.get(outcomeIndex);
+        }
+        return sum;
+    }
+
     public double log2ConditionalEstimate(CharSequence cSeq) {
         char[] cs = cSeq.toString().toCharArray();
         return log2ConditionalEstimate(cs,0,cs.length);
@@ -517,12 +892,12 @@ public class CompiledNGramProcessLM
             int contextIndex = getIndex(cs,contextStart,contextEnd);
             if (contextIndex == -1) continue; // no ctx, try shorter context
             while (contextIndex > mLastContextIndex)
-                contextIndex = mSuffix[contextIndex];  // no outcomes, 
+                contextIndex = suffix(contextIndex);  // no outcomes, 
             // go to shortest w. outcomes
             int outcomeIndex = getIndex(contextIndex,c);
             if (outcomeIndex != -1)
-                return total + mLogProbs[outcomeIndex];
-            total += mLogOneMinusLambdas[contextIndex];
+                return total + logProb(outcomeIndex);
+            total += logOneMinusLambda(contextIndex);
         }
         return total + mLogUniformEstimate;
     }
@@ -544,19 +919,19 @@ public class CompiledNGramProcessLM
         sb.append('\n');
         sb.append("i c suff prob 1-lambda firstChild");
         sb.append('\n');
-        for (int i = 0; i < mChars.length; ++i) {
+        for (int i = 0; i < mNumNodes; ++i) {
             sb.append(i);
             sb.append(" ");
-            sb.append(mChars[i]);
+            sb.append(nodeChar(i));
             sb.append(" ");
-            sb.append(mSuffix[i]);
+            sb.append(suffix(i));
             sb.append(" ");
-            sb.append(mLogProbs[i]);
-            if (i < mLogOneMinusLambdas.length) {
+            sb.append(logProb(i));
+            if (i < mNumInternalNodes) {
                 sb.append(" ");
-                sb.append(mFirstChild[i]);
+                sb.append(firstChild(i));
                 sb.append(" ");
-                sb.append(mLogOneMinusLambdas[i]);
+                sb.append(logOneMinusLambda(i));
             }
             sb.append("\n");
         }
@@ -564,7 +939,16 @@ public class CompiledNGramProcessLM
     }
 
     private int getIndex(int fromIndex, char c) {
-        if (fromIndex+1 >= mFirstChild.length) return -1;
+        if (mChars == null)
+            return mappedGetIndex(fromIndex,c);
+        if (fromIndex < mDenseChildren.length) {
+            int[] table = mDenseChildren[fromIndex];
+            if (table != null) {
+                int k = 1 + c - table[0];
+                return (k >= 1 && k < table.length) ? table[k] : -1;
+            }
+        }
+        if (fromIndex >= mNumInternalNodes) return -1;
         int low = mFirstChild[fromIndex];
         int high = mFirstChild[fromIndex+1]-1;
         while (low <= high) {
@@ -578,6 +962,29 @@ public class CompiledNGramProcessLM
         return -1;
     }
 
+    private int mappedGetIndex(int fromIndex, char c) {
+        if (fromIndex < mDenseChildren.length) {
+            int[] table = mDenseChildren[fromIndex];
+            if (table != null) {
+                int k = 1 + c - table[0];
+                return (k >= 1 && k < table.length) ? table[k] : -1;
+            }
+        }
+        if (fromIndex >= mNumInternalNodes) return -1;
+        int low = mMappedFirstChild.get(fromIndex);
+        int high = mMappedFirstChild.get(fromIndex+1)-1;
+        while (low <= high) {
+            int mid = (high + low)/2;
+            char midChar = mMappedChars.get(mid);
+            if (midChar == c) return mid;
+            else if (midChar < c)
+                low = (low == mid) ? mid+1 : mid;
+            else
+                high = (high == mid) ? mid-1 : mid;
+        }
+        return -1;
+    }
+
     private int getIndex(char[] cs, int start, int end) {
         int index = 0;
         for (int currentStart = start;
@@ -594,5 +1001,72 @@ public class CompiledNGramProcessLM
      */
     public static final int ROOT_NODE_INDEX = 0;
 
-    private static final int CACHE_NOT_COMPUTED_VALUE = -1;
+    static final int MAPPED_MAGIC = 0x4C504D31; // "LPM1"
+    static final int MAPPED_VERSION = 1;
+    static final ByteOrder MAPPED_BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int MAPPED_HEADER_SIZE = 24;
+    // largest node count whose int sections fit in a single buffer,
+    // 2^29-2 so the firstChild section of numNodes+1 ints does too
+    static final int MAX_MAPPED_NODES = (Integer.MAX_VALUE / 4) - 1;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+    private static final int BATCH_BUFFER_SIZE = 64;
+    // root always dense; unigram contexts dense when fanout >= min
+    // and char range within factor * fanout
+    static final int DENSE_MIN_FANOUT = 8;
+    static final int DENSE_MAX_RANGE_FACTOR = 4;
+
+    static long mappedSize(int numTotalNodes, int numInternalNodes) {
+        return MAPPED_HEADER_SIZE
+            + padded(4L * (numInternalNodes+1))
+            + padded(4L * numTotalNodes)
+            + padded(4L * numTotalNodes)
+            + padded(4L * numInternalNodes)
+            + padded(2L * numTotalNodes);
+    }
+
+    static long padded(long numBytes) {
+        return (numBytes + 7L) & ~7L;
+    }
+
+    private static void checkMappable(int numTotalNodes) throws IOException {
+        if (numTotalNodes > MAX_MAPPED_NODES) {
+            String msg = "Model too large to map."
+                + " Maximum number of nodes=" + MAX_MAPPED_NODES
+                + " Found number of nodes=" + numTotalNodes;
+            throw new IOException(msg);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long numBytes)
+        throws IOException {
+
+        return channel.map(FileChannel.MapMode.READ_ONLY,offset,numBytes)
+            .order(MAPPED_BYTE_ORDER);
+    }
+
+    private static ByteBuffer putInt(FileChannel channel, ByteBuffer buf, int n)
+        throws IOException {
+
+        if (buf.remaining() < 4)
+            drain(channel,buf);
+        buf.putInt(n);
+        return buf;
+    }
+
+    // the buffer is only drained when full and its capacity is a
+    // multiple of 8, so padding to a multiple of 8 always fits
+    private static void pad(ByteBuffer buf) {
+        while ((buf.position() & 7) != 0)
+            buf.put((byte) 0);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buf)
+        throws IOException {
+
+        buf.flip();
+        while (buf.hasRemaining())
+            channel.write(buf);
+        buf.clear();
+    }
+
 }
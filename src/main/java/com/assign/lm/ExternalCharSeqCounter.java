@@ -0,0 +1,440 @@
+/* ExternalCharSeqCounter.java */
+
+package com.assign.lm;
+
+import com.assign.io.BitInput;
+import com.assign.io.BitOutput;
+
+import com.assign.util.Streams;
+import com.assign.util.Strings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An <code>ExternalCharSeqCounter</code> counts substrings of
+ * collections too large for their counts to fit in memory by
+ * spilling counts to disk as sorted runs and merging the runs.
+ *
+ * <P>Substrings are counted in memory in a {@link TrieCharSeqCounter}
+ * until the estimated size of the counter exceeds the budget given at
+ * construction time.  The counter is then written to a temporary run
+ * file with a {@link BitTrieWriter} and counting starts again with an
+ * empty counter.  Runs may also be spilled explicitly with {@link
+ * #spill()}.  The size is estimated as {@link #BYTES_PER_SEQUENCE}
+ * times the number of distinct substrings in the counter.  Counting
+ * the substrings walks the trie, so the estimate is only refreshed
+ * after enough characters have been added that the counter may have
+ * reached the budget, but no sooner than every {@link
+ * #MIN_CHECK_INTERVAL_CHARS} characters and no later than after an
+ * eighth again as many characters as are already in the counter.  A
+ * run may therefore overshoot the budget by about an eighth.  The
+ * budget covers only the counts; the rest of the application needs
+ * heap of its own.  The counts do not depend on when runs are
+ * spilled, only the number of runs does.
+ *
+ * <P>The runs are merged with {@link #merge(double,long)}.  Runs are
+ * read back with {@link BitTrieReader}s and merged with a balanced
+ * tree of {@link MultiTrieReader}s; if there are more than {@link
+ * #MAX_MERGE_FAN_IN} runs, groups of runs are first merged into
+ * larger runs.  The merged stream is filtered through a {@link
+ * ScaleTrieReader} and a {@link PruneTrieReader} on the fly, so that
+ * only the counts which survive pruning are ever held in memory.
+ * This allows pruning thresholds to be applied to counts over the
+ * whole collection rather than to the counts of whatever part of it
+ * fits in memory.
+ *
+ * <P>The method {@link
+ * #compileMappedTo(File,int,double,double,long)} goes all the way from
+ * the runs to a compiled language model, writing it in the
+ * memory-mapped format of {@link CompiledNGramProcessLM} and
+ * returning the mapped model.  The pruned counts and the compiled
+ * model are never in memory at the same time.
+ *
+ * <P>Run files are created in the directory specified at
+ * construction time and deleted as they are merged or when {@link
+ * #close()} is called.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * External counters are not synchronized.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class ExternalCharSeqCounter {
+
+    private final int mMaxLength;
+    private final File mRunDirectory;
+    private final long mHeapBudgetBytes;
+    private final List<File> mRuns = new ArrayList<File>();
+    private TrieCharSeqCounter mCounter;
+    private long mCharsInRun = 0L;
+    private long mNextCheck = MIN_CHECK_INTERVAL_CHARS;
+    private boolean mEmpty = true;
+
+    /**
+     * Construct an external counter for substrings up to the
+     * specified maximum length, which spills runs to the specified
+     * directory whenever the estimated size of the counts in memory
+     * exceeds the specified number of bytes.
+     *
+     * @param maxLength Maximum length of substrings counted.
+     * @param runDirectory Directory in which to write runs.
+     * @param heapBudgetBytes Estimated size in bytes of the counts in
+     * memory above which they are spilled to disk.
+     * @throws IllegalArgumentException If the maximum length is
+     * negative, the heap budget is not positive or the run directory
+     * is not a directory.
+     */
+    public ExternalCharSeqCounter(int maxLength, File runDirectory,
+                                  long heapBudgetBytes) {
+        if (heapBudgetBytes <= 0L) {
+            String msg = "Heap budget must be positive."
+                + " Found heapBudgetBytes=" + heapBudgetBytes;
+            throw new IllegalArgumentException(msg);
+        }
+        if (!runDirectory.isDirectory()) {
+            String msg = "Run directory must be an existing directory."
+                + " Found runDirectory=" + runDirectory;
+            throw new IllegalArgumentException(msg);
+        }
+        mCounter = new TrieCharSeqCounter(maxLength); // checks length
+        mMaxLength = maxLength;
+        mRunDirectory = runDirectory;
+        mHeapBudgetBytes = heapBudgetBytes;
+    }
+
+    /**
+     * Returns the maximum length of substrings counted.
+     *
+     * @return Maximum substring length.
+     */
+    public int maxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * Returns the number of runs currently on disk.
+     *
+     * @return Number of runs on disk.
+     */
+    public int numRuns() {
+        return mRuns.size();
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character sequence.
+     *
+     * @param cSeq Character sequence whose substrings are counted.
+     * @throws IOException If there is an I/O error spilling a run.
+     */
+    public void incrementSubstrings(CharSequence cSeq) throws IOException {
+        char[] cs = Strings.toCharArray(cSeq);
+        incrementSubstrings(cs,0,cs.length,1);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character slice.
+     *
+     * @param cs Underlying characters.
+     * @param start Index of first character in slice.
+     * @param end Index of one past last character in slice.
+     * @throws IOException If there is an I/O error spilling a run.
+     * @throws IndexOutOfBoundsException If the specified start and
+     * one plus end point are not in the bounds of the character array.
+     */
+    public void incrementSubstrings(char[] cs, int start, int end)
+        throws IOException {
+
+        incrementSubstrings(cs,start,end,1);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character slice by the specified count.
+     *
+     * @param cs Underlying characters.
+     * @param start Index of first character in slice.
+     * @param end Index of one past last character in slice.
+     * @param count Amount by which to increment counts.
+     * @throws IOException If there is an I/O error spilling a run.
+     * @throws IndexOutOfBoundsException If the specified start and
+     * one plus end point are not in the bounds of the character array.
+     * @throws IllegalArgumentException If the count is negative.
+     */
+    public void incrementSubstrings(char[] cs, int start, int end,
+                                    int count) throws IOException {
+        mCounter.incrementSubstrings(cs,start,end,count);
+        mEmpty = false;
+        mCharsInRun += end - start;
+        if (mCharsInRun < mNextCheck) return;
+        long bytes = estimatedBytes();
+        if (bytes > mHeapBudgetBytes) {
+            spill();
+            return;
+        }
+        // each character adds at most maxLength substrings
+        long untilBudget = (mHeapBudgetBytes - bytes)
+            / (Math.max(1,mMaxLength) * BYTES_PER_SEQUENCE);
+        mNextCheck = mCharsInRun
+            + Math.max(MIN_CHECK_INTERVAL_CHARS,
+                       Math.max(untilBudget,mCharsInRun / 8L));
+    }
+
+    /**
+     * Returns the estimated size in bytes of the counts in memory,
+     * which is the number of distinct substrings counted times {@link
+     * #BYTES_PER_SEQUENCE}.  This method walks the whole counter.
+     *
+     * @return Estimated size of the counts in memory.
+     */
+    public long estimatedBytes() {
+        return mCounter.uniqueSequenceCount() * BYTES_PER_SEQUENCE;
+    }
+
+    /**
+     * Writes the counts in memory to a new run on disk and clears
+     * them from memory.  Does nothing if no counts have been added
+     * since the last run was spilled.
+     *
+     * @throws IOException If there is an I/O error writing the run.
+     */
+    public void spill() throws IOException {
+        if (mEmpty) return;
+        File run = newRun();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(run));
+        try {
+            BitOutput bitOut = new BitOutput(out);
+            TrieCharSeqCounter.writeCounter(mCounter,new BitTrieWriter(bitOut),
+                                            mMaxLength);
+            bitOut.flush();
+        } finally {
+            Streams.closeOutputStream(out);
+        }
+        clearCounter();
+    }
+
+    /**
+     * Returns a counter with the merged counts of all of the runs and
+     * the counts in memory, scaled by the specified factor and then
+     * pruned of all substrings whose scaled count is below the
+     * specified minimum.  After merging, this counter is empty and
+     * holds no runs.
+     *
+     * <P>Scaling rounds counts as described in {@link
+     * ScaleTrieReader}; a scale of <code>1.0</code> leaves the counts
+     * unchanged.  A minimum count of <code>1</code> or less does not
+     * prune.
+     *
+     * @param scale Factor by which to scale counts.
+     * @param minCount Minimum count of retained substrings.
+     * @return The merged counter.
+     * @throws IOException If there is an I/O error reading or writing
+     * runs.
+     * @throws IllegalArgumentException If the scale is not positive
+     * and finite, or the minimum count is negative.
+     */
+    public TrieCharSeqCounter merge(double scale, long minCount)
+        throws IOException {
+
+        spill();
+        while (mRuns.size() > MAX_MERGE_FAN_IN) {
+            List<File> merged = new ArrayList<File>();
+            for (int i = 0; i < mRuns.size(); i += MAX_MERGE_FAN_IN)
+                merged.add(mergeRuns(mRuns.subList(i,Math.min(mRuns.size(),
+                                                              i + MAX_MERGE_FAN_IN))));
+            mRuns.clear();
+            mRuns.addAll(merged);
+        }
+        if (mRuns.isEmpty())
+            return new TrieCharSeqCounter(mMaxLength);
+
+        List<InputStream> ins = new ArrayList<InputStream>();
+        try {
+            TrieReader reader = openRuns(mRuns,ins);
+            if (scale != 1.0)
+                reader = new ScaleTrieReader(reader,scale);
+            if (minCount > 1L)
+                reader = new PruneTrieReader(reader,minCount);
+            return TrieCharSeqCounter.readCounter(reader,mMaxLength);
+        } finally {
+            close(ins);
+            deleteRuns(mRuns);
+        }
+    }
+
+    /**
+     * Merges the counts, builds a process language model with the
+     * specified parameters from them, and writes the compiled model
+     * to the specified file in the format of {@link
+     * CompiledNGramProcessLM#writeMappedTo(File)}, returning the
+     * model mapped from the file.  Scaling and pruning are as for
+     * {@link #merge(double,long)}.
+     *
+     * <P>The language model is compiled through a temporary file in
+     * the run directory so that the counts may be released before the
+     * compiled model is read.
+     *
+     * @param file File to which the compiled model is written.
+     * @param numChars Maximum number of characters in training and
+     * test data.
+     * @param lambdaFactor Interpolation parameter.
+     * @param scale Factor by which to scale counts.
+     * @param minCount Minimum count of retained substrings.
+     * @return The compiled model mapped from the file.
+     * @throws IOException If there is an I/O error reading or writing
+     * runs or the model.
+     * @throws IllegalArgumentException If any of the parameters is
+     * illegal for the merge or the language model.
+     */
+    public CompiledNGramProcessLM compileMappedTo(File file, int numChars,
+                                                  double lambdaFactor,
+                                                  double scale,
+                                                  long minCount)
+        throws IOException {
+
+        NGramProcessLM lm
+            = new NGramProcessLM(numChars,lambdaFactor,merge(scale,minCount));
+        File compiled = File.createTempFile(RUN_PREFIX,".lm",mRunDirectory);
+        try {
+            OutputStream out
+                = new BufferedOutputStream(new FileOutputStream(compiled));
+            try {
+                ObjectOutputStream objOut = new ObjectOutputStream(out);
+                lm.compileTo(objOut);
+                objOut.flush();
+            } finally {
+                Streams.closeOutputStream(out);
+            }
+            lm = null; // release the counts before reading the model
+            InputStream in
+                = new BufferedInputStream(new FileInputStream(compiled));
+            try {
+                CompiledNGramProcessLM compiledLM
+                    = (CompiledNGramProcessLM) new ObjectInputStream(in).readObject();
+                compiledLM.writeMappedTo(file);
+            } catch (ClassNotFoundException e) {
+                String msg = "Could not read compiled model.";
+                throw new IOException(msg,e);
+            } finally {
+                Streams.closeInputStream(in);
+            }
+        } finally {
+            compiled.delete();
+        }
+        return CompiledNGramProcessLM.mapFrom(file);
+    }
+
+    /**
+     * Deletes all runs and clears the counts in memory.
+     */
+    public void close() {
+        deleteRuns(mRuns);
+        clearCounter();
+    }
+
+    private void clearCounter() {
+        mCounter = new TrieCharSeqCounter(mMaxLength);
+        mEmpty = true;
+        mCharsInRun = 0L;
+        mNextCheck = MIN_CHECK_INTERVAL_CHARS;
+    }
+
+    File newRun() throws IOException {
+        File run = File.createTempFile(RUN_PREFIX,".run",mRunDirectory);
+        run.deleteOnExit();
+        mRuns.add(run);
+        return run;
+    }
+
+    // merges and deletes the specified runs, returning the merged run
+    private File mergeRuns(List<File> runs) throws IOException {
+        File merged = File.createTempFile(RUN_PREFIX,".run",mRunDirectory);
+        merged.deleteOnExit();
+        List<InputStream> ins = new ArrayList<InputStream>();
+        OutputStream out = null;
+        try {
+            TrieReader reader = openRuns(runs,ins);
+            out = new BufferedOutputStream(new FileOutputStream(merged));
+            BitOutput bitOut = new BitOutput(out);
+            BitTrieWriter.copy(reader,new BitTrieWriter(bitOut));
+            bitOut.flush();
+        } finally {
+            Streams.closeOutputStream(out);
+            close(ins);
+        }
+        for (File run : runs)
+            run.delete();
+        return merged;
+    }
+
+    static TrieReader openRuns(List<File> runs, List<InputStream> ins)
+        throws IOException {
+
+        TrieReader[] readers = new TrieReader[runs.size()];
+        for (int i = 0; i < readers.length; ++i) {
+            InputStream in
+                = new BufferedInputStream(new FileInputStream(runs.get(i)),
+                                          READ_BUFFER_SIZE);
+            ins.add(in);
+            readers[i] = new BitTrieReader(new BitInput(in));
+        }
+        return mergeReaders(readers,0,readers.length);
+    }
+
+    static TrieReader mergeReaders(TrieReader[] readers, int start, int end) {
+        if (end - start == 1)
+            return readers[start];
+        int mid = (start + end) / 2;
+        return new MultiTrieReader(mergeReaders(readers,start,mid),
+                                   mergeReaders(readers,mid,end));
+    }
+
+    static void close(List<InputStream> ins) {
+        for (InputStream in : ins)
+            Streams.closeInputStream(in);
+    }
+
+    static void deleteRuns(List<File> runs) {
+        for (File run : runs)
+            run.delete();
+        runs.clear();
+    }
+
+    /**
+     * The minimum number of characters counted between checks of the
+     * estimated size of the counts against the budget.
+     */
+    public static final long MIN_CHECK_INTERVAL_CHARS = 1L << 16;
+
+    /**
+     * The estimated number of bytes of heap taken by each distinct
+     * substring in a {@link TrieCharSeqCounter}.  Measured live sizes
+     * range from about 10 bytes per substring for text with many
+     * distinct characters to about 15 for text with few.
+     */
+    public static final long BYTES_PER_SEQUENCE = 16L;
+
+    /**
+     * The maximum number of runs merged at once.
+     */
+    public static final int MAX_MERGE_FAN_IN = 32;
+
+    static final String RUN_PREFIX = "ngram-counts-";
+
+    static final int READ_BUFFER_SIZE = 1 << 16;
+
+}
@@ -0,0 +1,192 @@
+/* LMScorer.java */
+
+package com.assign.lm;
+
+/**
+ * An <code>LMScorer</code> is a cursor that estimates the characters
+ * of a sequence one at a time against a dynamic n-gram language
+ * model.  Scorers are created by {@link NGramProcessLM#scorer()} and
+ * {@link NGramBoundaryLM#scorer()}.
+ *
+ * <p>Each call to {@link #push(char)} returns the log (base 2)
+ * conditional estimate of the pushed character given the characters
+ * pushed before it, and then extends the context with the pushed
+ * character.  The scorer keeps a position in the model's trie for
+ * every context length up to the model's maximum, so pushing a
+ * character takes one daughter lookup per context length, rather
+ * than walking every context from the root as {@link
+ * NGramProcessLM#log2ConditionalEstimate(char[],int,int)} does.
+ * Nothing is allocated after construction.
+ *
+ * <p>The method {@link #mark()} records the current position and
+ * {@link #reset()} returns to it, both in time proportional to the
+ * maximum n-gram length.  For instance, spans sharing a prefix may be
+ * scored by pushing the prefix once, marking, and resetting before
+ * pushing each continuation.  The method {@link #clear()} returns to
+ * the start of a sequence and moves the mark there.
+ *
+ * <p>For a process language model, the sum of the estimates returned
+ * by pushing the characters of a sequence after a clear is the
+ * estimate returned by the model's {@link
+ * NGramProcessLM#log2Estimate(char[],int,int)}.  For a boundary
+ * language model, the sum of the pushes plus {@link
+ * #log2EndEstimate()} is, up to arithmetic rounding, the estimate of
+ * {@link NGramBoundaryLM#log2Estimate(char[],int,int)}.
+ *
+ * <h3>Training and Thread Safety</h3>
+ *
+ * Scorers hold nodes of the model's trie, which training replaces.
+ * After a model is trained or pruned, the estimates of its existing
+ * scorers are undefined until they are cleared.  Scorers are not
+ * thread safe, but any number of scorers may be used concurrently
+ * from different threads over a model that is not being trained.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class LMScorer {
+
+    private final NGramProcessLM mLM;
+    private final boolean mHasBoundary;
+    private final char mBoundaryChar;
+
+    // position of context of length j is mNodes[j] after consuming
+    // mOffsets[j] characters of a PAT node; null if never seen
+    private final Node[] mNodes;
+    private final int[] mOffsets;
+    private int mNumContexts;
+    private double mLog2Estimate;
+
+    private final Node[] mMarkNodes;
+    private final int[] mMarkOffsets;
+    private int mMarkNumContexts;
+    private double mMarkLog2Estimate;
+
+    LMScorer(NGramProcessLM lm) {
+        this(lm,false,'\u0000');
+    }
+
+    LMScorer(NGramProcessLM lm, char boundaryChar) {
+        this(lm,true,boundaryChar);
+    }
+
+    private LMScorer(NGramProcessLM lm, boolean hasBoundary,
+                     char boundaryChar) {
+        mLM = lm;
+        mHasBoundary = hasBoundary;
+        mBoundaryChar = boundaryChar;
+        int maxNGram = lm.maxNGram();
+        mNodes = new Node[maxNGram];
+        mOffsets = new int[maxNGram];
+        mMarkNodes = new Node[maxNGram];
+        mMarkOffsets = new int[maxNGram];
+        clear();
+    }
+
+    /**
+     * Returns the log (base 2) conditional estimate of the specified
+     * character given the characters pushed so far, and then pushes
+     * it onto the context.
+     *
+     * @param c Character to estimate and push.
+     * @return Log (base 2) conditional estimate of the character.
+     */
+    public double push(char c) {
+        double log2Estimate = peek(c);
+        mLog2Estimate += log2Estimate;
+        advance(c);
+        return log2Estimate;
+    }
+
+    /**
+     * Returns the log (base 2) conditional estimate of the specified
+     * character given the characters pushed so far, without pushing
+     * it.
+     *
+     * @param c Character to estimate.
+     * @return Log (base 2) conditional estimate of the character.
+     */
+    public double peek(char c) {
+        return mLM.log2ConditionalEstimate(mNodes,mOffsets,mNumContexts,c);
+    }
+
+    /**
+     * Returns the log (base 2) estimate of the sequence ending after
+     * the characters pushed so far.  For boundary language models,
+     * this is the conditional estimate of the boundary character,
+     * which is not pushed.  Process language models do not model the
+     * ends of sequences, so for them this is always <code>0.0</code>.
+     *
+     * @return Log (base 2) estimate of ending the sequence.
+     */
+    public double log2EndEstimate() {
+        return mHasBoundary ? peek(mBoundaryChar) : 0.0;
+    }
+
+    /**
+     * Returns the sum of the estimates returned by {@link
+     * #push(char)} since the scorer was last cleared.  After a
+     * reset, the sum is that at the mark.
+     *
+     * @return Log (base 2) estimate of the characters pushed.
+     */
+    public double log2Estimate() {
+        return mLog2Estimate;
+    }
+
+    /**
+     * Records the current position so that it may be returned to
+     * with {@link #reset()}.  This replaces any previous mark.
+     */
+    public void mark() {
+        System.arraycopy(mNodes,0,mMarkNodes,0,mNumContexts);
+        System.arraycopy(mOffsets,0,mMarkOffsets,0,mNumContexts);
+        mMarkNumContexts = mNumContexts;
+        mMarkLog2Estimate = mLog2Estimate;
+    }
+
+    /**
+     * Returns to the position recorded by the last call to {@link
+     * #mark()}, or to the start of the sequence if there has been no
+     * mark since the last clear.
+     */
+    public void reset() {
+        System.arraycopy(mMarkNodes,0,mNodes,0,mMarkNumContexts);
+        System.arraycopy(mMarkOffsets,0,mOffsets,0,mMarkNumContexts);
+        mNumContexts = mMarkNumContexts;
+        mLog2Estimate = mMarkLog2Estimate;
+    }
+
+    /**
+     * Returns to the start of a sequence, discarding the characters
+     * pushed so far, and marks the start.  For boundary language
+     * models, the start of a sequence follows a boundary character.
+     */
+    public void clear() {
+        mNodes[0] = mLM.substringCounter().mRootNode;
+        mOffsets[0] = 0;
+        mNumContexts = 1;
+        mLog2Estimate = 0.0;
+        if (mHasBoundary)
+            advance(mBoundaryChar);
+        mark();
+    }
+
+    private void advance(char c) {
+        int numContexts = Math.min(mNumContexts + 1,mNodes.length);
+        // longest first, so each step reads the unextended context
+        for (int j = numContexts - 1; j > 0; --j)
+            step(j-1,j,c);
+        mNodes[0] = mLM.substringCounter().mRootNode;
+        mOffsets[0] = 0;
+        mNumContexts = numContexts;
+    }
+
+    private void step(int from, int to, char c) {
+        Node node = mNodes[from];
+        Node next = node == null ? null : node.step(mOffsets[from],c);
+        mNodes[to] = next;
+        // a PAT node steps to itself, one char further along its path
+        mOffsets[to] = next != null && next == node ? mOffsets[from] + 1 : 0;
+    }
+
+}
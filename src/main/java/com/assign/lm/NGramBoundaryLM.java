@@ -294,6 +294,18 @@ public class NGramBoundaryLM
         mProcessLM.decrementUnigram(mBoundaryChar,count);
     }
 
+    /**
+     * Returns a scorer that estimates characters one at a time
+     * against this model, starting from the beginning of a sequence.
+     * The end of the sequence is estimated by {@link
+     * LMScorer#log2EndEstimate()}.  See {@link LMScorer} for details.
+     *
+     * @return A scorer for this model.
+     */
+    public LMScorer scorer() {
+        return new LMScorer(mProcessLM,mBoundaryChar);
+    }
+
     public double log2ConditionalEstimate(CharSequence cs) {
         if (cs.length() < 1) {
             String msg = "Conditional estimate must be at least one character.";
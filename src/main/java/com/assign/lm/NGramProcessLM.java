@@ -405,16 +405,29 @@ public class NGramProcessLM
     }
 
     public final double log2Estimate(CharSequence cSeq) {
-        char[] cs = Strings.toCharArray(cSeq);
-        return log2Estimate(cs,0,cs.length);
+        LMScorer scorer = scorer();
+        for (int i = 0; i < cSeq.length(); ++i)
+            scorer.push(cSeq.charAt(i));
+        return scorer.log2Estimate();
     }
 
     public final double log2Estimate(char[] cs, int start, int end) {
         Strings.checkArgsStartEnd(cs,start,end);
-        double sum = 0.0;
-        for (int i = start+1; i <= end; ++i)
-            sum += log2ConditionalEstimate(cs,start,i);
-        return sum;
+        LMScorer scorer = scorer();
+        for (int i = start; i < end; ++i)
+            scorer.push(cs[i]);
+        return scorer.log2Estimate();
+    }
+
+    /**
+     * Returns a scorer that estimates characters one at a time
+     * against this model, starting from an empty context.  See
+     * {@link LMScorer} for details.
+     *
+     * @return A scorer for this model.
+     */
+    public LMScorer scorer() {
+        return new LMScorer(this);
     }
 
     public void train(CharSequence cSeq) {
@@ -633,6 +646,26 @@ public class NGramProcessLM
         return com.assign.util.Math.log2(currentEstimate);
     }
 
+    // estimate of c given scorer positions for the contexts, shortest
+    // first, computed exactly as by log2ConditionalEstimate() above
+    double log2ConditionalEstimate(Node[] contexts, int[] offsets,
+                                   int numContexts, char c) {
+        double currentEstimate = mUniformEstimate;
+        for (int j = 0; j < numContexts && contexts[j] != null; ++j) {
+            long contextCount = contexts[j].contextCount(offsets[j]);
+            if (contextCount == 0) break;
+            long outcomeCount = contexts[j].outcomeCount(offsets[j],c);
+            double lambda
+                = lambda((double) contextCount,
+                         (double) contexts[j].numOutcomes(offsets[j]),
+                         mLambdaFactor);
+            currentEstimate
+                = lambda * (((double)outcomeCount) / (double)contextCount)
+                + (1.0 - lambda) * currentEstimate;
+        }
+        return com.assign.util.Math.log2(currentEstimate);
+    }
+
     /**
      * Returns the interpolation ratio for the specified character
      * slice interpreted as a context.  The hyperparameter used is
@@ -54,6 +54,15 @@ interface Node {
     public long totalNGramCount(int dtrLevel);
     public void countNodeTypes(ObjectToCounterMap<String> counter);
     public void addDaughters(LinkedList<Node> queue);
+    // positions for LMScorer: offset chars along this node's path,
+    // which is always 0 for daughter nodes; the counts agree with the
+    // path-level count(), contextCount() and numOutcomes()
+    public long contextCount(int offset);
+    public int numOutcomes(int offset);
+    public long outcomeCount(int offset, char c);
+    // node reached by c, or null; a PAT node returns itself while
+    // its path continues with c, at the next offset
+    public Node step(int offset, char c);
 }
 
 abstract class AbstractNode implements Node {
@@ -123,6 +132,19 @@ abstract class AbstractDtrNode extends AbstractNode {
         if (i < 0) return null;
         return dtrs()[i];
     }
+    public long contextCount(int offset) {
+        return contextCount();
+    }
+    public int numOutcomes(int offset) {
+        return numDtrs();
+    }
+    public long outcomeCount(int offset, char c) {
+        Node dtr = getDtr(c);
+        return dtr == null ? 0L : dtr.count();
+    }
+    public Node step(int offset, char c) {
+        return getDtr(c);
+    }
 
     public int numOutcomes(char[] cs, int start, int end) {
         if (start == end) return numDtrs();
@@ -449,6 +471,20 @@ abstract class ArrayDtrNode extends AbstractDtrNode {
 abstract class AbstractPATNode extends AbstractNode {
     abstract char[] chars();
     abstract int length();
+    // like chars()[i] without allocating
+    abstract char charAt(int i);
+    public long contextCount(int offset) {
+        return offset < length() ? count() : 0L;
+    }
+    public int numOutcomes(int offset) {
+        return offset < length() ? 1 : 0;
+    }
+    public long outcomeCount(int offset, char c) {
+        return step(offset,c) != null ? count() : 0L;
+    }
+    public Node step(int offset, char c) {
+        return offset < length() && charAt(offset) == c ? this : null;
+    }
     public Node prune(long minCount) {
         return count() < minCount ? null : this;
     }
@@ -600,6 +636,8 @@ abstract class PAT1Node extends AbstractPATNode {
     }
     @Override
     int length() { return 1; }
+    @Override
+    char charAt(int i) { return mC; }
     // cascade without break is intentional; checks all way down
     @Override
     @SuppressWarnings("fallthrough")
@@ -624,6 +662,8 @@ abstract class PAT2Node extends AbstractPATNode {
     }
     @Override
     int length() { return 2; }
+    @Override
+    char charAt(int i) { return i == 0 ? mC1 : mC2; }
     // cascade without break is intentional; checks all way down
     @Override
     @SuppressWarnings("fallthrough")
@@ -651,6 +691,8 @@ abstract class PAT3Node extends AbstractPATNode {
     }
     @Override
     int length() { return 3; }
+    @Override
+    char charAt(int i) { return i == 0 ? mC1 : i == 1 ? mC2 : mC3; }
     // cascade without break is intentional; checks all way down
     @Override
     @SuppressWarnings("fallthrough")
@@ -681,6 +723,10 @@ abstract class PAT4Node extends AbstractPATNode {
     }
     @Override
     int length() { return 4; }
+    @Override
+    char charAt(int i) {
+        return i == 0 ? mC1 : i == 1 ? mC2 : i == 2 ? mC3 : mC4;
+    }
     // cascade without break is intentional; checks all way down
     @Override
     @SuppressWarnings("fallthrough")
@@ -707,6 +753,8 @@ abstract class PATArrayNode extends AbstractPATNode {
     @Override
     int length() { return mCs.length; }
     @Override
+    char charAt(int i) { return mCs[i]; }
+    @Override
     boolean stringMatch(char[] cs, int start, int end) {
         for (int i = 0; i < (end-start); ++i)
             if (mCs[i] != cs[start+i]) return false;
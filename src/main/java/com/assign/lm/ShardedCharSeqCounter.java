@@ -0,0 +1,355 @@
+/* ShardedCharSeqCounter.java */
+
+package com.assign.lm;
+
+import com.assign.io.BitInput;
+import com.assign.io.BitOutput;
+
+import com.assign.util.Strings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A <code>ShardedCharSeqCounter</code> counts substrings from many
+ * threads at once by spreading the training data over a number of
+ * independent {@link TrieCharSeqCounter} shards and then merging the
+ * shards into a single counter.
+ *
+ * <P>Each thread calling one of the <code>incrementSubstrings()</code>
+ * methods is assigned a home shard, and counts into the first shard
+ * it finds unlocked starting from its home shard, only blocking if
+ * every shard is in use.  With at least as many shards as training
+ * threads, threads almost never wait for one another.  Because
+ * substring counts are additive and each call's slice is counted
+ * whole into a single shard, the merged counts are identical to
+ * those produced by calling {@link
+ * TrieCharSeqCounter#incrementSubstrings(char[],int,int)} serially
+ * on the same slices in any order.
+ *
+ * <P>The method {@link #merge()} combines the shards once training is
+ * done.  Shards are encoded with {@link BitTrieWriter} and merged
+ * pairwise with {@link MultiTrieReader}, the pairs in each round
+ * being merged concurrently, with the last merge being read directly
+ * into the resulting counter.  The merged counter may be used to
+ * construct a language model with {@link
+ * NGramProcessLM#NGramProcessLM(int,double,TrieCharSeqCounter)}.
+ *
+ * <P>The static method {@link #count(Iterator,int,int)} runs the whole
+ * process over an iterator of texts with a given number of threads.
+ *
+ * <P>Memory is the main cost of sharding.  Every shard holds its own
+ * trie, so the n-grams shared by the shards are stored once per
+ * shard until they are merged.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class ShardedCharSeqCounter {
+
+    private final int mMaxLength;
+    private final TrieCharSeqCounter[] mShards;
+    private final ReentrantLock[] mLocks;
+    private final AtomicInteger mNextHomeShard = new AtomicInteger(0);
+    private final ThreadLocal<Integer> mHomeShard
+        = new ThreadLocal<Integer>() {
+            @Override
+            protected Integer initialValue() {
+                return Integer.valueOf(mNextHomeShard.getAndIncrement()
+                                       % mShards.length);
+            }
+        };
+
+    /**
+     * Construct a sharded counter for substrings up to the specified
+     * maximum length with the specified number of shards.
+     *
+     * @param maxLength Maximum length of substrings counted.
+     * @param numShards Number of shards into which to count.
+     * @throws IllegalArgumentException If the maximum length is
+     * negative or the number of shards is less than one.
+     */
+    public ShardedCharSeqCounter(int maxLength, int numShards) {
+        if (numShards < 1) {
+            String msg = "Number of shards must be positive."
+                + " Found numShards=" + numShards;
+            throw new IllegalArgumentException(msg);
+        }
+        mMaxLength = maxLength;
+        mShards = new TrieCharSeqCounter[numShards];
+        mLocks = new ReentrantLock[numShards];
+        for (int i = 0; i < numShards; ++i) {
+            mShards[i] = new TrieCharSeqCounter(maxLength); // checks length
+            mLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the maximum length of substrings counted.
+     *
+     * @return Maximum substring length.
+     */
+    public int maxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * Returns the number of shards in this counter.
+     *
+     * @return Number of shards.
+     */
+    public int numShards() {
+        return mShards.length;
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character sequence.  This method may be called concurrently
+     * from multiple threads.
+     *
+     * @param cSeq Character sequence whose substrings are counted.
+     */
+    public void incrementSubstrings(CharSequence cSeq) {
+        char[] cs = Strings.toCharArray(cSeq);
+        incrementSubstrings(cs,0,cs.length,1);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character slice.  This method may be called concurrently from
+     * multiple threads.
+     *
+     * @param cs Underlying characters.
+     * @param start Index of first character in slice.
+     * @param end Index of one past last character in slice.
+     * @throws IndexOutOfBoundsException If the specified start and
+     * one plus end point are not in the bounds of the character array.
+     */
+    public void incrementSubstrings(char[] cs, int start, int end) {
+        incrementSubstrings(cs,start,end,1);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character slice by the specified count.  This method may be
+     * called concurrently from multiple threads.
+     *
+     * @param cs Underlying characters.
+     * @param start Index of first character in slice.
+     * @param end Index of one past last character in slice.
+     * @param count Amount by which to increment counts.
+     * @throws IndexOutOfBoundsException If the specified start and
+     * one plus end point are not in the bounds of the character array.
+     * @throws IllegalArgumentException If the count is negative.
+     */
+    public void incrementSubstrings(char[] cs, int start, int end,
+                                    int count) {
+        Strings.checkArgsStartEnd(cs,start,end);
+        int home = mHomeShard.get().intValue();
+        for (int k = 0; k < mShards.length; ++k) {
+            int shard = (home + k) % mShards.length;
+            if (mLocks[shard].tryLock()) {
+                try {
+                    mShards[shard].incrementSubstrings(cs,start,end,count);
+                } finally {
+                    mLocks[shard].unlock();
+                }
+                return;
+            }
+        }
+        mLocks[home].lock();
+        try {
+            mShards[home].incrementSubstrings(cs,start,end,count);
+        } finally {
+            mLocks[home].unlock();
+        }
+    }
+
+    /**
+     * Returns a single counter containing the sum of the counts in
+     * all of the shards.  This method must not be called concurrently
+     * with incrementing counts.  The shards are emptied by merging,
+     * so calling it again returns an empty counter.
+     *
+     * @return The merged counter.
+     * @throws IOException If there is an I/O error encoding or
+     * decoding the shards.
+     */
+    public TrieCharSeqCounter merge() throws IOException {
+        List<TrieCharSeqCounter> shards = new ArrayList<TrieCharSeqCounter>();
+        for (int i = 0; i < mShards.length; ++i) {
+            if (mShards[i].mRootNode.count(EMPTY_CHARS,0,0) > 0L)
+                shards.add(mShards[i]);
+            mShards[i] = new TrieCharSeqCounter(mMaxLength);
+        }
+        if (shards.isEmpty())
+            return new TrieCharSeqCounter(mMaxLength);
+        if (shards.size() == 1)
+            return shards.get(0);
+
+        ExecutorService executor
+            = Executors.newFixedThreadPool(Math.min(shards.size(),
+                                                    Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<byte[]>> encodings = new ArrayList<Future<byte[]>>();
+            for (final TrieCharSeqCounter shard : shards)
+                encodings.add(executor.submit(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+                        return encode(shard,mMaxLength);
+                    }
+                }));
+            shards.clear(); // release tries as they are encoded
+            List<byte[]> runs = get(encodings);
+            while (runs.size() > 2) {
+                List<Future<byte[]>> merges = new ArrayList<Future<byte[]>>();
+                for (int i = 0; i + 1 < runs.size(); i += 2) {
+                    final byte[] run1 = runs.get(i);
+                    final byte[] run2 = runs.get(i+1);
+                    merges.add(executor.submit(new Callable<byte[]>() {
+                        public byte[] call() throws IOException {
+                            return encode(new MultiTrieReader(reader(run1),
+                                                              reader(run2)));
+                        }
+                    }));
+                }
+                byte[] odd = runs.size() % 2 == 1 ? runs.get(runs.size()-1) : null;
+                runs = get(merges);
+                if (odd != null)
+                    runs.add(odd);
+            }
+            return TrieCharSeqCounter
+                .readCounter(new MultiTrieReader(reader(runs.get(0)),
+                                                 reader(runs.get(1))),
+                             mMaxLength);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the substring counts of the texts returned by the
+     * specified iterator, counted concurrently with the specified
+     * number of threads.  The counts are the same as those from
+     * incrementing the substrings of each text in turn.  The iterator
+     * is only accessed by one thread at a time.
+     *
+     * @param texts Iterator over the texts to count.
+     * @param maxLength Maximum length of substrings counted.
+     * @param numThreads Number of threads with which to count.
+     * @return Counter with the substring counts of the texts.
+     * @throws IOException If there is an I/O error merging the counts.
+     * @throws InterruptedException If the calling thread is
+     * interrupted while waiting for the counting threads.
+     * @throws IllegalArgumentException If the maximum length is
+     * negative or the number of threads is less than one.
+     */
+    public static TrieCharSeqCounter count(final Iterator<? extends CharSequence> texts,
+                                           int maxLength,
+                                           int numThreads)
+        throws IOException, InterruptedException {
+
+        final ShardedCharSeqCounter counter
+            = new ShardedCharSeqCounter(maxLength,numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        try {
+            for (int i = 0; i < numThreads; ++i)
+                workers.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        List<CharSequence> batch = new ArrayList<CharSequence>();
+                        while (nextBatch(texts,batch))
+                            for (CharSequence text : batch)
+                                counter.incrementSubstrings(text);
+                        return null;
+                    }
+                }));
+            for (Future<Void> worker : workers)
+                getResult(worker);
+        } finally {
+            executor.shutdownNow();
+        }
+        return counter.merge();
+    }
+
+    static boolean nextBatch(Iterator<? extends CharSequence> texts,
+                             List<CharSequence> batch) {
+        batch.clear();
+        synchronized (texts) {
+            while (batch.size() < BATCH_SIZE && texts.hasNext())
+                batch.add(texts.next());
+        }
+        return !batch.isEmpty();
+    }
+
+    static byte[] encode(TrieCharSeqCounter counter, int maxLength)
+        throws IOException {
+
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        BitOutput bitOut = new BitOutput(bytesOut);
+        TrieCharSeqCounter.writeCounter(counter,new BitTrieWriter(bitOut),
+                                        maxLength);
+        bitOut.flush();
+        return bytesOut.toByteArray();
+    }
+
+    static byte[] encode(TrieReader reader) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        BitOutput bitOut = new BitOutput(bytesOut);
+        BitTrieWriter.copy(reader,new BitTrieWriter(bitOut));
+        bitOut.flush();
+        return bytesOut.toByteArray();
+    }
+
+    static TrieReader reader(byte[] bytes) throws IOException {
+        return new BitTrieReader(new BitInput(new ByteArrayInputStream(bytes)));
+    }
+
+    static List<byte[]> get(List<Future<byte[]>> futures) throws IOException {
+        List<byte[]> results = new ArrayList<byte[]>(futures.size());
+        try {
+            for (Future<byte[]> future : futures)
+                results.add(getResult(future));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted merging shards.");
+        }
+        return results;
+    }
+
+    static <E> E getResult(Future<E> future)
+        throws IOException, InterruptedException {
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException("Shard failed.",cause);
+        }
+    }
+
+    static final int BATCH_SIZE = 64;
+
+    static final char[] EMPTY_CHARS = new char[0];
+
+}
@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.io.Serializable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
@@ -148,6 +149,8 @@ public class TokenizedLM
 
     private final int mNGramOrder;
 
+    private CollocationTracker mTracker = null;
+
     /**
      * Constructs a tokenized language model with the specified
      * tokenization factory and n-gram order.  The unknown token and
@@ -422,32 +425,11 @@ public class TokenizedLM
      */
     public void train(char[] cs, int start, int end) {
         Strings.checkArgsStartEnd(cs,start,end);
-        Tokenizer tokenizer =  mTokenizerFactory.tokenizer(cs,start,end-start);
-        List<String> tokenList = new ArrayList<String>();
-        while (true) {
-            if (mDynamicWhitespaceModel != null) {
-                String whitespace = tokenizer.nextWhitespace();
-                mDynamicWhitespaceModel.train(whitespace);
-            } // this'll pick up the last whitespace after last token
-            String token = tokenizer.nextToken();
-            if (token == null) break;
-            tokenList.add(token);
-        }
-        int[] tokIds = new int[tokenList.size()+2];
-        tokIds[0] = BOUNDARY_TOKEN;
-        tokIds[tokIds.length-1] = BOUNDARY_TOKEN;
-        Iterator<String> it = tokenList.iterator();
-        for (int i = 1; it.hasNext(); ++i) {
-            String token = it.next();
-            // train underlying token model just once per token
-            if (mDynamicUnknownTokenModel != null
-                && mSymbolTable.symbolToID(token) < 0) {
-                mDynamicUnknownTokenModel.train(token);
-            }
-            tokIds[i] = mSymbolTable.getOrAddSymbol(token);
-        }
+        int[] tokIds = trainTokenIds(cs,start,end,1);
         mCounter.incrementSubsequences(tokIds,0,tokIds.length);
         mCounter.decrementUnigram(BOUNDARY_TOKEN);
+        if (mTracker != null)
+            mTracker.touch(tokIds);
     }
 
 
@@ -484,32 +466,54 @@ public class TokenizedLM
             throw new IllegalArgumentException(msg);
         }
         if (count == 0) return;
+        int[] tokIds = trainTokenIds(cs,start,end,count);
+        mCounter.incrementSubsequences(tokIds,0,tokIds.length,count);
+        mCounter.decrementUnigram(BOUNDARY_TOKEN,count);
+        if (mTracker != null)
+            mTracker.touch(tokIds);
+    }
+
+    // ids of the slice's tokens between boundary tokens, adding new
+    // tokens; trains the dynamic whitespace and unknown token models
+    private int[] trainTokenIds(char[] cs, int start, int end, int count) {
         Tokenizer tokenizer =  mTokenizerFactory.tokenizer(cs,start,end-start);
-        List<String> tokenList = new ArrayList<String>();
+        boolean spans = tokenizer.supportsTokenSpans();
+        int[] tokIds = new int[16];
+        tokIds[0] = BOUNDARY_TOKEN;
+        int numIds = 1;
         while (true) {
             if (mDynamicWhitespaceModel != null) {
                 String whitespace = tokenizer.nextWhitespace();
                 mDynamicWhitespaceModel.train(whitespace,count);
             } // this'll pick up the last whitespace after last token
-            String token = tokenizer.nextToken();
-            if (token == null) break;
-            tokenList.add(token);
-        }
-        int[] tokIds = new int[tokenList.size()+2];
-        tokIds[0] = BOUNDARY_TOKEN;
-        tokIds[tokIds.length-1] = BOUNDARY_TOKEN;
-        Iterator<String> it = tokenList.iterator();
-        for (int i = 1; it.hasNext(); ++i) {
-            String token = it.next();
-            // train underlying token model just once per token
-            if (mDynamicUnknownTokenModel != null
-                && mSymbolTable.symbolToID(token) < 0) {
-                mDynamicUnknownTokenModel.train(token,count);
+            int id;
+            if (spans) {
+                if (!tokenizer.nextTokenSpan()) break;
+                int tokStart = start + tokenizer.lastTokenStartPosition();
+                int tokEnd = start + tokenizer.lastTokenEndPosition();
+                id = mSymbolTable.symbolToID(cs,tokStart,tokEnd);
+                if (id < 0) {
+                    // train underlying token model just once per token
+                    if (mDynamicUnknownTokenModel != null)
+                        mDynamicUnknownTokenModel.train(cs,tokStart,tokEnd,count);
+                    id = mSymbolTable.getOrAddSymbol(new String(cs,tokStart,tokEnd-tokStart));
+                }
+            } else {
+                String token = tokenizer.nextToken();
+                if (token == null) break;
+                id = mSymbolTable.symbolToID(token);
+                if (id < 0) {
+                    if (mDynamicUnknownTokenModel != null)
+                        mDynamicUnknownTokenModel.train(token,count);
+                    id = mSymbolTable.getOrAddSymbol(token);
+                }
             }
-            tokIds[i] = mSymbolTable.getOrAddSymbol(token);
+            if (numIds + 1 == tokIds.length)
+                tokIds = Arrays.copyOf(tokIds,2 * tokIds.length);
+            tokIds[numIds++] = id;
         }
-        mCounter.incrementSubsequences(tokIds,0,tokIds.length,count);
-        mCounter.decrementUnigram(BOUNDARY_TOKEN,count);
+        tokIds[numIds++] = BOUNDARY_TOKEN;
+        return Arrays.copyOf(tokIds,numIds);
     }
 
 
@@ -539,6 +543,8 @@ public class TokenizedLM
         for (int i = 0; i < len; ++i)
             tokIds[i] = mSymbolTable.getOrAddSymbol(tokens[i+offset]);
         mCounter.incrementSequence(tokIds,0,len,count);
+        if (mTracker != null)
+            mTracker.touch(tokIds);
     }
 
     /**
@@ -594,6 +600,8 @@ public class TokenizedLM
 
         // collect tokens, estimate whitespaces
         Tokenizer tokenizer = mTokenizerFactory.tokenizer(cs,start,end-start);
+        if (tokenizer.supportsTokenSpans())
+            return log2EstimateSpans(tokenizer,cs,start);
         List<String> tokenList = new ArrayList<String>();
         while (true) {
             String whitespace = tokenizer.nextWhitespace();
@@ -623,6 +631,44 @@ public class TokenizedLM
         return logEstimate;
     }
 
+    // same estimate as log2Estimate(), with tokens as slices of cs
+    private double log2EstimateSpans(Tokenizer tokenizer, char[] cs, int start) {
+        double logEstimate = 0.0;
+
+        // collect token spans, estimate whitespaces
+        int[] spans = new int[16];
+        int numTokens = 0;
+        while (true) {
+            String whitespace = tokenizer.nextWhitespace();
+            logEstimate += mWhitespaceModel.log2Estimate(whitespace);
+            if (!tokenizer.nextTokenSpan()) break;
+            if (2 * numTokens == spans.length)
+                spans = Arrays.copyOf(spans,2 * spans.length);
+            spans[2 * numTokens] = start + tokenizer.lastTokenStartPosition();
+            spans[2 * numTokens + 1] = start + tokenizer.lastTokenEndPosition();
+            ++numTokens;
+        }
+
+        // collect token ids, estimate unknown tokens
+        int[] tokIds = new int[numTokens+2];
+        tokIds[0] = BOUNDARY_TOKEN;
+        tokIds[tokIds.length-1] = BOUNDARY_TOKEN;
+        for (int i = 0; i < numTokens; ++i) {
+            int tokStart = spans[2 * i];
+            int tokEnd = spans[2 * i + 1];
+            tokIds[i+1] = mSymbolTable.symbolToID(cs,tokStart,tokEnd);
+            if (tokIds[i+1] < 0) {
+                logEstimate += mUnknownTokenModel.log2Estimate(cs,tokStart,tokEnd);
+            }
+        }
+
+        // estimate token ids excluding start, inlcuding end
+        for (int i = 2; i <= tokIds.length; ++i) {
+            logEstimate += conditionalLog2TokenEstimate(tokIds,0,i);
+        }
+        return logEstimate;
+    }
+
     class StringArrayAdapter implements ObjectHandler<int[]> {
         ObjectHandler<String[]> mHandler;
         public StringArrayAdapter(ObjectHandler<String[]> handler) {
@@ -642,8 +688,21 @@ public class TokenizedLM
         }
     }
 
-    abstract class Collector implements ObjectHandler<int[]> {
+    // Keeps the best n-gram nodes in a primitive min-heap with the
+    // worst survivor at the root; strings are only built for the
+    // survivors.  Ties are broken as a BoundedPriorityQueue fed in
+    // the same order breaks them: a full heap rejects an n-gram tied
+    // with its worst, and among tied survivors the earliest is
+    // evicted first.
+    abstract class Collector implements TrieIntSeqCounter.NodeHandler {
+        final boolean mReverse;
+        final int mMaxReturned;
         final BoundedPriorityQueue<ScoredObject<String[]>> mBPQ;
+        double[] mScores;
+        int[] mNodes;
+        long[] mOrders;
+        int mSize = 0;
+        long mNextOrder = 0L;
         Collector(int maxReturned, boolean reverse) {
             Comparator<ScoredObject<String[]>> comparator = null;
             if (reverse)
@@ -652,22 +711,106 @@ public class TokenizedLM
                 comparator = ScoredObject.comparator();
             mBPQ = new BoundedPriorityQueue<ScoredObject<String[]>>(comparator,
                                                                     maxReturned);
+            mReverse = reverse;
+            mMaxReturned = maxReturned;
+            int capacity = Math.min(maxReturned,INITIAL_COLLECTOR_CAPACITY);
+            mScores = new double[capacity];
+            mNodes = new int[capacity];
+            mOrders = new long[capacity];
         }
         SortedSet<ScoredObject<String[]>> nGramSet() {
+            int[] byOrder = survivorsByOrder();
+            for (int i = 0; i < byOrder.length; ++i) {
+                int k = byOrder[i];
+                mBPQ.offer(new ScoredObject<String[]>(nodeToTokens(mNodes[k]),
+                                                      mScores[k]));
+            }
             return mBPQ;
         }
         ScoredObject<String[]>[] nGrams() {
             // necessary for array
-            return mBPQ.<ScoredObject<String[]>>toArray(EMPTY_SCORED_OBJECT_STRING_ARRAY_ARRAY);
+            return nGramSet().<ScoredObject<String[]>>toArray(EMPTY_SCORED_OBJECT_STRING_ARRAY_ARRAY);
         }
-        public void handle(int[] nGram) {
-            for (int i = 0; i < nGram.length; ++i)
-                if (nGram[i] < 0) return;  // don't include boundaries
-            mBPQ.offer(new ScoredObject<String[]>(nGramToTokens(nGram),
-                                                  scoreNGram(nGram)));
-
+        int[] nodes() {
+            return Arrays.copyOf(mNodes,mSize);
         }
-        abstract double scoreNGram(int[] nGram);
+        public void handle(int[] nGram, int node) {
+            offer(scoreNGram(nGram,node),node);
+        }
+        void offer(double score, int node) {
+            long order = mNextOrder++;
+            if (mSize < mMaxReturned) {
+                if (mSize == mNodes.length) {
+                    int capacity = (int) Math.min(2L * mSize,mMaxReturned);
+                    mScores = Arrays.copyOf(mScores,capacity);
+                    mNodes = Arrays.copyOf(mNodes,capacity);
+                    mOrders = Arrays.copyOf(mOrders,capacity);
+                }
+                int k = mSize++;
+                mScores[k] = score;
+                mNodes[k] = node;
+                mOrders[k] = order;
+                siftUp(k);
+                return;
+            }
+            if (!better(score,mScores[0])) return;
+            mScores[0] = score;
+            mNodes[0] = node;
+            mOrders[0] = order;
+            siftDown(0);
+        }
+        // strictly better by score alone; ties lose to incumbents
+        boolean better(double score1, double score2) {
+            return mReverse ? score1 < score2 : score1 > score2;
+        }
+        // true if k1 is evicted before k2
+        boolean worse(int k1, int k2) {
+            if (better(mScores[k2],mScores[k1])) return true;
+            if (better(mScores[k1],mScores[k2])) return false;
+            return mOrders[k1] < mOrders[k2];
+        }
+        void siftUp(int k) {
+            while (k > 0) {
+                int parent = (k - 1) / 2;
+                if (!worse(k,parent)) return;
+                swap(k,parent);
+                k = parent;
+            }
+        }
+        void siftDown(int k) {
+            while (true) {
+                int worst = k;
+                int left = 2 * k + 1;
+                if (left < mSize && worse(left,worst)) worst = left;
+                if (left + 1 < mSize && worse(left+1,worst)) worst = left + 1;
+                if (worst == k) return;
+                swap(k,worst);
+                k = worst;
+            }
+        }
+        void swap(int k1, int k2) {
+            double score = mScores[k1];
+            mScores[k1] = mScores[k2];
+            mScores[k2] = score;
+            int node = mNodes[k1];
+            mNodes[k1] = mNodes[k2];
+            mNodes[k2] = node;
+            long order = mOrders[k1];
+            mOrders[k1] = mOrders[k2];
+            mOrders[k2] = order;
+        }
+        int[] survivorsByOrder() {
+            // pack (order,heap index) so a primitive sort restores order
+            long[] keys = new long[mSize];
+            for (int k = 0; k < mSize; ++k)
+                keys[k] = (mOrders[k] << 32) | k;
+            Arrays.sort(keys);
+            int[] result = new int[mSize];
+            for (int i = 0; i < mSize; ++i)
+                result[i] = (int) keys[i];
+            return result;
+        }
+        abstract double scoreNGram(int[] nGram, int node);
     }
 
 
@@ -676,8 +819,8 @@ public class TokenizedLM
             super(maxReturned,reverse);
         }
         @Override
-        double scoreNGram(int[] nGram) {
-            return mCounter.count(nGram,0,nGram.length);
+        double scoreNGram(int[] nGram, int node) {
+            return mCounter.nodeCount(node);
         }
     }
 
@@ -686,25 +829,29 @@ public class TokenizedLM
             super(maxReturned,false);
         }
         @Override
-        double scoreNGram(int[] nGram) {
+        double scoreNGram(int[] nGram, int node) {
             return chiSquaredIndependence(nGram);
         }
     }
 
     class SigTermCollector extends Collector {
         final LanguageModel.Tokenized mBGModel;
+        String[] mTokens = Strings.EMPTY_STRING_ARRAY;
         SigTermCollector(int maxReturned, LanguageModel.Tokenized bgModel,
                          boolean reverse) {
             super(maxReturned,reverse);
             mBGModel = bgModel;
         }
         @Override
-        double scoreNGram(int[] nGram) {
-            String[] tokens = nGramToTokens(nGram);
+        double scoreNGram(int[] nGram, int node) {
+            if (mTokens.length != nGram.length)
+                mTokens = new String[nGram.length];
+            for (int i = 0; i < nGram.length; ++i)
+                mTokens[i] = mSymbolTable.idToSymbol(nGram[i]);
             int totalSampleCount = mCounter.count(nGram,0,0);
-            int sampleCount = mCounter.count(nGram,0,nGram.length);
+            int sampleCount = mCounter.nodeCount(node);
             double bgProb
-                = mBGModel.tokenProbability(tokens,0,tokens.length);
+                = mBGModel.tokenProbability(mTokens,0,mTokens.length);
             double score = BinomialDistribution.z(bgProb,
                                                   sampleCount,
                                                   totalSampleCount);
@@ -712,6 +859,100 @@ public class TokenizedLM
         }
     }
 
+    class CollocationTracker {
+        final int mNGram;
+        final int mMinCount;
+        final int mMaxReturned;
+        int[] mRanked = null; // null until the first full scan
+        int mCompactions;
+        // nodes trained since the last ranking; slots hold node + 1
+        int[] mTable = new int[64];
+        int[] mTouched = new int[32];
+        int mNumTouched = 0;
+        CollocationTracker(int nGram, int minCount, int maxReturned) {
+            mNGram = nGram;
+            mMinCount = minCount;
+            mMaxReturned = maxReturned;
+        }
+        void touch(int[] tokIds) {
+            if (mRanked == null) return; // full scan pending anyway
+            for (int i = 0; i + mNGram <= tokIds.length; ++i) {
+                if (containsNegative(tokIds,i,i+mNGram)) continue;
+                int node = mCounter.node(tokIds,i,i+mNGram);
+                if (node != TrieIntSeqCounter.NO_NODE)
+                    add(node);
+            }
+        }
+        SortedSet<ScoredObject<String[]>> collocationSet() {
+            CollocationCollector collector
+                = new CollocationCollector(mMaxReturned);
+            if (mRanked == null
+                || mCompactions != mCounter.compactions()) {
+                mCounter.handleNGramNodes(mNGram,mMinCount,collector);
+            } else {
+                // previously ranked first, so ties favor them
+                int[] touched = Arrays.copyOf(mTouched,mNumTouched);
+                clear();
+                for (int i = 0; i < mRanked.length; ++i)
+                    add(mRanked[i]);
+                for (int i = 0; i < touched.length; ++i)
+                    add(touched[i]);
+                int[] nGram = new int[mNGram];
+                for (int i = 0; i < mNumTouched; ++i)
+                    rescore(mTouched[i],nGram,collector);
+            }
+            clear();
+            mCompactions = mCounter.compactions();
+            mRanked = collector.nodes();
+            return collector.nGramSet();
+        }
+        void rescore(int node, int[] nGram,
+                     CollocationCollector collector) {
+            if (mCounter.nodeCount(node) < mMinCount) return;
+            mCounter.nodeSymbols(node,nGram);
+            collector.handle(nGram,node);
+        }
+        void add(int node) {
+            int mask = mTable.length - 1;
+            int slot = TrieIntSeqCounter.hash(node,0) & mask;
+            for (int entry; (entry = mTable[slot]) != 0;
+                 slot = (slot + 1) & mask)
+                if (entry == node + 1) return;
+            mTable[slot] = node + 1;
+            if (mNumTouched == mTouched.length)
+                mTouched = Arrays.copyOf(mTouched,2 * mNumTouched);
+            mTouched[mNumTouched++] = node;
+            if (2 * mNumTouched > mTable.length)
+                rehash();
+        }
+        void rehash() {
+            mTable = new int[2 * mTable.length];
+            int mask = mTable.length - 1;
+            for (int i = 0; i < mNumTouched; ++i) {
+                int slot = TrieIntSeqCounter.hash(mTouched[i],0) & mask;
+                while (mTable[slot] != 0)
+                    slot = (slot + 1) & mask;
+                mTable[slot] = mTouched[i] + 1;
+            }
+        }
+        void clear() {
+            Arrays.fill(mTable,0);
+            mNumTouched = 0;
+        }
+    }
+
+    static boolean containsNegative(int[] is, int start, int end) {
+        for (int i = start; i < end; ++i)
+            if (is[i] < 0) return true;
+        return false;
+    }
+
+    String[] nodeToTokens(int node) {
+        int[] nGram = new int[mCounter.maxLength()];
+        int length = mCounter.nodeSymbols(node,nGram);
+        return nGramToTokens(Arrays.copyOf(nGram,length));
+    }
+
     String[] nGramToTokens(int[] nGram) {
         String[] toks = new String[nGram.length];
         for (int i = 0; i < nGram.length; ++i) {
@@ -786,11 +1027,69 @@ public class TokenizedLM
                                                         int minCount,
                                                         int maxReturned) {
         CollocationCollector collector = new CollocationCollector(maxReturned);
-        mCounter.handleNGrams(nGram,minCount,collector);
+        mCounter.handleNGramNodes(nGram,minCount,collector);
         return collector.nGramSet();
     }
 
 
+    /**
+     * Starts tracking the collocations of the specified length
+     * incrementally, replacing any collocations already being
+     * tracked.  After this call, the n-grams whose counts change
+     * through the training methods of this model are remembered, and
+     * {@link #trackedCollocationSet()} returns the best collocations
+     * without revisiting every n-gram in the model.
+     *
+     * <p>The first call to {@link #trackedCollocationSet()} after
+     * tracking starts, or after the counter has been pruned or
+     * rescaled, visits every n-gram exactly as {@link
+     * #collocationSet(int,int,int)} does.  Later calls only rescore
+     * the previously returned collocations and the n-grams trained
+     * since.  Because every score depends on the total count, this
+     * ranking is an approximation: an n-gram that was neither
+     * returned nor trained is not reconsidered even if its score
+     * has risen.  Counts changed directly through {@link
+     * #sequenceCounter()} are not seen by the tracker.
+     *
+     * @param nGram Length of n-grams to track.
+     * @param minCount Minimum count for a returned n-gram.
+     * @param maxReturned Maximum number of results returned.
+     * @throws IllegalArgumentException If the n-gram length is less
+     * than 2 or the maximum number returned is less than 1.
+     */
+    public void trackCollocations(int nGram, int minCount, int maxReturned) {
+        if (nGram < 2) {
+            String msg = "Require n-gram >= 2 for chi square independence."
+                + " Found nGram length=" + nGram;
+            throw new IllegalArgumentException(msg);
+        }
+        if (maxReturned < 1) {
+            String msg = "Require maximum size >= 1."
+                + " Found max size=" + maxReturned;
+            throw new IllegalArgumentException(msg);
+        }
+        mTracker = new CollocationTracker(nGram,minCount,maxReturned);
+    }
+
+    /**
+     * Returns the collocations being tracked in order of confidence
+     * that their token sequences are not independent.  See {@link
+     * #trackCollocations(int,int,int)} for how the collocations are
+     * updated as the model is trained.
+     *
+     * @return Tracked collocations in confidence order.
+     * @throws IllegalStateException If collocations are not being
+     * tracked.
+     */
+    public SortedSet<ScoredObject<String[]>> trackedCollocationSet() {
+        if (mTracker == null) {
+            String msg = "Collocations are not being tracked."
+                + " Call trackCollocations() first.";
+            throw new IllegalStateException(msg);
+        }
+        return mTracker.collocationSet();
+    }
+
     /**
      * Returns a list of scored n-grams ordered by the significance
      * of the degree to which their counts in this model exceed their
@@ -866,7 +1165,7 @@ public class TokenizedLM
                                               boolean reverse) {
         SigTermCollector collector
             = new SigTermCollector(maxReturned,backgroundLM,reverse);
-        mCounter.handleNGrams(nGram,minCount,collector);
+        mCounter.handleNGramNodes(nGram,minCount,collector);
         return collector.nGrams();
     }
 
@@ -876,7 +1175,7 @@ public class TokenizedLM
                                                      boolean reverse) {
         SigTermCollector collector
             = new SigTermCollector(maxReturned,backgroundLM,reverse);
-        mCounter.handleNGrams(nGram,minCount,collector);
+        mCounter.handleNGramNodes(nGram,minCount,collector);
         return collector.nGramSet();
     }
 
@@ -903,7 +1202,7 @@ public class TokenizedLM
                                                boolean reverse) {
         FreqTermCollector collector
             = new FreqTermCollector(maxReturned,reverse);
-        mCounter.handleNGrams(nGram,1,collector);
+        mCounter.handleNGramNodes(nGram,1,collector);
         return collector.nGrams();
     }
 
@@ -911,7 +1210,7 @@ public class TokenizedLM
                                                boolean reverse) {
         FreqTermCollector collector
             = new FreqTermCollector(maxReturned,reverse);
-        mCounter.handleNGrams(nGram,1,collector);
+        mCounter.handleNGramNodes(nGram,1,collector);
         return collector.nGramSet();
     }
 
@@ -1041,7 +1340,7 @@ public class TokenizedLM
      */
     @Override
     public String toString() {
-        return mCounter.mRootNode.toString(mSymbolTable);
+        return mCounter.toString(mSymbolTable);
     }
 
     private double conditionalLog2TokenEstimate(int[] tokIds,
@@ -1088,16 +1387,7 @@ public class TokenizedLM
     }
 
     private int lastInternalNodeIndex() {
-        int last = 1;
-        LinkedList<IntNode> queue = new LinkedList<IntNode>();
-        queue.add(mCounter.mRootNode);
-        for (int i = 1; !queue.isEmpty(); ++i) {
-            IntNode node = queue.removeFirst();
-            if (node.numExtensions() > 0)
-                last = i;
-            node.addDaughters(queue);
-        }
-        return last-1;
+        return mCounter.lastInternalNodeIndex();
     }
 
     /**
@@ -1148,7 +1438,7 @@ public class TokenizedLM
             ((LanguageModel.Dynamic) mLM.mWhitespaceModel).compileTo(objOut);
             objOut.writeInt(mLM.mNGramOrder);
 
-            int numNodes = mLM.mCounter.mRootNode.trieSize();
+            int numNodes = mLM.mCounter.trieSize();
             objOut.writeInt(numNodes);
 
             int lastInternalNodeIndex = mLM.lastInternalNodeIndex();
@@ -1165,7 +1455,7 @@ public class TokenizedLM
 
             LinkedList<int[]> queue = new LinkedList<int[]>();
             int[] outcomes
-                = mLM.mCounter.mRootNode
+                = mLM.mCounter
                 .integersFollowing(com.assign.util.Arrays.EMPTY_INT_ARRAY,0,0);
             for (int i = 0; i < outcomes.length; ++i)
                 queue.add(new int[] { outcomes[i] });
@@ -1180,7 +1470,7 @@ public class TokenizedLM
                     objOut.writeInt(i+queue.size()+1);
                 }
                 int[] followers
-                    = mLM.mCounter.mRootNode.integersFollowing(is,0,is.length);
+                    = mLM.mCounter.integersFollowing(is,0,is.length);
                 for (int j = 0; j < followers.length; ++j)
                     queue.add(concatenate(is,followers[j]));
             }
@@ -1192,6 +1482,8 @@ public class TokenizedLM
     static final ScoredObject[] EMPTY_SCORED_OBJECT_ARRAY
         = new ScoredObject[0];
 
+    static final int INITIAL_COLLECTOR_CAPACITY = 1024;
+
     static final ScoredObject<String[]>[] EMPTY_SCORED_OBJECT_STRING_ARRAY_ARRAY
         = emptyScoredObjectArray();
 
@@ -0,0 +1,218 @@
+/* BitParallelEditDistance.java */
+
+package com.assign.spell;
+
+import com.assign.util.BoundedProximity;
+import com.assign.util.Distance;
+import com.assign.util.Proximity;
+
+/**
+ * The <code>BitParallelEditDistance</code> class computes exactly the
+ * same distances and proximities as {@link EditDistance}, using
+ * Myers' bit-vector algorithm when the shorter of the two sequences
+ * is at most 64 characters long.
+ *
+ * <p>The bit-vector algorithm encodes a whole column of the edit
+ * distance lattice in the bits of two <code>long</code> values
+ * holding the positive and negative vertical differences between
+ * adjacent cells.  Each character of the longer sequence then updates
+ * the column with a constant number of word operations, so the
+ * distance is computed in time <code>O(n)</code> rather than
+ * <code>O(n*m)</code>.  With transposition, Hyyr&ouml;'s extension
+ * adds the adjacent transposition term, giving the same restricted
+ * Damerau-Levenshtein distance as {@link EditDistance}.
+ *
+ * <p>If both sequences are longer than 64 characters, the computation
+ * falls back to {@link EditDistance#editDistance(CharSequence,CharSequence,boolean)}.
+ *
+ * <p>The input sequences are copied into character buffers and the
+ * pattern masks are built in scratch space held per thread, so
+ * comparisons do not allocate.  Instances are thread safe.
+ *
+ * <h4>References</h4>
+ *
+ * <ul>
+ * <li>Myers, Gene. 1999. A fast bit-vector algorithm for approximate
+ * string matching based on dynamic programming.  <i>Journal of the
+ * ACM</i> <b>46</b>(3):395--415.</li>
+ * <li>Hyyr&ouml;, Heikki.  2001.  Explaining and extending the
+ * bit-parallel approximate string matching algorithm of Myers.
+ * Technical report A-2001-10, University of Tampere.</li>
+ * </ul>
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class BitParallelEditDistance
+    implements Distance<CharSequence>, Proximity<CharSequence>,
+               BoundedProximity<CharSequence> {
+
+    private final boolean mAllowTransposition;
+
+    /**
+     * Construct a bit-parallel edit distance with or without
+     * transposition based on the specified flag.
+     *
+     * @param allowTransposition Set to <code>true</code> to allow
+     * transposition edits in the constructed distance.
+     */
+    public BitParallelEditDistance(boolean allowTransposition) {
+        mAllowTransposition = allowTransposition;
+    }
+
+    /**
+     * Returns the edit distance between the specified character
+     * sequences, which is the same as that returned by {@link
+     * EditDistance#distance(CharSequence,CharSequence)}.
+     *
+     * @param cSeq1 First character sequence.
+     * @param cSeq2 Second character sequence.
+     * @return Edit distance between the character sequences.
+     */
+    public double distance(CharSequence cSeq1, CharSequence cSeq2) {
+        return editDistance(cSeq1,cSeq2,mAllowTransposition);
+    }
+
+    /**
+     * Returns the proximity between the character sequences, which
+     * is the negation of the distance.
+     *
+     * @param cSeq1 First character sequence.
+     * @param cSeq2 Second character sequence.
+     * @return Proximity between the character sequences.
+     */
+    public double proximity(CharSequence cSeq1, CharSequence cSeq2) {
+        return -distance(cSeq1,cSeq2);
+    }
+
+    /**
+     * Returns the proximity between the character sequences if it is
+     * at least the specified threshold, and otherwise a value below
+     * the threshold.  The difference in length of the sequences is a
+     * lower bound on their distance, so sequences whose lengths differ
+     * by more than <code>-threshold</code> are rejected without
+     * comparing any characters.
+     *
+     * @param cSeq1 First character sequence.
+     * @param cSeq2 Second character sequence.
+     * @param threshold Minimum proximity of interest.
+     * @return Proximity between the character sequences if it reaches
+     * the threshold, otherwise a value below the threshold.
+     */
+    public double proximityAtLeast(CharSequence cSeq1, CharSequence cSeq2,
+                                   double threshold) {
+        int lengthDiff = Math.abs(cSeq1.length() - cSeq2.length());
+        if (-lengthDiff < threshold) return -lengthDiff;
+        return proximity(cSeq1,cSeq2);
+    }
+
+    /**
+     * Returns a string representation of this edit distance.
+     *
+     * @return A string representation of this edit distance.
+     */
+    @Override
+    public String toString() {
+        return "BitParallelEditDistance(" + mAllowTransposition + ")";
+    }
+
+    /**
+     * Returns the edit distance between the character sequences with
+     * or without transpositions as specified.  The result is the same
+     * as {@link EditDistance#editDistance(CharSequence,CharSequence,boolean)}.
+     * This method is thread safe.
+     *
+     * @param cSeq1 First character sequence.
+     * @param cSeq2 Second character sequence.
+     * @param allowTransposition Set to <code>true</code> to allow
+     * transposition edits.
+     * @return Edit distance between the character sequences.
+     */
+    public static int editDistance(CharSequence cSeq1,
+                                   CharSequence cSeq2,
+                                   boolean allowTransposition) {
+        // pattern is the shorter sequence
+        if (cSeq1.length() < cSeq2.length()) {
+            CharSequence temp = cSeq1;
+            cSeq1 = cSeq2;
+            cSeq2 = temp;
+        }
+        int m = cSeq2.length();
+        int n = cSeq1.length();
+        if (m == 0) return n;
+        if (m > CharMasks.MAX_PATTERN_LENGTH)
+            return EditDistance.editDistance(cSeq1,cSeq2,allowTransposition);
+
+        CharMasks masks = CharMasks.get();
+        char[] text = masks.chars1(cSeq1);
+        char[] pattern = masks.chars2(cSeq2);
+        masks.setPattern(pattern,m);
+        try {
+            return allowTransposition
+                ? distanceTranspose(masks,text,n,m)
+                : distanceNonTranspose(masks,text,n,m);
+        } finally {
+            masks.clear();
+        }
+    }
+
+    private static int distanceNonTranspose(CharMasks masks, char[] text,
+                                            int n, int m) {
+        long highBit = 1L << (m - 1);
+        long vp = -1L;
+        long vn = 0L;
+        int score = m;
+        for (int j = 0; j < n; ++j) {
+            long eq = masks.mask(text[j]);
+            long d0 = (((eq & vp) + vp) ^ vp) | eq | vn;
+            long hp = vn | ~(d0 | vp);
+            long hn = vp & d0;
+            if ((hp & highBit) != 0) ++score;
+            else if ((hn & highBit) != 0) --score;
+            hp = (hp << 1) | 1L; // first row of lattice is j deletes
+            hn = hn << 1;
+            vp = hn | ~(d0 | hp);
+            vn = hp & d0;
+        }
+        return score;
+    }
+
+    private static int distanceTranspose(CharMasks masks, char[] text,
+                                         int n, int m) {
+        long highBit = 1L << (m - 1);
+        long vp = -1L;
+        long vn = 0L;
+        long d0 = 0L;
+        long lastEq = 0L;
+        int score = m;
+        for (int j = 0; j < n; ++j) {
+            long eq = masks.mask(text[j]);
+            long tr = (((~d0) & eq) << 1) & lastEq;
+            d0 = (((eq & vp) + vp) ^ vp) | eq | vn | tr;
+            long hp = vn | ~(d0 | vp);
+            long hn = vp & d0;
+            if ((hp & highBit) != 0) ++score;
+            else if ((hn & highBit) != 0) --score;
+            hp = (hp << 1) | 1L;
+            hn = hn << 1;
+            vp = hn | ~(d0 | hp);
+            vn = hp & d0;
+            lastEq = eq;
+        }
+        return score;
+    }
+
+    /**
+     * Bit-parallel edit distance allowing transposition.  The
+     * implementation is thread safe and may be accessed concurrently.
+     */
+    public static final BitParallelEditDistance TRANSPOSING
+        = new BitParallelEditDistance(true);
+
+    /**
+     * Bit-parallel edit distance disallowing transposition.  The
+     * implementation is thread safe and may be accessed concurrently.
+     */
+    public static final BitParallelEditDistance NON_TRANSPOSING
+        = new BitParallelEditDistance(false);
+
+}
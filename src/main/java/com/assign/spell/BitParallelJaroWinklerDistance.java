@@ -0,0 +1,190 @@
+/* BitParallelJaroWinklerDistance.java */
+
+package com.assign.spell;
+
+import com.assign.util.BoundedProximity;
+import com.assign.util.Distance;
+import com.assign.util.Proximity;
+
+/**
+ * The <code>BitParallelJaroWinklerDistance</code> class computes
+ * exactly the same distances and proximities as {@link
+ * JaroWinklerDistance} with the same parameters, representing the
+ * match flags of sequences of at most 64 characters as bits of a
+ * <code>long</code>.
+ *
+ * <p>The second sequence is compiled into a mask per character giving
+ * the positions at which it occurs.  The greedy match of a character
+ * of the first sequence is then the lowest set bit of its mask,
+ * restricted to the search window and to the positions not yet
+ * matched, so each character is matched with a constant number of
+ * word operations instead of a scan of the window.  Transpositions are
+ * counted by walking the set bits of the two match masks in step.
+ *
+ * <p>If either sequence is longer than 64 characters, the computation
+ * falls back to {@link JaroWinklerDistance}.
+ *
+ * <p>The input sequences are copied into character buffers and the
+ * masks are built in scratch space held per thread, so comparisons do
+ * not allocate.  Instances are thread safe.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class BitParallelJaroWinklerDistance
+    implements Distance<CharSequence>,
+               Proximity<CharSequence>,
+               BoundedProximity<CharSequence> {
+
+    private final double mWeightThreshold;
+    private final int mNumChars;
+    private final JaroWinklerDistance mFallback;
+
+    /**
+     * Construct a basic Jaro string distance without the Winkler
+     * modifications.  See {@link JaroWinklerDistance#JaroWinklerDistance()}.
+     */
+    public BitParallelJaroWinklerDistance() {
+        this(Double.POSITIVE_INFINITY,0);
+    }
+
+    /**
+     * Construct a Winkler-modified Jaro string distance with the
+     * specified weight threshold for refinement and an initial number
+     * of characters over which to reweight.  See {@link
+     * JaroWinklerDistance#JaroWinklerDistance(double,int)}.
+     *
+     * @param weightThreshold Weight above which the prefix bonus applies.
+     * @param numChars Maximum number of prefix characters rewarded.
+     */
+    public BitParallelJaroWinklerDistance(double weightThreshold, int numChars) {
+        mWeightThreshold = weightThreshold;
+        mNumChars = numChars;
+        mFallback = new JaroWinklerDistance(weightThreshold,numChars);
+    }
+
+    /**
+     * Returns the Jaro-Winkler distance between the specified
+     * character sequences, defined to be one minus the proximity.
+     *
+     * @param cSeq1 First character sequence to compare.
+     * @param cSeq2 Second character sequence to compare.
+     * @return The Jaro-Winkler distance between the two sequences.
+     */
+    public double distance(CharSequence cSeq1, CharSequence cSeq2) {
+        return 1.0 - proximity(cSeq1,cSeq2);
+    }
+
+    /**
+     * Return the Jaro-Winkler comparison value between the specified
+     * character sequences, which is the same as that returned by
+     * {@link JaroWinklerDistance#proximity(CharSequence,CharSequence)}.
+     *
+     * @param cSeq1 First character sequence to compare.
+     * @param cSeq2 Second character sequence to compare.
+     * @return The Jaro-Winkler comparison value for the two character
+     * sequences.
+     */
+    public double proximity(CharSequence cSeq1, CharSequence cSeq2) {
+        int len1 = cSeq1.length();
+        int len2 = cSeq2.length();
+        if (len1 == 0)
+            return len2 == 0 ? 1.0 : 0.0;
+        if (len1 > CharMasks.MAX_PATTERN_LENGTH
+            || len2 > CharMasks.MAX_PATTERN_LENGTH)
+            return mFallback.proximity(cSeq1,cSeq2);
+
+        CharMasks masks = CharMasks.get();
+        char[] cs1 = masks.chars1(cSeq1);
+        char[] cs2 = masks.chars2(cSeq2);
+        masks.setPattern(cs2,len2);
+        long matched1 = 0L;
+        long matched2 = 0L;
+        int numCommon = 0;
+        try {
+            int searchRange = Math.max(0,Math.max(len1,len2)/2 - 1);
+            for (int i = 0; i < len1; ++i) {
+                int start = Math.max(0,i-searchRange);
+                int end = Math.min(i+searchRange+1,len2);
+                if (start >= end) continue;
+                long candidates = masks.mask(cs1[i])
+                    & ~matched2
+                    & windowMask(start,end);
+                if (candidates == 0L) continue;
+                matched1 |= 1L << i;
+                matched2 |= Long.lowestOneBit(candidates);
+                ++numCommon;
+            }
+        } finally {
+            masks.clear();
+        }
+        if (numCommon == 0) return 0.0;
+
+        int numHalfTransposed = 0;
+        long m1 = matched1;
+        long m2 = matched2;
+        while (m1 != 0L) {
+            int i = Long.numberOfTrailingZeros(m1);
+            int j = Long.numberOfTrailingZeros(m2);
+            if (cs1[i] != cs2[j])
+                ++numHalfTransposed;
+            m1 &= m1 - 1L;
+            m2 &= m2 - 1L;
+        }
+        int numTransposed = numHalfTransposed/2;
+        double numCommonD = numCommon;
+        double weight = (numCommonD/len1
+                         + numCommonD/len2
+                         + (numCommon - numTransposed)/numCommonD)/3.0;
+
+        if (weight <= mWeightThreshold) return weight;
+        int max = Math.min(mNumChars,Math.min(len1,len2));
+        int pos = 0;
+        while (pos < max && cs1[pos] == cs2[pos])
+            ++pos;
+        if (pos == 0) return weight;
+        return weight + 0.1 * pos * (1.0 - weight);
+    }
+
+    /**
+     * Returns the Jaro-Winkler comparison value between the specified
+     * character sequences if it is at least the specified threshold,
+     * and otherwise a value below the threshold.  See {@link
+     * JaroWinklerDistance#proximityAtLeast(CharSequence,CharSequence,double)}
+     * for the length bound used.
+     *
+     * @param cSeq1 First character sequence to compare.
+     * @param cSeq2 Second character sequence to compare.
+     * @param threshold Minimum comparison value of interest.
+     * @return The Jaro-Winkler comparison value if it reaches the
+     * threshold, otherwise a value below the threshold.
+     */
+    public double proximityAtLeast(CharSequence cSeq1, CharSequence cSeq2,
+                                   double threshold) {
+        double bound
+            = JaroWinklerDistance.upperBound(cSeq1.length(),cSeq2.length(),
+                                             mWeightThreshold,mNumChars);
+        if (bound < threshold) return bound;
+        return proximity(cSeq1,cSeq2);
+    }
+
+    // bits start (inclusive) to end (exclusive); 0 <= start < end <= 64
+    static long windowMask(int start, int end) {
+        long upTo = end == 64 ? -1L : (1L << end) - 1L;
+        return upTo & (-1L << start);
+    }
+
+    /**
+     * A constant for the bit-parallel Jaro distance, equivalent to
+     * {@link JaroWinklerDistance#JARO_DISTANCE}.
+     */
+    public static final BitParallelJaroWinklerDistance JARO_DISTANCE
+        = new BitParallelJaroWinklerDistance();
+
+    /**
+     * A constant for the bit-parallel Jaro-Winkler distance,
+     * equivalent to {@link JaroWinklerDistance#JARO_WINKLER_DISTANCE}.
+     */
+    public static final BitParallelJaroWinklerDistance JARO_WINKLER_DISTANCE
+        = new BitParallelJaroWinklerDistance(0.70,4);
+
+}
@@ -0,0 +1,139 @@
+/* CharMasks.java */
+
+package com.assign.spell;
+
+/**
+ * A <code>CharMasks</code> is the per-thread scratch space for the
+ * bit-parallel string kernels.  It holds two character buffers into
+ * which the compared sequences are copied, and a table mapping each
+ * character of a pattern of at most 64 characters to the bit mask of
+ * the positions at which it occurs.
+ *
+ * <p>Characters below 256 are looked up directly in an array; other
+ * characters are kept in a short list searched linearly, which is
+ * never longer than the pattern.  {@link #clear()} resets only the
+ * entries set by the last call to {@link #setPattern(char[],int)}, so
+ * reusing the table costs time proportional to the pattern length.
+ *
+ * @author Kajanan Sangaralingam
+ */
+final class CharMasks {
+
+    /**
+     * Maximum pattern length supported by the bit-parallel kernels.
+     */
+    static final int MAX_PATTERN_LENGTH = 64;
+
+    char[] mChars1 = new char[MAX_PATTERN_LENGTH];
+    char[] mChars2 = new char[MAX_PATTERN_LENGTH];
+
+    private final long[] mLowMasks = new long[256];
+    private final char[] mHighChars = new char[MAX_PATTERN_LENGTH];
+    private final long[] mHighMasks = new long[MAX_PATTERN_LENGTH];
+    private int mNumHigh = 0;
+
+    private char[] mPattern;
+    private int mPatternLength;
+
+    private CharMasks() {
+        /* only from thread local */
+    }
+
+    /**
+     * Sets the pattern whose masks are returned by {@link #mask(char)}.
+     * The pattern must be at most {@link #MAX_PATTERN_LENGTH}
+     * characters long.
+     */
+    void setPattern(char[] pattern, int length) {
+        clear();
+        mPattern = pattern;
+        mPatternLength = length;
+        for (int i = 0; i < length; ++i) {
+            char c = pattern[i];
+            long bit = 1L << i;
+            if (c < 256) {
+                mLowMasks[c] |= bit;
+                continue;
+            }
+            int k = 0;
+            while (k < mNumHigh && mHighChars[k] != c) ++k;
+            if (k == mNumHigh) {
+                mHighChars[k] = c;
+                mHighMasks[k] = 0L;
+                ++mNumHigh;
+            }
+            mHighMasks[k] |= bit;
+        }
+    }
+
+    /**
+     * Returns the mask of the positions in the current pattern at
+     * which the specified character occurs.
+     */
+    long mask(char c) {
+        if (c < 256) return mLowMasks[c];
+        for (int k = 0; k < mNumHigh; ++k)
+            if (mHighChars[k] == c)
+                return mHighMasks[k];
+        return 0L;
+    }
+
+    /**
+     * Resets the masks set for the current pattern.
+     */
+    void clear() {
+        for (int i = 0; i < mPatternLength; ++i) {
+            char c = mPattern[i];
+            if (c < 256) mLowMasks[c] = 0L;
+        }
+        mNumHigh = 0;
+        mPatternLength = 0;
+    }
+
+    /**
+     * Copies the specified character sequence into the first buffer,
+     * growing it if necessary, and returns the buffer.
+     */
+    char[] chars1(CharSequence cSeq) {
+        mChars1 = copy(cSeq,mChars1);
+        return mChars1;
+    }
+
+    /**
+     * Copies the specified character sequence into the second buffer,
+     * growing it if necessary, and returns the buffer.
+     */
+    char[] chars2(CharSequence cSeq) {
+        mChars2 = copy(cSeq,mChars2);
+        return mChars2;
+    }
+
+    private static char[] copy(CharSequence cSeq, char[] buf) {
+        int len = cSeq.length();
+        if (buf.length < len)
+            buf = new char[Math.max(len,2 * buf.length)];
+        if (cSeq instanceof String) {
+            ((String) cSeq).getChars(0,len,buf,0);
+        } else {
+            for (int i = 0; i < len; ++i)
+                buf[i] = cSeq.charAt(i);
+        }
+        return buf;
+    }
+
+    /**
+     * Returns the scratch space for the current thread.
+     */
+    static CharMasks get() {
+        return SCRATCH.get();
+    }
+
+    private static final ThreadLocal<CharMasks> SCRATCH
+        = new ThreadLocal<CharMasks>() {
+            @Override
+            protected CharMasks initialValue() {
+                return new CharMasks();
+            }
+        };
+
+}
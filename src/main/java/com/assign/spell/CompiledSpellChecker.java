@@ -34,10 +34,13 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -232,6 +235,31 @@ import java.util.Set;
  * specified n-best size for the spell checker should, in fact, be
  * substantially larger than the desired number of n-best results.
  *
+ * <h4>Candidate Index</h4>
+ *
+ * <p>For dictionary-constrained correction, a {@link
+ * SymmetricDeleteIndex} built from the token set may be supplied with
+ * {@link #setSymmetricDeleteIndex(SymmetricDeleteIndex)}.  The method
+ * {@link #didYouMeanByToken(String)} then looks up the dictionary
+ * tokens within a small edit distance of each input token and ranks
+ * them with the edit distance and language model, rather than
+ * searching edits character by character.  It does not split or join
+ * tokens, but is much faster for long tokens and large n-best sizes.
+ *
+ * <h4>Incremental Sessions</h4>
+ *
+ * <p>Queries typed into a search box arrive as a sequence of
+ * extensions of one another, such as &quot;angr&quot;,
+ * &quot;angry&quot; and &quot;angry b&quot;.  A {@link Session},
+ * returned by {@link #newSession(int)}, caches the per-character
+ * search beams of its most recent queries and resumes the search
+ * for a new query from the longest cached query sharing a prefix
+ * with it, so that only the new characters are searched.  A cached
+ * prefix is only reused where the edit penalties computed for it,
+ * which depend on the tokens containing each character, are the
+ * same for the new query, so the results of a session are exactly
+ * those of {@link #didYouMean(String)}.
+ *
  * @author  Bob Carpenter
  * @version 3.8
  * @since   LingPipe2.0
@@ -260,6 +288,11 @@ public class CompiledSpellChecker implements SpellChecker {
 
     TokenTrieNode mTokenPrefixTrie;
 
+    SymmetricDeleteIndex mDeleteIndex;
+
+    // incremented by setters to invalidate sessions' cached searches
+    int mModCount = 0;
+
     /**
      * Construct a compiled spell checker based on the specified
      * language model and similarity edit distance, set of valid
@@ -444,6 +477,37 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setDoNotEditTokens(Set<String> tokens) {
         mDoNotEditTokens = tokens;
+        ++mModCount;
+    }
+
+
+    /**
+     * Returns the symmetric delete index used to propose candidate
+     * tokens for {@link #didYouMeanByToken(String)}, or {@code null}
+     * if none has been set.
+     *
+     * @return The symmetric delete index for this spell checker.
+     */
+    public SymmetricDeleteIndex symmetricDeleteIndex() {
+        return mDeleteIndex;
+    }
+
+    /**
+     * Sets the symmetric delete index used to propose candidate
+     * tokens for {@link #didYouMeanByToken(String)}.  The index is
+     * typically built from the token set of this spell checker:
+     *
+     * <blockquote><pre>
+     * checker.setSymmetricDeleteIndex(new SymmetricDeleteIndex(checker.tokenSet(),2));</pre></blockquote>
+     *
+     * The index is not rebuilt if the token set is changed.
+     *
+     * @param index Symmetric delete index, or {@code null} to remove
+     * the index.
+     */
+    public void setSymmetricDeleteIndex(SymmetricDeleteIndex index) {
+        mDeleteIndex = index;
+        ++mModCount;
     }
 
 
@@ -502,6 +566,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setKnownTokenEditCost(double cost) {
         mKnownTokenEditCost = cost;
+        ++mModCount;
     }
 
     /**
@@ -511,6 +576,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setFirstCharEditCost(double cost) {
         mFirstCharEditCost = cost;
+        ++mModCount;
     }
 
     /**
@@ -520,6 +586,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setSecondCharEditCost(double cost) {
         mSecondCharEditCost = cost;
+        ++mModCount;
     }
 
     /**
@@ -594,6 +661,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setEditDistance(WeightedEditDistance editDistance) {
         mEditDistance = editDistance;
+        ++mModCount;
     }
 
 
@@ -612,6 +680,7 @@ public class CompiledSpellChecker implements SpellChecker {
             throw new IllegalArgumentException(msg);
         }
         mMinimumTokenLengthToCorrect = tokenCharLength;
+        ++mModCount;
     }
 
     /**
@@ -635,6 +704,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setLanguageModel(CompiledNGramProcessLM lm) {
         mLM = lm;
+        ++mModCount;
     }
 
     /**
@@ -646,6 +716,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setTokenizerFactory(TokenizerFactory factory) {
         mTokenizerFactory = factory;
+        ++mModCount;
     }
 
     /**
@@ -668,6 +739,7 @@ public class CompiledSpellChecker implements SpellChecker {
             maxLen = java.lang.Math.max(maxLen,token.length());
         mTokenSet = tokenSet;
         mTokenPrefixTrie = tokenSet == null ? null : prefixTrie(tokenSet);
+        ++mModCount;
     }
 
     /**
@@ -686,6 +758,7 @@ public class CompiledSpellChecker implements SpellChecker {
             throw new IllegalArgumentException(msg);
         }
         mNBestSize = size;
+        ++mModCount;
     }
 
 
@@ -701,6 +774,7 @@ public class CompiledSpellChecker implements SpellChecker {
     public void setAllowInsert(boolean allowInsert) {
         mAllowInsert = allowInsert;
         if (!allowInsert) setNumConsecutiveInsertionsAllowed(0);
+        ++mModCount;
     }
 
     /**
@@ -712,6 +786,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setAllowDelete(boolean allowDelete) {
         mAllowDelete = allowDelete;
+        ++mModCount;
     }
 
     /**
@@ -723,6 +798,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setAllowMatch(boolean allowMatch) {
         mAllowMatch = allowMatch;
+        ++mModCount;
     }
 
     /**
@@ -734,6 +810,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setAllowSubstitute(boolean allowSubstitute) {
         mAllowSubstitute = allowSubstitute;
+        ++mModCount;
     }
 
     /**
@@ -745,6 +822,7 @@ public class CompiledSpellChecker implements SpellChecker {
      */
     public void setAllowTranspose(boolean allowTranspose) {
         mAllowTranspose = allowTranspose;
+        ++mModCount;
     }
 
     /**
@@ -766,6 +844,7 @@ public class CompiledSpellChecker implements SpellChecker {
         }
         if (numAllowed > 0) setAllowInsert(true);
         mNumConsecutiveInsertionsAllowed = numAllowed;
+        ++mModCount;
     }
 
     /**
@@ -891,6 +970,139 @@ public class CompiledSpellChecker implements SpellChecker {
         return resultQueue.iterator();
     }
 
+    /**
+     * Returns a first-best hypothesis of the intended message given a
+     * received message, correcting each token to one of the
+     * candidates proposed by this spell checker's symmetric delete
+     * index.
+     *
+     * <p>Unlike {@link #didYouMean(String)}, which searches edits
+     * character by character, this method only considers outputs
+     * that replace each input token with itself or with a dictionary
+     * token within the index's maximum edit distance of it.  Tokens
+     * are neither split nor joined.  Do-not-edit tokens and tokens no
+     * longer than the minimum length to correct are left as is.
+     *
+     * <p>Each output token is scored by the proximity of the input
+     * token to it under the weighted edit distance, plus the language
+     * model estimate of the output token followed by a space.  When
+     * an input token is changed, the known-token edit cost is added
+     * once if the input token is in the token set, and the first and
+     * second character edit costs are added once each if the output
+     * differs in that position; the character-level search instead
+     * applies these penalties to each edit.  A beam of hypotheses
+     * is kept over tokens, with the best hypothesis for each language
+     * model context retained up to the n-best size.
+     *
+     * <p>Because candidates are looked up rather than searched for,
+     * the cost per token is proportional to the number of candidates,
+     * which is typically much faster than character-level search for
+     * dictionary-constrained correction.
+     *
+     * @param receivedMsg The message received over the noisy channel.
+     * @return The first-best hypothesis of the intended source
+     * message.
+     * @throws IllegalStateException If no symmetric delete index has
+     * been set.
+     */
+    public String didYouMeanByToken(String receivedMsg) {
+        if (mDeleteIndex == null) {
+            String msg = "Token correction requires a symmetric delete index."
+                + " Set one with setSymmetricDeleteIndex().";
+            throw new IllegalStateException(msg);
+        }
+        String msg = normalizeQuery(receivedMsg);
+        if (msg.length() == 0) return msg;
+        StateQueue queue = new DpSpellQueue();
+        queue.addState(new State(0.0,false,null,null,
+                                 mLM.nextContext(0,' ')));
+        int start = 0;
+        while (start < msg.length()) {
+            int end = msg.indexOf(' ',start);
+            if (end == -1) end = msg.length();
+            String token = msg.substring(start,end);
+            List<String> candidates = tokenCandidates(token);
+            double[] channelScores = new double[candidates.size()];
+            for (int i = 0; i < channelScores.length; ++i)
+                channelScores[i] = channelScore(token,candidates.get(i));
+            StateQueue nextQ = new DpSpellQueue();
+            for (State state : queue) {
+                for (int i = 0; i < channelScores.length; ++i) {
+                    if (channelScores[i] == Double.NEGATIVE_INFINITY)
+                        continue;
+                    String candidate = candidates.get(i);
+                    double score = state.mScore + channelScores[i];
+                    int contextIndex = state.mContextIndex;
+                    for (int k = 0; k < candidate.length(); ++k) {
+                        char c = candidate.charAt(k);
+                        score += mLM.log2Estimate(contextIndex,c);
+                        contextIndex = mLM.nextContext(contextIndex,c);
+                    }
+                    score += mLM.log2Estimate(contextIndex,' ');
+                    if (score == Double.NEGATIVE_INFINITY) continue;
+                    nextQ.addState(new TokenState(score,state,candidate,
+                                                  mLM.nextContext(contextIndex,' ')));
+                }
+            }
+            queue = nextQ;
+            start = end + 1;
+        }
+        if (queue.isEmpty())
+            return msg;
+        return queue.poll().output().trim();
+    }
+
+    // the token itself first, then dictionary tokens close to it
+    private List<String> tokenCandidates(String token) {
+        List<String> candidates = new ArrayList<String>();
+        candidates.add(token);
+        if (mDoNotEditTokens.contains(token) || isShortToken(token))
+            return candidates;
+        for (String candidate : mDeleteIndex.candidates(token))
+            if (!candidate.equals(token))
+                candidates.add(candidate);
+        return candidates;
+    }
+
+    private double channelScore(String token, String candidate) {
+        double score = mEditDistance.proximity(token,candidate);
+        if (candidate.equals(token))
+            return score;
+        if (mTokenSet != null && mTokenSet.contains(token))
+            score += mKnownTokenEditCost;
+        if (!sameCharAt(token,candidate,0))
+            score += mFirstCharEditCost;
+        if (!sameCharAt(token,candidate,1))
+            score += mSecondCharEditCost;
+        return score;
+    }
+
+    private static boolean sameCharAt(String s1, String s2, int i) {
+        if (i >= s1.length() || i >= s2.length())
+            return i >= s1.length() && i >= s2.length();
+        return s1.charAt(i) == s2.charAt(i);
+    }
+
+    /**
+     * Returns a new incremental spelling correction session for this
+     * spell checker that caches the searches of up to the specified
+     * number of most recent queries.  See {@link Session} for details.
+     *
+     * @param maxCachedQueries Maximum number of queries whose
+     * searches are cached.
+     * @return A new session.
+     * @throws IllegalArgumentException If the maximum number of
+     * cached queries is less than one.
+     */
+    public Session newSession(int maxCachedQueries) {
+        if (maxCachedQueries < 1) {
+            String msg = "Maximum cached queries must be at least one."
+                + " Found maxCachedQueries=" + maxCachedQueries;
+            throw new IllegalArgumentException(msg);
+        }
+        return new Session(maxCachedQueries);
+    }
+
     private boolean isShortToken(String token) {
         return token.length() <= mMinimumTokenLengthToCorrect;
     }
@@ -974,6 +1186,7 @@ public class CompiledSpellChecker implements SpellChecker {
         if (mTokenSet != null) {
             sb.append("\n  # Known Tokens=" + mTokenSet.size());
         }
+        sb.append("\n  Symmetric delete index=" + mDeleteIndex);
 
         sb.append("\n\nEDITS ALLOWED");
         sb.append("\n  Allow insert=" + mAllowInsert);
@@ -1024,7 +1237,7 @@ public class CompiledSpellChecker implements SpellChecker {
         return mLM.observedCharacters();
     }
 
-    void extendToFinalSpace(StateQueue queue,
+    void extendToFinalSpace(Iterable<State> queue,
                             StateQueue finalQueue) {
         for (State state : queue) {
             if (state.mTokenEdited && !state.tokenComplete()) {
@@ -1355,6 +1568,227 @@ public class CompiledSpellChecker implements SpellChecker {
         }
     }
 
+    /**
+     * A {@code CompiledSpellChecker.Session} provides first-best
+     * spelling correction for a stream of related queries, such as
+     * the successive keystrokes of a single user, reusing the search
+     * carried out for earlier queries.
+     *
+     * <p>For each query it corrects, a session retains the beam of
+     * hypotheses after each character of the normalized query, along
+     * with the edit penalties used to compute it.  The retained
+     * searches are kept in a least-recently-used cache keyed by
+     * normalized query.  A new query is resumed from the cached query
+     * with which it shares the longest prefix of characters and edit
+     * penalties, so that extending a query, or deleting characters
+     * from its end, only searches the characters that differ.  The
+     * remaining work for a query, normalizing it and computing its
+     * edit penalties, is linear in its length but negligible compared
+     * to the search.  A query already in the cache is answered
+     * without searching.
+     *
+     * <p>The result for every query is the same as that returned by
+     * {@link CompiledSpellChecker#didYouMean(String)}.  Because edit
+     * penalties depend on the whole token containing a character,
+     * for token-sensitive spell checkers the search for the last
+     * token of a query is typically redone as the token grows.
+     *
+     * <p>Calling any of the spell checker's {@code set} methods
+     * invalidates the searches cached by its sessions, which are
+     * discarded on the next query.
+     *
+     * <h4>Thread Safety</h4>
+     *
+     * A session is not thread safe and is intended to serve a single
+     * stream of queries.  Different sessions for the same spell
+     * checker may be used concurrently under the same conditions as
+     * the spell checker's {@code didYouMean} method.
+     */
+    public final class Session {
+
+        private final int mMaxCachedQueries;
+        private final Map<String,SearchCheckpoint> mCheckpoints;
+        private int mSessionModCount;
+        private long mNumCharsSearched = 0L;
+        private long mNumCharsReused = 0L;
+
+        Session(int maxCachedQueries) {
+            mMaxCachedQueries = maxCachedQueries;
+            mCheckpoints
+                = new LinkedHashMap<String,SearchCheckpoint>(16,0.75f,true) {
+                    static final long serialVersionUID = 2405870498257283813L;
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String,SearchCheckpoint> eldest) {
+                        return size() > mMaxCachedQueries;
+                    }
+                };
+            mSessionModCount = mModCount;
+        }
+
+        /**
+         * Returns a first-best hypothesis of the intended message
+         * given a received message, resuming the search from cached
+         * searches of previous queries where possible.  The result is
+         * the same as that of {@link
+         * CompiledSpellChecker#didYouMean(String)}.
+         *
+         * @param receivedMsg The message received over the noisy channel.
+         * @return The first-best hypothesis of the intended source
+         * message.
+         */
+        public String didYouMean(String receivedMsg) {
+            String msg = normalizeQuery(receivedMsg);
+            if (msg.length() == 0) return msg;
+            if (mSessionModCount != mModCount)
+                clear();
+            SearchCheckpoint checkpoint = mCheckpoints.get(msg);
+            if (checkpoint == null) {
+                checkpoint = search(msg);
+                mCheckpoints.put(msg,checkpoint);
+            } else {
+                mNumCharsReused += msg.length();
+            }
+            return checkpoint.mResult;
+        }
+
+        /**
+         * Returns the spell checker for this session.
+         *
+         * @return The spell checker for this session.
+         */
+        public CompiledSpellChecker spellChecker() {
+            return CompiledSpellChecker.this;
+        }
+
+        /**
+         * Returns the maximum number of queries whose searches are
+         * cached by this session.
+         *
+         * @return Maximum number of cached queries.
+         */
+        public int maxCachedQueries() {
+            return mMaxCachedQueries;
+        }
+
+        /**
+         * Returns the total number of query characters searched by
+         * this session.
+         *
+         * @return Number of characters searched.
+         */
+        public long numCharsSearched() {
+            return mNumCharsSearched;
+        }
+
+        /**
+         * Returns the total number of query characters whose search
+         * was reused from the cache by this session.
+         *
+         * @return Number of characters reused.
+         */
+        public long numCharsReused() {
+            return mNumCharsReused;
+        }
+
+        /**
+         * Discards the cached searches of this session.  The counts
+         * of searched and reused characters are not reset.
+         */
+        public void clear() {
+            mCheckpoints.clear();
+            mSessionModCount = mModCount;
+        }
+
+        SearchCheckpoint search(String msg) {
+            double[] editPenalties = editPenalties(msg);
+            SearchCheckpoint prefix = null;
+            int start = 0;
+            for (SearchCheckpoint checkpoint : mCheckpoints.values()) {
+                int length = checkpoint.resumableLength(msg,editPenalties);
+                if (length > start) {
+                    start = length;
+                    prefix = checkpoint;
+                }
+            }
+            State[][] beams = new State[msg.length()+1][];
+            DpSpellQueue nextQ = new DpSpellQueue();
+            DpSpellQueue nextQ2 = new DpSpellQueue();
+            if (prefix == null) {
+                DpSpellQueue queue = new DpSpellQueue();
+                State initialState = new State(0.0,false,mTokenPrefixTrie,
+                                               null,
+                                               mLM.nextContext(0,' '));
+                addToQueue(queue,initialState,editPenalties[0]);
+                beams[0] = toArray(queue);
+            } else {
+                System.arraycopy(prefix.mBeams,0,beams,0,start+1);
+                // transpositions into the next beam depend on the
+                // character after the prefix, so are redone here
+                double penalty = editPenalties[start-1];
+                if (start < msg.length()
+                    && penalty != Double.NEGATIVE_INFINITY
+                    && allowTranspose()) {
+                    char c = msg.charAt(start-1);
+                    char nextC = msg.charAt(start);
+                    for (State state : beams[start-1])
+                        transpose(c,nextC,state,nextQ,penalty);
+                }
+            }
+            for (int i = start; i < msg.length(); ++i) {
+                char c = msg.charAt(i);
+                char nextC = ((i+1) < msg.length()) ? msg.charAt(i+1) : 0;
+                for (State state : beams[i]) {
+                    if ((i+1) < msg.length())
+                        extend2(c,nextC,state,nextQ,nextQ2,editPenalties[i]);
+                    else
+                        extend1(c,state,nextQ,editPenalties[i]);
+                }
+                beams[i+1] = toArray(nextQ);
+                nextQ = nextQ2;
+                nextQ2 = new DpSpellQueue();
+            }
+            mNumCharsReused += start;
+            mNumCharsSearched += msg.length() - start;
+            DpSpellQueue finalQueue = new DpSpellQueue();
+            extendToFinalSpace(Arrays.asList(beams[msg.length()]),finalQueue);
+            String result = finalQueue.isEmpty()
+                ? msg
+                : finalQueue.poll().output().trim();
+            return new SearchCheckpoint(msg,editPenalties,beams,result);
+        }
+
+    }
+
+    State[] toArray(StateQueue queue) {
+        return queue.toArray(new State[queue.size()]);
+    }
+
+    // beams[i] holds the hypotheses after the first i characters of
+    // the query, in the iteration order of the queue they came from
+    private final class SearchCheckpoint {
+        final String mMsg;
+        final double[] mEditPenalties;
+        final State[][] mBeams;
+        final String mResult;
+        SearchCheckpoint(String msg, double[] editPenalties,
+                         State[][] beams, String result) {
+            mMsg = msg;
+            mEditPenalties = editPenalties;
+            mBeams = beams;
+            mResult = result;
+        }
+        // number of leading characters whose beams are reusable
+        int resumableLength(String msg, double[] editPenalties) {
+            int maxLength = Math.min(mMsg.length(),msg.length());
+            int length = 0;
+            while (length < maxLength
+                   && mMsg.charAt(length) == msg.charAt(length)
+                   && mEditPenalties[length] == editPenalties[length])
+                ++length;
+            return length;
+        }
+    }
+
     private final class State1 extends State {
         final char mChar1;
         State1(double score, boolean tokenEdited,
@@ -1372,6 +1806,22 @@ public class CompiledSpellChecker implements SpellChecker {
         }
     }
 
+    private final class TokenState extends State {
+        final String mToken;
+        TokenState(double score, State previousState, String token,
+                   int contextIndex) {
+            super(score,false,null,previousState,contextIndex);
+            mToken = token;
+        }
+        @Override
+        void outputLocal(StringBuilder sb) {
+            // output is reversed after collection
+            sb.append(' ');
+            for (int i = mToken.length(); --i >= 0; )
+                sb.append(mToken.charAt(i));
+        }
+    }
+
     private final class State2 extends State {
         final char mChar1;
         final char mChar2;
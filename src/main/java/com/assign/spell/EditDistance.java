@@ -17,6 +17,7 @@
 
 package com.assign.spell;
 
+import com.assign.util.BoundedProximity;
 import com.assign.util.Distance;
 import com.assign.util.Proximity;
 
@@ -103,7 +104,8 @@ import com.assign.util.Proximity;
  * @since   LingPipe2.0
  */
 public class EditDistance 
-    implements Distance<CharSequence>, Proximity<CharSequence> {
+    implements Distance<CharSequence>, Proximity<CharSequence>,
+               BoundedProximity<CharSequence> {
 
     private final boolean mAllowTransposition;
 
@@ -151,6 +153,32 @@ public class EditDistance
         return -distance(cSeq1,cSeq2);
     }
 
+    /**
+     * Returns the proximity between the character sequences if it is
+     * at least the specified threshold, and otherwise a value below
+     * the threshold.  Because proximity is negated distance, only
+     * distances up to <code>floor(-threshold)</code> are of interest,
+     * which allows the computation to be restricted to a band of the
+     * lattice around the diagonal; see {@link
+     * #editDistance(CharSequence,CharSequence,boolean,int)}.
+     *
+     * @param cSeq1 First character sequence.
+     * @param cSeq2 Second character sequence.
+     * @param threshold Minimum proximity of interest.
+     * @return Proximity between the character sequences if it reaches
+     * the threshold, otherwise a value below the threshold.
+     */
+    public double proximityAtLeast(CharSequence cSeq1, CharSequence cSeq2,
+                                   double threshold) {
+        if (!(threshold <= 0.0)) // also catches NaN
+            return Double.NEGATIVE_INFINITY;
+        double maxDistanceD = Math.floor(-threshold);
+        int maxDistance = maxDistanceD >= Integer.MAX_VALUE - 1
+            ? Integer.MAX_VALUE - 1
+            : (int) maxDistanceD;
+        return -editDistance(cSeq1,cSeq2,mAllowTransposition,maxDistance);
+    }
+
     /**
      * Returns a string representation of this edit distance.
      *
@@ -198,6 +226,96 @@ public class EditDistance
         return editDistanceNonTranspose(cSeq1,cSeq2);
     }
 
+    /**
+     * Returns the edit distance between the character sequences if it
+     * is at most the specified maximum distance, and otherwise
+     * returns the maximum distance plus one.  This distance is
+     * symmetric.  This method is thread safe and may be accessed
+     * concurrently.
+     *
+     * <p>This is Ukkonen's banded algorithm.  A cell of the lattice
+     * more than <code>maxDistance</code> off the diagonal has a
+     * distance greater than <code>maxDistance</code>, so only a band
+     * of <code>2*maxDistance+1</code> cells of each slice is computed,
+     * and the computation stops as soon as every cell of a slice
+     * exceeds the maximum.  The time is <code>O(n*maxDistance)</code>
+     * rather than <code>O(n*m)</code>.
+     *
+     * @param cSeq1 First character sequence.
+     * @param cSeq2 Second character sequence.
+     * @param allowTransposition Set to <code>true</code> to allow
+     * transposition edits.
+     * @param maxDistance Maximum distance of interest.
+     * @return Edit distance between the character sequences, or
+     * <code>maxDistance+1</code> if it is greater than the maximum.
+     * @throws IllegalArgumentException If the maximum distance is
+     * negative or equal to <code>Integer.MAX_VALUE</code>.
+     */
+    public static int editDistance(CharSequence cSeq1,
+                                   CharSequence cSeq2,
+                                   boolean allowTransposition,
+                                   int maxDistance) {
+        if (maxDistance < 0 || maxDistance == Integer.MAX_VALUE) {
+            String msg = "Maximum distance must be non-negative and less than Integer.MAX_VALUE."
+                + " Found maxDistance=" + maxDistance;
+            throw new IllegalArgumentException(msg);
+        }
+        if (cSeq1.length() < cSeq2.length()) {
+            CharSequence temp = cSeq1;
+            cSeq1 = cSeq2;
+            cSeq2 = temp;
+        }
+        int n = cSeq1.length();
+        int m = cSeq2.length();
+        int tooFar = maxDistance + 1;
+        if (n - m > maxDistance) return tooFar;
+        if (maxDistance >= n)
+            return editDistance(cSeq1,cSeq2,allowTransposition); // band covers lattice
+
+        int[] twoLastSlice = allowTransposition ? new int[m+1] : null;
+        int[] lastSlice = new int[m+1];
+        int[] currentSlice = new int[m+1];
+
+        // x=0: inserts down the first column, within the band
+        for (int y = 0; y <= m; ++y)
+            lastSlice[y] = y <= maxDistance ? y : tooFar;
+
+        char cX = 0;
+        for (int x = 1; x <= n; ++x) {
+            char cXMinus1 = cX;
+            cX = cSeq1.charAt(x-1);
+            int lo = Math.max(1,x-maxDistance);
+            int hi = Math.min(m,x+maxDistance);
+
+            // cell just below the band; only the first row is inside
+            currentSlice[lo-1] = (lo == 1 && x <= maxDistance) ? x : tooFar;
+            int sliceMin = currentSlice[lo-1];
+            for (int y = lo; y <= hi; ++y) {
+                char cY = cSeq2.charAt(y-1);
+                int dist = Math.min(cX == cY
+                                    ? lastSlice[y-1] // match
+                                    : 1 + lastSlice[y-1], // subst
+                                    1 + Math.min(lastSlice[y], // delete
+                                                 currentSlice[y-1])); // insert
+                if (allowTransposition && x > 1 && y > 1
+                    && cX == cSeq2.charAt(y-2) && cY == cXMinus1)
+                    dist = Math.min(dist,1+twoLastSlice[y-2]);
+                if (dist > tooFar) dist = tooFar;
+                currentSlice[y] = dist;
+                if (dist < sliceMin) sliceMin = dist;
+            }
+            // cell just above the band, read as a delete by the next slice
+            if (hi < m) currentSlice[hi+1] = tooFar;
+            if (sliceMin > maxDistance) return tooFar;
+
+            int[] tmpSlice = allowTransposition ? twoLastSlice : lastSlice;
+            if (allowTransposition) twoLastSlice = lastSlice;
+            lastSlice = currentSlice;
+            currentSlice = tmpSlice;
+        }
+        return Math.min(lastSlice[m],tooFar);
+    }
+
     private static int editDistanceNonTranspose(CharSequence cSeq1,
                                                 CharSequence cSeq2) {
         // cSeq1.length >= cSeq2.length > 1
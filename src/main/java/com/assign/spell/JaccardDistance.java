@@ -16,10 +16,11 @@
 
 package com.assign.spell;
 
+import com.assign.tokenizer.TermDictionary;
+import com.assign.tokenizer.TokenSpanBuffer;
 import com.assign.tokenizer.TokenizerFactory;
 
-import java.util.Set;
-import com.assign.tokenizer.RegExTokenizerFactory;
+import com.assign.util.BoundedProximity;
 
 /**
  * The <code>JaccardDistance</code> class implements a notion of
@@ -59,7 +60,9 @@ import com.assign.tokenizer.RegExTokenizerFactory;
  * @version 3.8
  * @since   LingPipe2.4
  */
-public class JaccardDistance extends TokenizedDistance {
+public class JaccardDistance
+    extends TokenizedDistance
+    implements BoundedProximity<CharSequence> {
 
     /**
      * Construct an instance of Jaccard string distance using
@@ -87,29 +90,71 @@ public class JaccardDistance extends TokenizedDistance {
      * Returns the proximity between the specified character
      * sequences.
      *
+     * <p>The tokens of both sequences are mapped to integer
+     * identifiers local to the comparison using scratch space held per
+     * thread, so that the token sets are built and intersected without
+     * creating strings or sets.
+     *
      * @param cSeq1 First character sequence.
      * @param cSeq2 Second character sequence.
      * @return Jaccard proximity between the sequences.
      */
-    
-
     public double proximity(CharSequence cSeq1, CharSequence cSeq2) {
-        Set<String> s1 = tokenSet(cSeq1);
-        Set<String> s2 = tokenSet(cSeq2);
-        if (s1.size() < s2.size()) {
-            Set<String> temp = s2;
-            s2 = s1;
-            s1 = temp;
+        return proximityAtLeast(cSeq1,cSeq2,Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Returns the Jaccard proximity between the specified character
+     * sequences if it is at least the specified threshold, and
+     * otherwise a value below the threshold.
+     *
+     * <p>The intersection of two token sets is no larger than the
+     * smaller set and their union no smaller than the larger, so the
+     * ratio of the set sizes bounds the proximity.  Once the first
+     * sequence's token set is built, the number of tokens in the second
+     * sequence bounds the size of its set, and if the resulting ratio
+     * is below the threshold it is returned without building the
+     * second set.
+     *
+     * @param cSeq1 First character sequence.
+     * @param cSeq2 Second character sequence.
+     * @param threshold Minimum proximity of interest.
+     * @return Jaccard proximity between the sequences if it reaches
+     * the threshold, otherwise a value below the threshold.
+     */
+    public double proximityAtLeast(CharSequence cSeq1, CharSequence cSeq2,
+                                   double threshold) {
+        TermScratch scratch = scratch();
+        TermDictionary dictionary = scratch.mDictionary;
+        TokenSpanBuffer spans = scratch.mSpans;
+        dictionary.clear();
+
+        int numTokens1 = tokenize(cSeq1,scratch);
+        char[] cs = spans.chars();
+        for (int i = 0; i < numTokens1; ++i)
+            dictionary.getOrAdd(cs,spans.start(i),spans.end(i));
+        int size1 = dictionary.size();
+
+        int numTokens2 = tokenize(cSeq2,scratch);
+        if (numTokens2 < size1) {
+            double sizeBound = ((double) numTokens2) / ((double) size1);
+            if (sizeBound < threshold) return sizeBound;
         }
+        scratch.ensureIdCapacity(size1 + numTokens2);
+        int[] seen2 = scratch.mCounts2;
+        cs = spans.chars();
+        int size2 = 0;
         int numMatch = 0;
-        for (String x : s1)
-            if (s2.contains(x))
-                ++numMatch;
-        int numTotal = s1.size() + s2.size() - numMatch;
+        for (int i = 0; i < numTokens2; ++i) {
+            int id = dictionary.getOrAdd(cs,spans.start(i),spans.end(i));
+            if (seen2[id]++ != 0) continue;
+            ++size2;
+            if (id < size1) ++numMatch;
+        }
+        for (int id = 0; id < dictionary.size(); ++id)
+            seen2[id] = 0;
+        int numTotal = size1 + size2 - numMatch;
         return ((double) numMatch) / ((double) numTotal);
-
     }
 
-
-
 }
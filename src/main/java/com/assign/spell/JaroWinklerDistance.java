@@ -16,6 +16,7 @@
 
 package com.assign.spell;
 
+import com.assign.util.BoundedProximity;
 import com.assign.util.Distance;
 import com.assign.util.Proximity;
 
@@ -394,7 +395,8 @@ American Statistical Association</i> <b>84</b>(406):414--420.
  */
 public class JaroWinklerDistance
     implements Distance<CharSequence>,
-               Proximity<CharSequence> {
+               Proximity<CharSequence>,
+               BoundedProximity<CharSequence> {
 
     private final double mWeightThreshold;
     private final int mNumChars;
@@ -513,6 +515,50 @@ public class JaroWinklerDistance
 
     }
 
+    /**
+     * Returns the Jaro-Winkler comparison value between the specified
+     * character sequences if it is at least the specified threshold,
+     * and otherwise a value below the threshold.
+     *
+     * <p>The comparison value is bounded using only the lengths of the
+     * sequences.  At most <code>min(len1,len2)</code> characters can
+     * match, so with no transpositions the Jaro weight is at most:
+     *
+     * <pre>
+     *   (min/len1 + min/len2 + 1) / 3</pre>
+     *
+     * and the Winkler adjustment can at most apply to the first
+     * <code>min(numChars,min)</code> characters.  If this bound is
+     * below the threshold, it is returned without comparing any
+     * characters.
+     *
+     * @param cSeq1 First character sequence to compare.
+     * @param cSeq2 Second character sequence to compare.
+     * @param threshold Minimum comparison value of interest.
+     * @return The Jaro-Winkler comparison value if it reaches the
+     * threshold, otherwise a value below the threshold.
+     */
+    public double proximityAtLeast(CharSequence cSeq1, CharSequence cSeq2,
+                                   double threshold) {
+        double bound = upperBound(cSeq1.length(),cSeq2.length(),
+                                  mWeightThreshold,mNumChars);
+        if (bound < threshold) return bound;
+        return proximity(cSeq1,cSeq2);
+    }
+
+    static double upperBound(int len1, int len2,
+                             double weightThreshold, int numChars) {
+        if (len1 == 0)
+            return len2 == 0 ? 1.0 : 0.0;
+        if (len2 == 0) return 0.0;
+        int min = Math.min(len1,len2);
+        double minD = min;
+        double weight = (minD/len1 + minD/len2 + 1.0)/3.0;
+        if (weight <= weightThreshold) return weight;
+        int pos = Math.min(numChars,min);
+        return weight + 0.1 * pos * (1.0 - weight);
+    }
+
     /**
      * A constant for the Jaro distance.  The value is the same as
      * would be returned by the nullary constructor
@@ -0,0 +1,439 @@
+/* MinHashLshIndex.java */
+
+package com.assign.spell;
+
+import com.assign.tokenizer.TermDictionary;
+import com.assign.tokenizer.TokenSpanBuffer;
+import com.assign.tokenizer.TokenizerFactory;
+
+import com.assign.util.ScoredObject;
+import com.assign.util.Strings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A <code>MinHashLshIndex</code> finds pairs of character sequences
+ * whose token sets have high Jaccard proximity without comparing
+ * every pair.  The token sets are the same as those compared by
+ * {@link JaccardDistance} for the same tokenizer factory; with an
+ * {@link com.assign.tokenizer.NGramTokenizerFactory}, they are sets of
+ * character n-grams.
+ *
+ * <p>Each added sequence is reduced to a MinHash signature of
+ * <code>numBands * rowsPerBand</code> values.  Each value is the
+ * minimum over the tokens of the sequence of an independent hash
+ * function, so that the probability that two sequences agree on a
+ * value is exactly the Jaccard proximity of their token sets.  The
+ * fraction of agreeing values is thus an unbiased estimate of the
+ * Jaccard proximity.
+ *
+ * <p>To find candidates, the signature is divided into
+ * <code>numBands</code> bands of <code>rowsPerBand</code> values, and
+ * each band is hashed to a bucket.  Two sequences are candidates if
+ * they share a bucket in at least one band.  Sequences with Jaccard
+ * proximity <code>s</code> become candidates with probability:
+ *
+ * <blockquote><pre>
+ * 1 - (1 - s<sup>rowsPerBand</sup>)<sup>numBands</sup></pre></blockquote>
+ *
+ * which rises steeply around the proximity
+ * <code>(1/numBands)<sup>1/rowsPerBand</sup></code>.  For example,
+ * 20 bands of 5 rows find pairs with proximity 0.8 with probability
+ * above 0.9999, while pairs with proximity 0.3 become candidates with
+ * probability below 0.05.  Candidates are then filtered on their
+ * estimated proximity; callers wanting exact values should rescore
+ * the survivors with {@link JaccardDistance}.
+ *
+ * <p>Sequences with no tokens are given identifiers but are never
+ * placed in buckets, so they are never returned as candidates.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * Adding sequences must be synchronized with all other operations.
+ * Once all sequences have been added, queries, estimates and self
+ * joins may run concurrently.
+ *
+ * <h3>References</h3>
+ *
+ * <ul>
+ * <li>Broder, Andrei Z.  1997.  On the resemblance and containment of
+ * documents.  <i>Compression and Complexity of Sequences</i>.</li>
+ * <li>Leskovec, Jure, Anand Rajaraman and Jeffrey D. Ullman.  2014.
+ * <i>Mining of Massive Datasets</i>, Chapter 3.  Cambridge University
+ * Press.</li>
+ * </ul>
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class MinHashLshIndex {
+
+    /**
+     * Receives the pairs found by a self join.
+     */
+    public interface PairHandler {
+
+        /**
+         * Handle a pair of indexed sequences whose estimated Jaccard
+         * proximity reached the join threshold.  The first identifier
+         * is always smaller than the second.
+         *
+         * @param id1 Identifier of the first sequence.
+         * @param id2 Identifier of the second sequence.
+         * @param estimate Estimated Jaccard proximity of the pair.
+         */
+        public void handle(int id1, int id2, double estimate);
+    }
+
+    private final TokenizerFactory mTokenizerFactory;
+    private final int mNumBands;
+    private final int mRowsPerBand;
+    private final long[] mSeeds;
+
+    // signature of id i is at [i*numHashes, (i+1)*numHashes)
+    private int[] mSignatures;
+    private boolean[] mEmpty;
+    private int mSize = 0;
+
+    private final Map<Long,Bucket> mBuckets = new HashMap<Long,Bucket>();
+
+    /**
+     * Construct an index with the specified tokenizer factory and
+     * band structure, using a default random seed.
+     *
+     * @param tokenizerFactory Tokenizer factory producing token sets.
+     * @param numBands Number of bands in a signature.
+     * @param rowsPerBand Number of signature values in a band.
+     * @throws IllegalArgumentException If the number of bands or rows
+     * is not positive.
+     */
+    public MinHashLshIndex(TokenizerFactory tokenizerFactory,
+                           int numBands, int rowsPerBand) {
+        this(tokenizerFactory,numBands,rowsPerBand,DEFAULT_SEED);
+    }
+
+    /**
+     * Construct an index with the specified tokenizer factory, band
+     * structure and seed for the hash functions.  Indexes with the same
+     * parameters and seed produce the same signatures.
+     *
+     * @param tokenizerFactory Tokenizer factory producing token sets.
+     * @param numBands Number of bands in a signature.
+     * @param rowsPerBand Number of signature values in a band.
+     * @param seed Seed for the hash functions.
+     * @throws IllegalArgumentException If the number of bands or rows
+     * is not positive.
+     */
+    public MinHashLshIndex(TokenizerFactory tokenizerFactory,
+                           int numBands, int rowsPerBand, long seed) {
+        if (numBands < 1) {
+            String msg = "Number of bands must be positive."
+                + " Found numBands=" + numBands;
+            throw new IllegalArgumentException(msg);
+        }
+        if (rowsPerBand < 1) {
+            String msg = "Rows per band must be positive."
+                + " Found rowsPerBand=" + rowsPerBand;
+            throw new IllegalArgumentException(msg);
+        }
+        mTokenizerFactory = tokenizerFactory;
+        mNumBands = numBands;
+        mRowsPerBand = rowsPerBand;
+        mSeeds = new long[numBands * rowsPerBand];
+        long s = seed;
+        for (int i = 0; i < mSeeds.length; ++i) {
+            s += GOLDEN_GAMMA;
+            mSeeds[i] = mix(s);
+        }
+        mSignatures = new int[16 * mSeeds.length];
+        mEmpty = new boolean[16];
+    }
+
+    /**
+     * Returns the tokenizer factory for this index.
+     *
+     * @return The tokenizer factory.
+     */
+    public TokenizerFactory tokenizerFactory() {
+        return mTokenizerFactory;
+    }
+
+    /**
+     * Returns the number of bands in a signature.
+     *
+     * @return Number of bands.
+     */
+    public int numBands() {
+        return mNumBands;
+    }
+
+    /**
+     * Returns the number of signature values in each band.
+     *
+     * @return Rows per band.
+     */
+    public int rowsPerBand() {
+        return mRowsPerBand;
+    }
+
+    /**
+     * Returns the number of sequences added to this index.
+     *
+     * @return Number of indexed sequences.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Adds the specified character sequence to this index, returning
+     * its identifier.  Identifiers are assigned consecutively from
+     * <code>0</code> in order of addition.
+     *
+     * @param cSeq Character sequence to add.
+     * @return Identifier of the sequence.
+     */
+    public int add(CharSequence cSeq) {
+        int numHashes = mSeeds.length;
+        if (mSize == mEmpty.length) {
+            int capacity = mEmpty.length * 2;
+            int[] signatures = new int[capacity * numHashes];
+            System.arraycopy(mSignatures,0,signatures,0,mSize * numHashes);
+            mSignatures = signatures;
+            boolean[] empty = new boolean[capacity];
+            System.arraycopy(mEmpty,0,empty,0,mSize);
+            mEmpty = empty;
+        }
+        int id = mSize++;
+        int offset = id * numHashes;
+        boolean empty = !signature(cSeq,mSignatures,offset);
+        mEmpty[id] = empty;
+        if (empty) return id;
+        for (int band = 0; band < mNumBands; ++band) {
+            Long key = Long.valueOf(bandKey(mSignatures,offset,band));
+            Bucket bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket();
+                mBuckets.put(key,bucket);
+            }
+            bucket.add(id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the MinHash signature of the specified character
+     * sequence.  The signature of a sequence without tokens has every
+     * value equal to <code>Integer.MAX_VALUE</code>.
+     *
+     * @param cSeq Character sequence.
+     * @return The signature of the sequence.
+     */
+    public int[] signature(CharSequence cSeq) {
+        int[] signature = new int[mSeeds.length];
+        signature(cSeq,signature,0);
+        return signature;
+    }
+
+    /**
+     * Returns the estimated Jaccard proximity between the indexed
+     * sequences with the specified identifiers, which is the fraction
+     * of their signature values that agree.
+     *
+     * @param id1 Identifier of the first sequence.
+     * @param id2 Identifier of the second sequence.
+     * @return Estimated Jaccard proximity of the sequences.
+     * @throws IndexOutOfBoundsException If either identifier is not
+     * that of an indexed sequence.
+     */
+    public double estimatedProximity(int id1, int id2) {
+        checkId(id1);
+        checkId(id2);
+        if (mEmpty[id1] || mEmpty[id2])
+            return mEmpty[id1] && mEmpty[id2] ? 1.0 : 0.0;
+        int numHashes = mSeeds.length;
+        return agreement(mSignatures,id1 * numHashes,
+                         mSignatures,id2 * numHashes);
+    }
+
+    /**
+     * Returns the indexed sequences sharing a bucket with the
+     * specified character sequence whose estimated Jaccard proximity
+     * is at least the specified threshold.  The results are scored by
+     * estimated proximity and sorted in decreasing order of score.
+     *
+     * @param cSeq Character sequence to look up.
+     * @param threshold Minimum estimated proximity of a result.
+     * @return The scored identifiers of the matching sequences.
+     */
+    public List<ScoredObject<Integer>> query(CharSequence cSeq,
+                                             double threshold) {
+        List<ScoredObject<Integer>> result
+            = new ArrayList<ScoredObject<Integer>>();
+        int[] signature = new int[mSeeds.length];
+        if (!signature(cSeq,signature,0))
+            return result;
+        boolean[] seen = new boolean[mSize];
+        for (int band = 0; band < mNumBands; ++band) {
+            Bucket bucket
+                = mBuckets.get(Long.valueOf(bandKey(signature,0,band)));
+            if (bucket == null) continue;
+            for (int k = 0; k < bucket.mSize; ++k) {
+                int id = bucket.mIDs[k];
+                if (seen[id]) continue;
+                seen[id] = true;
+                double estimate = agreement(signature,0,mSignatures,
+                                            id * mSeeds.length);
+                if (estimate >= threshold)
+                    result.add(new ScoredObject<Integer>(Integer.valueOf(id),
+                                                         estimate));
+            }
+        }
+        Collections.sort(result,ScoredObject.reverseComparator());
+        return result;
+    }
+
+    /**
+     * Sends every pair of indexed sequences that share a bucket and
+     * whose estimated Jaccard proximity is at least the specified
+     * threshold to the specified handler, returning the number of
+     * pairs handled.  Each pair is handled once, with the smaller
+     * identifier first.
+     *
+     * <p>The join visits each indexed sequence once and only looks at
+     * the other members of its buckets, so its cost is proportional to
+     * the number of candidate pairs rather than to the square of the
+     * number of sequences.
+     *
+     * @param threshold Minimum estimated proximity of a handled pair.
+     * @param handler Handler for the pairs found.
+     * @return The number of pairs handled.
+     */
+    public long selfJoin(double threshold, PairHandler handler) {
+        int numHashes = mSeeds.length;
+        // lastSeen[j] == id1 + 1 if j was already considered for id1
+        int[] lastSeen = new int[mSize];
+        int[] signature = mSignatures;
+        long count = 0L;
+        for (int id1 = 0; id1 < mSize; ++id1) {
+            if (mEmpty[id1]) continue;
+            int offset1 = id1 * numHashes;
+            for (int band = 0; band < mNumBands; ++band) {
+                Bucket bucket
+                    = mBuckets.get(Long.valueOf(bandKey(signature,offset1,band)));
+                // ids are added in increasing order, so later ids follow id1
+                for (int k = bucket.mSize - 1; k >= 0; --k) {
+                    int id2 = bucket.mIDs[k];
+                    if (id2 <= id1) break;
+                    if (lastSeen[id2] == id1 + 1) continue;
+                    lastSeen[id2] = id1 + 1;
+                    double estimate = agreement(signature,offset1,
+                                                signature,id2 * numHashes);
+                    if (estimate >= threshold) {
+                        handler.handle(id1,id2,estimate);
+                        ++count;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a string representation of this index.
+     *
+     * @return A string representation of this index.
+     */
+    @Override
+    public String toString() {
+        return "MinHashLshIndex(numBands=" + mNumBands
+            + ", rowsPerBand=" + mRowsPerBand
+            + ", size=" + mSize
+            + ", numBuckets=" + mBuckets.size() + ")";
+    }
+
+    // fills signature at offset; returns false if there were no tokens
+    private boolean signature(CharSequence cSeq, int[] signature, int offset) {
+        int numHashes = mSeeds.length;
+        for (int i = 0; i < numHashes; ++i)
+            signature[offset + i] = Integer.MAX_VALUE;
+        char[] cs = Strings.toCharArray(cSeq);
+        TokenSpanBuffer spans = SPANS.get();
+        int numTokens = spans.tokenize(mTokenizerFactory,cs,0,cs.length);
+        char[] tokenChars = spans.chars();
+        for (int k = 0; k < numTokens; ++k) {
+            int tokenHashCode
+                = TermDictionary.hash(tokenChars,spans.start(k),spans.end(k));
+            long tokenHash = mix(tokenHashCode * GOLDEN_GAMMA);
+            for (int i = 0; i < numHashes; ++i) {
+                int h = (int) (mix(tokenHash ^ mSeeds[i]) >>> 33);
+                if (h < signature[offset + i])
+                    signature[offset + i] = h;
+            }
+        }
+        return numTokens > 0;
+    }
+
+    private long bandKey(int[] signature, int offset, int band) {
+        long key = band;
+        int start = offset + band * mRowsPerBand;
+        for (int i = 0; i < mRowsPerBand; ++i)
+            key = mix(key * 31L + signature[start + i]);
+        return key;
+    }
+
+    private double agreement(int[] signature1, int offset1,
+                             int[] signature2, int offset2) {
+        int numHashes = mSeeds.length;
+        int numAgree = 0;
+        for (int i = 0; i < numHashes; ++i)
+            if (signature1[offset1 + i] == signature2[offset2 + i])
+                ++numAgree;
+        return ((double) numAgree) / numHashes;
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= mSize) {
+            String msg = "Identifier out of range."
+                + " Found id=" + id
+                + " size=" + mSize;
+            throw new IndexOutOfBoundsException(msg);
+        }
+    }
+
+    // finalizer of MurmurHash3's 64-bit hash
+    static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    static final long DEFAULT_SEED = 42L;
+
+    private static final ThreadLocal<TokenSpanBuffer> SPANS
+        = new ThreadLocal<TokenSpanBuffer>() {
+            @Override
+            protected TokenSpanBuffer initialValue() {
+                return new TokenSpanBuffer();
+            }
+        };
+
+    static class Bucket {
+        int[] mIDs = new int[2];
+        int mSize = 0;
+        void add(int id) {
+            if (mSize == mIDs.length) {
+                int[] ids = new int[mIDs.length * 2];
+                System.arraycopy(mIDs,0,ids,0,mSize);
+                mIDs = ids;
+            }
+            mIDs[mSize++] = id;
+        }
+    }
+
+}
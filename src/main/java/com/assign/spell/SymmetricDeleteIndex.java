@@ -0,0 +1,330 @@
+/* SymmetricDeleteIndex.java */
+
+package com.assign.spell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A <code>SymmetricDeleteIndex</code> finds the tokens of a fixed
+ * dictionary within a small edit distance of a query token using
+ * precomputed deletions, as in the SymSpell algorithm.
+ *
+ * <p>If two strings are within restricted Damerau-Levenshtein edit
+ * distance <code>d</code> (as computed by {@link EditDistance} with
+ * transposition), then deleting at most <code>d</code> characters
+ * from each of them produces a common string, because every
+ * substitution or transposition is undone by one deletion from each
+ * side and every insertion or deletion by one deletion from one
+ * side.  The index maps every string obtained by deleting up to
+ * <code>maxEditDistance</code> characters from a dictionary token,
+ * including the token itself, to the token.  The candidates for a
+ * query are then found by generating its own deletion variants and
+ * looking each up, with no search over the dictionary, after which
+ * the tokens actually within the maximum edit distance are kept.
+ *
+ * <p>Deletion variants are not stored as strings.  Each is reduced
+ * to a 64-bit hash, and the hashes are kept in an open-addressing
+ * table of <code>long</code> keys whose postings are ranges of a
+ * single array of <code>int</code> token identifiers.  A hash
+ * collision only adds candidates, which are removed by the final
+ * edit distance check, so results are exact.
+ *
+ * <p>Tokens are assigned identifiers in lexicographic order.  A
+ * token of length <code>n</code> has at most
+ * <code>sum<sub>k&lt;=d</sub> C(n,k)</code> distinct deletion
+ * variants, so the size of the index grows with the square of the
+ * token length for a maximum edit distance of 2.
+ *
+ * <p>A symmetric delete index may be used by a {@link
+ * CompiledSpellChecker} to propose candidate corrections; see {@link
+ * CompiledSpellChecker#didYouMeanByToken(String)}.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * Symmetric delete indexes are immutable, and lookups may run
+ * concurrently.
+ *
+ * <h3>References</h3>
+ *
+ * <ul>
+ * <li>Garbe, Wolf.  2012.  1000x faster spelling correction
+ * algorithm.  Blog post, FAROO.</li>
+ * </ul>
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class SymmetricDeleteIndex {
+
+    private final String[] mTokens;
+    private final int mMaxEditDistance;
+    private final long[] mKeys;     // 0L marks an empty slot
+    private final int[] mOffsets;   // postings of slot i: [mOffsets[i],mOffsets[i+1])
+    private final int[] mPostings;
+    private final int mNumKeys;
+
+    /**
+     * Construct a symmetric delete index for the specified tokens
+     * finding candidates up to the specified edit distance.
+     *
+     * @param tokens Dictionary tokens to index.
+     * @param maxEditDistance Maximum edit distance of candidates.
+     * @throws IllegalArgumentException If the maximum edit distance
+     * is not between 1 and 3 inclusive.
+     */
+    public SymmetricDeleteIndex(Collection<String> tokens,
+                                int maxEditDistance) {
+        if (maxEditDistance < 1 || maxEditDistance > MAX_EDIT_DISTANCE) {
+            String msg = "Maximum edit distance must be between 1 and "
+                + MAX_EDIT_DISTANCE + "."
+                + " Found maxEditDistance=" + maxEditDistance;
+            throw new IllegalArgumentException(msg);
+        }
+        mMaxEditDistance = maxEditDistance;
+        String[] sorted = tokens.toArray(new String[tokens.size()]);
+        Arrays.sort(sorted);
+        int numTokens = 0;
+        for (int i = 0; i < sorted.length; ++i)
+            if (numTokens == 0 || !sorted[i].equals(sorted[numTokens-1]))
+                sorted[numTokens++] = sorted[i];
+        mTokens = numTokens == sorted.length
+            ? sorted
+            : Arrays.copyOf(sorted,numTokens);
+
+        // pass 1: variant keys and their posting counts
+        VariantBuffer buffer = new VariantBuffer();
+        long[] keys = new long[INITIAL_TABLE_SIZE];
+        int[] counts = new int[INITIAL_TABLE_SIZE];
+        int numKeys = 0;
+        for (String token : mTokens) {
+            int numVariants = buffer.variants(token,maxEditDistance);
+            for (int k = 0; k < numVariants; ++k) {
+                if (2 * (numKeys + 1) > keys.length) {
+                    long[] oldKeys = keys;
+                    int[] oldCounts = counts;
+                    keys = new long[2 * oldKeys.length];
+                    counts = new int[keys.length];
+                    for (int i = 0; i < oldKeys.length; ++i) {
+                        if (oldKeys[i] == 0L) continue;
+                        int slot = findSlot(keys,oldKeys[i]);
+                        keys[slot] = oldKeys[i];
+                        counts[slot] = oldCounts[i];
+                    }
+                }
+                long key = buffer.mHashes[k];
+                int slot = findSlot(keys,key);
+                if (keys[slot] == 0L) {
+                    keys[slot] = key;
+                    ++numKeys;
+                }
+                ++counts[slot];
+            }
+        }
+
+        // pass 2: postings in token order
+        int[] offsets = new int[keys.length + 1];
+        for (int i = 0; i < keys.length; ++i)
+            offsets[i+1] = offsets[i] + counts[i];
+        int[] postings = new int[offsets[keys.length]];
+        int[] next = counts; // reused as fill positions
+        System.arraycopy(offsets,0,next,0,keys.length);
+        for (int id = 0; id < mTokens.length; ++id) {
+            int numVariants = buffer.variants(mTokens[id],maxEditDistance);
+            for (int k = 0; k < numVariants; ++k)
+                postings[next[findSlot(keys,buffer.mHashes[k])]++] = id;
+        }
+        mKeys = keys;
+        mOffsets = offsets;
+        mPostings = postings;
+        mNumKeys = numKeys;
+    }
+
+    /**
+     * Returns the maximum edit distance of candidates returned by
+     * this index.
+     *
+     * @return Maximum edit distance of candidates.
+     */
+    public int maxEditDistance() {
+        return mMaxEditDistance;
+    }
+
+    /**
+     * Returns the number of distinct tokens in this index.
+     *
+     * @return Number of tokens.
+     */
+    public int size() {
+        return mTokens.length;
+    }
+
+    /**
+     * Returns the token with the specified identifier.  Identifiers
+     * are assigned in lexicographic order of tokens from
+     * <code>0</code>.
+     *
+     * @param id Token identifier.
+     * @return Token with the identifier.
+     * @throws IndexOutOfBoundsException If the identifier is not
+     * between 0 (inclusive) and the size of the index (exclusive).
+     */
+    public String token(int id) {
+        return mTokens[id];
+    }
+
+    /**
+     * Returns the number of distinct deletion variant keys stored in
+     * this index.
+     *
+     * @return Number of variant keys.
+     */
+    public int numKeys() {
+        return mNumKeys;
+    }
+
+    /**
+     * Returns the dictionary tokens within the maximum edit distance
+     * of the specified token, ordered by increasing edit distance and
+     * then lexicographically.  If the token is itself in the
+     * dictionary, it is returned first.
+     *
+     * @param token Token whose candidates are returned.
+     * @return Dictionary tokens within the maximum edit distance.
+     */
+    public List<String> candidates(CharSequence token) {
+        return candidates(token,mMaxEditDistance);
+    }
+
+    /**
+     * Returns the dictionary tokens within the specified edit
+     * distance of the specified token, ordered by increasing edit
+     * distance and then lexicographically.
+     *
+     * @param token Token whose candidates are returned.
+     * @param maxEditDistance Maximum edit distance of candidates.
+     * @return Dictionary tokens within the edit distance.
+     * @throws IllegalArgumentException If the edit distance is
+     * negative or greater than the maximum edit distance of this
+     * index.
+     */
+    public List<String> candidates(CharSequence token, int maxEditDistance) {
+        if (maxEditDistance < 0 || maxEditDistance > mMaxEditDistance) {
+            String msg = "Edit distance must be between 0 and "
+                + mMaxEditDistance + "."
+                + " Found maxEditDistance=" + maxEditDistance;
+            throw new IllegalArgumentException(msg);
+        }
+        String query = token.toString();
+        VariantBuffer buffer = new VariantBuffer();
+        int numVariants = buffer.variants(query,maxEditDistance);
+        int[] ids = new int[16];
+        int numIds = 0;
+        for (int k = 0; k < numVariants; ++k) {
+            int slot = findSlot(mKeys,buffer.mHashes[k]);
+            if (mKeys[slot] == 0L) continue;
+            int end = mOffsets[slot+1];
+            for (int i = mOffsets[slot]; i < end; ++i) {
+                if (numIds == ids.length)
+                    ids = Arrays.copyOf(ids,2 * ids.length);
+                ids[numIds++] = mPostings[i];
+            }
+        }
+        Arrays.sort(ids,0,numIds);
+        // candidates sorted by distance then id, packed as distance:id
+        long[] scored = new long[numIds];
+        int numScored = 0;
+        int last = -1;
+        for (int i = 0; i < numIds; ++i) {
+            int id = ids[i];
+            if (id == last) continue;
+            last = id;
+            String candidate = mTokens[id];
+            if (java.lang.Math.abs(candidate.length() - query.length())
+                > maxEditDistance)
+                continue;
+            int distance
+                = BitParallelEditDistance.editDistance(query,candidate,true);
+            if (distance <= maxEditDistance)
+                scored[numScored++] = (((long) distance) << 32) | id;
+        }
+        Arrays.sort(scored,0,numScored);
+        List<String> result = new ArrayList<String>(numScored);
+        for (int i = 0; i < numScored; ++i)
+            result.add(mTokens[(int) scored[i]]);
+        return result;
+    }
+
+    /**
+     * Returns a string representation of this index.
+     *
+     * @return A string representation of this index.
+     */
+    @Override
+    public String toString() {
+        return "SymmetricDeleteIndex(maxEditDistance=" + mMaxEditDistance
+            + ", size=" + mTokens.length
+            + ", numKeys=" + mNumKeys
+            + ", numPostings=" + mPostings.length + ")";
+    }
+
+    // linear probing; returns the slot holding key or the empty slot
+    // where it would be inserted
+    static int findSlot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) key & mask;
+        while (keys[slot] != 0L && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    // distinct hashes of the strings obtained by deleting up to a
+    // given number of characters from a string
+    static final class VariantBuffer {
+        long[] mHashes = new long[64];
+        int mNumHashes;
+        boolean[] mDeleted = new boolean[16];
+        int variants(String s, int maxDeletes) {
+            if (mDeleted.length < s.length())
+                mDeleted = new boolean[s.length()];
+            mNumHashes = 0;
+            addVariants(s,0,java.lang.Math.min(maxDeletes,s.length()));
+            Arrays.sort(mHashes,0,mNumHashes);
+            int numDistinct = 0;
+            for (int i = 0; i < mNumHashes; ++i)
+                if (numDistinct == 0 || mHashes[i] != mHashes[numDistinct-1])
+                    mHashes[numDistinct++] = mHashes[i];
+            return numDistinct;
+        }
+        // deletes positions at or after start, at most maxDeletes more
+        void addVariants(String s, int start, int maxDeletes) {
+            if (mNumHashes == mHashes.length)
+                mHashes = Arrays.copyOf(mHashes,2 * mHashes.length);
+            mHashes[mNumHashes++] = hash(s);
+            if (maxDeletes == 0) return;
+            for (int i = start; i < s.length(); ++i) {
+                mDeleted[i] = true;
+                addVariants(s,i+1,maxDeletes-1);
+                mDeleted[i] = false;
+            }
+        }
+        long hash(String s) {
+            long h = HASH_SEED;
+            for (int i = 0; i < s.length(); ++i)
+                if (!mDeleted[i])
+                    h = (h + s.charAt(i)) * HASH_MULTIPLIER;
+            h = MinHashLshIndex.mix(h);
+            return h == 0L ? 1L : h;
+        }
+    }
+
+    static final int MAX_EDIT_DISTANCE = 3;
+
+    static final int INITIAL_TABLE_SIZE = 1024;
+
+    static final long HASH_SEED = 0x9e3779b97f4a7c15L;
+
+    static final long HASH_MULTIPLIER = 0xbf58476d1ce4e5b9L;
+
+}
@@ -18,12 +18,18 @@ package com.assign.spell;
 
 import com.assign.corpus.ObjectHandler;
 
+import com.assign.matrix.SparseFloatVector;
+
+import com.assign.tokenizer.TermDictionary;
+import com.assign.tokenizer.TokenSpanBuffer;
 import com.assign.tokenizer.TokenizerFactory;
 
+import com.assign.util.BoundedProximity;
 import com.assign.util.Counter;
 import com.assign.util.ObjectToCounterMap;
 import com.assign.util.Strings;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
@@ -130,6 +136,25 @@ import java.util.Set;
  * <blockquote><pre>
  * distance(cs1,cs2) = 1 - proximity(cs1,cs2)
  * </pre></blockquote>
+ *
+ * <h3>Frozen Distances and Compiled Documents</h3>
+ *
+ * <p>After training is complete, the method {@link #freeze()} fixes
+ * the document frequencies, assigns every known term an integer
+ * identifier and precomputes the IDF of every term.  No further
+ * documents may be handled after freezing.
+ *
+ * <p>A frozen distance may compile a character sequence into a
+ * sparse TF/IDF vector with {@link #vector(CharSequence)}.  The
+ * dimensions of the vector are the term identifiers and its length
+ * is computed once at construction.  Documents that are compared
+ * many times should be compiled once, after which {@link
+ * #proximity(SparseFloatVector,SparseFloatVector)} computes their
+ * cosine with a merge over the sorted term identifiers, without
+ * tokenizing or allocating.  Because the vector values are stored as
+ * floating point numbers, compiled proximities may differ from
+ * character sequence proximities in the last few bits.
+ *
  * <h3>References</h3>
  *
  * <ul>
@@ -156,12 +181,17 @@ import java.util.Set;
  */
 public class TfIdfDistance 
     extends TokenizedDistance 
-    implements ObjectHandler<CharSequence> {
+    implements ObjectHandler<CharSequence>,
+               BoundedProximity<CharSequence> {
 
     private int mDocCount = 0;
     private final ObjectToCounterMap<String> mDocFrequency
         = new ObjectToCounterMap<String>();
 
+    // set by freeze()
+    private TermDictionary mTermDictionary;
+    private double[] mIdfs;
+
     /**
      * Construct an instance of TF/IDF string distance based on the
      * specified tokenizer factory.
@@ -176,8 +206,13 @@ public class TfIdfDistance
      * Add the specified character sequence as a document for training.
      *
      * @param cSeq Characters to trai.
+     * @throws IllegalStateException If this distance has been frozen.
      */
     public void handle(CharSequence cSeq) {
+        if (mIdfs != null) {
+            String msg = "Cannot handle documents after freezing.";
+            throw new IllegalStateException(msg);
+        }
         char[] cs = Strings.toCharArray(cSeq);
         for (String token : tokenSet(cs,0,cs.length))
             mDocFrequency.increment(token);
@@ -210,6 +245,8 @@ public class TfIdfDistance
      * @return The TF/IDF proximity between the two sequences.
      */
     public double proximity(CharSequence cSeq1, CharSequence cSeq2) {
+        if (mIdfs != null)
+            return frozenProximity(cSeq1,cSeq2,Double.NEGATIVE_INFINITY);
         // really only need to create one of these; other can just it and add
         ObjectToCounterMap<String> tf1 = termFrequencyVector(cSeq1);
         ObjectToCounterMap<String> tf2 = termFrequencyVector(cSeq2);
@@ -245,6 +282,170 @@ public class TfIdfDistance
                : prox);
     }
 
+    /**
+     * Returns the TF/IDF proximity between the specified character
+     * sequences if it is at least the specified threshold, and
+     * otherwise a value below the threshold.
+     *
+     * <p>The lengths of both term vectors are computed first.  The
+     * dot product is then accumulated over the terms of the first
+     * sequence, and by the Cauchy-Schwarz inequality the contribution
+     * of the terms not yet visited is at most the length of their
+     * part of the first vector times the length of the second vector.
+     * The loop stops as soon as the proximity could no longer reach
+     * the threshold.  Because the bound is computed in floating point
+     * and may round below the exact proximity, it must fall below the
+     * threshold by more than <code>1e-12</code> before the loop stops.
+     *
+     * <p>Once this distance is frozen, both this method and {@link
+     * #proximity(CharSequence,CharSequence)} look the tokens up in
+     * the frozen term dictionary by their character offsets and count
+     * them in arrays indexed by term identifier, using scratch space
+     * held per thread, so no strings or maps are created per token.
+     *
+     * @param cSeq1 First character sequence.
+     * @param cSeq2 Second character sequence.
+     * @param threshold Minimum proximity of interest.
+     * @return The TF/IDF proximity between the two sequences if it
+     * reaches the threshold, otherwise a value below the threshold.
+     */
+    public double proximityAtLeast(CharSequence cSeq1, CharSequence cSeq2,
+                                   double threshold) {
+        if (mIdfs != null)
+            return frozenProximity(cSeq1,cSeq2,threshold);
+        ObjectToCounterMap<String> tf1 = termFrequencyVector(cSeq1);
+        ObjectToCounterMap<String> tf2 = termFrequencyVector(cSeq2);
+        // lengths summed in the same order as proximity() so results agree exactly
+        double len1 = 0.0;
+        double len2 = 0.0;
+        for (Map.Entry<String,Counter> entry : tf1.entrySet()) {
+            String term = entry.getKey();
+            double tfIdf1 = tfIdf(term,entry.getValue());
+            len1 += tfIdf1 * tfIdf1;
+            Counter count2 = tf2.get(term);
+            if (count2 == null) continue;
+            double tfIdf2 = tfIdf(term,count2);
+            len2 += tfIdf2 * tfIdf2;
+        }
+        for (Map.Entry<String,Counter> entry : tf2.entrySet()) {
+            String term = entry.getKey();
+            if (tf1.containsKey(term)) continue;
+            double tfIdf2 = tfIdf(term,entry.getValue());
+            len2 += tfIdf2 * tfIdf2;
+        }
+        if (len1 == 0)
+            return len2 == 0.0 ? 1.0 : 0.0;
+        if (len2 == 0) return 0.0;
+        double norm = Math.sqrt(len1 * len2);
+        double sqrtLen2 = Math.sqrt(len2);
+        double left1 = len1;
+        double prod = 0.0;
+        for (Map.Entry<String,Counter> entry : tf1.entrySet()) {
+            String term = entry.getKey();
+            double tfIdf1 = tfIdf(term,entry.getValue());
+            left1 -= tfIdf1 * tfIdf1;
+            Counter count2 = tf2.get(term);
+            if (count2 != null)
+                prod += tfIdf1 * tfIdf(term,count2);
+            double bound = (prod + Math.sqrt(Math.max(0.0,left1)) * sqrtLen2)
+                / norm;
+            if (bound < threshold - BOUND_SLACK) return bound;
+        }
+        double prox = prod / norm;
+        return prox < 0.0 
+            ? 0.0
+            : (prox > 1.0
+               ? 1.0
+               : prox);
+    }
+
+
+    /**
+     * Freezes the document frequencies of this distance, assigning
+     * identifiers to terms and precomputing their inverse document
+     * frequencies.  After freezing, documents may be compiled into
+     * vectors with {@link #vector(CharSequence)}, but no further
+     * training documents may be handled.  Calling this method on a
+     * frozen distance has no effect.
+     */
+    public void freeze() {
+        if (mIdfs != null) return;
+        String[] terms = mDocFrequency.keySet().toArray(new String[mDocFrequency.size()]);
+        Arrays.sort(terms);
+        TermDictionary dictionary = new TermDictionary();
+        double[] idfs = new double[terms.length];
+        for (int i = 0; i < terms.length; ++i) {
+            dictionary.getOrAdd(terms[i]);
+            idfs[i] = idf(terms[i]);
+        }
+        mTermDictionary = dictionary;
+        mIdfs = idfs;
+    }
+
+    /**
+     * Returns {@code true} if this distance has been frozen.
+     *
+     * @return {@code true} if this distance is frozen.
+     */
+    public boolean isFrozen() {
+        return mIdfs != null;
+    }
+
+    /**
+     * Returns the TF/IDF vector for the specified character sequence.
+     * The dimensions of the vector are the identifiers assigned to
+     * terms when this distance was frozen.  Terms that did not appear
+     * in any training document have an IDF of zero, so they are not
+     * represented in the vector.
+     *
+     * @param cSeq Character sequence to compile.
+     * @return The TF/IDF vector for the character sequence.
+     * @throws IllegalStateException If this distance has not been frozen.
+     */
+    public SparseFloatVector vector(CharSequence cSeq) {
+        if (mIdfs == null) {
+            String msg = "Distance must be frozen before compiling vectors.";
+            throw new IllegalStateException(msg);
+        }
+        TermScratch scratch = scratch();
+        scratch.ensureIdCapacity(mIdfs.length);
+        int[] counts = scratch.mCounts1;
+        int numKeys = countTerms(cSeq,scratch,counts,true);
+        int[] keys = new int[numKeys];
+        System.arraycopy(scratch.mIds1,0,keys,0,numKeys);
+        Arrays.sort(keys);
+        float[] values = new float[numKeys];
+        for (int i = 0; i < numKeys; ++i) {
+            int id = keys[i];
+            values[i] = (float) Math.sqrt(counts[id] * mIdfs[id]);
+            counts[id] = 0;
+        }
+        return new SparseFloatVector(keys,values,mIdfs.length);
+    }
+
+    /**
+     * Returns the TF/IDF proximity between the specified compiled
+     * vectors.  The vectors must have been produced by {@link
+     * #vector(CharSequence)} on this distance.  See the class
+     * documentation above for details.
+     *
+     * @param v1 First compiled vector.
+     * @param v2 Second compiled vector.
+     * @return The TF/IDF proximity between the two vectors.
+     */
+    public double proximity(SparseFloatVector v1, SparseFloatVector v2) {
+        double len1 = v1.length();
+        double len2 = v2.length();
+        if (len1 == 0)
+            return len2 == 0.0 ? 1.0 : 0.0;
+        if (len2 == 0) return 0.0;
+        double prox = v1.dotProduct(v2) / (len1 * len2);
+        return prox < 0.0
+            ? 0.0
+            : (prox > 1.0
+               ? 1.0
+               : prox);
+    }
 
     /**
      * Returns the number of training documents that contained
@@ -267,6 +468,10 @@ public class TfIdfDistance
      * @return The IDF of the specified term.
      */
     public double idf(String term) {
+        if (mIdfs != null) {
+            int id = mTermDictionary.find(term);
+            return id < 0 ? 0.0 : mIdfs[id];
+        }
         int df = mDocFrequency.getCount(term);
         if (df == 0) return 0.0;
         return java.lang.Math.log(((double) mDocCount)/((double) df));
@@ -305,6 +510,85 @@ public class TfIdfDistance
         return Collections.<String>unmodifiableSet(mDocFrequency.keySet());
     }
 
+    // rounding allowance on the Cauchy-Schwarz bound of proximityAtLeast;
+    // the bound is within a few ulps of [0,1], far below this
+    static final double BOUND_SLACK = 1e-12;
+
+    // cosine of the frozen TF/IDF vectors, with the early exit of proximityAtLeast
+    private double frozenProximity(CharSequence cSeq1, CharSequence cSeq2,
+                                   double threshold) {
+        TermScratch scratch = scratch();
+        scratch.ensureIdCapacity(mIdfs.length);
+        int[] counts1 = scratch.mCounts1;
+        int[] counts2 = scratch.mCounts2;
+        int numIds1 = countTerms(cSeq1,scratch,counts1,true);
+        int numIds2 = countTerms(cSeq2,scratch,counts2,false);
+        int[] ids1 = scratch.mIds1;
+        int[] ids2 = scratch.mIds2;
+        try {
+            double len1 = 0.0;
+            for (int i = 0; i < numIds1; ++i) {
+                int id = ids1[i];
+                double tfIdf1 = Math.sqrt(counts1[id] * mIdfs[id]);
+                len1 += tfIdf1 * tfIdf1;
+            }
+            double len2 = 0.0;
+            for (int i = 0; i < numIds2; ++i) {
+                int id = ids2[i];
+                double tfIdf2 = Math.sqrt(counts2[id] * mIdfs[id]);
+                len2 += tfIdf2 * tfIdf2;
+            }
+            if (len1 == 0)
+                return len2 == 0.0 ? 1.0 : 0.0;
+            if (len2 == 0) return 0.0;
+            double norm = Math.sqrt(len1 * len2);
+            double sqrtLen2 = Math.sqrt(len2);
+            double left1 = len1;
+            double prod = 0.0;
+            for (int i = 0; i < numIds1; ++i) {
+                int id = ids1[i];
+                double tfIdf1 = Math.sqrt(counts1[id] * mIdfs[id]);
+                left1 -= tfIdf1 * tfIdf1;
+                if (counts2[id] != 0)
+                    prod += tfIdf1 * Math.sqrt(counts2[id] * mIdfs[id]);
+                double bound
+                    = (prod + Math.sqrt(Math.max(0.0,left1)) * sqrtLen2) / norm;
+                if (bound < threshold - BOUND_SLACK) return bound;
+            }
+            double prox = prod / norm;
+            return prox < 0.0
+                ? 0.0
+                : (prox > 1.0
+                   ? 1.0
+                   : prox);
+        } finally {
+            for (int i = 0; i < numIds1; ++i)
+                counts1[ids1[i]] = 0;
+            for (int i = 0; i < numIds2; ++i)
+                counts2[ids2[i]] = 0;
+        }
+    }
+
+    // counts the known terms with non-zero IDF of the sequence, listing
+    // their ids in first-seen order in mIds1 or mIds2; returns the number of ids
+    private int countTerms(CharSequence cSeq, TermScratch scratch,
+                           int[] counts, boolean first) {
+        int numTokens = tokenize(cSeq,scratch);
+        TokenSpanBuffer spans = scratch.mSpans;
+        char[] cs = spans.chars();
+        int[] ids = first ? scratch.mIds1 : scratch.mIds2;
+        int numIds = 0;
+        for (int i = 0; i < numTokens; ++i) {
+            int id = mTermDictionary.find(cs,spans.start(i),spans.end(i));
+            if (id < 0 || mIdfs[id] == 0.0) continue;
+            if (counts[id]++ == 0)
+                ids = TermScratch.append(ids,numIds++,id);
+        }
+        if (first) scratch.mIds1 = ids;
+        else scratch.mIds2 = ids;
+        return numIds;
+    }
+
     double tfIdf(String term, Counter count) {
         double idf = idf(term);
         double tf = count.doubleValue();
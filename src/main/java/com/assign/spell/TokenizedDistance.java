@@ -15,7 +15,8 @@
  */
 package com.assign.spell;
 
-import java.util.Arrays;
+import com.assign.tokenizer.TermDictionary;
+import com.assign.tokenizer.TokenSpanBuffer;
 import com.assign.tokenizer.Tokenizer;
 import com.assign.tokenizer.TokenizerFactory;
 
@@ -26,9 +27,7 @@ import com.assign.util.Strings;
 
 
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
-import com.assign.tokenizer.RegExTokenizerFactory;
 
 /**
  * The <code>TokenizedDistance</code> class provides an underlying
@@ -41,6 +40,13 @@ import com.assign.tokenizer.RegExTokenizerFactory;
  * method {@link #termFrequencyVector(CharSequence)} provides a
  * mapping from tokens extracted by a tokenizer to integer counts.
  *
+ * <p>Subclasses comparing many pairs of sequences may instead work on
+ * integer term identifiers.  The characters of each sequence are then
+ * tokenized as offsets by a {@link TokenSpanBuffer} and the tokens
+ * mapped to identifiers by a {@link TermDictionary}, using scratch
+ * space held per thread, so that no strings or collections are created
+ * per token.
+ *
  * @author  Bob Carpenter
  * @version 4.0.0
  * @since   LingPipe2.4.0
@@ -85,6 +91,7 @@ public abstract class TokenizedDistance
         char[] cs = Strings.toCharArray(cSeq);
         return tokenSet(cs, 0, cs.length);
     }
+
     /**
      * Return the set of tokens produced by the specified character
      * slice using the tokenizer for this distance measure.
@@ -98,19 +105,11 @@ public abstract class TokenizedDistance
      * plus the length minus one is not within the underlying
      * array.
      */
-    TokenizerFactory TOKENIZER_FACTORY = new RegExTokenizerFactory("(-|'|\\d|\\p{L})+|\\S");
-
     public Set<String> tokenSet(char[] cs, int start, int length) {
-
-        Tokenizer tokenizer = TOKENIZER_FACTORY.tokenizer(cs, 0, cs.length);
-        //Tokenizer tokenizer = mTokenizerFactory.tokenizer(cs,start,length);
+        Tokenizer tokenizer = mTokenizerFactory.tokenizer(cs, start, length);
         Set<String> tokenSet = new HashSet<String>();
-        String[] tokens = tokenizer.tokenize();
-        List<String> tokenList = Arrays.asList(tokens);
-        //while ((token = tokenizer.nextToken()) != null)
-        for (int i = 0; i < tokenList.size(); i++) {
-            tokenSet.add(tokenList.get(i));
-        }
+        for (String token : tokenizer.tokenize())
+            tokenSet.add(token);
         return tokenSet;
     }
 
@@ -125,16 +124,82 @@ public abstract class TokenizedDistance
     public ObjectToCounterMap<String> termFrequencyVector(CharSequence cSeq) {
         ObjectToCounterMap<String> termFrequency = new ObjectToCounterMap<String>();
         char[] cs = Strings.toCharArray(cSeq);
-        Tokenizer tokenizer = TOKENIZER_FACTORY.tokenizer(cs, 0, cs.length);
-        //String token;
-        String[] tokens = tokenizer.tokenize();
-        List<String> tokenList = Arrays.asList(tokens);
-//        while ((token = tokenizer.nextToken()) != null) {
-//            termFrequency.increment(token);
-//        }
-        for (int i = 0; i < tokenList.size(); i++) {
-            termFrequency.increment(tokenList.get(i));
-        }
+        Tokenizer tokenizer = mTokenizerFactory.tokenizer(cs, 0, cs.length);
+        for (String token : tokenizer.tokenize())
+            termFrequency.increment(token);
         return termFrequency;
     }
+
+    /**
+     * Tokenizes the specified character sequence into the token span
+     * buffer of the specified scratch space, returning the number of
+     * tokens.  The tokens are the same as those of {@link
+     * #tokenSet(CharSequence)}.
+     */
+    int tokenize(CharSequence cSeq, TermScratch scratch) {
+        char[] cs = scratch.chars(cSeq);
+        return scratch.mSpans.tokenize(mTokenizerFactory, cs, 0, cSeq.length());
+    }
+
+    /**
+     * Returns the scratch space for the current thread.
+     */
+    static TermScratch scratch() {
+        return SCRATCH.get();
+    }
+
+    private static final ThreadLocal<TermScratch> SCRATCH
+        = new ThreadLocal<TermScratch>() {
+            @Override
+            protected TermScratch initialValue() {
+                return new TermScratch();
+            }
+        };
+
+    /**
+     * Per-thread scratch space for comparing sequences as sets or
+     * counts of integer term identifiers.  The count arrays are kept
+     * all zero between uses; users reset the entries they touched,
+     * which are listed in the identifier arrays.
+     */
+    static final class TermScratch {
+        final TokenSpanBuffer mSpans = new TokenSpanBuffer();
+        final TermDictionary mDictionary = new TermDictionary();
+        char[] mChars = new char[256];
+        int[] mCounts1 = new int[256];
+        int[] mCounts2 = new int[256];
+        int[] mIds1 = new int[64];
+        int[] mIds2 = new int[64];
+
+        char[] chars(CharSequence cSeq) {
+            int length = cSeq.length();
+            if (mChars.length < length)
+                mChars = new char[Math.max(length, 2 * mChars.length)];
+            if (cSeq instanceof String) {
+                ((String) cSeq).getChars(0, length, mChars, 0);
+            } else {
+                for (int i = 0; i < length; ++i)
+                    mChars[i] = cSeq.charAt(i);
+            }
+            return mChars;
+        }
+
+        void ensureIdCapacity(int numIds) {
+            if (mCounts1.length < numIds) {
+                int capacity = Math.max(numIds, 2 * mCounts1.length);
+                mCounts1 = new int[capacity];
+                mCounts2 = new int[capacity];
+            }
+        }
+
+        static int[] append(int[] ids, int size, int id) {
+            if (size == ids.length) {
+                int[] grown = new int[2 * size];
+                System.arraycopy(ids, 0, grown, 0, size);
+                ids = grown;
+            }
+            ids[size] = id;
+            return ids;
+        }
+    }
 }
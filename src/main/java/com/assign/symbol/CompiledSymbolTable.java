@@ -17,13 +17,25 @@
 package com.assign.symbol;
 
 import com.assign.util.AbstractExternalizable;
+import com.assign.util.Streams;
+import com.assign.util.Strings;
 
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+import java.nio.channels.FileChannel;
+
 import java.util.Arrays;
 
 /**
@@ -57,18 +69,66 @@ import java.util.Arrays;
  * symbol table will be {@link java.lang.Short#MAX_VALUE}.
  * </p>
  *
+ * <h3>Lookup</h3>
+ *
+ * Identifiers are assigned in sorted order of the symbols, but
+ * symbols are found through a minimal perfect hash rather than by
+ * binary search.  Each symbol's 64-bit hash picks a bucket, and each
+ * bucket stores a displacement that moves all of its symbols into
+ * distinct slots of a table with exactly one slot per symbol; the
+ * slot holds the identifier.  A lookup is thus one hash of the
+ * symbol's characters, two array reads and one comparison against
+ * the candidate symbol, which rejects symbols not in the table.
+ *
+ * <p>The method {@link #symbolToID(char[],int,int)} looks up a slice
+ * of a character array directly, so that tokens need not be copied
+ * into strings in order to find their identifiers.
+ *
+ * <h3>Memory-Mapped Tables</h3>
+ *
+ * A table may be written with {@link #writeMappedTo(File)} and
+ * opened with {@link #mapFrom(File)}, in which case the hash and the
+ * symbols themselves are read from the mapped file rather than the
+ * heap.  The little-endian layout packs the symbols' characters in
+ * identifier order into a single arena, indexed by start offsets,
+ * with each section padded to a multiple of eight bytes:
+ *
+ * <blockquote>
+ * <pre>
+ * magic:int  version:int
+ * numSymbols:int  numBuckets:int  seed:int  numChars:int
+ * (start:int)^(numSymbols+1)
+ * (displacement:int)^numBuckets
+ * (id:int)^numSymbols
+ * (c:char)^numChars
+ * </pre>
+ * </blockquote>
+ *
+ * Mapped tables create a string for each call to {@link
+ * #idToSymbol(int)}, whereas heap tables return the strings they
+ * were built with.
+ *
+ * <p>Compiled symbol tables are immutable and may be used
+ * concurrently from multiple threads.
+ *
  * @author  Bob Carpenter
  * @version 3.8.1
  * @since   LingPipe1.0
  */
-class CompiledSymbolTable implements SymbolTable, Serializable {
+public class CompiledSymbolTable implements SymbolTable, Serializable {
 
     static final long serialVersionUID = -8025428413920807070L;
 
-    /**
-     * Sorted array of symbols in the symbol table.
-     */
+    private final int mNumSymbols;
+    private final int mNumBuckets;
+    private final int mSeed;
+    private final IntBuffer mDisplacements;
+    private final IntBuffer mIds;
+
+    // heap tables keep the sorted symbols; mapped tables the arena
     private final String[] mSymbols;
+    private final IntBuffer mStarts;
+    private final CharBuffer mChars;
 
     /**
      * Construct a compiled symbol table from the specified symbols.
@@ -76,15 +136,56 @@ class CompiledSymbolTable implements SymbolTable, Serializable {
      * are sorted in order to produce identifiers.
      *
      * @param symbols Array of symbols.
+     * @throws IllegalArgumentException If there are duplicate symbols
+     * in the array.
      */
     public CompiledSymbolTable(String[] symbols) {
-        mSymbols = new String[symbols.length];
-        System.arraycopy(symbols,0,mSymbols,0,symbols.length);
-        Arrays.sort(mSymbols);
+        this(sortedCopy(symbols),IGNORE);
     }
 
     private CompiledSymbolTable(String[] symbols, boolean ignore) {
+        for (int i = 1; i < symbols.length; ++i) {
+            if (symbols[i].equals(symbols[i-1])) {
+                String msg = "Duplicate symbol=" + symbols[i];
+                throw new IllegalArgumentException(msg);
+            }
+        }
         mSymbols = symbols;
+        mStarts = null;
+        mChars = null;
+        mNumSymbols = symbols.length;
+        mNumBuckets = numBuckets(mNumSymbols);
+        long[] hashes = new long[mNumSymbols];
+        int[] displacements = new int[mNumBuckets];
+        int[] ids = new int[mNumSymbols];
+        for (int seed = 0; ; ++seed) {
+            for (int i = 0; i < mNumSymbols; ++i)
+                hashes[i] = hash(symbols[i],seed);
+            if (buildHash(hashes,displacements,ids)) {
+                mSeed = seed;
+                break;
+            }
+            if (seed == MAX_SEED) {
+                String msg = "Could not build perfect hash."
+                    + " Number of symbols=" + mNumSymbols;
+                throw new IllegalStateException(msg);
+            }
+        }
+        mDisplacements = IntBuffer.wrap(displacements);
+        mIds = IntBuffer.wrap(ids);
+    }
+
+    private CompiledSymbolTable(int numSymbols, int numBuckets, int seed,
+                                IntBuffer starts, IntBuffer displacements,
+                                IntBuffer ids, CharBuffer chars) {
+        mNumSymbols = numSymbols;
+        mNumBuckets = numBuckets;
+        mSeed = seed;
+        mStarts = starts;
+        mDisplacements = displacements;
+        mIds = ids;
+        mChars = chars;
+        mSymbols = null;
     }
 
     Object writeReplace() {
@@ -99,7 +200,10 @@ class CompiledSymbolTable implements SymbolTable, Serializable {
      */
     @Override
     public String toString() {
-        return java.util.Arrays.asList(mSymbols).toString();
+        String[] symbols = new String[mNumSymbols];
+        for (int i = 0; i < symbols.length; ++i)
+            symbols[i] = idToSymbol(i);
+        return java.util.Arrays.asList(symbols).toString();
     }
 
     /**
@@ -132,6 +236,137 @@ class CompiledSymbolTable implements SymbolTable, Serializable {
         }
     }
 
+    /**
+     * Writes this symbol table to the specified file in the
+     * memory-mappable format described in the class documentation.
+     * The table may be read back with {@link #mapFrom(File)}.
+     *
+     * @param file File to which the table is written.
+     * @throws IOException If there is an I/O exception writing the
+     * file, or if the table is too large to be mapped.
+     */
+    public void writeMappedTo(File file) throws IOException {
+        long numChars = 0L;
+        for (int i = 0; i < mNumSymbols; ++i)
+            numChars += symbolLength(i);
+        checkMappable(mNumSymbols,numChars);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buf
+                = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(MAPPED_BYTE_ORDER);
+            buf.putInt(MAPPED_MAGIC);
+            buf.putInt(MAPPED_VERSION);
+            buf.putInt(mNumSymbols);
+            buf.putInt(mNumBuckets);
+            buf.putInt(mSeed);
+            buf.putInt((int) numChars);
+            pad(buf);
+            int start = 0;
+            buf = putInt(channel,buf,start);
+            for (int i = 0; i < mNumSymbols; ++i) {
+                start += symbolLength(i);
+                buf = putInt(channel,buf,start);
+            }
+            pad(buf);
+            for (int i = 0; i < mNumBuckets; ++i)
+                buf = putInt(channel,buf,mDisplacements.get(i));
+            pad(buf);
+            for (int i = 0; i < mNumSymbols; ++i)
+                buf = putInt(channel,buf,mIds.get(i));
+            pad(buf);
+            for (int i = 0; i < mNumSymbols; ++i) {
+                String symbol = idToSymbol(i);
+                for (int j = 0; j < symbol.length(); ++j) {
+                    if (buf.remaining() < 2)
+                        drain(channel,buf);
+                    buf.putChar(symbol.charAt(j));
+                }
+            }
+            pad(buf);
+            drain(channel,buf);
+        } finally {
+            Streams.closeOutputStream(out);
+        }
+    }
+
+    /**
+     * Returns a symbol table read directly from the specified file,
+     * which should have been written by {@link #writeMappedTo(File)}.
+     * The file is mapped read-only and is not read into the heap; it
+     * must not be modified while the returned table is in use.
+     *
+     * @param file File to map.
+     * @return The symbol table in the file.
+     * @throws IOException If there is an I/O exception mapping the
+     * file, or if it is not in the mapped format.
+     */
+    public static CompiledSymbolTable mapFrom(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < MAPPED_HEADER_SIZE) {
+                String msg = "File too short for a mapped symbol table."
+                    + " Found size=" + fileSize
+                    + " file=" + file;
+                throw new IOException(msg);
+            }
+            ByteBuffer header
+                = channel.map(FileChannel.MapMode.READ_ONLY,0,MAPPED_HEADER_SIZE)
+                .order(MAPPED_BYTE_ORDER);
+            int magic = header.getInt();
+            int version = header.getInt();
+            if (magic != MAPPED_MAGIC || version != MAPPED_VERSION) {
+                String msg = "Not a mapped symbol table."
+                    + " Found magic=" + Integer.toHexString(magic)
+                    + " version=" + version
+                    + " file=" + file;
+                throw new IOException(msg);
+            }
+            int numSymbols = header.getInt();
+            int numBuckets = header.getInt();
+            int seed = header.getInt();
+            int numChars = header.getInt();
+            if (numSymbols < 0
+                || numSymbols > MAX_MAPPED_SYMBOLS
+                || numBuckets != numBuckets(numSymbols)
+                || numChars < 0
+                || numChars > MAX_MAPPED_CHARS) {
+                String msg = "Illegal sizes in mapped symbol table."
+                    + " Found numSymbols=" + numSymbols
+                    + " numBuckets=" + numBuckets
+                    + " numChars=" + numChars
+                    + " file=" + file;
+                throw new IOException(msg);
+            }
+            long expectedSize = mappedSize(numSymbols,numBuckets,numChars);
+            if (fileSize != expectedSize) {
+                String msg = "Mapped symbol table has wrong size."
+                    + " Expected size=" + expectedSize
+                    + " Found size=" + fileSize
+                    + " file=" + file;
+                throw new IOException(msg);
+            }
+            long offset = MAPPED_HEADER_SIZE;
+            IntBuffer starts
+                = map(channel,offset,4L * (numSymbols+1)).asIntBuffer();
+            offset += padded(4L * (numSymbols+1));
+            IntBuffer displacements
+                = map(channel,offset,4L * numBuckets).asIntBuffer();
+            offset += padded(4L * numBuckets);
+            IntBuffer ids
+                = map(channel,offset,4L * numSymbols).asIntBuffer();
+            offset += padded(4L * numSymbols);
+            CharBuffer chars
+                = map(channel,offset,2L * numChars).asCharBuffer();
+            return new CompiledSymbolTable(numSymbols,numBuckets,seed,
+                                           starts,displacements,ids,chars);
+        } finally {
+            raf.close(); // mappings remain valid after the channel closes
+        }
+    }
+
     /**
      * Return the identifier corresponding to the specified symbol,
      * or <code>-1</code> if the symbol does not exist.
@@ -141,8 +376,57 @@ class CompiledSymbolTable implements SymbolTable, Serializable {
      * <code>-1</code> if the symbol does not exist.
      */
     public int symbolToID(String symbol) {
-        int result = Arrays.binarySearch(mSymbols,symbol);
-        return result < 0 ? -1 : result;
+        long hash = hash(symbol,mSeed);
+        if (mNumSymbols == 0) return UNKNOWN_SYMBOL_ID;
+        int id = candidateId(hash);
+        if (mSymbols != null)
+            return symbol.equals(mSymbols[id]) ? id : UNKNOWN_SYMBOL_ID;
+        int start = mStarts.get(id);
+        int length = symbol.length();
+        if (mStarts.get(id+1) - start != length)
+            return UNKNOWN_SYMBOL_ID;
+        for (int i = 0; i < length; ++i)
+            if (mChars.get(start+i) != symbol.charAt(i))
+                return UNKNOWN_SYMBOL_ID;
+        return id;
+    }
+
+    /**
+     * Return the identifier of the symbol consisting of the specified
+     * slice of characters, or <code>-1</code> if the symbol does not
+     * exist.  The result is the same as that of {@link
+     * #symbolToID(String)} for the string consisting of the slice,
+     * but no string is created.
+     *
+     * @param cs Underlying characters.
+     * @param start Index of the first character of the symbol.
+     * @param end Index one past the last character of the symbol.
+     * @return Identifier corresponding to specified symbol or
+     * <code>-1</code> if the symbol does not exist.
+     * @throws IndexOutOfBoundsException If the indices are out of
+     * range for the character array.
+     */
+    public int symbolToID(char[] cs, int start, int end) {
+        Strings.checkArgsStartEnd(cs,start,end);
+        if (mNumSymbols == 0) return UNKNOWN_SYMBOL_ID;
+        int id = candidateId(hash(cs,start,end,mSeed));
+        int length = end - start;
+        if (mSymbols != null) {
+            String symbol = mSymbols[id];
+            if (symbol.length() != length)
+                return UNKNOWN_SYMBOL_ID;
+            for (int i = 0; i < length; ++i)
+                if (symbol.charAt(i) != cs[start+i])
+                    return UNKNOWN_SYMBOL_ID;
+            return id;
+        }
+        int symbolStart = mStarts.get(id);
+        if (mStarts.get(id+1) - symbolStart != length)
+            return UNKNOWN_SYMBOL_ID;
+        for (int i = 0; i < length; ++i)
+            if (mChars.get(symbolStart+i) != cs[start+i])
+                return UNKNOWN_SYMBOL_ID;
+        return id;
     }
 
     /**
@@ -157,7 +441,19 @@ class CompiledSymbolTable implements SymbolTable, Serializable {
      * specified identifier.
      */
     public String idToSymbol(int id) {
-        return mSymbols[id];
+        if (mSymbols != null)
+            return mSymbols[id];
+        if (id < 0 || id >= mNumSymbols) {
+            String msg = "Identifier out of range."
+                + " Found id=" + id
+                + " numSymbols=" + mNumSymbols;
+            throw new IndexOutOfBoundsException(msg);
+        }
+        int start = mStarts.get(id);
+        char[] cs = new char[mStarts.get(id+1) - start];
+        for (int i = 0; i < cs.length; ++i)
+            cs[i] = mChars.get(start+i);
+        return new String(cs);
     }
 
     /**
@@ -166,7 +462,7 @@ class CompiledSymbolTable implements SymbolTable, Serializable {
      * @return Number of symbols in this table.
      */
     public int numSymbols() {
-        return mSymbols.length;
+        return mNumSymbols;
     }
 
     /**
@@ -200,6 +496,207 @@ class CompiledSymbolTable implements SymbolTable, Serializable {
         throw new UnsupportedOperationException();
     }
 
+    private int candidateId(long hash) {
+        int bucket = reduce(hash,mNumBuckets);
+        return mIds.get(slot(hash,mDisplacements.get(bucket),mNumSymbols));
+    }
+
+    private int symbolLength(int id) {
+        return mSymbols != null
+            ? mSymbols[id].length()
+            : mStarts.get(id+1) - mStarts.get(id);
+    }
+
+    // Places buckets largest first, giving each the first displacement
+    // that sends all of its hashes to free slots, and records the
+    // index of each hash in its slot.  Fails if some bucket cannot be
+    // placed, which happens only if two hashes coincide.
+    static boolean buildHash(long[] hashes, int[] displacements, int[] ids) {
+        int numSymbols = hashes.length;
+        int numBuckets = displacements.length;
+        Arrays.fill(displacements,0);
+        if (numSymbols == 0) return true;
+        int[] bucketStarts = new int[numBuckets+1];
+        for (int i = 0; i < numSymbols; ++i)
+            ++bucketStarts[reduce(hashes[i],numBuckets)+1];
+        int maxBucketSize = 0;
+        for (int b = 0; b < numBuckets; ++b) {
+            maxBucketSize = Math.max(maxBucketSize,bucketStarts[b+1]);
+            bucketStarts[b+1] += bucketStarts[b];
+        }
+        int[] members = new int[numSymbols];
+        int[] next = Arrays.copyOf(bucketStarts,numBuckets);
+        for (int i = 0; i < numSymbols; ++i)
+            members[next[reduce(hashes[i],numBuckets)]++] = i;
+        // order buckets by decreasing size with a counting sort
+        int[] sizeStarts = new int[maxBucketSize+2];
+        for (int b = 0; b < numBuckets; ++b)
+            ++sizeStarts[maxBucketSize - (bucketStarts[b+1] - bucketStarts[b]) + 1];
+        for (int k = 0; k <= maxBucketSize; ++k)
+            sizeStarts[k+1] += sizeStarts[k];
+        int[] buckets = new int[numBuckets];
+        for (int b = 0; b < numBuckets; ++b)
+            buckets[sizeStarts[maxBucketSize - (bucketStarts[b+1] - bucketStarts[b])]++] = b;
+
+        boolean[] taken = new boolean[numSymbols];
+        int[] slots = new int[maxBucketSize];
+        long maxDisplacement
+            = Math.max(MIN_MAX_DISPLACEMENT,
+                       DISPLACEMENT_FACTOR * (long) numSymbols);
+        for (int k = 0; k < numBuckets; ++k) {
+            int b = buckets[k];
+            int start = bucketStarts[b];
+            int size = bucketStarts[b+1] - start;
+            if (size == 0) break; // rest are empty too
+            int displacement = 0;
+            while (!fits(hashes,members,start,size,displacement,
+                         taken,slots)) {
+                if (++displacement >= maxDisplacement)
+                    return false;
+            }
+            displacements[b] = displacement;
+            for (int j = 0; j < size; ++j) {
+                taken[slots[j]] = true;
+                ids[slots[j]] = members[start+j];
+            }
+        }
+        return true;
+    }
+
+    private static boolean fits(long[] hashes, int[] members,
+                                int start, int size, int displacement,
+                                boolean[] taken, int[] slots) {
+        int numSymbols = taken.length;
+        for (int j = 0; j < size; ++j) {
+            int slot = slot(hashes[members[start+j]],displacement,numSymbols);
+            if (taken[slot]) return false;
+            for (int i = 0; i < j; ++i)
+                if (slots[i] == slot) return false;
+            slots[j] = slot;
+        }
+        return true;
+    }
+
+    static int slot(long hash, int displacement, int numSymbols) {
+        return reduce(mix(hash + (displacement + 1L) * GOLDEN_GAMMA),
+                      numSymbols);
+    }
+
+    // maps the high 32 bits of the hash uniformly onto [0,n)
+    static int reduce(long hash, int n) {
+        return (int) (((hash >>> 32) * n) >>> 32);
+    }
+
+    static long hash(String s, int seed) {
+        long h = FNV_OFFSET ^ (seed * GOLDEN_GAMMA);
+        for (int i = 0; i < s.length(); ++i)
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        return mix(h);
+    }
+
+    static long hash(char[] cs, int start, int end, int seed) {
+        long h = FNV_OFFSET ^ (seed * GOLDEN_GAMMA);
+        for (int i = start; i < end; ++i)
+            h = (h ^ cs[i]) * FNV_PRIME;
+        return mix(h);
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static int numBuckets(int numSymbols) {
+        return numSymbols / SYMBOLS_PER_BUCKET + 1;
+    }
+
+    static String[] sortedCopy(String[] symbols) {
+        String[] result = new String[symbols.length];
+        System.arraycopy(symbols,0,result,0,symbols.length);
+        Arrays.sort(result);
+        return result;
+    }
+
+    static final boolean IGNORE = true;
+
+    static final int SYMBOLS_PER_BUCKET = 4;
+    static final int MAX_SEED = 16;
+    static final long MIN_MAX_DISPLACEMENT = 1L << 16;
+    static final long DISPLACEMENT_FACTOR = 64L;
+    static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    static final long FNV_PRIME = 0x100000001B3L;
+    static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    static final int MAPPED_MAGIC = 0x53594D31; // "SYM1"
+    static final int MAPPED_VERSION = 1;
+    static final ByteOrder MAPPED_BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int MAPPED_HEADER_SIZE = 24;
+    // largest sizes whose sections fit in a single buffer
+    static final int MAX_MAPPED_SYMBOLS = (Integer.MAX_VALUE / 4) - 1;
+    static final int MAX_MAPPED_CHARS = Integer.MAX_VALUE / 2;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    static long mappedSize(int numSymbols, int numBuckets, int numChars) {
+        return MAPPED_HEADER_SIZE
+            + padded(4L * (numSymbols+1))
+            + padded(4L * numBuckets)
+            + padded(4L * numSymbols)
+            + padded(2L * numChars);
+    }
+
+    static long padded(long numBytes) {
+        return (numBytes + 7L) & ~7L;
+    }
+
+    private static void checkMappable(int numSymbols, long numChars)
+        throws IOException {
+
+        if (numSymbols > MAX_MAPPED_SYMBOLS || numChars > MAX_MAPPED_CHARS) {
+            String msg = "Symbol table too large to map."
+                + " Maximum number of symbols=" + MAX_MAPPED_SYMBOLS
+                + " Maximum number of chars=" + MAX_MAPPED_CHARS
+                + " Found number of symbols=" + numSymbols
+                + " number of chars=" + numChars;
+            throw new IOException(msg);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long numBytes)
+        throws IOException {
+
+        return channel.map(FileChannel.MapMode.READ_ONLY,offset,numBytes)
+            .order(MAPPED_BYTE_ORDER);
+    }
+
+    private static ByteBuffer putInt(FileChannel channel, ByteBuffer buf, int n)
+        throws IOException {
+
+        if (buf.remaining() < 4)
+            drain(channel,buf);
+        buf.putInt(n);
+        return buf;
+    }
+
+    // the buffer is only drained when full and its capacity is a
+    // multiple of 8, so padding to a multiple of 8 always fits
+    private static void pad(ByteBuffer buf) {
+        while ((buf.position() & 7) != 0)
+            buf.put((byte) 0);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buf)
+        throws IOException {
+
+        buf.flip();
+        while (buf.hasRemaining())
+            channel.write(buf);
+        buf.clear();
+    }
+
     static class Serializer extends AbstractExternalizable {
         static final long serialVersionUID = 2115083345444042460L;
         private final CompiledSymbolTable mSymbolTable;
@@ -211,9 +708,9 @@ class CompiledSymbolTable implements SymbolTable, Serializable {
         }
         public void writeExternal(ObjectOutput out)
             throws IOException {
-            out.writeInt(mSymbolTable.mSymbols.length);
-            for (String symbol : mSymbolTable.mSymbols)
-                out.writeUTF(symbol);
+            out.writeInt(mSymbolTable.mNumSymbols);
+            for (int i = 0; i < mSymbolTable.mNumSymbols; ++i)
+                out.writeUTF(mSymbolTable.idToSymbol(i));
         }
         public Object read(ObjectInput in)
             throws ClassNotFoundException, IOException {
@@ -223,10 +720,8 @@ class CompiledSymbolTable implements SymbolTable, Serializable {
                 symbols[i] = in.readUTF();
             return new CompiledSymbolTable(symbols,IGNORE);
         }
-        static final boolean IGNORE = true;
     }
 
 
 
 }
-
@@ -17,20 +17,24 @@ package com.assign.symbol;
 
 import com.assign.util.AbstractExternalizable;
 import com.assign.util.Compilable;
+import com.assign.util.Strings;
 
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.Serializable;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * A <code>MapSymbolTable</code > is a dynamic symbol table based on a
- * pair of underlying maps.  After creating a map symbol table, new
+ * A <code>MapSymbolTable</code > is a dynamic symbol table based on an
+ * index of the symbols and a map from identifiers back to symbols.
+ * After creating a map symbol table, new
  * symbols may be added using {@link #getOrAddSymbol(String)}.
  *
  * <p>Map symbol tables are serializable.  The result of writing
@@ -39,10 +43,15 @@ import java.util.Set;
  * <code>MapSymbolTable</code>, with the same behavior as the
  * instance serialized.
  *
- * <P><i>Implementation Note:</i> This table uses a pair of
- * maps, one in each direction between symbols represented
- * by instances of <code>String</code> and identifiers
- * represented by instance of <code>Integer</code>.
+ * <P><i>Implementation Note:</i> Symbols are found through an
+ * open-addressed index keyed by their string hash codes, which holds
+ * the identifiers as primitive integers in an array parallel to the
+ * symbols.  The same index supports {@link #symbolToID(char[],int,int)},
+ * which finds the identifier of a slice of a character array without
+ * creating a string.  Removing a symbol shifts back the entries that
+ * follow it in the index rather than rebuilding the index.  Symbols
+ * are recovered from identifiers through a map from identifiers
+ * represented by instances of <code>Integer</code>.
  *
  * @author  Bob Carpenter
  * @author  Mike Ross
@@ -54,10 +63,14 @@ public class MapSymbolTable
 
     static final long serialVersionUID = 3515814090489781415L;
 
-    final HashMap<String,Integer> mSymbolToId = new HashMap<String,Integer>();
     final HashMap<Integer,String> mIdToSymbol = new HashMap<Integer,String>();
     private int mNextSymbol;
 
+    // open-addressed by String.hashCode(); ids parallel symbols
+    private String[] mIndexSymbols = new String[INITIAL_INDEX_SIZE];
+    private int[] mIndexIds = new int[INITIAL_INDEX_SIZE];
+    private int mIndexSize;
+
     /**
      * Construct an empty map symbol table.  The default first
      * symbol identifier is zero (<code>0</code>) and subsequent
@@ -105,9 +118,9 @@ public class MapSymbolTable
                 throw new IllegalArgumentException(msg);
             }
             maxSymbol = Math.max(maxSymbol, entry.getValue());
+            index(symbol,id.intValue());
         }
         mNextSymbol = maxSymbol+1;
-        mSymbolToId.putAll(symbolToIdMap);
     }
     
     /**
@@ -125,7 +138,7 @@ public class MapSymbolTable
      * @return The set of symbols for this symbol table.
      */
     public Set<String> symbolSet() {
-        return Collections.<String>unmodifiableSet(mSymbolToId.keySet());
+        return Collections.<String>unmodifiableSet(new HashSet<String>(mIdToSymbol.values()));
     }
 
     private MapSymbolTable(ObjectInput objIn) throws IOException {
@@ -135,8 +148,8 @@ public class MapSymbolTable
             String symbol = objIn.readUTF();
             Integer id = Integer.valueOf(objIn.readInt());
             max = Math.max(max,id.intValue());
-            mSymbolToId.put(symbol,id);
             mIdToSymbol.put(id,symbol);
+            index(symbol,id.intValue());
         }
         mNextSymbol = max+1;
     }
@@ -148,12 +161,45 @@ public class MapSymbolTable
     }
 
     public int numSymbols() {
-        return mSymbolToId.size();
+        return mIndexSize;
     }
 
     public int symbolToID(String symbol) {
-        Integer result = symbolToIDInteger(symbol);
-        return result == null ? -1 : result.intValue();
+        int slot = slot(symbol);
+        return mIndexSymbols[slot] == null
+            ? UNKNOWN_SYMBOL_ID
+            : mIndexIds[slot];
+    }
+
+    /**
+     * Returns the identifier of the symbol consisting of the
+     * specified slice of characters, or <code>-1</code> if it is not
+     * in the table.  The result is the same as that of {@link
+     * #symbolToID(String)} for the string consisting of the slice,
+     * but no string is created.
+     *
+     * @param cs Underlying characters.
+     * @param start Index of the first character of the symbol.
+     * @param end Index one past the last character of the symbol.
+     * @return Identifier of the symbol, or <code>-1</code> if it is
+     * not in the table.
+     * @throws IndexOutOfBoundsException If the indices are out of
+     * range for the character array.
+     */
+    public int symbolToID(char[] cs, int start, int end) {
+        Strings.checkArgsStartEnd(cs,start,end);
+        int hash = 0;
+        for (int i = start; i < end; ++i)
+            hash = 31 * hash + cs[i];
+        int mask = mIndexSymbols.length - 1;
+        String symbol;
+        for (int slot = mix(hash) & mask;
+             (symbol = mIndexSymbols[slot]) != null;
+             slot = (slot + 1) & mask) {
+            if (symbol.hashCode() == hash && matches(symbol,cs,start,end))
+                return mIndexIds[slot];
+        }
+        return UNKNOWN_SYMBOL_ID;
     }
 
     /**
@@ -165,7 +211,8 @@ public class MapSymbolTable
      * does not exist.
      */
     public Integer symbolToIDInteger(String symbol) {
-        return mSymbolToId.get(symbol);
+        int id = symbolToID(symbol);
+        return id < 0 ? null : Integer.valueOf(id);
     }
 
     /**
@@ -201,11 +248,12 @@ public class MapSymbolTable
      * or -1 if it was not.
      */
     public int removeSymbol(String symbol) {
-        int id = symbolToID(symbol);
-        if (id >= 0) {
-            mSymbolToId.remove(symbol);
-            mIdToSymbol.remove(Integer.valueOf(id));
-        }
+        int slot = slot(symbol);
+        if (mIndexSymbols[slot] == null)
+            return UNKNOWN_SYMBOL_ID;
+        int id = mIndexIds[slot];
+        mIdToSymbol.remove(Integer.valueOf(id));
+        unindex(slot);
         return id;
     }
 
@@ -215,8 +263,9 @@ public class MapSymbolTable
      * will not be reused.
      */
     public void clear() {
-        mSymbolToId.clear();
         mIdToSymbol.clear();
+        Arrays.fill(mIndexSymbols,null);
+        mIndexSize = 0;
     }
 
     /**
@@ -227,7 +276,16 @@ public class MapSymbolTable
      * @return Identifier for specified symbol.
      */
     public int getOrAddSymbol(String symbol) {
-        return getOrAddSymbolInteger(symbol).intValue();
+        int slot = slot(symbol);
+        if (mIndexSymbols[slot] != null)
+            return mIndexIds[slot];
+        int id = mNextSymbol++;
+        mIdToSymbol.put(Integer.valueOf(id),symbol);
+        mIndexSymbols[slot] = symbol;
+        mIndexIds[slot] = id;
+        if (2 * ++mIndexSize > mIndexSymbols.length)
+            resize(2 * mIndexSymbols.length);
+        return id;
     }
 
     /**
@@ -238,12 +296,78 @@ public class MapSymbolTable
      * @return Identifier for specified symbol.
      */
     public Integer getOrAddSymbolInteger(String symbol) {
-        Integer id = mSymbolToId.get(symbol);
-        if (id != null) return id;
-        Integer freshId = Integer.valueOf(mNextSymbol++);
-        mSymbolToId.put(symbol,freshId);
-        mIdToSymbol.put(freshId,symbol);
-        return freshId;
+        return Integer.valueOf(getOrAddSymbol(symbol));
+    }
+
+    // slot holding symbol, or the empty slot ending its probe
+    private int slot(String symbol) {
+        int hash = symbol.hashCode();
+        int mask = mIndexSymbols.length - 1;
+        int slot = mix(hash) & mask;
+        String indexed;
+        while ((indexed = mIndexSymbols[slot]) != null
+               && (indexed.hashCode() != hash || !indexed.equals(symbol)))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    // symbols from a map or stream are distinct, so no lookup first
+    private void index(String symbol, int id) {
+        if (2 * (mIndexSize + 1) > mIndexSymbols.length)
+            resize(2 * mIndexSymbols.length);
+        int mask = mIndexSymbols.length - 1;
+        int slot = mix(symbol.hashCode()) & mask;
+        while (mIndexSymbols[slot] != null)
+            slot = (slot + 1) & mask;
+        mIndexSymbols[slot] = symbol;
+        mIndexIds[slot] = id;
+        ++mIndexSize;
+    }
+
+    // shifts back later entries of the probe into the emptied slot
+    private void unindex(int slot) {
+        int mask = mIndexSymbols.length - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            String symbol = mIndexSymbols[next];
+            if (symbol == null) break;
+            int home = mix(symbol.hashCode()) & mask;
+            // stays if its home is cyclically in (slot,next]
+            if (slot <= next
+                ? (slot < home && home <= next)
+                : (slot < home || home <= next))
+                continue;
+            mIndexSymbols[slot] = symbol;
+            mIndexIds[slot] = mIndexIds[next];
+            slot = next;
+        }
+        mIndexSymbols[slot] = null;
+        --mIndexSize;
+    }
+
+    private void resize(int size) {
+        String[] symbols = mIndexSymbols;
+        int[] ids = mIndexIds;
+        mIndexSymbols = new String[size];
+        mIndexIds = new int[size];
+        mIndexSize = 0;
+        for (int i = 0; i < symbols.length; ++i)
+            if (symbols[i] != null)
+                index(symbols[i],ids[i]);
+    }
+
+    static boolean matches(String symbol, char[] cs, int start, int end) {
+        if (symbol.length() != end - start) return false;
+        for (int i = start; i < end; ++i)
+            if (symbol.charAt(i - start) != cs[i])
+                return false;
+        return true;
+    }
+
+    static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
     /**
@@ -331,6 +455,8 @@ public class MapSymbolTable
             = "Cannot modify the underlying symbol table from this view.";
     }
 
+    static final int INITIAL_INDEX_SIZE = 16;
+
     private static class Externalizer extends AbstractExternalizable {
         private static final long serialVersionUID = -6040616216389802649L;
         final MapSymbolTable mSymbolTable;
@@ -344,10 +470,10 @@ public class MapSymbolTable
         }
         @Override
         public void writeExternal(ObjectOutput objOut) throws IOException {
-            objOut.writeInt(mSymbolTable.mSymbolToId.size());
-            for (Map.Entry<String,Integer> entry : mSymbolTable.mSymbolToId.entrySet()) {
-                objOut.writeUTF(entry.getKey());
-                objOut.writeInt(entry.getValue().intValue());
+            objOut.writeInt(mSymbolTable.mIdToSymbol.size());
+            for (Map.Entry<Integer,String> entry : mSymbolTable.mIdToSymbol.entrySet()) {
+                objOut.writeUTF(entry.getValue());
+                objOut.writeInt(entry.getKey().intValue());
             }
         }
     }
@@ -0,0 +1,316 @@
+/* BatchTagger.java */
+
+package com.assign.tag;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A {@code BatchTagger} tags streams of sentences concurrently,
+ * returning the results in input order.
+ *
+ * <p>The methods {@link #tagAll(Tagger,Iterable)}, {@link
+ * #tagAllNBest(NBestTagger,Iterable,int)} and {@link
+ * #tagAllMarginal(MarginalTagger,Iterable)} return a {@link
+ * Results} iterator over first-best taggings, n-best lists and
+ * marginal tag lattices, respectively.  Each sentence is tagged by a
+ * task submitted to the batch tagger's executor.  The executor
+ * returned by {@link #newWorkStealingExecutor(int)} is a fork-join
+ * pool, whose idle workers take queued sentences from busy ones, so
+ * long and short sentences balance across cores.
+ *
+ * <h3>Backpressure</h3>
+ *
+ * At most {@link #maxPending()} sentences are submitted but not yet
+ * returned at any time.  Sentences are read from the input iterator
+ * only as results are consumed, on the consuming thread, so a batch
+ * tagger may sit between a streaming reader and a writer without
+ * buffering the whole corpus.  When the consumer falls behind, input
+ * is no longer read; when the taggers fall behind, {@code next()}
+ * blocks until the next result in order is available.
+ *
+ * <h3>Failures and Cancellation</h3>
+ *
+ * If tagging a sentence throws a runtime exception or error, it is
+ * rethrown by the call to {@code next()} that would have returned
+ * that sentence's result, and the remaining pending sentences are
+ * cancelled.  A consumer that stops early should call {@link
+ * Results#cancel()} to discard pending work.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * The tagger passed to a batch method is called concurrently from
+ * the executor's threads and must be thread safe.  An {@link
+ * com.assign.hmm.HmmDecoder} is thread safe if its HMM and caches
+ * are, as for a compiled HMM with an {@link
+ * com.assign.hmm.EmissionCache}; its first-best decoder reuses
+ * per-thread scratch arrays, so each worker thread allocates its
+ * lattice once rather than per sentence.  A {@code Results}
+ * iterator must be consumed by a single thread.
+ *
+ * <p>The executor is not shut down by a batch tagger.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class BatchTagger {
+
+    private final ExecutorService mExecutor;
+    private final int mMaxPending;
+
+    /**
+     * Construct a batch tagger that runs tagging tasks on the
+     * specified executor with at most the specified number of
+     * sentences pending.
+     *
+     * @param executor Executor on which to tag sentences.
+     * @param maxPending Maximum number of sentences submitted for
+     * tagging whose results have not been returned.
+     * @throws IllegalArgumentException If the maximum number pending
+     * is less than one.
+     */
+    public BatchTagger(ExecutorService executor, int maxPending) {
+        if (maxPending < 1) {
+            String msg = "Maximum pending must be at least one."
+                + " Found maxPending=" + maxPending;
+            throw new IllegalArgumentException(msg);
+        }
+        mExecutor = executor;
+        mMaxPending = maxPending;
+    }
+
+    /**
+     * Returns the executor on which sentences are tagged.
+     *
+     * @return Executor for this batch tagger.
+     */
+    public ExecutorService executor() {
+        return mExecutor;
+    }
+
+    /**
+     * Returns the maximum number of sentences submitted for tagging
+     * whose results have not been returned.
+     *
+     * @return Maximum number of pending sentences.
+     */
+    public int maxPending() {
+        return mMaxPending;
+    }
+
+    /**
+     * Returns an iterator over the first-best taggings of the
+     * specified sentences, in order.
+     *
+     * @param tagger Thread-safe tagger to apply.
+     * @param sentences Sentences to tag.
+     * @return Iterator over taggings of the sentences.
+     * @param <E> Type of tokens.
+     */
+    public <E> Results<Tagging<E>> tagAll(final Tagger<E> tagger,
+                                          Iterable<? extends List<E>> sentences) {
+        TaskIterator<E,Tagging<E>> taskIt
+            = new TaskIterator<E,Tagging<E>>(sentences.iterator()) {
+                Callable<Tagging<E>> task(final List<E> tokens) {
+                    return new Callable<Tagging<E>>() {
+                        public Tagging<E> call() {
+                            return tagger.tag(tokens);
+                        }
+                    };
+                }
+            };
+        return new Results<Tagging<E>>(taskIt);
+    }
+
+    /**
+     * Returns an iterator over the n-best taggings of the specified
+     * sentences, in order.  The n-best iterator for each sentence is
+     * consumed by the tagging task, so each result is a list of at
+     * most the specified maximum number of scored taggings.
+     *
+     * @param tagger Thread-safe n-best tagger to apply.
+     * @param sentences Sentences to tag.
+     * @param maxResults Maximum number of taggings per sentence.
+     * @return Iterator over n-best lists for the sentences.
+     * @param <E> Type of tokens.
+     */
+    public <E> Results<List<ScoredTagging<E>>>
+        tagAllNBest(final NBestTagger<E> tagger,
+                    Iterable<? extends List<E>> sentences,
+                    final int maxResults) {
+
+        TaskIterator<E,List<ScoredTagging<E>>> taskIt
+            = new TaskIterator<E,List<ScoredTagging<E>>>(sentences.iterator()) {
+                Callable<List<ScoredTagging<E>>> task(final List<E> tokens) {
+                    return new Callable<List<ScoredTagging<E>>>() {
+                        public List<ScoredTagging<E>> call() {
+                            List<ScoredTagging<E>> nBest = new ArrayList<ScoredTagging<E>>();
+                            Iterator<ScoredTagging<E>> it = tagger.tagNBest(tokens,maxResults);
+                            while (it.hasNext())
+                                nBest.add(it.next());
+                            return nBest;
+                        }
+                    };
+                }
+            };
+        return new Results<List<ScoredTagging<E>>>(taskIt);
+    }
+
+    /**
+     * Returns an iterator over the marginal tag lattices of the
+     * specified sentences, in order.
+     *
+     * @param tagger Thread-safe marginal tagger to apply.
+     * @param sentences Sentences to tag.
+     * @return Iterator over tag lattices of the sentences.
+     * @param <E> Type of tokens.
+     */
+    public <E> Results<TagLattice<E>> tagAllMarginal(final MarginalTagger<E> tagger,
+                                                     Iterable<? extends List<E>> sentences) {
+        TaskIterator<E,TagLattice<E>> taskIt
+            = new TaskIterator<E,TagLattice<E>>(sentences.iterator()) {
+                Callable<TagLattice<E>> task(final List<E> tokens) {
+                    return new Callable<TagLattice<E>>() {
+                        public TagLattice<E> call() {
+                            return tagger.tagMarginal(tokens);
+                        }
+                    };
+                }
+            };
+        return new Results<TagLattice<E>>(taskIt);
+    }
+
+    /**
+     * Returns a new work-stealing executor with the specified number
+     * of threads.  The caller is responsible for shutting it down.
+     *
+     * @param numThreads Number of worker threads.
+     * @return Work-stealing executor.
+     * @throws IllegalArgumentException If the number of threads is
+     * less than one.
+     */
+    public static ExecutorService newWorkStealingExecutor(int numThreads) {
+        if (numThreads < 1) {
+            String msg = "Require at least one thread."
+                + " Found numThreads=" + numThreads;
+            throw new IllegalArgumentException(msg);
+        }
+        return new ForkJoinPool(numThreads);
+    }
+
+    /**
+     * A {@code BatchTagger.Results} iterator returns the results of
+     * tagging a stream of sentences in input order, reading further
+     * input only as results are returned.
+     *
+     * @param <T> Type of result.
+     */
+    public class Results<T> implements Iterator<T> {
+
+        private final Iterator<? extends Callable<T>> mTaskIt;
+        private final ArrayDeque<Future<T>> mPending
+            = new ArrayDeque<Future<T>>();
+        private boolean mCancelled = false;
+
+        Results(Iterator<? extends Callable<T>> taskIt) {
+            mTaskIt = taskIt;
+        }
+
+        /**
+         * Returns {@code true} if there are further results.
+         *
+         * @return {@code true} if there are further results.
+         */
+        public boolean hasNext() {
+            fill(mMaxPending);
+            return !mPending.isEmpty();
+        }
+
+        /**
+         * Returns the result for the next sentence, blocking until it
+         * is available.
+         *
+         * @return Result for the next sentence.
+         * @throws NoSuchElementException If there are no further results.
+         * @throws IllegalStateException If the thread is interrupted
+         * while waiting.
+         */
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Future<T> future = mPending.removeFirst();
+            // the head is still pending until it returns
+            fill(mMaxPending - 1);
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for tagging.",e);
+            } catch (ExecutionException e) {
+                cancel();
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new IllegalStateException("Tagging failed.",cause);
+            }
+        }
+
+        /**
+         * Throws an unsupported operation exception.
+         *
+         * @throws UnsupportedOperationException Always.
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Cancels the tagging of pending sentences.  After this call,
+         * no further results are returned and no further input is
+         * read.
+         */
+        public void cancel() {
+            for (Future<T> future : mPending)
+                future.cancel(true);
+            mPending.clear();
+            mCancelled = true;
+        }
+
+        private void fill(int maxPending) {
+            while (!mCancelled
+                   && mPending.size() < maxPending
+                   && mTaskIt.hasNext())
+                mPending.addLast(mExecutor.submit(mTaskIt.next()));
+        }
+
+    }
+
+    // lazily maps sentences to tagging tasks as they are read
+    static abstract class TaskIterator<E,T> implements Iterator<Callable<T>> {
+        private final Iterator<? extends List<E>> mSentenceIt;
+        TaskIterator(Iterator<? extends List<E>> sentenceIt) {
+            mSentenceIt = sentenceIt;
+        }
+        abstract Callable<T> task(List<E> tokens);
+        public boolean hasNext() {
+            return mSentenceIt.hasNext();
+        }
+        public Callable<T> next() {
+            return task(mSentenceIt.next());
+        }
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -90,11 +90,21 @@ class CharacterTokenizer extends Tokenizer {
     }
 
     @Override public String nextToken() {
+        if (!nextTokenSpan()) return null;
+        return new String(new char[] { mChars[mPosition-1] });
+    }
+
+    @Override public boolean nextTokenSpan() {
         skipWhitespace();
-        if (!hasMoreCharacters()) return null;
+        if (!hasMoreCharacters()) return false;
         mLastTokenStartPosition = mPosition - mStartPosition;
         mLastTokenEndPosition = mLastTokenStartPosition + 1;
-        return new String(new char[] { mChars[mPosition++] });
+        ++mPosition;
+        return true;
+    }
+
+    @Override public boolean supportsTokenSpans() {
+        return true;
     }
 
 
@@ -145,35 +145,52 @@ class IndoEuropeanTokenizer extends Tokenizer {
      */
     @Override
     public String nextToken()  {
+        if (!nextTokenSpan()) return null;
+        return new String(mChars,mTokenStart,mPosition-mTokenStart);
+    }
+
+    /**
+     * Advances past the next token without constructing it.  See
+     * {@link Tokenizer#nextTokenSpan()}.
+     *
+     * @return <code>true</code> if there was a next token.
+     */
+    @Override
+    public boolean nextTokenSpan() {
         skipWhitespace();
-        if (!hasMoreCharacters()) return null;
+        if (!hasMoreCharacters()) return false;
         mTokenStart = mPosition;
         ++mLastTokenIndex;
         char startChar = mChars[mPosition++];
         // update to deal with initial period digits properly
         if (startChar == '.') {
             while (currentCharEquals('.')) ++mPosition;
-            return currentToken();
-        }
-        if (startChar == '-') {
+        } else if (startChar == '-') {
             while (currentCharEquals('-')) ++mPosition;
-            return currentToken();
-        }
-        if (startChar == '=') {
+        } else if (startChar == '=') {
             while (currentCharEquals('=')) ++mPosition;
-            return currentToken();
-        }
-        if (startChar == '\'') {
+        } else if (startChar == '\'') {
             if (currentCharEquals('\'')) ++mPosition;
-            return currentToken();
-        }
-        if (startChar == '`') {
+        } else if (startChar == '`') {
             if (currentCharEquals('`')) ++mPosition;
-            return currentToken();
-        }
-        if (isLetter(startChar)) return alphaNumToken();
-        if (Character.isDigit(startChar)) return numToken();
-        return currentToken(); // other single character symbol
+        } else if (isLetter(startChar)) {
+            alphaNumToken();
+        } else if (Character.isDigit(startChar)) {
+            numToken();
+        } // else other single character symbol
+        endToken();
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code>, because this tokenizer supports
+     * {@link #nextTokenSpan()}.
+     *
+     * @return <code>true</code>.
+     */
+    @Override
+    public boolean supportsTokenSpans() {
+        return true;
     }
 
     /**
@@ -222,64 +239,55 @@ class IndoEuropeanTokenizer extends Tokenizer {
     }
 
     /**
-     * Returns the current token as a string.
-     *
-     * @return Current token as a string.
+     * Records the offsets of the token ending at the current
+     * position.
      */
-    private String currentToken() {
+    private void endToken() {
         int length = mPosition-mTokenStart;
         mLastTokenStartPosition = mTokenStart - mStartPosition;
         mLastTokenEndPosition = mLastTokenStartPosition + length;
-        return new String(mChars,mTokenStart,length);
     }
 
     /**
-     * Completes and returns a token that begins with the previous
-     * letter character.
-     *
-     * @return Longest token extending the previous character.
+     * Completes a token that begins with the previous letter
+     * character, extending it as far as possible.
      */
-    private String alphaNumToken() {
+    private void alphaNumToken() {
         while (hasMoreCharacters()
                && (isLetter(currentChar())
                    || Character.isDigit(currentChar()))) ++mPosition;
-        return currentToken();
     }
 
 
     /**
-     * Completes and returns a token that begins with the previous
-     * digit character.
-     *
-     * @return Token beginning at previous character, and extending
-     * to all subsequent digits, commas, and periods.
+     * Completes a token that begins with the previous digit
+     * character, extending it to all subsequent digits, and to
+     * commas and periods followed by digits.
      */
-    private String numToken() {
+    private void numToken() {
         while (hasMoreCharacters()) {
             if (isLetter(currentChar())) {
                 ++mPosition;
-                return alphaNumToken();
+                alphaNumToken();
+                return;
             }
             if (Character.isDigit(currentChar())) {
                 ++mPosition;
                 continue;
             }
             if (currentChar() == '.' || currentChar() == ',') {
-                return numPunctToken();
+                numPunctToken();
             }
-            return currentToken();
+            return;
         }
-        return currentToken();
     }
 
     /**
-     * Completes and returns a token that begins with previous
-     * numbers and commas or periods.
-     *
-     * @return Token beginning at previous character, and extending
-     * to all subsequent digits, commas, and periods.
+     * Completes a token that begins with previous numbers and
+     * extends to all subsequent digits, and to commas and periods
+     * followed by digits.
      */
-    private String numPunctToken() {
+    private void numPunctToken() {
         while (hasMoreCharacters()) {
             if (Character.isDigit(currentChar())) {
                 ++mPosition;
@@ -288,13 +296,12 @@ class IndoEuropeanTokenizer extends Tokenizer {
                 ++mPosition;
                 if (!hasMoreCharacters() || !Character.isDigit(currentChar())) {
                     --mPosition;
-                    return currentToken();
+                    return;
                 }
             } else {
-                return currentToken();
+                return;
             }
         }
-        return currentToken();
     }
 
     /**
@@ -118,15 +118,27 @@ class NGramTokenizer extends Tokenizer {
      */
     @Override
     public String nextToken() {
+        if (!nextTokenSpan()) return null;
+        return new String(mChars,mNextStart-1,mCurrentSize);
+    }
+
+    @Override
+    public boolean nextTokenSpan() {
         while (mCurrentSize <= mMaxNGram
                && mNextStart + mCurrentSize > mOffset + mLength) {
             ++mCurrentSize;
             mNextStart = mOffset;
         }
-        if (mCurrentSize > mMaxNGram) return null;
+        if (mCurrentSize > mMaxNGram) return false;
         mLastTokenStartPosition = mNextStart-mOffset;
         mLastTokenEndPosition = mLastTokenStartPosition + mCurrentSize;
-        return new String(mChars,mNextStart++,mCurrentSize);
+        ++mNextStart;
+        return true;
+    }
+
+    @Override
+    public boolean supportsTokenSpans() {
+        return true;
     }
 
 }
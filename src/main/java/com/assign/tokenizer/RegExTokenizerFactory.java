@@ -221,11 +221,24 @@ public class RegExTokenizerFactory
         String getNextToken() {
             String token
                 = new String(mCs,mStart+mTokenStart,mTokenEnd-mTokenStart);
+            skipNextToken();
+            return token;
+        }
+        void skipNextToken() {
             mWhiteStart = mTokenEnd;
             mHasNext = false;
             mLastTokenStartPosition = mTokenStart;
             mLastTokenEndPosition = mTokenEnd;
-            return token;
+        }
+        @Override
+        public boolean nextTokenSpan() {
+            if (!hasNextToken()) return false;
+            skipNextToken();
+            return true;
+        }
+        @Override
+        public boolean supportsTokenSpans() {
+            return true;
         }
         @Override
         public String nextWhitespace() {
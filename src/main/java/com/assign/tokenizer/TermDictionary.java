@@ -0,0 +1,231 @@
+/* TermDictionary.java */
+
+package com.assign.tokenizer;
+
+/**
+ * A <code>TermDictionary</code> assigns consecutive integer identifiers
+ * to terms, looking terms up by slices of character arrays so that no
+ * string need be created to find the identifier of a token.
+ *
+ * <p>Terms are hash-consed: the first time a term is seen through
+ * {@link #getOrAdd(char[],int,int)}, its characters are copied into an
+ * arena owned by the dictionary and it is given the next identifier,
+ * starting from <code>0</code>; every later lookup of an equal slice
+ * returns the same identifier.  Slices are hashed with the same
+ * function as {@link String#hashCode()} and kept in an open-addressed
+ * table.
+ *
+ * <p>{@link #clear()} takes time proportional to the number of terms,
+ * so a dictionary may be cleared and reused for every comparison to
+ * assign identifiers local to that comparison.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * Dictionaries are not synchronized.  Once no more terms are being
+ * added, {@link #find(char[],int,int)}, {@link #term(int)} and
+ * {@link #size()} may be called concurrently.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class TermDictionary {
+
+    private char[] mChars = new char[256];
+    // term i is mChars[mStarts[i],mStarts[i+1])
+    private int[] mStarts = new int[33];
+    private int[] mHashes = new int[32];
+    private int[] mSlots = new int[32];
+    private int mSize = 0;
+
+    // slot holds id + 1, zero marks an empty slot
+    private int[] mTable = new int[64];
+
+    /**
+     * Construct an empty term dictionary.
+     */
+    public TermDictionary() {
+        /* empty */
+    }
+
+    /**
+     * Returns the number of terms in this dictionary.
+     *
+     * @return Number of terms.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the identifier of the term consisting of the specified
+     * slice of characters, adding it to the dictionary if it is not
+     * already present.
+     *
+     * @param cs Underlying characters.
+     * @param start Index of the first character of the term.
+     * @param end Index one past the last character of the term.
+     * @return Identifier of the term.
+     */
+    public int getOrAdd(char[] cs, int start, int end) {
+        int hash = hash(cs,start,end);
+        int mask = mTable.length - 1;
+        int slot = mix(hash) & mask;
+        for (int entry; (entry = mTable[slot]) != 0; slot = (slot + 1) & mask)
+            if (matches(entry - 1,hash,cs,start,end))
+                return entry - 1;
+        int id = add(cs,start,end,hash,slot);
+        if (2 * mSize > mTable.length)
+            rehash();
+        return id;
+    }
+
+    /**
+     * Returns the identifier of the specified term, adding it to the
+     * dictionary if it is not already present.
+     *
+     * @param term Term to look up.
+     * @return Identifier of the term.
+     */
+    public int getOrAdd(String term) {
+        char[] cs = term.toCharArray();
+        return getOrAdd(cs,0,cs.length);
+    }
+
+    /**
+     * Returns the identifier of the term consisting of the specified
+     * slice of characters, or <code>-1</code> if it is not in the
+     * dictionary.
+     *
+     * @param cs Underlying characters.
+     * @param start Index of the first character of the term.
+     * @param end Index one past the last character of the term.
+     * @return Identifier of the term, or <code>-1</code> if it is not
+     * in the dictionary.
+     */
+    public int find(char[] cs, int start, int end) {
+        int hash = hash(cs,start,end);
+        int mask = mTable.length - 1;
+        for (int slot = mix(hash) & mask, entry;
+             (entry = mTable[slot]) != 0;
+             slot = (slot + 1) & mask)
+            if (matches(entry - 1,hash,cs,start,end))
+                return entry - 1;
+        return -1;
+    }
+
+    /**
+     * Returns the identifier of the specified term, or <code>-1</code>
+     * if it is not in the dictionary.
+     *
+     * @param term Term to look up.
+     * @return Identifier of the term, or <code>-1</code> if it is not
+     * in the dictionary.
+     */
+    public int find(String term) {
+        char[] cs = term.toCharArray();
+        return find(cs,0,cs.length);
+    }
+
+    /**
+     * Returns the term with the specified identifier.
+     *
+     * @param id Identifier of the term.
+     * @return The term.
+     * @throws IndexOutOfBoundsException If the identifier is not that
+     * of a term in this dictionary.
+     */
+    public String term(int id) {
+        if (id < 0 || id >= mSize) {
+            String msg = "Identifier out of range."
+                + " Found id=" + id
+                + " size=" + mSize;
+            throw new IndexOutOfBoundsException(msg);
+        }
+        return new String(mChars,mStarts[id],mStarts[id+1] - mStarts[id]);
+    }
+
+    /**
+     * Removes all terms from this dictionary.  Identifiers are
+     * assigned from <code>0</code> again after clearing.
+     */
+    public void clear() {
+        for (int i = 0; i < mSize; ++i)
+            mTable[mSlots[i]] = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Returns the hash code of the specified slice, which is the same
+     * as the hash code of the string consisting of its characters.
+     *
+     * @param cs Underlying characters.
+     * @param start Index of the first character of the slice.
+     * @param end Index one past the last character of the slice.
+     * @return Hash code of the slice.
+     */
+    public static int hash(char[] cs, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; ++i)
+            h = 31 * h + cs[i];
+        return h;
+    }
+
+    private boolean matches(int id, int hash,
+                            char[] cs, int start, int end) {
+        if (mHashes[id] != hash) return false;
+        int termStart = mStarts[id];
+        if (mStarts[id+1] - termStart != end - start) return false;
+        for (int i = start; i < end; ++i)
+            if (mChars[termStart++] != cs[i])
+                return false;
+        return true;
+    }
+
+    private int add(char[] cs, int start, int end, int hash, int slot) {
+        int length = end - start;
+        int termStart = mStarts[mSize];
+        if (termStart + length > mChars.length) {
+            char[] chars = new char[Math.max(2 * mChars.length,
+                                             termStart + length)];
+            System.arraycopy(mChars,0,chars,0,termStart);
+            mChars = chars;
+        }
+        if (mSize == mHashes.length) {
+            int capacity = 2 * mSize;
+            int[] starts = new int[capacity + 1];
+            System.arraycopy(mStarts,0,starts,0,mSize + 1);
+            mStarts = starts;
+            int[] hashes = new int[capacity];
+            System.arraycopy(mHashes,0,hashes,0,mSize);
+            mHashes = hashes;
+            int[] slots = new int[capacity];
+            System.arraycopy(mSlots,0,slots,0,mSize);
+            mSlots = slots;
+        }
+        System.arraycopy(cs,start,mChars,termStart,length);
+        int id = mSize++;
+        mStarts[id+1] = termStart + length;
+        mHashes[id] = hash;
+        mSlots[id] = slot;
+        mTable[slot] = id + 1;
+        return id;
+    }
+
+    private void rehash() {
+        int[] table = new int[2 * mTable.length];
+        int mask = table.length - 1;
+        for (int id = 0; id < mSize; ++id) {
+            int slot = mix(mHashes[id]) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+            mSlots[id] = slot;
+        }
+        mTable = table;
+    }
+
+    static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,179 @@
+/* TokenSpanBuffer.java */
+
+package com.assign.tokenizer;
+
+/**
+ * A <code>TokenSpanBuffer</code> holds the tokens of a character slice
+ * as start and end offsets into a character array rather than as
+ * strings.  The tokens are exactly those returned by {@link
+ * Tokenizer#tokenize()} for a tokenizer over the same slice, including
+ * the splitting of tokens on upper case characters.
+ *
+ * <p>If the tokenizer {@link Tokenizer#supportsTokenSpans() supports}
+ * {@link Tokenizer#nextTokenSpan()}, the offsets point into the
+ * tokenized array itself and no token strings are created.
+ * Otherwise, the tokens are taken from {@link Tokenizer#nextToken()}
+ * and copied into a character arena owned by this buffer, to which
+ * the offsets then point.  Either way, {@link
+ * #chars()} returns the array the offsets refer to.
+ *
+ * <p>The offset arrays and arena are reused across calls to {@link
+ * #tokenize(TokenizerFactory,char[],int,int)}, so a buffer reused for
+ * many slices does not allocate once it has grown to the largest
+ * slice.  Buffers are not thread safe; they are intended to be held
+ * per thread.
+ *
+ * @author Kajanan Sangaralingam
+ */
+public class TokenSpanBuffer {
+
+    private char[] mChars;
+    private char[] mArena = new char[64];
+    private int mArenaSize = 0;
+
+    private int[] mStarts = new int[16];
+    private int[] mEnds = new int[16];
+    private int mSize = 0;
+
+    /**
+     * Construct an empty token span buffer.
+     */
+    public TokenSpanBuffer() {
+        /* empty */
+    }
+
+    /**
+     * Replaces the contents of this buffer with the tokens produced by
+     * the specified factory for the specified character slice,
+     * returning the number of tokens.
+     *
+     * @param factory Tokenizer factory.
+     * @param cs Underlying characters.
+     * @param start Index of the first character of the slice.
+     * @param length Number of characters in the slice.
+     * @return The number of tokens in the slice.
+     */
+    public int tokenize(TokenizerFactory factory,
+                        char[] cs, int start, int length) {
+        mSize = 0;
+        mArenaSize = 0;
+        mChars = cs;
+        Tokenizer tokenizer = factory.tokenizer(cs,start,length);
+        if (tokenizer.supportsTokenSpans()) {
+            while (tokenizer.nextTokenSpan())
+                addToken(cs,
+                         start + tokenizer.lastTokenStartPosition(),
+                         start + tokenizer.lastTokenEndPosition());
+            return mSize;
+        }
+
+        String token;
+        while ((token = tokenizer.nextToken()) != null) {
+            int tokenLength = token.length();
+            if (mArenaSize + tokenLength > mArena.length) {
+                char[] arena
+                    = new char[Math.max(2 * mArena.length,
+                                        mArenaSize + tokenLength)];
+                System.arraycopy(mArena,0,arena,0,mArenaSize);
+                mArena = arena;
+            }
+            token.getChars(0,tokenLength,mArena,mArenaSize);
+            mArenaSize += tokenLength;
+            // spans refer to mArena, which may have been reallocated
+            addToken(mArena,mArenaSize - tokenLength,mArenaSize);
+        }
+        mChars = mArena;
+        return mSize;
+    }
+
+    /**
+     * Returns the number of tokens in this buffer.
+     *
+     * @return Number of tokens.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the character array into which the token offsets point.
+     *
+     * @return The underlying characters of the tokens.
+     */
+    public char[] chars() {
+        return mChars;
+    }
+
+    /**
+     * Returns the index in {@link #chars()} of the first character of
+     * the specified token.
+     *
+     * @param i Index of the token.
+     * @return Start offset of the token.
+     */
+    public int start(int i) {
+        return mStarts[i];
+    }
+
+    /**
+     * Returns the index in {@link #chars()} one past the last
+     * character of the specified token.
+     *
+     * @param i Index of the token.
+     * @return End offset of the token.
+     */
+    public int end(int i) {
+        return mEnds[i];
+    }
+
+    /**
+     * Returns the specified token as a string.
+     *
+     * @param i Index of the token.
+     * @return The token.
+     */
+    public String token(int i) {
+        return new String(mChars,mStarts[i],mEnds[i] - mStarts[i]);
+    }
+
+    // same pieces as Tokenizer.splitOnCapitals(), as offsets
+    private void addToken(char[] cs, int start, int end) {
+        int firstPiece = mSize;
+        int pieceStart = start;
+        for (int i = start; i < end; ++i) {
+            if (Character.isUpperCase(cs[i])) {
+                addTrimmed(cs,pieceStart,i,false);
+                pieceStart = i;
+            }
+            // upper case char begins the next piece
+        }
+        addTrimmed(cs,pieceStart,end,true);
+        if (mSize - firstPiece == end - start) {
+            // every char its own piece, so the token is kept whole
+            mSize = firstPiece;
+            addSpan(start,end);
+        }
+    }
+
+    private void addTrimmed(char[] cs, int start, int end, boolean addEmpty) {
+        while (start < end && cs[start] <= ' ') ++start;
+        while (end > start && cs[end - 1] <= ' ') --end;
+        if (start == end && !addEmpty) return;
+        addSpan(start,end);
+    }
+
+    private void addSpan(int start, int end) {
+        if (mSize == mStarts.length) {
+            int[] starts = new int[2 * mSize];
+            int[] ends = new int[2 * mSize];
+            System.arraycopy(mStarts,0,starts,0,mSize);
+            System.arraycopy(mEnds,0,ends,0,mSize);
+            mStarts = starts;
+            mEnds = ends;
+        }
+        mStarts[mSize] = start;
+        mEnds[mSize] = end;
+        ++mSize;
+    }
+
+}
@@ -152,6 +152,47 @@ public abstract class Tokenizer implements Iterable<String> {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Advances past the next token without constructing it, returning
+     * <code>true</code> if there was a next token (optional operation).
+     * After this method returns <code>true</code>, the token's offsets
+     * are given by {@link #lastTokenStartPosition()} and {@link
+     * #lastTokenEndPosition()}, and the token is exactly the characters
+     * of the slice between those offsets.  Like {@link #nextToken()},
+     * this flushes any whitespace that has not been returned.
+     *
+     * <p>This method lets callers such as {@link TokenSpanBuffer}
+     * visit tokens as offsets into the underlying character array
+     * without allocating a string per token.  Tokenizers whose tokens
+     * are not slices of their input, such as those that normalize or
+     * filter tokens, do not support it.
+     *
+     * <p>The implementation here throws an unsupported operation
+     * exception without consuming any input.  Subclasses whose tokens
+     * are slices of the input should override it, along with {@link
+     * #supportsTokenSpans()}.
+     *
+     * @return <code>true</code> if there was a next token.
+     * @throws UnsupportedOperationException If this method is not
+     * supported.
+     */
+    public boolean nextTokenSpan() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns <code>true</code> if this tokenizer supports {@link
+     * #nextTokenSpan()}.  Callers should check this rather than
+     * catching the exception thrown by an unsupported call.
+     *
+     * <p>The implementation here returns <code>false</code>.
+     *
+     * @return <code>true</code> if token spans are supported.
+     */
+    public boolean supportsTokenSpans() {
+        return false;
+    }
+
     /**
      * Adds the remaining tokens and whitespaces to the specified
      * lists.
@@ -0,0 +1,45 @@
+/* BoundedProximity.java */
+
+package com.assign.util;
+
+/**
+ * The <code>BoundedProximity</code> interface extends {@link
+ * Proximity} with a method that only computes a proximity exactly if
+ * it reaches a given threshold.  Implementations use cheap bounds on
+ * the proximity, such as the lengths of the objects being compared,
+ * to give up on a comparison as soon as the threshold can no longer
+ * be reached.
+ *
+ * <p>For every pair of objects <code>e1</code> and <code>e2</code> and
+ * threshold <code>t</code>, the result of {@link
+ * #proximityAtLeast(Object,Object,double)} must satisfy:
+ *
+ * <blockquote><pre>
+ * proximity(e1,e2) &gt;= t
+ *     implies  proximityAtLeast(e1,e2,t) == proximity(e1,e2)
+ *
+ * proximity(e1,e2) &lt; t
+ *     implies  proximityAtLeast(e1,e2,t) &lt; t</pre></blockquote>
+ *
+ * That is, the result is exact if it reaches the threshold, and is
+ * otherwise some value below the threshold.
+ *
+ * @author Kajanan Sangaralingam
+ * @param <E> the type of objects between which proximity is defined
+ */
+public interface BoundedProximity<E> extends Proximity<E> {
+
+    /**
+     * Returns the proximity between the specified pair of objects if
+     * it is at least the specified threshold, and otherwise a value
+     * less than the threshold.
+     *
+     * @param e1 First object.
+     * @param e2 Second object.
+     * @param threshold Minimum proximity of interest.
+     * @return Proximity between the two objects if it reaches the
+     * threshold, otherwise a value below the threshold.
+     */
+    public double proximityAtLeast(E e1, E e2, double threshold);
+
+}
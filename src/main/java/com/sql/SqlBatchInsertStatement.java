@@ -39,6 +39,11 @@ public class SqlBatchInsertStatement
     }
 
 
+    public SqlBatchInsertStatement(String tableName, int parameterCount, boolean ignore) {
+        this(tableName, null, parameterCount, ignore);
+    }
+
+
     private SqlBatchInsertStatement(String tableName, String[] columnNames, int parameterCount, boolean ignore) {
         if (parameterCount <= 0) {
             throw new IllegalArgumentException("parameterCount <= 0");
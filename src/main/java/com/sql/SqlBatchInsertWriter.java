@@ -0,0 +1,342 @@
+/* SqlBatchInsertWriter.java */
+
+package com.sql;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import com.util.Objects;
+
+
+/**
+ * Writes rows to a table asynchronously through multi-row INSERT
+ * statements on a dedicated connection.
+ *
+ * Rows are put on a bounded queue by the producers and taken off by a
+ * single writer thread, which groups them into batches built with
+ * SqlBatchInsertStatement.  A batch is flushed when it reaches the
+ * batch size, or when its oldest row has waited for the flush interval.
+ * When the queue is full, write() blocks until the writer catches up.
+ *
+ * If a flush fails, the writer stops and keeps the first failure.  The
+ * rows of the failed batch and the rows still queued behind it are not
+ * written; they are counted by getRowsDropped().  Every later call to
+ * write() throws the failure, as does closeAndCheck(), so no row is
+ * dropped without its producer being told.  If the writer thread stops
+ * without a failure, a write() waiting on the full queue throws instead
+ * of waiting forever.
+ *
+ * write() checks that the writer is open and queues the row under the
+ * read lock of a read-write lock, and close() marks the writer closed
+ * under its write lock before queueing the end of the stream, so every
+ * row accepted by write() is queued ahead of the end of the stream.
+ *
+ * @author  Kajanan Sangaralingam
+ * @created Oct 18, 2026
+ */
+public class SqlBatchInsertWriter implements Closeable
+{
+    private static final Object[] END_OF_STREAM = new Object[0];
+
+    private final Connection connection;
+    private final SqlBatchInsertStatement batch;
+    private final int columnCount;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final BlockingQueue<Object[]> queue;
+    private final Thread writerThread;
+
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed; // guarded by closeLock
+    private volatile SQLException failure;
+
+    private volatile long rowsWritten;
+    private volatile long rowsDropped;
+    private volatile long flushCount;
+    private volatile long totalFlushMillis;
+    private volatile long maxFlushMillis;
+
+
+    /**
+     * Opens a dedicated connection for the writer from the specified
+     * connection string.
+     */
+    public SqlBatchInsertWriter(String connectionString, String tableName, String[] columnNames,
+            int batchSize, long flushIntervalMillis, int queueCapacity) throws SQLException {
+        this(DriverManager.getConnection(connectionString), tableName, columnNames,
+                batchSize, flushIntervalMillis, queueCapacity);
+    }
+
+
+    /**
+     * Writes through the specified connection, which is owned by the
+     * writer from now on and is closed with it.
+     */
+    public SqlBatchInsertWriter(Connection connection, String tableName, String[] columnNames,
+            int batchSize, long flushIntervalMillis, int queueCapacity) {
+        this(connection, tableName, new SqlBatchInsertStatement(tableName, columnNames, false), columnNames.length,
+                batchSize, flushIntervalMillis, queueCapacity);
+    }
+
+
+    /**
+     * Writes rows holding a value for every column of the table, in
+     * table order, without naming the columns.  The connection is owned
+     * by the writer from now on and is closed with it.
+     */
+    public SqlBatchInsertWriter(Connection connection, String tableName, int columnCount,
+            int batchSize, long flushIntervalMillis, int queueCapacity) {
+        this(connection, tableName, new SqlBatchInsertStatement(tableName, columnCount, false), columnCount,
+                batchSize, flushIntervalMillis, queueCapacity);
+    }
+
+
+    private SqlBatchInsertWriter(Connection connection, String tableName, SqlBatchInsertStatement batch,
+            int columnCount, int batchSize, long flushIntervalMillis, int queueCapacity) {
+        if (connection == null) {
+            throw new NullPointerException("The argument 'connection' is null.");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize <= 0");
+        }
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis <= 0");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity <= 0");
+        }
+
+        this.connection = connection;
+        this.batch = batch;
+        this.columnCount = columnCount;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.queue = new ArrayBlockingQueue<Object[]>(queueCapacity);
+        this.writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "SqlBatchInsertWriter-" + tableName);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+
+    /**
+     * Queues a row for insertion, blocking while the queue is full.
+     * The values are in the order of the column names.
+     */
+    public void write(Object... row) throws SQLException, InterruptedException {
+        if (row.length != columnCount) {
+            throw new IllegalArgumentException("Expected " + columnCount + " values. Found " + row.length);
+        }
+        this.checkFailure();
+        Lock lock = closeLock.readLock();
+        lock.lockInterruptibly();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The writer is closed.");
+            }
+            while (!queue.offer(row, flushIntervalMillis, TimeUnit.MILLISECONDS)) {
+                this.checkFailure();
+                if (!writerThread.isAlive()) {
+                    throw new IllegalStateException("The writer thread has stopped.");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        // the writer may have failed while the row was being queued
+        this.checkFailure();
+    }
+
+
+    /**
+     * Flushes the queued rows, stops the writer thread and closes the
+     * connection.
+     */
+    public void close() {
+        // waits for the writes in progress to queue their rows
+        Lock lock = closeLock.writeLock();
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            while (writerThread.isAlive() && !queue.offer(END_OF_STREAM, flushIntervalMillis, TimeUnit.MILLISECONDS)) {
+                // the writer thread is still draining, or has died on a failure
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            writerThread.interrupt();
+            Thread.currentThread().interrupt();
+        } finally {
+            Objects.dispose(connection);
+        }
+    }
+
+
+    /**
+     * Closes the writer, throwing the failure of any flush.
+     */
+    public void closeAndCheck() throws SQLException {
+        this.close();
+        this.checkFailure();
+    }
+
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+
+    /**
+     * Returns the number of rows that were queued but not written
+     * because a flush failed.
+     */
+    public long getRowsDropped() {
+        return rowsDropped;
+    }
+
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+
+    public long getTotalFlushMillis() {
+        return totalFlushMillis;
+    }
+
+
+    public long getMaxFlushMillis() {
+        return maxFlushMillis;
+    }
+
+
+    public double getMeanFlushMillis() {
+        long flushes = flushCount;
+        return flushes == 0 ? 0.0 : (double) totalFlushMillis / flushes;
+    }
+
+
+    @Override
+    public String toString() {
+        return "rows=" + rowsWritten + " dropped=" + rowsDropped + " flushes=" + flushCount
+                + " meanFlushMillis=" + getMeanFlushMillis() + " maxFlushMillis=" + maxFlushMillis;
+    }
+
+
+    private void checkFailure() throws SQLException {
+        SQLException ex = failure;
+        if (ex != null) {
+            throw new SQLException("A previous batch insert failed; " + rowsDropped + " queued rows were not written.",
+                    ex);
+        }
+    }
+
+
+    private void writeLoop() {
+        List<Object[]> rows = new ArrayList<Object[]>(batchSize);
+        long deadline = 0;
+        Statement statement = null;
+
+        try {
+            statement = connection.createStatement();
+            while (true) {
+                Object[] row;
+                if (rows.isEmpty()) {
+                    row = queue.take();
+                    deadline = System.currentTimeMillis() + flushIntervalMillis;
+                } else {
+                    long wait = deadline - System.currentTimeMillis();
+                    row = wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+
+                if (row == END_OF_STREAM) {
+                    this.flush(statement, rows);
+                    return;
+                }
+                if (row != null) {
+                    rows.add(row);
+                }
+                if (row == null || rows.size() >= batchSize) {
+                    this.flush(statement, rows);
+                }
+            }
+        } catch (SQLException e) {
+            this.fail(e, rows);
+        } catch (InterruptedException e) {
+            this.fail(new SQLException("The writer thread was interrupted.", e), rows);
+        } catch (RuntimeException e) {
+            this.fail(new SQLException("The writer thread failed.", e), rows);
+        } finally {
+            if (statement != null) {
+                Objects.dispose(statement);
+            }
+        }
+    }
+
+
+    // drains the queue to unblock producers, counting the rows that will
+    // never be written, then publishes the first failure; rows queued after
+    // the drain are reported by the check at the end of write()
+    private void fail(SQLException e, List<Object[]> rows) {
+        long dropped = rows.size();
+        rows.clear();
+        Object[] row;
+        while ((row = queue.poll()) != null) {
+            if (row != END_OF_STREAM) {
+                dropped++;
+            }
+        }
+        rowsDropped += dropped;
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+
+    private void flush(Statement statement, List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        batch.clearBatch();
+        for (Object[] row : rows) {
+            batch.addBatch();
+            for (int i = 0; i < row.length; i++) {
+                batch.setObject(row[i], i);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        statement.executeUpdate(batch.toString());
+        long elapsed = System.currentTimeMillis() - start;
+
+        rowsWritten += rows.size();
+        flushCount++;
+        totalFlushMillis += elapsed;
+        if (elapsed > maxFlushMillis) {
+            maxFlushMillis = elapsed;
+        }
+        rows.clear();
+        batch.clearBatch();
+    }
+
+}
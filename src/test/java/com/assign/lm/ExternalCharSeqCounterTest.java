@@ -0,0 +1,92 @@
+package com.assign.lm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that ExternalCharSeqCounter spills runs according to the
+ * estimated size of its counts and merges them back exactly.
+ */
+public class ExternalCharSeqCounterTest
+    extends TestCase
+{
+    static final int MAX_LENGTH = 5;
+    static final int NUM_CHARS = 1 << 19;
+    static final int SLICE = 1000;
+
+    private File runDirectory;
+
+    @Override
+    protected void setUp() {
+        runDirectory = new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public void testRunsShrinkAsBudgetGrows() throws IOException {
+        char[] cs = randomChars(new Random(7), NUM_CHARS);
+        int runs1 = numRuns(cs, 1L << 20);
+        int runs2 = numRuns(cs, 1L << 22);
+        int runs3 = numRuns(cs, 1L << 24);
+        assertTrue("runs=" + runs1 + "," + runs2 + "," + runs3, runs1 > runs2 && runs2 > runs3);
+        assertTrue("runs=" + runs3, runs3 >= 1);
+    }
+
+    public void testRunsStayWithinBudget() throws IOException {
+        char[] cs = randomChars(new Random(11), NUM_CHARS);
+        long budget = 1L << 22;
+        ExternalCharSeqCounter counter = new ExternalCharSeqCounter(MAX_LENGTH, runDirectory, budget);
+        try {
+            for (int i = 0; i < cs.length; i += SLICE) {
+                counter.incrementSubstrings(cs, i, Math.min(cs.length, i + SLICE));
+                if (i % (50 * SLICE) == 0)
+                    assertTrue("estimate=" + counter.estimatedBytes(),
+                               counter.estimatedBytes() <= budget + budget / 4);
+            }
+        } finally {
+            counter.close();
+        }
+    }
+
+    public void testMergedCountsMatchInMemoryCounts() throws IOException {
+        char[] cs = randomChars(new Random(3), 1 << 18);
+        TrieCharSeqCounter expected = new TrieCharSeqCounter(MAX_LENGTH);
+        ExternalCharSeqCounter counter = new ExternalCharSeqCounter(MAX_LENGTH, runDirectory, 1L << 20);
+        try {
+            for (int i = 0; i < cs.length; i += SLICE) {
+                int end = Math.min(cs.length, i + SLICE);
+                expected.incrementSubstrings(cs, i, end);
+                counter.incrementSubstrings(cs, i, end);
+            }
+            assertTrue("runs=" + counter.numRuns(), counter.numRuns() > 1);
+            TrieCharSeqCounter merged = counter.merge(1.0, 1L);
+            assertEquals(expected.uniqueSequenceCount(), merged.uniqueSequenceCount());
+            for (int n = 0; n <= MAX_LENGTH; ++n)
+                assertEquals(expected.totalSequenceCount(n), merged.totalSequenceCount(n));
+            for (int i = 0; i + MAX_LENGTH <= 2000; ++i)
+                assertEquals(expected.count(cs, i, i + MAX_LENGTH), merged.count(cs, i, i + MAX_LENGTH));
+        } finally {
+            counter.close();
+        }
+    }
+
+    int numRuns(char[] cs, long budget) throws IOException {
+        ExternalCharSeqCounter counter = new ExternalCharSeqCounter(MAX_LENGTH, runDirectory, budget);
+        try {
+            for (int i = 0; i < cs.length; i += SLICE)
+                counter.incrementSubstrings(cs, i, Math.min(cs.length, i + SLICE));
+            counter.spill();
+            return counter.numRuns();
+        } finally {
+            counter.close();
+        }
+    }
+
+    static char[] randomChars(Random random, int length) {
+        char[] cs = new char[length];
+        for (int i = 0; i < length; ++i)
+            cs[i] = (char) ('a' + random.nextInt(26));
+        return cs;
+    }
+}
@@ -0,0 +1,95 @@
+package com.assign.lm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests TrieIntSeqCounter against a map of counts, across merges of
+ * the overlay into the compact layout.
+ */
+public class TrieIntSeqCounterTest
+    extends TestCase
+{
+    static final int MAX_LENGTH = 3;
+
+    public void testCountsAcrossMerges() {
+        Random random = new Random(21);
+        TrieIntSeqCounter counter = new TrieIntSeqCounter(MAX_LENGTH);
+        Map<String,Integer> counts = new HashMap<String,Integer>();
+        for (int step = 0; step < 400; ++step) {
+            int[] is = randomSequence(random, 30);
+            counter.incrementSubsequences(is, 0, is.length);
+            for (int i = 0; i < is.length; ++i)
+                for (int j = i + 1; j <= Math.min(is.length, i + MAX_LENGTH); ++j)
+                    increment(counts, Arrays.copyOfRange(is, i, j));
+            if (step % 50 == 49)
+                assertCounts(random, counter, counts);
+        }
+        assertTrue("compactions=" + counter.compactions(), counter.compactions() > 0);
+        counter.trimToSize();
+        assertCounts(random, counter, counts);
+    }
+
+    public void testTrimToSizeKeepsCounts() {
+        Random random = new Random(5);
+        TrieIntSeqCounter counter = new TrieIntSeqCounter(MAX_LENGTH);
+        for (int step = 0; step < 50; ++step) {
+            int[] is = randomSequence(random, 10);
+            counter.incrementSubsequences(is, 0, is.length);
+            counter.incrementSequence(is, 0, is.length, 2);
+        }
+        String before = counter.toString();
+        int size = counter.trieSize();
+        counter.trimToSize();
+        assertEquals(before, counter.toString());
+        assertEquals(size, counter.trieSize());
+    }
+
+    void assertCounts(Random random, TrieIntSeqCounter counter, Map<String,Integer> counts) {
+        assertEquals(counts.size() + 1, counter.trieSize());
+        for (int probe = 0; probe < 500; ++probe) {
+            int length = random.nextInt(MAX_LENGTH);
+            int[] is = randomSequence(random, length);
+            Integer count = counts.get(Arrays.toString(is));
+            if (length > 0)
+                assertEquals(count == null ? 0 : count.intValue(), counter.count(is, 0, length));
+            long extCount = 0L;
+            TreeSet<Integer> following = new TreeSet<Integer>();
+            for (int symbol = 0; symbol < VOCAB; ++symbol) {
+                int[] extended = Arrays.copyOf(is, length + 1);
+                extended[length] = symbol;
+                Integer extendedCount = counts.get(Arrays.toString(extended));
+                if (extendedCount == null) continue;
+                extCount += extendedCount;
+                following.add(symbol);
+            }
+            assertEquals(extCount, counter.extensionCount(is, 0, length));
+            assertEquals(following.size(), counter.numExtensions(is, 0, length));
+            int[] expected = new int[following.size()];
+            int i = 0;
+            for (Integer symbol : following)
+                expected[i++] = symbol;
+            assertTrue(Arrays.equals(expected, counter.integersFollowing(is, 0, length)));
+        }
+    }
+
+    static void increment(Map<String,Integer> counts, int[] is) {
+        String key = Arrays.toString(is);
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
+    static final int VOCAB = 40;
+
+    static int[] randomSequence(Random random, int length) {
+        int[] is = new int[length];
+        for (int i = 0; i < length; ++i)
+            is[i] = (int) Math.pow(VOCAB, random.nextDouble());
+        return is;
+    }
+}
@@ -0,0 +1,69 @@
+package com.assign.spell;
+
+import java.util.Random;
+
+import com.assign.tokenizer.IndoEuropeanTokenizerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the early exit of TfIdfDistance.proximityAtLeast() never
+ * rejects a pair whose proximity reaches the threshold.
+ */
+public class TfIdfDistanceTest
+    extends TestCase
+{
+    static final String[] DOCS = {
+        "  dp    m kd", "dp m", "kd kd m", "a b c", "b c d dp", "m m m kd", "z y x"
+    };
+
+    public void testSelfAtThresholdOne() {
+        TfIdfDistance distance = trained();
+        assertExact(distance, "  dp    m kd", "  dp    m kd");
+        distance.freeze();
+        assertExact(distance, "  dp    m kd", "  dp    m kd");
+    }
+
+    public void testRandomPairsAtTheirOwnProximity() {
+        TfIdfDistance distance = trained();
+        String[] texts = randomTexts(new Random(42), 300);
+        for (int i = 0; i + 1 < texts.length; ++i) {
+            assertExact(distance, texts[i], texts[i]);
+            assertExact(distance, texts[i], texts[i + 1]);
+        }
+        distance.freeze();
+        for (int i = 0; i + 1 < texts.length; ++i) {
+            assertExact(distance, texts[i], texts[i]);
+            assertExact(distance, texts[i], texts[i + 1]);
+        }
+    }
+
+    static void assertExact(TfIdfDistance distance, String text1, String text2) {
+        double proximity = distance.proximity(text1, text2);
+        assertEquals("[" + text1 + "] [" + text2 + "]",
+                     proximity, distance.proximityAtLeast(text1, text2, proximity), 0.0);
+    }
+
+    static TfIdfDistance trained() {
+        TfIdfDistance distance = new TfIdfDistance(IndoEuropeanTokenizerFactory.INSTANCE);
+        for (String doc : DOCS)
+            distance.handle(doc);
+        return distance;
+    }
+
+    static String[] randomTexts(Random random, int count) {
+        String[] words = { "dp", "m", "kd", "a", "b", "c", "d", "x", "y", "z", "qq" };
+        String[] texts = new String[count];
+        for (int i = 0; i < count; ++i) {
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + random.nextInt(12);
+            for (int k = 0; k < length; ++k) {
+                sb.append(words[random.nextInt(words.length)]);
+                for (int s = 1 + random.nextInt(4); s > 0; --s)
+                    sb.append(' ');
+            }
+            texts[i] = sb.toString();
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,73 @@
+package com.assign.symbol;
+
+import com.assign.util.AbstractExternalizable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests MapSymbolTable against a map of identifiers under random
+ * additions and removals.
+ */
+public class MapSymbolTableTest
+    extends TestCase
+{
+    public void testAddRemoveAgainstMap() throws Exception {
+        Random random = new Random(17);
+        MapSymbolTable table = new MapSymbolTable();
+        Map<String,Integer> ids = new HashMap<String,Integer>();
+        int nextId = 0;
+        for (int step = 0; step < 20000; ++step) {
+            String symbol = randomSymbol(random);
+            if (random.nextInt(3) == 0) {
+                Integer id = ids.remove(symbol);
+                assertEquals(id == null ? -1 : id.intValue(), table.removeSymbol(symbol));
+            } else {
+                Integer id = ids.get(symbol);
+                if (id == null) {
+                    id = nextId++;
+                    ids.put(symbol,id);
+                }
+                assertEquals(id.intValue(), table.getOrAddSymbol(symbol));
+            }
+            if (step % 1000 == 999)
+                assertSame(random, ids, table);
+        }
+        assertSame(random, ids, table);
+        MapSymbolTable copy
+            = (MapSymbolTable) AbstractExternalizable.serializeDeserialize(table);
+        assertSame(random, ids, copy);
+        assertSame(random, ids, new MapSymbolTable(ids));
+        table.clear();
+        assertSame(random, new HashMap<String,Integer>(), table);
+        assertEquals(nextId, table.getOrAddSymbol("x"));
+    }
+
+    void assertSame(Random random, Map<String,Integer> ids, MapSymbolTable table) {
+        assertEquals(ids.size(), table.numSymbols());
+        assertEquals(ids.keySet(), table.symbolSet());
+        for (Map.Entry<String,Integer> entry : ids.entrySet()) {
+            String symbol = entry.getKey();
+            int id = entry.getValue().intValue();
+            assertEquals(id, table.symbolToID(symbol));
+            assertEquals(symbol, table.idToSymbol(id));
+            char[] cs = ("<" + symbol + ">").toCharArray();
+            assertEquals(id, table.symbolToID(cs,1,cs.length-1));
+        }
+        for (int i = 0; i < 200; ++i) {
+            String symbol = randomSymbol(random);
+            Integer id = ids.get(symbol);
+            assertEquals(id == null ? -1 : id.intValue(), table.symbolToID(symbol));
+        }
+    }
+
+    static String randomSymbol(Random random) {
+        char[] cs = new char[1 + random.nextInt(3)];
+        for (int i = 0; i < cs.length; ++i)
+            cs[i] = (char) ('a' + random.nextInt(12));
+        return new String(cs);
+    }
+}
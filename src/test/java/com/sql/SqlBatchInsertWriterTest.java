@@ -0,0 +1,230 @@
+package com.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests SqlBatchInsertWriter against proxy Connection and Statement
+ * stubs that record the executed SQL.
+ */
+public class SqlBatchInsertWriterTest
+    extends TestCase
+{
+    private List<Integer> batchSizes;
+    private int failOnUpdate;
+    private int errorOnUpdate;
+    private boolean connectionClosed;
+
+    @Override
+    protected void setUp() {
+        batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        failOnUpdate = -1;
+        errorOnUpdate = -1;
+        connectionClosed = false;
+    }
+
+    public void testBatchesOfConfiguredSize() throws Exception {
+        SqlBatchInsertWriter writer = new SqlBatchInsertWriter(stubConnection(), "T", 1, 3, 60000L, 100);
+        for (int i = 0; i < 7; i++) {
+            writer.write(i);
+        }
+        writer.closeAndCheck();
+        assertEquals(7, writer.getRowsWritten());
+        assertEquals(0, writer.getRowsDropped());
+        assertEquals(3, writer.getFlushCount());
+        assertEquals(3, (int) batchSizes.get(0));
+        assertEquals(3, (int) batchSizes.get(1));
+        assertEquals(1, (int) batchSizes.get(2));
+        assertTrue(connectionClosed);
+    }
+
+    public void testPartialBatchFlushedAfterInterval() throws Exception {
+        SqlBatchInsertWriter writer = new SqlBatchInsertWriter(stubConnection(), "T", 1, 100, 50L, 100);
+        writer.write(1);
+        writer.write(2);
+        for (int i = 0; i < 100 && writer.getRowsWritten() < 2; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, writer.getRowsWritten());
+        assertEquals(1, writer.getFlushCount());
+        writer.closeAndCheck();
+        assertEquals(1, writer.getFlushCount());
+    }
+
+    public void testFailureIsKeptAndReported() throws Exception {
+        failOnUpdate = 0;
+        SqlBatchInsertWriter writer = new SqlBatchInsertWriter(stubConnection(), "T", 1, 2, 60000L, 4);
+        int accepted = 0;
+        try {
+            for (int i = 0; i < 1000; i++) {
+                writer.write(i);
+                accepted++;
+            }
+            fail("write() should throw after a failed flush");
+        } catch (SQLException e) {
+            assertEquals("update 0", e.getCause().getMessage());
+        }
+        try {
+            writer.write(-1);
+            fail("write() should keep throwing after a failed flush");
+        } catch (SQLException e) {
+            assertEquals("update 0", e.getCause().getMessage());
+        }
+        try {
+            writer.closeAndCheck();
+            fail("closeAndCheck() should throw after a failed flush");
+        } catch (SQLException e) {
+            assertEquals("update 0", e.getCause().getMessage());
+        }
+        assertEquals(0, writer.getRowsWritten());
+        // every row accepted by write() is counted as dropped; the row whose
+        // write() threw may also have been queued and counted
+        long dropped = writer.getRowsDropped();
+        assertTrue("accepted=" + accepted + " dropped=" + dropped, dropped == accepted || dropped == accepted + 1);
+        assertTrue(connectionClosed);
+    }
+
+    public void testWriteAfterClose() throws Exception {
+        SqlBatchInsertWriter writer = new SqlBatchInsertWriter(stubConnection(), "T", 1, 2, 60000L, 4);
+        writer.closeAndCheck();
+        try {
+            writer.write(1);
+            fail("write() should throw after close()");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testCloseRacingWrites() throws Exception {
+        for (int trial = 0; trial < 20; trial++) {
+            final SqlBatchInsertWriter writer = new SqlBatchInsertWriter(stubConnection(), "T", 1, 5, 60000L, 8);
+            final AtomicLong accepted = new AtomicLong();
+            Thread[] producers = new Thread[4];
+            for (int p = 0; p < producers.length; p++) {
+                producers[p] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            while (true) {
+                                writer.write(1);
+                                accepted.incrementAndGet();
+                            }
+                        } catch (IllegalStateException e) {
+                            // closed
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+                producers[p].start();
+            }
+            Thread.sleep(2);
+            writer.closeAndCheck();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            // every row whose write() returned was written before the end of the stream
+            assertEquals(accepted.get(), writer.getRowsWritten());
+            assertEquals(0, writer.getRowsDropped());
+        }
+    }
+
+    public void testWriteFailsOnceWriterThreadStops() throws Exception {
+        errorOnUpdate = 0;
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread t, Throwable e) {
+                // the writer thread dies on the stub error
+            }
+        });
+        try {
+            SqlBatchInsertWriter writer = new SqlBatchInsertWriter(stubConnection(), "T", 1, 1, 10L, 2);
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    writer.write(i);
+                }
+                fail("write() should throw once the writer thread has stopped");
+            } catch (IllegalStateException e) {
+                assertEquals("The writer thread has stopped.", e.getMessage());
+            }
+            writer.closeAndCheck();
+            assertTrue(connectionClosed);
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+
+    public void testWrongRowLength() throws Exception {
+        SqlBatchInsertWriter writer = new SqlBatchInsertWriter(stubConnection(), "T", 2, 2, 60000L, 4);
+        try {
+            writer.write(1);
+            fail("write() should reject a row of the wrong length");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            writer.closeAndCheck();
+        }
+    }
+
+    private Connection stubConnection() {
+        final Statement statement = (Statement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Statement.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                        if (method.getName().equals("executeUpdate")) {
+                            int update = batchSizes.size();
+                            if (update == errorOnUpdate) {
+                                batchSizes.add(0);
+                                throw new StubError("update " + update);
+                            }
+                            if (update == failOnUpdate) {
+                                batchSizes.add(0);
+                                throw new SQLException("update " + update);
+                            }
+                            batchSizes.add(countRows((String) args[0]));
+                            return batchSizes.get(update);
+                        }
+                        return null;
+                    }
+                });
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("createStatement")) {
+                            return statement;
+                        }
+                        if (method.getName().equals("close")) {
+                            connectionClosed = true;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    // kills the writer thread without a recorded failure
+    static class StubError extends Error {
+        static final long serialVersionUID = 1L;
+        StubError(String msg) {
+            super(msg);
+        }
+    }
+
+    // one parenthesized value list per row; the stub tables have no column list
+    static int countRows(String sql) {
+        int rows = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '(') {
+                rows++;
+            }
+        }
+        return rows;
+    }
+}